@@ -20,8 +20,12 @@
 import java.io.File;
 import java.nio.charset.spi.CharsetProvider;
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
 import com.cordys.coe.ac.fileconnector.charset.ascii.AsciiCharset;
@@ -72,10 +76,22 @@ public class ApplicationConfiguration
      * The tag name which holds the simple XPath flag name.
      */
     private static final String USE_SIMPLE_XPATH = "/configuration/Configuration/use-simple-xpath";
+    /**
+     * Maximum total size in kilobytes of the XML files kept parsed for ReadXmlFileRecords.
+     */
+    private static final String XML_DOCUMENT_CACHE_SIZE = "/configuration/Configuration/xml-document-cache-size";
+    /**
+     * Maximum total size in kilobytes of the Excel sheet rows kept in memory for ReadFileRecords.
+     */
+    private static final String EXCEL_ROW_CACHE_SIZE = "/configuration/Configuration/excel-row-cache-size";
     /**
      * The name of the tag holding all the drive mappings.
      */
     private static final String PROP_DRIVE_MAPPINGS = "/configuration/Configuration/drivemappings/drivemapping";
+    /**
+     * Maximum number of isFileAllowed decisions kept in the cache.
+     */
+    private static final int ALLOWED_PATH_CACHE_SIZE = 4096;
     /**
      * Identifies the Logger.
      */
@@ -85,9 +101,23 @@ public class ApplicationConfiguration
      */
     private CharsetProvider cpCustomProvider;
     /**
-     * Contains all directory and file names that are allowed to be accessed through this connector.
+     * Contains the directory and file names with wild cards that are allowed to be accessed
+     * through this connector.
      */
     private Pattern[] paAllowedDirectoryNames = null;
+    /**
+     * Contains the directory and file names without wild cards that are allowed to be accessed
+     * through this connector. These are checked without regular expressions.
+     */
+    private AllowedPathTrie aptAllowedPaths = null;
+    /**
+     * If <code>true</code> only the files specified in the configuration can be accessed.
+     */
+    private boolean bRestrictFileAccess;
+    /**
+     * Contains the recent isFileAllowed decisions. Key is the absolute file path.
+     */
+    private Map<String, Boolean> mAllowedPathCache = new ConcurrentHashMap<String, Boolean>();
     /**
      * If <code>true</code> simple XPath expressions are used.
      */
@@ -144,6 +174,7 @@ public class ApplicationConfiguration
             if ((saAllowedLines != null) && (saAllowedLines.length > 0))
             {
                 List<Pattern> lList = new LinkedList<Pattern>();
+                String sSubtreeSuffix = File.separator + "**";
 
                 for (int i = 0; i < saAllowedLines.length; i++)
                 {
@@ -160,6 +191,33 @@ public class ApplicationConfiguration
                         sLine = sLine.replaceAll("/", "\\\\");
                     }
 
+                    bRestrictFileAccess = true;
+
+                    // Paths without wild cards are put in the trie. Pattern /path/** matches all
+                    // paths starting with /path/.
+                    if (sLine.endsWith(sSubtreeSuffix) &&
+                            isLiteralPath(sLine.substring(0, sLine.length() - 2)))
+                    {
+                        if (aptAllowedPaths == null)
+                        {
+                            aptAllowedPaths = new AllowedPathTrie();
+                        }
+
+                        aptAllowedPaths.add(sLine.substring(0, sLine.length() - 2), true);
+                        continue;
+                    }
+
+                    if (isLiteralPath(sLine))
+                    {
+                        if (aptAllowedPaths == null)
+                        {
+                            aptAllowedPaths = new AllowedPathTrie();
+                        }
+
+                        aptAllowedPaths.add(sLine, false);
+                        continue;
+                    }
+
                     Pattern pPat;
 
                     try
@@ -348,6 +406,28 @@ public class ApplicationConfiguration
         return 4096;
     }
 
+    /**
+     * Returns the maximum total size of the Excel sheet rows kept in memory by ReadFileRecords.
+     * Zero disables the cache.
+     *
+     * @return  Cache size in bytes.
+     */
+    public long getExcelRowCacheSize()
+    {
+        return xpBase.getLongValue(EXCEL_ROW_CACHE_SIZE, 32768L) * 1024L;
+    }
+
+    /**
+     * Returns the maximum total estimated memory size of the XML documents kept parsed by
+     * ReadXmlFileRecords. Zero disables the cache.
+     *
+     * @return  Cache size in bytes.
+     */
+    public long getXmlDocumentCacheSize()
+    {
+        return xpBase.getLongValue(XML_DOCUMENT_CACHE_SIZE, 32768L) * 1024L;
+    }
+
     /**
      * This method returns the character set to be used for writing file records.
      *
@@ -399,37 +479,80 @@ public class ApplicationConfiguration
      */
     public boolean isFileAllowed(File fFile)
     {
+        if (!bRestrictFileAccess)
+        {
+            return true;
+        }
+
         String sFilePath = fFile.getAbsolutePath();
+        Boolean bCached = mAllowedPathCache.get(sFilePath);
 
-        if ((paAllowedDirectoryNames == null) || (paAllowedDirectoryNames.length == 0))
+        if (bCached != null)
         {
-            return true;
+            return bCached.booleanValue();
         }
 
-        for (int i = 0; i < paAllowedDirectoryNames.length; i++)
+        int iTrieMatch = AllowedPathTrie.NO_MATCH;
+
+        if (aptAllowedPaths != null)
         {
-            Pattern pFilePattern = paAllowedDirectoryNames[i];
+            iTrieMatch = aptAllowedPaths.match(sFilePath);
 
-            if (pFilePattern.matcher(sFilePath).matches())
+            if (iTrieMatch == AllowedPathTrie.MATCH)
             {
-                return true;
+                return cacheAllowedPath(sFilePath, true);
             }
         }
 
-        if (fFile.isDirectory())
-        {
-            // We need to add directory separator to the path in order
-            // to catch the directory itself for patterns like /path/**
-            sFilePath += File.separator;
+        // If a pattern did not need the whole path, adding the separator cannot change the
+        // result either, so the file type needs to be checked only if hitEnd() is set.
+        boolean bCheckDirectory = (iTrieMatch == AllowedPathTrie.MATCH_DIRECTORY);
 
+        if (paAllowedDirectoryNames != null)
+        {
             for (int i = 0; i < paAllowedDirectoryNames.length; i++)
             {
-                Pattern pFilePattern = paAllowedDirectoryNames[i];
+                Matcher mMatcher = paAllowedDirectoryNames[i].matcher(sFilePath);
 
-                if (pFilePattern.matcher(sFilePath).matches())
+                if (mMatcher.matches())
                 {
-                    return true;
+                    return cacheAllowedPath(sFilePath, true);
                 }
+
+                if (mMatcher.hitEnd())
+                {
+                    bCheckDirectory = true;
+                }
+            }
+        }
+
+        if (!bCheckDirectory)
+        {
+            return cacheAllowedPath(sFilePath, false);
+        }
+
+        // The result depends on the file type, so it is not cached.
+        if (!fFile.isDirectory())
+        {
+            return false;
+        }
+
+        if (iTrieMatch == AllowedPathTrie.MATCH_DIRECTORY)
+        {
+            return true;
+        }
+
+        // We need to add directory separator to the path in order
+        // to catch the directory itself for patterns like /path/**
+        sFilePath += File.separator;
+
+        for (int i = 0; i < paAllowedDirectoryNames.length; i++)
+        {
+            Pattern pFilePattern = paAllowedDirectoryNames[i];
+
+            if (pFilePattern.matcher(sFilePath).matches())
+            {
+                return true;
             }
         }
 
@@ -456,6 +579,51 @@ public class ApplicationConfiguration
         cpCustomProvider = prov;
     }
 
+    /**
+     * Checks if the allowed path contains no wild cards or other characters which have a special
+     * meaning in the converted regular expression.
+     *
+     * @param   sPath  Allowed path from the configuration.
+     *
+     * @return  <code>true</code> if the path can be compared as a string.
+     */
+    private static boolean isLiteralPath(String sPath)
+    {
+        for (int i = 0; i < sPath.length(); i++)
+        {
+            switch (sPath.charAt(i))
+            {
+                case '*':
+                case '?':
+                case '+':
+                case '|':
+                    return false;
+            }
+        }
+
+        return true;
+    }
+
+    /**
+     * Adds the decision to the cache. The cache is cleared when it is full.
+     *
+     * @param   sFilePath  Absolute file path.
+     * @param   bAllowed   Decision.
+     *
+     * @return  The decision.
+     */
+    private boolean cacheAllowedPath(String sFilePath, boolean bAllowed)
+    {
+        if (mAllowedPathCache.size() >= ALLOWED_PATH_CACHE_SIZE)
+        {
+            mAllowedPathCache.clear();
+        }
+
+        mAllowedPathCache.put(sFilePath, Boolean.valueOf(bAllowed));
+
+        return bAllowed;
+    }
+
     /**
      * Converts wild card string of forms \a\\b, \a\\b \a\.txt to a regular expression.
      *
@@ -548,4 +716,143 @@ public class ApplicationConfiguration
         }
         return driveLetter;
     }
+
+    /**
+     * Prefix trie for the allowed paths without wild cards. The paths are compared
+     * case-insensitively in the same way as the regular expressions, i.e. only US-ASCII
+     * characters are folded. The trie is not modified after the configuration has been loaded,
+     * so it can be used by several threads.
+     *
+     * @author  mpoyhone
+     */
+    private static class AllowedPathTrie
+    {
+        /**
+         * Path is not allowed.
+         */
+        static final int NO_MATCH = 0;
+        /**
+         * Path is allowed.
+         */
+        static final int MATCH = 1;
+        /**
+         * Path is allowed if it is a directory.
+         */
+        static final int MATCH_DIRECTORY = 2;
+        /**
+         * Root node.
+         */
+        private TrieNode tnRoot = new TrieNode();
+
+        /**
+         * Adds an allowed path.
+         *
+         * @param  sPath     Path from the configuration.
+         * @param  bSubtree  If <code>true</code> all paths starting with the given path are
+         *                   allowed. The path ends with a separator then.
+         */
+        void add(String sPath, boolean bSubtree)
+        {
+            TrieNode tnNode = tnRoot;
+
+            for (int i = 0; i < sPath.length(); i++)
+            {
+                Character cKey = Character.valueOf(fold(sPath.charAt(i)));
+                TrieNode tnChild = tnNode.mChildren.get(cKey);
+
+                if (tnChild == null)
+                {
+                    tnChild = new TrieNode();
+                    tnNode.mChildren.put(cKey, tnChild);
+                }
+
+                tnNode = tnChild;
+            }
+
+            if (bSubtree)
+            {
+                tnNode.bSubtree = true;
+            }
+            else
+            {
+                tnNode.bExact = true;
+            }
+        }
+
+        /**
+         * Checks the absolute file path.
+         *
+         * @param   sPath  Absolute file path.
+         *
+         * @return  NO_MATCH, MATCH or MATCH_DIRECTORY if the path is allowed only when a
+         *          separator is added to it.
+         */
+        int match(String sPath)
+        {
+            TrieNode tnNode = tnRoot;
+
+            for (int i = 0; i < sPath.length(); i++)
+            {
+                tnNode = tnNode.mChildren.get(Character.valueOf(fold(sPath.charAt(i))));
+
+                if (tnNode == null)
+                {
+                    return NO_MATCH;
+                }
+
+                if (tnNode.bSubtree)
+                {
+                    return MATCH;
+                }
+            }
+
+            if (tnNode.bExact)
+            {
+                return MATCH;
+            }
+
+            tnNode = tnNode.mChildren.get(Character.valueOf(File.separatorChar));
+
+            if ((tnNode != null) && (tnNode.bExact || tnNode.bSubtree))
+            {
+                return MATCH_DIRECTORY;
+            }
+
+            return NO_MATCH;
+        }
+
+        /**
+         * Converts an US-ASCII upper case character to lower case.
+         *
+         * @param   c  Character.
+         *
+         * @return  Converted character.
+         */
+        private static char fold(char c)
+        {
+            return ((c >= 'A') && (c <= 'Z')) ? (char) (c + ('a' - 'A')) : c;
+        }
+
+        /**
+         * Trie node.
+         *
+         * @author  mpoyhone
+         */
+        private static class TrieNode
+        {
+            /**
+             * If <code>true</code> the path ending at this node is allowed.
+             */
+            private boolean bExact;
+            /**
+             * If <code>true</code> all paths starting with the path ending at this node are
+             * allowed.
+             */
+            private boolean bSubtree;
+            /**
+             * Child nodes by the next character.
+             */
+            private Map<Character, TrieNode> mChildren = new HashMap<Character, TrieNode>();
+        }
+    }
 }
@@ -392,4 +392,22 @@ public class LogMessages
   	
   	/** Directory access not allowed  */
   	public static final Message DIR_ACCESS_NOT_ALLOWED = MESSAGE_SET.getMessage("DirAccessNotAllowed");
+
+  	/** Unable to create the checkpoint index file: {0} */
+  	public static final Message UNABLE_TO_CREATE_CHECKPOINT_INDEX = MESSAGE_SET.getMessage("UnableToCreateCheckpointIndex");
+
+  	/** The batch file operation was interrupted. */
+  	public static final Message BATCH_OPERATION_INTERRUPTED = MESSAGE_SET.getMessage("BatchOperationInterrupted");
+
+  	/** Offset {0} is larger than the size {1} of the data already written to file {2}. */
+  	public static final Message UPLOAD_OFFSET_NOT_VALID = MESSAGE_SET.getMessage("UploadOffsetNotValid");
+
+  	/** Select paths with position predicates cannot be used with cursor data or checkpoints. Use startrecord instead. */
+  	public static final Message POSITION_PREDICATES_NOT_RESUMABLE = MESSAGE_SET.getMessage("PositionPredicatesNotResumable");
+
+  	/** Invalid sheet name {0}. The name must be 1-31 characters long and cannot contain any of the characters []:*?/\ or start or end with an apostrophe. */
+  	public static final Message INVALID_SHEET_NAME = MESSAGE_SET.getMessage("InvalidSheetName");
+
+  	/** Invalid format {0} for file type {1}. The format must be text or excel. */
+  	public static final Message INVALID_FILE_TYPE_FORMAT = MESSAGE_SET.getMessage("InvalidFileTypeFormat");
 }
@@ -30,14 +30,42 @@ import java.nio.charset.CoderResult;
 /**
  * Character set decoder that keeps track of the byte position.
  *
+ * <p>Positions are stored as runs of characters which have the same byte width, so for mostly
+ * ASCII data only a few entries are needed. A byte position is calculated from the run start and
+ * width and the run is found with a binary search.</p>
+ *
+ * <p>For UTF-8, UTF-16 and UTF-32 with a known byte order as well as single-byte character sets,
+ * the input is decoded in bulk and the byte width of each character is calculated from the
+ * character value. Other character sets are decoded one character at a time.</p>
+ *
  * @author  mpoyhone
  */
 public class ByteCountCharsetDecoder extends CharsetDecoder
 {
     /**
-     * Default char position to byte position map size.
+     * Default char position to byte position map size in runs.
+     */
+    private static final int DEFAULT_MAP_SIZE = 4096;
+    /**
+     * Width mode for character sets which are decoded one character at a time.
      */
-    private static final int DEFAULT_MAP_SIZE = 2048;
+    private static final int WIDTH_VARIABLE = 0;
+    /**
+     * Width mode for single-byte character sets.
+     */
+    private static final int WIDTH_SINGLE_BYTE = 1;
+    /**
+     * Width mode for UTF-8.
+     */
+    private static final int WIDTH_UTF8 = 2;
+    /**
+     * Width mode for UTF-16 with a known byte order.
+     */
+    private static final int WIDTH_UTF16 = 3;
+    /**
+     * Width mode for UTF-32 with a known byte order.
+     */
+    private static final int WIDTH_UTF32 = 4;
     /**
      * Contains the byte order mark (BOM) header values.
      */
@@ -54,10 +82,6 @@ public class ByteCountCharsetDecoder extends CharsetDecoder
      */
     private static final String[] BOM_CHARSETS =
     { "UTF-8", "UTF-32BE", "UTF-32LE", "UTF-16BE", "UTF-16LE", };
-    /**
-     * If <code>true</code>, only the end of tag (>) characters are mapped.
-     */
-    private static final boolean mapOnlyEndOfTag = false;
     /**
      * Debug output flag (to standard out).
      */
@@ -87,7 +111,7 @@ public class ByteCountCharsetDecoder extends CharsetDecoder
      */
     private boolean mapFull;
     /**
-     * Current index in the position map.
+     * Index of the next run in the position map.
      */
     private int mapIndex;
     /**
@@ -96,13 +120,26 @@ public class ByteCountCharsetDecoder extends CharsetDecoder
      */
     private int minCharWidth = 1;
     /**
-     * Contains mapped byte and character positions.
+     * Contains the byte width of each character in the run. Zero means that the next character
+     * starts at the same byte position, which is used for the high surrogate of a code point.
+     */
+    private int[] runByteWidths;
+    /**
+     * Contains the byte position of the first character of each run.
      */
-    private long[] positionMap;
+    private long[] runBytePositions;
+    /**
+     * Contains the character position of the first character of each run.
+     */
+    private long[] runCharPositions;
     /**
      * Temporary character buffer used during decoding.
      */
     private CharBuffer tempBuffer = CharBuffer.allocate(5);
+    /**
+     * Contains one of the WIDTH_ constants for the current character set.
+     */
+    private int widthMode;
 
     /**
      * Constructor.
@@ -127,35 +164,43 @@ public class ByteCountCharsetDecoder extends CharsetDecoder
      */
     public long findMappedBytePosition(long charPos)
     {
-        if (mapFull)
+        if (charPos >= charPosition)
         {
-            int mapSize = positionMap.length;
-            int start = mapIndex;
+            // Not decoded yet.
+            return -1;
+        }
 
-            for (int i = 0; i < mapSize; i += 2)
-            {
-                int index = (start + i) % mapSize;
+        int mapSize = runCharPositions.length;
+        int count = mapFull ? mapSize : mapIndex;
+        int start = mapFull ? mapIndex : 0;
+        int low = 0;
+        int high = count - 1;
+        int found = -1;
 
-                if (positionMap[index + 1] == charPos)
-                {
-                    return positionMap[index];
-                }
-            }
-        }
-        else
+        // Find the last run which starts at or before the position.
+        while (low <= high)
         {
-            int end = mapIndex;
+            int mid = (low + high) >>> 1;
+            int index = (start + mid) % mapSize;
 
-            for (int i = 0; i < end; i += 2)
+            if (runCharPositions[index] <= charPos)
             {
-                if (positionMap[i + 1] == charPos)
-                {
-                    return positionMap[i];
-                }
+                found = index;
+                low = mid + 1;
+            }
+            else
+            {
+                high = mid - 1;
             }
         }
 
-        return -1;
+        if (found < 0)
+        {
+            return -1;
+        }
+
+        return runBytePositions[found] +
+               ((charPos - runCharPositions[found]) * runByteWidths[found]);
     }
 
     /**
@@ -165,7 +210,9 @@ public class ByteCountCharsetDecoder extends CharsetDecoder
      */
     public void setBufferSize(int newSize)
     {
-        positionMap = new long[2 * newSize];
+        runCharPositions = new long[newSize];
+        runBytePositions = new long[newSize];
+        runByteWidths = new int[newSize];
         setPosition(0, 0);
     }
 
@@ -233,6 +280,11 @@ public class ByteCountCharsetDecoder extends CharsetDecoder
             System.out.println("START: " + in.position() + ", LIMIT: " + in.limit());
         }
 
+        if (widthMode != WIDTH_VARIABLE)
+        {
+            return decodeBulk(in, out);
+        }
+
         while ((in.remaining() > 0) && (out.remaining() > 0))
         {
             // Try to decode the byte buffer contents into one ore more characters.
@@ -252,6 +304,85 @@ public class ByteCountCharsetDecoder extends CharsetDecoder
         return (in.remaining() <= 0) ? CoderResult.UNDERFLOW : CoderResult.OVERFLOW;
     }
 
+    /**
+     * Returns the byte width of the character for the current width mode. The high surrogate of a
+     * code point has width zero and the low surrogate has the width of the whole code point, so
+     * both characters are mapped to the start of the code point.
+     *
+     * @param   ch  Decoded character.
+     *
+     * @return  Byte width.
+     */
+    private int getByteWidth(char ch)
+    {
+        if (Character.isHighSurrogate(ch))
+        {
+            return 0;
+        }
+
+        if (Character.isLowSurrogate(ch))
+        {
+            return 4;
+        }
+
+        switch (widthMode)
+        {
+            case WIDTH_UTF8:
+                if (ch < 0x80)
+                {
+                    return 1;
+                }
+
+                return (ch < 0x800) ? 2 : 3;
+
+            case WIDTH_UTF16:
+                return 2;
+
+            case WIDTH_UTF32:
+                return 4;
+
+            default:
+                return 1;
+        }
+    }
+
+    /**
+     * Decodes the input buffer with the actual decoder and maps the positions of the decoded
+     * characters using the byte width calculated from the character value.
+     *
+     * @param   in   Input byte buffer.
+     * @param   out  Output character buffer.
+     *
+     * @return  Decoder result.
+     */
+    private CoderResult decodeBulk(ByteBuffer in, CharBuffer out)
+    {
+        int inStartPos = in.position();
+        int outStartPos = out.position();
+        CoderResult res = decoder.decode(in, out, false);
+        int outEndPos = out.position();
+        long startBytePosition = bytePosition;
+
+        for (int i = outStartPos; i < outEndPos; i++)
+        {
+            int width = getByteWidth(out.get(i));
+
+            mapPosition(bytePosition, charPosition, width);
+
+            bytePosition += width;
+            charPosition++;
+        }
+
+        if ((bytePosition - startBytePosition) != (in.position() - inStartPos))
+        {
+            throw new IllegalStateException("Byte position mismatch after decoding: " +
+                                            (bytePosition - startBytePosition) + " != " +
+                                            (in.position() - inStartPos));
+        }
+
+        return res;
+    }
+
     /**
      * Decodes one character from the input buffer to the output buffer. For Unicode code points, it
      * is possible that this method will output two characters. For each decoded character, the
@@ -291,23 +422,21 @@ public class ByteCountCharsetDecoder extends CharsetDecoder
                     // We successfully converted one more more characters, so now
                     // map the position of our byte input offset and the current character
                     // position. For a multiple character code point the byte offset will
-                    // be same for each character.
+                    // be same for each character, so all but the last one have zero width.
+                    int byteCount = in.position() - inStartPos;
+
                     for (int j = 0; j < count; j++)
                     {
-                        char ch = tempBuffer.get(tempBuffer.position() - 1);
-
-                        if (!mapOnlyEndOfTag || (ch == '>'))
+                        if (debug)
                         {
-                            if (debug)
-                            {
-                                System.out.print(ch + " : " + in.position() + " : ");
-                            }
-
-                            mapPosition(bytePosition, charPosition + j);
+                            System.out.print(tempBuffer.get(j) + " : " + in.position() + " : ");
                         }
+
+                        mapPosition(bytePosition, charPosition + j,
+                                    (j == (count - 1)) ? byteCount : 0);
                     }
 
-                    bytePosition += in.position() - inStartPos;
+                    bytePosition += byteCount;
                     charPosition += count;
 
                     // Copy the temporary buffer contents to the output buffer.
@@ -358,26 +487,43 @@ public class ByteCountCharsetDecoder extends CharsetDecoder
     }
 
     /**
-     * Adds a new position mapping to the buffer.
+     * Adds a new position mapping to the buffer. The character must follow the previously mapped
+     * character. A new run is started only if the byte width changes.
      *
      * @param  bytePos  Byte position to be mapped.
      * @param  charPos  Character position to be mapped.
+     * @param  width    Byte width of the character.
      */
-    private void mapPosition(long bytePos, long charPos)
+    private void mapPosition(long bytePos, long charPos, int width)
     {
-        if (mapIndex >= positionMap.length)
+        int mapSize = runCharPositions.length;
+
+        if (mapFull || (mapIndex > 0))
+        {
+            int last = ((mapIndex > 0) ? mapIndex : mapSize) - 1;
+
+            if (runByteWidths[last] == width)
+            {
+                // The character belongs to the current run.
+                return;
+            }
+        }
+
+        if (mapIndex >= mapSize)
         {
             mapIndex = 0;
             mapFull = true;
         }
 
-        positionMap[mapIndex++] = bytePos;
-        positionMap[mapIndex++] = charPos;
+        runCharPositions[mapIndex] = charPos;
+        runBytePositions[mapIndex] = bytePos;
+        runByteWidths[mapIndex] = width;
+        mapIndex++;
 
         if (debug)
         {
-            System.out.printf("Index=%04d, byte pos=%04d, char pos=%04d\n", (mapIndex - 2) / 2,
-                              positionMap[mapIndex - 2], positionMap[mapIndex - 1]);
+            System.out.printf("Index=%04d, byte pos=%04d, char pos=%04d, width=%d\n",
+                              mapIndex - 1, bytePos, charPos, width);
         }
     }
 
@@ -474,5 +620,35 @@ public class ByteCountCharsetDecoder extends CharsetDecoder
             // This is a two byte character set.
             minCharWidth = 2;
         }
+        else
+        {
+            minCharWidth = 1;
+        }
+
+        // The generic UTF-16 and UTF-32 decoders handle the BOM internally, so they are decoded
+        // one character at a time.
+        String name = cs.name();
+
+        if ("UTF-8".equals(name))
+        {
+            widthMode = WIDTH_UTF8;
+        }
+        else if ("UTF-16BE".equals(name) || "UTF-16LE".equals(name))
+        {
+            widthMode = WIDTH_UTF16;
+        }
+        else if ("UTF-32BE".equals(name) || "UTF-32LE".equals(name))
+        {
+            widthMode = WIDTH_UTF32;
+        }
+        else if (cs.canEncode() && (cs.newEncoder().maxBytesPerChar() == 1.0f) &&
+                     (decoder.maxCharsPerByte() == 1.0f))
+        {
+            widthMode = WIDTH_SINGLE_BYTE;
+        }
+        else
+        {
+            widthMode = WIDTH_VARIABLE;
+        }
     }
 }
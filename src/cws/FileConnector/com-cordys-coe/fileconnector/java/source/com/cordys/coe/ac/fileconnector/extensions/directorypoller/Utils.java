@@ -219,8 +219,8 @@ public class Utils
         	}
             try {
 				// Files might be on different file systems, so copy the source file contents to the
-				// destination file
-				GeneralUtils.copyFile(srcFile, destFile);
+				// destination file. The modification time is kept as with the rename.
+				GeneralUtils.copyFile(srcFile, destFile, true);
 
 				// Delete the source file
 				if (!srcFile.delete())
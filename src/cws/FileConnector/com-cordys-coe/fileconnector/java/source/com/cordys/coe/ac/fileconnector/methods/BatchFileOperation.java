@@ -0,0 +1,478 @@
+/**
+ * Copyright 2005 Cordys R&D B.V. 
+ * 
+ * This file is part of the Cordys File Connector. 
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+ package com.cordys.coe.ac.fileconnector.methods;
+
+import com.cordys.coe.ac.fileconnector.ApplicationConfiguration;
+import com.cordys.coe.ac.fileconnector.ISoapRequestContext;
+import com.cordys.coe.ac.fileconnector.LogMessages;
+import com.cordys.coe.ac.fileconnector.exception.FileException;
+import com.cordys.coe.ac.fileconnector.utils.XmlUtils;
+
+import com.eibus.xml.nom.Find;
+import com.eibus.xml.nom.Node;
+
+import java.io.File;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import java.util.regex.Pattern;
+
+/**
+ * Executes a file operation for several files in one SOAP request. This is used by CopyFile,
+ * MoveFile and DeleteFile when the request contains a list of files or a source directory instead
+ * of a single file. The files are either listed in the request:
+ *
+ * <pre>
+   &lt;files&gt;
+     &lt;file&gt;
+       &lt;oldFileName&gt;/data/in/a.txt&lt;/oldFileName&gt;
+       &lt;newFileName&gt;/data/archive/a.txt&lt;/newFileName&gt;
+     &lt;/file&gt;
+   &lt;/files&gt;
+ * </pre>
+ *
+ * <p>or selected from a directory with an optional regular expression filter (as in
+ * GetListOfFiles), in which case the destination file has the same name in the destination
+ * directory:</p>
+ *
+ * <pre>
+   &lt;sourceDirectory&gt;/data/in&lt;/sourceDirectory&gt;
+   &lt;filter&gt;.*\.txt&lt;/filter&gt;
+   &lt;destinationDirectory&gt;/data/archive&lt;/destinationDirectory&gt;
+ * </pre>
+ *
+ * <p>The operations are executed with at most <code>parallelism</code> threads. By default the
+ * remaining operations are skipped after the first error. If <code>continueOnError</code> is set,
+ * all operations are executed. The response contains the status of each file.</p>
+ *
+ * @author  mpoyhone
+ */
+abstract class BatchFileOperation
+{
+    /**
+     * Continue on error parameter.
+     */
+    private static final String PARAM_CONTINUEONERROR = "continueOnError";
+    /**
+     * Destination directory parameter.
+     */
+    private static final String PARAM_DESTINATIONDIRECTORY = "destinationDirectory";
+    /**
+     * File list parameter.
+     */
+    private static final String PARAM_FILES = "files";
+    /**
+     * File name filter parameter for the source directory.
+     */
+    private static final String PARAM_FILTER = "filter";
+    /**
+     * Number of threads used to execute the operations.
+     */
+    private static final String PARAM_PARALLELISM = "parallelism";
+    /**
+     * Source directory parameter.
+     */
+    private static final String PARAM_SOURCEDIRECTORY = "sourceDirectory";
+    /**
+     * Maximum number of threads used for one request.
+     */
+    private static final int MAX_PARALLELISM = 32;
+    /**
+     * Status of a successful operation.
+     */
+    private static final String STATUS_OK = "ok";
+    /**
+     * Status of a failed operation.
+     */
+    private static final String STATUS_ERROR = "error";
+    /**
+     * Status of an operation which was not executed because of an earlier error.
+     */
+    private static final String STATUS_SKIPPED = "skipped";
+    /**
+     * Contains the FileConnector configuration.
+     */
+    protected ApplicationConfiguration acConfig;
+    /**
+     * If <code>true</code> the operation has a destination file.
+     */
+    private boolean bHasDestination;
+    /**
+     * Request parameter name for the destination file in the file list.
+     */
+    private String sDestParamName;
+    /**
+     * Request parameter name for the source file in the file list.
+     */
+    private String sSrcParamName;
+
+    /**
+     * Constructor for BatchFileOperation.
+     *
+     * @param  acConfig        The FileConnector configuration.
+     * @param  sSrcParamName   Parameter name for the source file in the file list.
+     * @param  sDestParamName  Parameter name for the destination file in the file list or
+     *                         <code>null</code> if the operation has only one file.
+     */
+    protected BatchFileOperation(ApplicationConfiguration acConfig, String sSrcParamName,
+                                 String sDestParamName)
+    {
+        this.acConfig = acConfig;
+        this.sSrcParamName = sSrcParamName;
+        this.sDestParamName = sDestParamName;
+        this.bHasDestination = (sDestParamName != null);
+    }
+
+    /**
+     * Checks if the request is a batch request.
+     *
+     * @param   requestNode  Request XML.
+     *
+     * @return  <code>true</code> if the request contains a file list or a source directory.
+     */
+    public static boolean isBatchRequest(int requestNode)
+    {
+        return (Find.firstMatch(requestNode, "<><" + PARAM_FILES + ">") != 0) ||
+               (Find.firstMatch(requestNode, "<><" + PARAM_SOURCEDIRECTORY + ">") != 0);
+    }
+
+    /**
+     * Executes the operations and adds the results to the response.
+     *
+     * @param   req  Current SOAP request.
+     *
+     * @throws  FileException  Thrown if the request parameters are not valid.
+     */
+    public void process(ISoapRequestContext req)
+                 throws FileException
+    {
+        int requestNode = req.getRequestRootNode();
+        boolean bContinueOnError = XmlUtils.getBooleanParameter(requestNode,
+                                                                PARAM_CONTINUEONERROR);
+        int iParallelism = (int) XmlUtils.getLongParameter(requestNode, PARAM_PARALLELISM, 1L);
+        List<Item> lItems;
+
+        if (Find.firstMatch(requestNode, "<><" + PARAM_FILES + ">") != 0)
+        {
+            lItems = parseFileList(requestNode);
+        }
+        else
+        {
+            lItems = listSourceDirectory(requestNode);
+        }
+
+        executeAll(lItems, Math.max(1, Math.min(iParallelism, MAX_PARALLELISM)),
+                   bContinueOnError);
+
+        // Create the response.
+        int iResults = req.addResponseElement("results");
+        int iErrorCount = 0;
+
+        for (Item iItem : lItems)
+        {
+            int iFileNode = Node.createTextElement("file", iItem.fSrcFile.getPath(), iResults);
+
+            if (iItem.fDestFile != null)
+            {
+                Node.setAttribute(iFileNode, "newFileName", iItem.fDestFile.getPath());
+            }
+
+            Node.setAttribute(iFileNode, "status", iItem.sStatus);
+
+            if (iItem.tError != null)
+            {
+                StringBuffer sbLine = new StringBuffer(80);
+
+                for (Throwable t = iItem.tError; t != null; t = t.getCause())
+                {
+                    if (sbLine.length() > 0)
+                    {
+                        sbLine.append(" * ");
+                    }
+
+                    sbLine.append(t.getMessage());
+                }
+
+                Node.setAttribute(iFileNode, "error", sbLine.toString());
+                iErrorCount++;
+            }
+        }
+
+        req.addResponseElement("errorcount", Integer.toString(iErrorCount));
+    }
+
+    /**
+     * Executes the operation for one file. This must check that the files are allowed.
+     *
+     * @param   fSrcFile   Source file.
+     * @param   fDestFile  Destination file or <code>null</code> if the operation has only one
+     *                     file.
+     *
+     * @throws  FileException  Thrown if the operation failed.
+     */
+    protected abstract void execute(File fSrcFile, File fDestFile)
+                             throws FileException;
+
+    /**
+     * Executes all operations. The items get the status of the operation.
+     *
+     * @param   lItems            Operations to be executed.
+     * @param   iParallelism      Number of threads.
+     * @param   bContinueOnError  If <code>false</code> the operations which have not been
+     *                            started are skipped after the first error.
+     *
+     * @throws  FileException  Thrown if the execution was interrupted.
+     */
+    private void executeAll(List<Item> lItems, int iParallelism, final boolean bContinueOnError)
+                     throws FileException
+    {
+        final AtomicBoolean abFailed = new AtomicBoolean();
+        List<Callable<Object>> lTasks = new ArrayList<Callable<Object>>(lItems.size());
+
+        for (final Item iItem : lItems)
+        {
+            lTasks.add(new Callable<Object>()
+                {
+                    public Object call()
+                    {
+                        if (!bContinueOnError && abFailed.get())
+                        {
+                            iItem.sStatus = STATUS_SKIPPED;
+                            return null;
+                        }
+
+                        try
+                        {
+                            execute(iItem.fSrcFile, iItem.fDestFile);
+                            iItem.sStatus = STATUS_OK;
+                        }
+                        catch (Throwable t)
+                        {
+                            iItem.sStatus = STATUS_ERROR;
+                            iItem.tError = t;
+                            abFailed.set(true);
+                        }
+
+                        return null;
+                    }
+                });
+        }
+
+        if ((iParallelism <= 1) || (lTasks.size() <= 1))
+        {
+            // No need for other threads.
+            for (Callable<Object> cTask : lTasks)
+            {
+                try
+                {
+                    cTask.call();
+                }
+                catch (Exception ignored)
+                {
+                    // The task catches all errors.
+                }
+            }
+
+            return;
+        }
+
+        ExecutorService esExecutor = Executors.newFixedThreadPool(Math.min(iParallelism,
+                                                                           lTasks.size()));
+
+        try
+        {
+            // The tasks handle their own errors, so the futures do not need to be checked.
+            esExecutor.invokeAll(lTasks);
+        }
+        catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+
+            throw new FileException(e, LogMessages.BATCH_OPERATION_INTERRUPTED);
+        }
+        finally
+        {
+            esExecutor.shutdownNow();
+        }
+    }
+
+    /**
+     * Lists the files in the source directory.
+     *
+     * @param   requestNode  Request XML.
+     *
+     * @return  Operations for the matching files in name order.
+     *
+     * @throws  FileException  Thrown if the parameters are not valid.
+     */
+    private List<Item> listSourceDirectory(int requestNode)
+                                    throws FileException
+    {
+        String sSrcDirName = XmlUtils.getStringParameter(requestNode, PARAM_SOURCEDIRECTORY,
+                                                         true);
+        String sFilter = XmlUtils.getStringParameter(requestNode, PARAM_FILTER, false);
+        File fSrcDir = new File(sSrcDirName);
+        File fDestDir = null;
+
+        if (!acConfig.isFileAllowed(fSrcDir))
+        {
+            throw new FileException(LogMessages.SRC_DIR_ACCESS_NOT_ALLOWED);
+        }
+
+        if (!fSrcDir.exists())
+        {
+            throw new FileException(LogMessages.SRC_DIR_NOT_EXIST);
+        }
+
+        if (!fSrcDir.isDirectory())
+        {
+            throw new FileException(LogMessages.SRC_DIR_IS_NOT_DIRECTORY);
+        }
+
+        if (bHasDestination)
+        {
+            fDestDir = new File(XmlUtils.getStringParameter(requestNode,
+                                                            PARAM_DESTINATIONDIRECTORY, true));
+
+            if (!acConfig.isFileAllowed(fDestDir))
+            {
+                throw new FileException(LogMessages.DEST_DIR_ACCESS_NOT_ALLOWED);
+            }
+
+            if (!fDestDir.exists())
+            {
+                throw new FileException(LogMessages.DEST_DIR_NOT_EXIST);
+            }
+
+            if (!fDestDir.isDirectory())
+            {
+                throw new FileException(LogMessages.DEST_DIR_IS_NOT_DIRECTORY);
+            }
+        }
+
+        Pattern pFilter = null;
+
+        if ((sFilter != null) && (sFilter.length() > 0))
+        {
+            pFilter = Pattern.compile(sFilter, Pattern.CASE_INSENSITIVE);
+        }
+
+        File[] faFiles = fSrcDir.listFiles();
+
+        if (faFiles == null)
+        {
+            throw new FileException(LogMessages.UNABLE_TO_LIST_FILES);
+        }
+
+        Arrays.sort(faFiles);
+
+        List<Item> lRes = new ArrayList<Item>(faFiles.length);
+
+        for (File fFile : faFiles)
+        {
+            if (!fFile.isFile())
+            {
+                continue;
+            }
+
+            if ((pFilter != null) && !pFilter.matcher(fFile.getName()).matches())
+            {
+                continue;
+            }
+
+            lRes.add(new Item(fFile, (fDestDir != null) ? new File(fDestDir, fFile.getName()) : null));
+        }
+
+        return lRes;
+    }
+
+    /**
+     * Parses the file list from the request.
+     *
+     * @param   requestNode  Request XML.
+     *
+     * @return  Operations in the request order.
+     *
+     * @throws  FileException  Thrown if a file name is missing.
+     */
+    private List<Item> parseFileList(int requestNode)
+                              throws FileException
+    {
+        int[] iaFileNodes = Find.match(requestNode, "<><" + PARAM_FILES + "><file>");
+        List<Item> lRes = new ArrayList<Item>(iaFileNodes.length);
+
+        for (int i = 0; i < iaFileNodes.length; i++)
+        {
+            int iFileNode = iaFileNodes[i];
+            File fSrcFile = new File(XmlUtils.getStringParameter(iFileNode, sSrcParamName, true));
+            File fDestFile = null;
+
+            if (bHasDestination)
+            {
+                fDestFile = new File(XmlUtils.getStringParameter(iFileNode, sDestParamName, true));
+            }
+
+            lRes.add(new Item(fSrcFile, fDestFile));
+        }
+
+        return lRes;
+    }
+
+    /**
+     * Contains one operation and its result.
+     *
+     * @author  mpoyhone
+     */
+    private static class Item
+    {
+        /**
+         * Destination file or <code>null</code>.
+         */
+        private File fDestFile;
+        /**
+         * Source file.
+         */
+        private File fSrcFile;
+        /**
+         * Status of the operation.
+         */
+        private volatile String sStatus = STATUS_SKIPPED;
+        /**
+         * Error of a failed operation.
+         */
+        private volatile Throwable tError;
+
+        /**
+         * Constructor for Item.
+         *
+         * @param  fSrcFile   Source file.
+         * @param  fDestFile  Destination file or <code>null</code>.
+         */
+        Item(File fSrcFile, File fDestFile)
+        {
+            this.fSrcFile = fSrcFile;
+            this.fDestFile = fDestFile;
+        }
+    }
+}
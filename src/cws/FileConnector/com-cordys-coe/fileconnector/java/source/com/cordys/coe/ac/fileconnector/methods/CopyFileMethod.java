@@ -30,7 +30,8 @@ import com.cordys.coe.ac.fileconnector.utils.XmlUtils;
 import java.io.File;
 
 /**
- * Implements CopyFile SOAP method.
+ * Implements CopyFile SOAP method. Several files can be copied in one request by using the
+ * <code>files</code> or <code>sourceDirectory</code> parameters (see BatchFileOperation).
  *
  * @author  mpoyhone
  */
@@ -49,6 +50,10 @@ public class CopyFileMethod
      * New filename request parameter for CopyFile and MoveFile methods.
      */
     private static final String PARAM_NEWFILENAME = "newFileName";
+    /**
+     * If set, the new file gets the modification time of the old file.
+     */
+    private static final String PARAM_PRESERVETIMESTAMP = "preserveTimestamp";
     /**
      * Contains the FileConnector configuration.
      */
@@ -87,6 +92,22 @@ public class CopyFileMethod
                     throws FileException
     {
         int requestNode = req.getRequestRootNode();
+        final boolean bPreserveTimestamp = XmlUtils.getBooleanParameter(requestNode,
+                                                                        PARAM_PRESERVETIMESTAMP);
+
+        if (BatchFileOperation.isBatchRequest(requestNode))
+        {
+            new BatchFileOperation(acConfig, PARAM_OLDFILENAME, PARAM_NEWFILENAME)
+                {
+                    protected void execute(File fSrcFile, File fDestFile)
+                                    throws FileException
+                    {
+                        copy(fSrcFile, fDestFile, bPreserveTimestamp);
+                    }
+                }.process(req);
+
+            return EResult.FINISHED;
+        }
 
         // Get the needed parameters from the SOAP request
         String sOldFileName = XmlUtils.getStringParameter(requestNode, PARAM_OLDFILENAME, true);
@@ -96,6 +117,32 @@ public class CopyFileMethod
         File fSrcFile = new File(sOldFileName);
         File fDestFile = new File(sNewFileName);
 
+        copy(fSrcFile, fDestFile, bPreserveTimestamp);
+
+        return EResult.FINISHED;
+    }
+
+    /**
+     * @see  com.cordys.coe.ac.fileconnector.IFileConnectorMethod#getMethodName()
+     */
+    public String getMethodName()
+    {
+        return METHOD_NAME;
+    }
+
+    /**
+     * Checks the files and copies the source file to the destination file.
+     *
+     * @param   fSrcFile            Source file.
+     * @param   fDestFile           Destination file.
+     * @param   bPreserveTimestamp  If <code>true</code> the destination file gets the
+     *                              modification time of the source file.
+     *
+     * @throws  FileException  Thrown if the files are not valid or the copy failed.
+     */
+    private void copy(File fSrcFile, File fDestFile, boolean bPreserveTimestamp)
+               throws FileException
+    {
         // Do some sanity checking.
         if (!acConfig.isFileAllowed(fSrcFile))
         {
@@ -126,16 +173,6 @@ public class CopyFileMethod
         }
 
         // Copy the source file contents to the destination file
-        GeneralUtils.copyFile(fSrcFile, fDestFile);
-
-        return EResult.FINISHED;
-    }
-
-    /**
-     * @see  com.cordys.coe.ac.fileconnector.IFileConnectorMethod#getMethodName()
-     */
-    public String getMethodName()
-    {
-        return METHOD_NAME;
+        GeneralUtils.copyFile(fSrcFile, fDestFile, bPreserveTimestamp);
     }
 }
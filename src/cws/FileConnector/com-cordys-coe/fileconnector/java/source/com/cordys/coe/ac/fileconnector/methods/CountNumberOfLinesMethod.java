@@ -24,12 +24,13 @@ import com.cordys.coe.ac.fileconnector.ISoapRequestContext;
 import com.cordys.coe.ac.fileconnector.LogMessages;
 import com.cordys.coe.ac.fileconnector.exception.ConfigException;
 import com.cordys.coe.ac.fileconnector.exception.FileException;
+import com.cordys.coe.ac.fileconnector.utils.GeneralUtils;
 import com.cordys.coe.ac.fileconnector.utils.XmlUtils;
 
 import java.io.File;
 import java.io.FileNotFoundException;
-import java.io.FileReader;
 import java.io.IOException;
+import java.io.InputStreamReader;
 import java.io.Reader;
 
 /**
@@ -133,8 +134,12 @@ public class CountNumberOfLinesMethod
 
         try
         {
-            rReader = new FileReader(fSrcFile);
-            iLineCount = countInputLines(rReader, sLineSeparator.toCharArray(), 2048);
+            // Gzip compressed files are decompressed while counting.
+            boolean bCompressed = GeneralUtils.isGzipFile(fSrcFile);
+
+            rReader = new InputStreamReader(GeneralUtils.openInputStream(fSrcFile, bCompressed));
+            iLineCount = countInputLines(rReader, sLineSeparator.toCharArray(),
+                                         bCompressed ? GeneralUtils.GZIP_BUFFER_SIZE : 2048);
         }
         catch (FileNotFoundException e)
         {
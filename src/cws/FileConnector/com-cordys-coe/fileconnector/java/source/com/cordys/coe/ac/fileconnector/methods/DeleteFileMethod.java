@@ -29,7 +29,8 @@ import com.cordys.coe.ac.fileconnector.utils.XmlUtils;
 import java.io.File;
 
 /**
- * Implements DeleteFile SOAP method.
+ * Implements DeleteFile SOAP method. Several files can be deleted in one request by using the
+ * <code>files</code> or <code>sourceDirectory</code> parameters (see BatchFileOperation).
  *
  * @author  mpoyhone
  */
@@ -83,12 +84,49 @@ public class DeleteFileMethod
     {
         int requestNode = req.getRequestRootNode();
 
+        if (BatchFileOperation.isBatchRequest(requestNode))
+        {
+            new BatchFileOperation(acConfig, PARAM_FILENAME, null)
+                {
+                    protected void execute(File fSrcFile, File fDestFile)
+                                    throws FileException
+                    {
+                        delete(fSrcFile);
+                    }
+                }.process(req);
+
+            return EResult.FINISHED;
+        }
+
         // Get the needed parameters from the SOAP request
         String sFileName = XmlUtils.getStringParameter(requestNode, PARAM_FILENAME, true);
 
         // Create File objects for the source and destination files
         File fFile = new File(sFileName);
 
+        delete(fFile);
+
+        return EResult.FINISHED;
+    }
+
+    /**
+     * @see  com.cordys.coe.ac.fileconnector.IFileConnectorMethod#getMethodName()
+     */
+    public String getMethodName()
+    {
+        return METHOD_NAME;
+    }
+
+    /**
+     * Checks the file and deletes it.
+     *
+     * @param   fFile  File to be deleted.
+     *
+     * @throws  FileException  Thrown if the file is not valid or it could not be deleted.
+     */
+    private void delete(File fFile)
+                 throws FileException
+    {
         // Do some sanity checking.
         if (!acConfig.isFileAllowed(fFile))
         {
@@ -97,7 +135,7 @@ public class DeleteFileMethod
 
         if (!fFile.exists())
         {
-            throw new FileException(LogMessages.FILE_NOT_EXIST,sFileName);
+            throw new FileException(LogMessages.FILE_NOT_EXIST,fFile.getPath());
         }
 
         if (fFile.isDirectory())
@@ -110,15 +148,5 @@ public class DeleteFileMethod
         {
             throw new FileException(LogMessages.UNABLE_TO_DELETE_FILE);
         }
-
-        return EResult.FINISHED;
-    }
-
-    /**
-     * @see  com.cordys.coe.ac.fileconnector.IFileConnectorMethod#getMethodName()
-     */
-    public String getMethodName()
-    {
-        return METHOD_NAME;
     }
 }
@@ -0,0 +1,276 @@
+/**
+ * Copyright 2005 Cordys R&D B.V. 
+ * 
+ * This file is part of the Cordys File Connector. 
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+ package com.cordys.coe.ac.fileconnector.methods;
+
+import com.cordys.coe.ac.fileconnector.ApplicationConfiguration;
+
+import java.io.File;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+
+/**
+ * Index of the files in one directory ordered by the modification time. This is used by
+ * SelectAndMoveFile so that the oldest or newest file can be selected without reading the
+ * attributes of all files on every request.
+ *
+ * <p>The index is refreshed when the directory modification time changes. Only the names are read
+ * then and the attributes are read for the new files only. Because the modification time has a
+ * limited resolution, the directory is also read again if it was modified just before the last
+ * refresh. All files are read again after <code>MAX_AGE</code> milliseconds. The selected file is
+ * always checked before it is returned, so files which have been removed or modified are not
+ * returned with old information.</p>
+ *
+ * <p>This class is not thread safe. The caller must synchronize on the index object.</p>
+ *
+ * @author  mpoyhone
+ */
+class DirectoryIndex
+{
+    /**
+     * Maximum time in milliseconds before all files are read again.
+     */
+    private static final long MAX_AGE = 60000L;
+    /**
+     * Time in milliseconds in which directory modifications might not change the directory
+     * modification time.
+     */
+    private static final long MODIFICATION_TIME_RESOLUTION = 2000L;
+    /**
+     * Contains the FileConnector configuration.
+     */
+    private ApplicationConfiguration acConfig;
+    /**
+     * If <code>true</code> the directory was modified just before the last refresh.
+     */
+    private boolean bRecentlyModified;
+    /**
+     * The directory.
+     */
+    private File fDir;
+    /**
+     * Directory modification time at the last refresh.
+     */
+    private long lDirModified;
+    /**
+     * Time of the last full refresh or zero if the index has not been refreshed.
+     */
+    private long lFullRefreshTime;
+    /**
+     * Indexed files by the file name.
+     */
+    private Map<String, FileEntry> mEntries = new HashMap<String, FileEntry>();
+    /**
+     * Names of the entries which are not selected, e.g. directories and files which are not
+     * allowed.
+     */
+    private Set<String> sIgnoredNames = new HashSet<String>();
+    /**
+     * Indexed files by the modification time.
+     */
+    private TreeSet<FileEntry> tsEntries = new TreeSet<FileEntry>();
+
+    /**
+     * Constructor for DirectoryIndex.
+     *
+     * @param  acConfig  The FileConnector configuration.
+     * @param  fDir      The directory.
+     */
+    DirectoryIndex(ApplicationConfiguration acConfig, File fDir)
+    {
+        this.acConfig = acConfig;
+        this.fDir = fDir;
+    }
+
+    /**
+     * Reads the changes in the directory if the directory has been modified.
+     */
+    void refresh()
+    {
+        long lNow = System.currentTimeMillis();
+        long lModified = fDir.lastModified();
+        boolean bFull = (lNow - lFullRefreshTime) >= MAX_AGE;
+
+        if (!bFull && !bRecentlyModified && (lModified == lDirModified))
+        {
+            return;
+        }
+
+        String[] saNames = fDir.list();
+
+        if (bFull)
+        {
+            mEntries.clear();
+            tsEntries.clear();
+            sIgnoredNames.clear();
+            lFullRefreshTime = lNow;
+        }
+
+        if (saNames == null)
+        {
+            saNames = new String[0];
+        }
+
+        Set<String> sNames = new HashSet<String>(Arrays.asList(saNames));
+
+        // Remove the files which are not in the directory anymore.
+        for (Iterator<FileEntry> iIter = tsEntries.iterator(); iIter.hasNext();)
+        {
+            FileEntry feEntry = iIter.next();
+
+            if (!sNames.contains(feEntry.sName))
+            {
+                iIter.remove();
+                mEntries.remove(feEntry.sName);
+            }
+        }
+
+        sIgnoredNames.retainAll(sNames);
+
+        // Add the new files.
+        for (String sName : saNames)
+        {
+            if (mEntries.containsKey(sName) || sIgnoredNames.contains(sName))
+            {
+                continue;
+            }
+
+            File fFile = new File(fDir, sName);
+
+            if (!fFile.isFile() || !acConfig.isFileAllowed(fFile))
+            {
+                sIgnoredNames.add(sName);
+                continue;
+            }
+
+            FileEntry feEntry = new FileEntry(fFile, fFile.lastModified());
+
+            mEntries.put(sName, feEntry);
+            tsEntries.add(feEntry);
+        }
+
+        lDirModified = lModified;
+        bRecentlyModified = (lNow - lModified) < MODIFICATION_TIME_RESOLUTION;
+    }
+
+    /**
+     * Removes the file from the index. This is called after the file has been moved.
+     *
+     * @param  fFile  The file.
+     */
+    void remove(File fFile)
+    {
+        FileEntry feEntry = mEntries.remove(fFile.getName());
+
+        if (feEntry != null)
+        {
+            tsEntries.remove(feEntry);
+        }
+    }
+
+    /**
+     * Returns the oldest or newest file in the index. The file is checked before it is returned.
+     *
+     * @param   bNewest  If <code>true</code> the newest file is returned, otherwise the oldest.
+     *
+     * @return  Selected file or <code>null</code> if the index is empty.
+     */
+    File select(boolean bNewest)
+    {
+        while (!tsEntries.isEmpty())
+        {
+            FileEntry feEntry = bNewest ? tsEntries.last() : tsEntries.first();
+            File fFile = feEntry.fFile;
+            long lModified = fFile.lastModified();
+
+            if ((lModified == 0) && !fFile.isFile())
+            {
+                // The file has been removed.
+                remove(fFile);
+                continue;
+            }
+
+            if (lModified != feEntry.lModified)
+            {
+                // The file has been modified, so update the order.
+                tsEntries.remove(feEntry);
+                feEntry.lModified = lModified;
+                tsEntries.add(feEntry);
+                continue;
+            }
+
+            return fFile;
+        }
+
+        return null;
+    }
+
+    /**
+     * File and its modification time. The entries are ordered by the modification time and then
+     * by the file name.
+     *
+     * @author  mpoyhone
+     */
+    static class FileEntry
+        implements Comparable<FileEntry>
+    {
+        /**
+         * The file.
+         */
+        File fFile;
+        /**
+         * File modification time.
+         */
+        long lModified;
+        /**
+         * File name.
+         */
+        String sName;
+
+        /**
+         * Constructor for FileEntry.
+         *
+         * @param  fFile      The file.
+         * @param  lModified  File modification time.
+         */
+        FileEntry(File fFile, long lModified)
+        {
+            this.fFile = fFile;
+            this.lModified = lModified;
+            this.sName = fFile.getName();
+        }
+
+        /**
+         * @see  java.lang.Comparable#compareTo(java.lang.Object)
+         */
+        public int compareTo(FileEntry feOther)
+        {
+            if (lModified != feOther.lModified)
+            {
+                return (lModified < feOther.lModified) ? -1 : 1;
+            }
+
+            return sName.compareTo(feOther.sName);
+        }
+    }
+}
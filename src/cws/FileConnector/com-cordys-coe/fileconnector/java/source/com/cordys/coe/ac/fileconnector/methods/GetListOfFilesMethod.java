@@ -24,23 +24,49 @@ import com.cordys.coe.ac.fileconnector.ISoapRequestContext;
 import com.cordys.coe.ac.fileconnector.LogMessages;
 import com.cordys.coe.ac.fileconnector.exception.ConfigException;
 import com.cordys.coe.ac.fileconnector.exception.FileException;
+import com.cordys.coe.ac.fileconnector.utils.GeneralUtils;
 import com.cordys.coe.ac.fileconnector.utils.XmlUtils;
 
+import com.eibus.xml.nom.Find;
 import com.eibus.xml.nom.Node;
 
 import java.io.File;
-import java.io.FileFilter;
+import java.io.IOException;
 
+import java.text.ParseException;
 import java.text.SimpleDateFormat;
 
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.Date;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
-import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
 /**
  * Implements GetListOfFiles SOAP method.
  *
+ * <p>The entries can be sorted by name, modification time or size with the <code>sortby</code>
+ * and <code>sortorder</code> parameters. Large directories can be read in pages by setting
+ * <code>maxresults</code>. If there are more entries, the response contains a
+ * <code>continuationtoken</code> element which is passed in the next request to get the next
+ * page. Paging uses the name order if no sort order is given. The file attributes are read only
+ * for the returned entries and for the sort key.</p>
+ *
+ * <p>If <code>recursive</code> is set, the subdirectories are listed as well, up to
+ * <code>maxdepth</code> levels (zero means no limit). The result paths are then relative to the
+ * requested directory. Each directory level is listed with <code>parallelism</code> threads. The
+ * <code>filter</code> and <code>exclude</code> parameters are regular expressions by default, or
+ * glob patterns with <code>type="glob"</code>. Excluded directories are not walked. The entries
+ * can also be selected by size (files only) and modification time. All conditions are checked
+ * before the response is created.</p>
+ *
  * @author  mpoyhone
  */
 public class GetListOfFilesMethod
@@ -62,6 +88,58 @@ public class GetListOfFilesMethod
      * File name filter parameter for GetListOfFiles method.
      */
     private static final String PARAM_FILTER = "filter";
+    /**
+     * Maximum number of entries returned by GetListOfFiles method. Zero means all entries.
+     */
+    private static final String PARAM_MAXRESULTS = "maxresults";
+    /**
+     * Continuation token from the previous GetListOfFiles response.
+     */
+    private static final String PARAM_CONTINUATIONTOKEN = "continuationtoken";
+    /**
+     * Sort key parameter for GetListOfFiles method.
+     */
+    private static final String PARAM_SORTBY = "sortby";
+    /**
+     * Sort order parameter for GetListOfFiles method.
+     */
+    private static final String PARAM_SORTORDER = "sortorder";
+    /**
+     * If set, GetListOfFiles lists the subdirectories as well.
+     */
+    private static final String PARAM_RECURSIVE = "recursive";
+    /**
+     * Maximum directory depth for the recursive listing. One lists only the requested directory.
+     */
+    private static final String PARAM_MAXDEPTH = "maxdepth";
+    /**
+     * Entries matching this filter are not returned and excluded directories are not walked.
+     */
+    private static final String PARAM_EXCLUDE = "exclude";
+    /**
+     * Minimum file size in bytes.
+     */
+    private static final String PARAM_MINSIZE = "minsize";
+    /**
+     * Maximum file size in bytes.
+     */
+    private static final String PARAM_MAXSIZE = "maxsize";
+    /**
+     * Only entries modified at or after this time are returned.
+     */
+    private static final String PARAM_MODIFIEDAFTER = "modifiedafter";
+    /**
+     * Only entries modified before this time are returned.
+     */
+    private static final String PARAM_MODIFIEDBEFORE = "modifiedbefore";
+    /**
+     * Number of threads used for the recursive listing.
+     */
+    private static final String PARAM_PARALLELISM = "parallelism";
+    /**
+     * Maximum number of threads used for one request.
+     */
+    private static final int MAX_PARALLELISM = 16;
     /**
      * Date & Time format for GetListOfFiles entries.
      */
@@ -108,8 +186,18 @@ public class GetListOfFilesMethod
         // Get the needed parameters from the SOAP request
         String sDirName = XmlUtils.getStringParameter(requestNode, PARAM_DIRECTORY, true);
         String sResultPathType = XmlUtils.getStringParameter(requestNode, PARAM_RESULTPATH, false);
-        String sFilter = XmlUtils.getStringParameter(requestNode, PARAM_FILTER, false);
+        boolean bRecursive = XmlUtils.getBooleanParameter(requestNode, PARAM_RECURSIVE);
+        long lMaxDepth = XmlUtils.getLongParameter(requestNode, PARAM_MAXDEPTH, 0L);
+        int iParallelism = (int) XmlUtils.getLongParameter(requestNode, PARAM_PARALLELISM, 1L);
+        EntryFilter efFilter = new EntryFilter();
+        long lMaxResults = XmlUtils.getLongParameter(requestNode, PARAM_MAXRESULTS, 0L);
+        String sContinuationToken = XmlUtils.getStringParameter(requestNode,
+                                                                PARAM_CONTINUATIONTOKEN, false);
+        String sSortBy = XmlUtils.getStringParameter(requestNode, PARAM_SORTBY, false);
+        String sSortOrder = XmlUtils.getStringParameter(requestNode, PARAM_SORTORDER, false);
         boolean bUseAbsolutePaths = true;
+        ESortBy esSortBy = ESortBy.NONE;
+        boolean bDescending = false;
 
         if ((sResultPathType != null) && (sResultPathType.length() > 0))
         {
@@ -127,19 +215,62 @@ public class GetListOfFilesMethod
             }
         }
 
-        // Parse the filter parameter
-        Pattern pFileFilter = null;
-
-        if ((sFilter != null) && (sFilter.length() > 0))
+        if ((sSortBy != null) && (sSortBy.length() > 0))
         {
-            if ((sFilter != null) && !sFilter.equals(""))
+            esSortBy = ESortBy.parse(sSortBy);
+
+            if (esSortBy == null)
             {
-                int iFlags = Pattern.CASE_INSENSITIVE;
+                throw new FileException(LogMessages.INVALID_VALUE_FOR_PARAM, PARAM_SORTBY);
+            }
+        }
 
-                pFileFilter = Pattern.compile(sFilter, iFlags);
+        if ((sSortOrder != null) && (sSortOrder.length() > 0))
+        {
+            if (sSortOrder.equals("descending"))
+            {
+                bDescending = true;
+            }
+            else if (!sSortOrder.equals("ascending"))
+            {
+                throw new FileException(LogMessages.INVALID_VALUE_FOR_PARAM, PARAM_SORTORDER);
             }
         }
 
+        if (lMaxResults < 0)
+        {
+            throw new FileException(LogMessages.ILLEGAL_VALUE_FOR_PARAM, lMaxResults,
+                                    PARAM_MAXRESULTS);
+        }
+
+        boolean bPaged = (lMaxResults > 0) ||
+                         ((sContinuationToken != null) && (sContinuationToken.length() > 0));
+
+        if (bPaged && (esSortBy == ESortBy.NONE))
+        {
+            // Paging needs a stable order.
+            esSortBy = ESortBy.NAME;
+        }
+
+        if (lMaxDepth < 0)
+        {
+            throw new FileException(LogMessages.ILLEGAL_VALUE_FOR_PARAM, lMaxDepth,
+                                    PARAM_MAXDEPTH);
+        }
+
+        if (!bRecursive)
+        {
+            lMaxDepth = 1;
+        }
+
+        // Parse the filter parameters
+        efFilter.pInclude = parseFilter(requestNode, PARAM_FILTER);
+        efFilter.pExclude = parseFilter(requestNode, PARAM_EXCLUDE);
+        efFilter.lMinSize = XmlUtils.getLongParameter(requestNode, PARAM_MINSIZE, -1L);
+        efFilter.lMaxSize = XmlUtils.getLongParameter(requestNode, PARAM_MAXSIZE, -1L);
+        efFilter.lModifiedAfter = parseTime(requestNode, PARAM_MODIFIEDAFTER);
+        efFilter.lModifiedBefore = parseTime(requestNode, PARAM_MODIFIEDBEFORE);
+
         // Create File objects for the source and destination files
         File fDir = new File(sDirName);
 
@@ -159,37 +290,42 @@ public class GetListOfFilesMethod
             throw new FileException(LogMessages.DIR_IS_NOT_ADIRECTORY);
         }
 
-        // Get the directory listing
-        File[] faDirList;
+        // Get the directory listing.
+        List<Entry> lEntries = listEntries(fDir, efFilter, (int) Math.min(lMaxDepth,
+                                                                          Integer.MAX_VALUE),
+                                           Math.max(1, Math.min(iParallelism, MAX_PARALLELISM)));
 
-        // Get files specified by the filter.
-        final Pattern pFinalFilter = pFileFilter;
+        // Sort and select the requested page.
+        Comparator<Entry> cComparator = null;
+        int iStart = 0;
+        int iEnd = lEntries.size();
 
-        FileFilter ffFilterObject = new FileFilter()
+        if (esSortBy != ESortBy.NONE)
         {
-            public boolean accept(File fPathname)
-            {
-                if (!acConfig.isFileAllowed(fPathname))
-                {
-                    return false;
-                }
-
-                if (pFinalFilter != null)
-                {
-                    Matcher mMathcer = pFinalFilter.matcher(fPathname.getName());
+            cComparator = new EntryComparator(esSortBy, bDescending);
+            Collections.sort(lEntries, cComparator);
+        }
 
-                    return mMathcer.matches();
-                }
+        if ((sContinuationToken != null) && (sContinuationToken.length() > 0))
+        {
+            Entry eLast = Entry.parseToken(fDir, sContinuationToken, esSortBy);
 
-                return true;
+            if (eLast == null)
+            {
+                throw new FileException(LogMessages.INVALID_VALUE_FOR_PARAM,
+                                        PARAM_CONTINUATIONTOKEN);
             }
-        };
 
-        faDirList = fDir.listFiles(ffFilterObject);
+            // Continue after the last returned entry. This also works when files have been
+            // added or removed between the requests.
+            int iPos = Collections.binarySearch(lEntries, eLast, cComparator);
 
-        if (faDirList == null)
+            iStart = (iPos >= 0) ? (iPos + 1) : (-iPos - 1);
+        }
+
+        if ((lMaxResults > 0) && ((iEnd - iStart) > lMaxResults))
         {
-            throw new FileException(LogMessages.UNABLE_TO_LIST_FILES);
+            iEnd = iStart + (int) lMaxResults;
         }
 
         // Create the response.
@@ -200,10 +336,13 @@ public class GetListOfFilesMethod
         Node.createTextElement("directory", fDir.getAbsolutePath(), iTuple);
         iEntries = Node.createElement("entries", iTuple);
 
+        SimpleDateFormat sdfFormat = new SimpleDateFormat(sFileDateFormat);
+
         // Add all the file entries.
-        for (int i = 0; i < faDirList.length; i++)
+        for (int i = iStart; i < iEnd; i++)
         {
-            File fFile = faDirList[i];
+            Entry eEntry = lEntries.get(i);
+            File fFile = eEntry.fFile;
             String sPath;
             String sType;
             int iFileNode;
@@ -215,38 +354,33 @@ public class GetListOfFilesMethod
             }
             else
             {
-                sPath = fFile.getName();
+                sPath = eEntry.sName;
             }
 
-            // Get the file type string.
-            if (fFile.isFile())
-            {
-                sType = "file";
-            }
-            else if (fFile.isDirectory())
-            {
-                sType = "directory";
-            }
-            else
-            {
-                sType = "unknown";
-            }
+            // Get the file type string. This is already known for the entries which were
+            // checked while listing.
+            sType = eEntry.getType();
 
             // Get the file modification time and create the
             // modification attribute value.
-            long lModificationTime = fFile.lastModified();
-            String sTimeString = new SimpleDateFormat(sFileDateFormat).format(new Date(lModificationTime));
+            long lModificationTime = eEntry.getLastModified();
+            String sTimeString = sdfFormat.format(new Date(lModificationTime));
 
             iFileNode = Node.createTextElement("file", sPath, iEntries);
-            long lFilesize = fFile.length();
+            long lFilesize = eEntry.getSize();
             String sFileSizeStr = Long.toString(lFilesize);
-            
-            
+
             Node.setAttribute(iFileNode, "type", sType);
             Node.setAttribute(iFileNode, "modified", sTimeString);
             Node.setAttribute(iFileNode, "filesize", sFileSizeStr);
         }
 
+        if (iEnd < lEntries.size())
+        {
+            Node.createTextElement("continuationtoken", lEntries.get(iEnd - 1).toToken(esSortBy),
+                                   iTuple);
+        }
+
         return EResult.FINISHED;
     }
 
@@ -257,4 +391,773 @@ public class GetListOfFilesMethod
     {
         return METHOD_NAME;
     }
+
+    /**
+     * Parses a file name filter parameter. The filter is a regular expression unless the element
+     * has attribute <code>type="glob"</code>.
+     *
+     * @param   requestNode  Request XML.
+     * @param   sParamName   Parameter name.
+     *
+     * @return  Filter pattern or <code>null</code> if the parameter is not set.
+     *
+     * @throws  FileException  Thrown if the filter type is not valid.
+     */
+    private static Pattern parseFilter(int requestNode, String sParamName)
+                                throws FileException
+    {
+        int iNode = Find.firstMatch(requestNode, "<><" + sParamName + ">");
+
+        if (iNode == 0)
+        {
+            return null;
+        }
+
+        String sType = Node.getAttribute(iNode, "type", "regex");
+        String sPattern = Node.getDataWithDefault(iNode, "");
+
+        if (sPattern.length() == 0)
+        {
+            return null;
+        }
+
+        if ("regex".equals(sType) || "".equals(sType))
+        {
+            return Pattern.compile(sPattern, Pattern.CASE_INSENSITIVE);
+        }
+        else if ("glob".equals(sType))
+        {
+            return GeneralUtils.createGlobRegex(sPattern, false, Pattern.CASE_INSENSITIVE);
+        }
+        else
+        {
+            throw new FileException(LogMessages.INVALID_VALUE_FOR_PARAM, sParamName);
+        }
+    }
+
+    /**
+     * Parses a time parameter. The time is in the same format as the <code>modified</code>
+     * attribute in the response, optionally without the milliseconds.
+     *
+     * @param   requestNode  Request XML.
+     * @param   sParamName   Parameter name.
+     *
+     * @return  Time in milliseconds or -1 if the parameter is not set.
+     *
+     * @throws  FileException  Thrown if the time is not valid.
+     */
+    private static long parseTime(int requestNode, String sParamName)
+                           throws FileException
+    {
+        String sValue = XmlUtils.getStringParameter(requestNode, sParamName, false);
+
+        if ((sValue == null) || (sValue.length() == 0))
+        {
+            return -1;
+        }
+
+        String[] saFormats = { sFileDateFormat, "yyyy-MM-dd'T'HH:mm:ss", "yyyy-MM-dd" };
+
+        for (String sFormat : saFormats)
+        {
+            SimpleDateFormat sdfFormat = new SimpleDateFormat(sFormat);
+
+            sdfFormat.setLenient(false);
+
+            try
+            {
+                return sdfFormat.parse(sValue).getTime();
+            }
+            catch (ParseException ignored)
+            {
+                // Try the next format.
+            }
+        }
+
+        throw new FileException(LogMessages.ILLEGAL_VALUE_FOR_PARAM, sValue, sParamName);
+    }
+
+    /**
+     * Lists the matching entries in the directory and its subdirectories. The directories are
+     * listed one level at a time and the directories of each level are listed in parallel.
+     *
+     * @param   fDir          The directory.
+     * @param   efFilter      Entry filter.
+     * @param   iMaxDepth     Maximum depth. Zero means no limit.
+     * @param   iParallelism  Number of threads.
+     *
+     * @return  Matching entries.
+     *
+     * @throws  FileException  Thrown if the directory could not be listed.
+     */
+    private List<Entry> listEntries(File fDir, EntryFilter efFilter, int iMaxDepth,
+                                    int iParallelism)
+                             throws FileException
+    {
+        List<Entry> lRes = new ArrayList<Entry>();
+        ListTask ltRoot = new ListTask(fDir, "", efFilter, iMaxDepth != 1);
+
+        ltRoot.call();
+
+        if (ltRoot.lEntries == null)
+        {
+            throw new FileException(LogMessages.UNABLE_TO_LIST_FILES);
+        }
+
+        lRes.addAll(ltRoot.lEntries);
+
+        // Contains the walked directories, so that symbolic link loops are not followed.
+        Set<String> sVisitedDirs = new HashSet<String>();
+        List<ListTask> lLevel = new ArrayList<ListTask>();
+        ExecutorService esExecutor = null;
+
+        addSubDirs(ltRoot, lLevel, sVisitedDirs);
+
+        try
+        {
+            for (int iDepth = 2; !lLevel.isEmpty(); iDepth++)
+            {
+                boolean bDescend = (iMaxDepth == 0) || (iDepth < iMaxDepth);
+
+                for (ListTask ltTask : lLevel)
+                {
+                    ltTask.bDescend = bDescend;
+                }
+
+                if ((iParallelism > 1) && (lLevel.size() > 1))
+                {
+                    if (esExecutor == null)
+                    {
+                        esExecutor = Executors.newFixedThreadPool(iParallelism);
+                    }
+
+                    try
+                    {
+                        esExecutor.invokeAll(lLevel);
+                    }
+                    catch (InterruptedException e)
+                    {
+                        Thread.currentThread().interrupt();
+
+                        throw new FileException(e, LogMessages.UNABLE_TO_LIST_FILES);
+                    }
+                }
+                else
+                {
+                    for (ListTask ltTask : lLevel)
+                    {
+                        ltTask.call();
+                    }
+                }
+
+                List<ListTask> lNext = new ArrayList<ListTask>();
+
+                for (ListTask ltTask : lLevel)
+                {
+                    // Subdirectories which cannot be read are skipped.
+                    if (ltTask.lEntries != null)
+                    {
+                        lRes.addAll(ltTask.lEntries);
+                        addSubDirs(ltTask, lNext, sVisitedDirs);
+                    }
+                }
+
+                lLevel = lNext;
+            }
+        }
+        finally
+        {
+            if (esExecutor != null)
+            {
+                esExecutor.shutdownNow();
+            }
+        }
+
+        return lRes;
+    }
+
+    /**
+     * Adds the subdirectory tasks of a listed directory to the next level. Directories which
+     * have already been walked are skipped.
+     *
+     * @param  ltTask        Listed directory.
+     * @param  lNext         Tasks of the next level.
+     * @param  sVisitedDirs  Canonical paths of the walked directories.
+     */
+    private static void addSubDirs(ListTask ltTask, List<ListTask> lNext,
+                                   Set<String> sVisitedDirs)
+    {
+        if (ltTask.lSubDirs.isEmpty())
+        {
+            return;
+        }
+
+        if (sVisitedDirs.isEmpty())
+        {
+            addVisitedDir(ltTask.fDir, sVisitedDirs);
+        }
+
+        for (ListTask ltSubDir : ltTask.lSubDirs)
+        {
+            if (addVisitedDir(ltSubDir.fDir, sVisitedDirs))
+            {
+                lNext.add(ltSubDir);
+            }
+        }
+    }
+
+    /**
+     * Adds the directory to the walked directories.
+     *
+     * @param   fDir          The directory.
+     * @param   sVisitedDirs  Canonical paths of the walked directories.
+     *
+     * @return  <code>true</code> if the directory has not been walked before.
+     */
+    private static boolean addVisitedDir(File fDir, Set<String> sVisitedDirs)
+    {
+        try
+        {
+            return sVisitedDirs.add(fDir.getCanonicalPath());
+        }
+        catch (IOException e)
+        {
+            return false;
+        }
+    }
+
+    /**
+     * Sort keys for the directory entries.
+     *
+     * @author  mpoyhone
+     */
+    private enum ESortBy
+    {
+        NONE,
+        NAME,
+        MODIFIED,
+        SIZE;
+
+        /**
+         * Parses the sort key parameter value.
+         *
+         * @param   sValue  Parameter value.
+         *
+         * @return  Sort key or <code>null</code> if the value is not valid.
+         */
+        static ESortBy parse(String sValue)
+        {
+            for (ESortBy esValue : values())
+            {
+                if (esValue.name().equalsIgnoreCase(sValue))
+                {
+                    return esValue;
+                }
+            }
+
+            return null;
+        }
+    }
+
+    /**
+     * Directory entry. The file attributes are read when they are first needed and each one is
+     * read only once.
+     *
+     * @author  mpoyhone
+     */
+    private static class Entry
+    {
+        /**
+         * Type string for directories.
+         */
+        private static final String TYPE_DIRECTORY = "directory";
+        /**
+         * Type string for normal files.
+         */
+        private static final String TYPE_FILE = "file";
+        /**
+         * Type string for other entries.
+         */
+        private static final String TYPE_UNKNOWN = "unknown";
+        /**
+         * The file.
+         */
+        private File fFile;
+        /**
+         * If <code>true</code> the modification time has been read.
+         */
+        private boolean bHasLastModified;
+        /**
+         * If <code>true</code> the size has been read.
+         */
+        private boolean bHasSize;
+        /**
+         * File modification time.
+         */
+        private long lLastModified;
+        /**
+         * File size.
+         */
+        private long lSize;
+        /**
+         * File name.
+         */
+        private String sName;
+        /**
+         * Entry type or <code>null</code> if it has not been read yet.
+         */
+        private String sType;
+
+        /**
+         * Constructor for Entry.
+         *
+         * @param  fFile  The file.
+         */
+        Entry(File fFile)
+        {
+            this(fFile, fFile.getName());
+        }
+
+        /**
+         * Constructor for Entry.
+         *
+         * @param  fFile  The file.
+         * @param  sName  Path relative to the listed directory.
+         */
+        Entry(File fFile, String sName)
+        {
+            this.fFile = fFile;
+            this.sName = sName;
+        }
+
+        /**
+         * Parses the continuation token into an entry which has the sort key values of the last
+         * returned entry.
+         *
+         * @param   fDir      The directory.
+         * @param   sToken    Continuation token.
+         * @param   esSortBy  Sort key.
+         *
+         * @return  Entry or <code>null</code> if the token is not valid.
+         */
+        static Entry parseToken(File fDir, String sToken, ESortBy esSortBy)
+        {
+            String sName = sToken;
+            long lKey = 0;
+
+            if ((esSortBy == ESortBy.MODIFIED) || (esSortBy == ESortBy.SIZE))
+            {
+                // The key cannot contain a slash, so the first one separates it from the name.
+                int iPos = sToken.indexOf('/');
+
+                if (iPos <= 0)
+                {
+                    return null;
+                }
+
+                try
+                {
+                    lKey = Long.parseLong(sToken.substring(0, iPos));
+                }
+                catch (NumberFormatException e)
+                {
+                    return null;
+                }
+
+                sName = sToken.substring(iPos + 1);
+            }
+
+            if (sName.length() == 0)
+            {
+                return null;
+            }
+
+            Entry eRes = new Entry(new File(fDir, sName), sName);
+
+            eRes.lLastModified = lKey;
+            eRes.bHasLastModified = true;
+            eRes.lSize = lKey;
+            eRes.bHasSize = true;
+
+            return eRes;
+        }
+
+        /**
+         * Returns the file modification time.
+         *
+         * @return  Modification time.
+         */
+        long getLastModified()
+        {
+            if (!bHasLastModified)
+            {
+                lLastModified = fFile.lastModified();
+                bHasLastModified = true;
+            }
+
+            return lLastModified;
+        }
+
+        /**
+         * Returns the entry type. Normal files are checked first, as they are the most common.
+         *
+         * @return  One of TYPE_FILE, TYPE_DIRECTORY or TYPE_UNKNOWN.
+         */
+        String getType()
+        {
+            if (sType == null)
+            {
+                if (fFile.isFile())
+                {
+                    sType = TYPE_FILE;
+                }
+                else if (fFile.isDirectory())
+                {
+                    sType = TYPE_DIRECTORY;
+                }
+                else
+                {
+                    sType = TYPE_UNKNOWN;
+                }
+            }
+
+            return sType;
+        }
+
+        /**
+         * Returns <code>true</code> if the entry is a directory.
+         *
+         * @return  <code>true</code> for directories.
+         */
+        boolean isDirectory()
+        {
+            return TYPE_DIRECTORY.equals(getType());
+        }
+
+        /**
+         * Returns <code>true</code> if the entry is a normal file.
+         *
+         * @return  <code>true</code> for normal files.
+         */
+        boolean isFile()
+        {
+            return TYPE_FILE.equals(getType());
+        }
+
+        /**
+         * Returns the file size.
+         *
+         * @return  File size.
+         */
+        long getSize()
+        {
+            if (!bHasSize)
+            {
+                lSize = fFile.length();
+                bHasSize = true;
+            }
+
+            return lSize;
+        }
+
+        /**
+         * Creates the continuation token for this entry.
+         *
+         * @param   esSortBy  Sort key.
+         *
+         * @return  Continuation token.
+         */
+        String toToken(ESortBy esSortBy)
+        {
+            switch (esSortBy)
+            {
+                case MODIFIED:
+                    return getLastModified() + "/" + sName;
+
+                case SIZE:
+                    return getSize() + "/" + sName;
+
+                default:
+                    return sName;
+            }
+        }
+    }
+
+    /**
+     * Compares the entries by the sort key and then by name.
+     *
+     * @author  mpoyhone
+     */
+    private static class EntryComparator
+        implements Comparator<Entry>
+    {
+        /**
+         * If <code>true</code> the order is reversed.
+         */
+        private boolean bDescending;
+        /**
+         * Sort key.
+         */
+        private ESortBy esSortBy;
+
+        /**
+         * Constructor for EntryComparator.
+         *
+         * @param  esSortBy     Sort key.
+         * @param  bDescending  If <code>true</code> the order is reversed.
+         */
+        EntryComparator(ESortBy esSortBy, boolean bDescending)
+        {
+            this.esSortBy = esSortBy;
+            this.bDescending = bDescending;
+        }
+
+        /**
+         * @see  java.util.Comparator#compare(java.lang.Object, java.lang.Object)
+         */
+        public int compare(Entry e1, Entry e2)
+        {
+            int iRes = 0;
+
+            switch (esSortBy)
+            {
+                case MODIFIED:
+                    iRes = compareLongs(e1.getLastModified(), e2.getLastModified());
+                    break;
+
+                case SIZE:
+                    iRes = compareLongs(e1.getSize(), e2.getSize());
+                    break;
+
+                default:
+                    break;
+            }
+
+            if (iRes == 0)
+            {
+                iRes = e1.sName.compareTo(e2.sName);
+            }
+
+            return bDescending ? -iRes : iRes;
+        }
+
+        /**
+         * Compares two long values.
+         *
+         * @param   l1  First value.
+         * @param   l2  Second value.
+         *
+         * @return  Comparison result.
+         */
+        private static int compareLongs(long l1, long l2)
+        {
+            return (l1 < l2) ? -1 : ((l1 == l2) ? 0 : 1);
+        }
+    }
+
+    /**
+     * Conditions for the returned entries.
+     *
+     * @author  mpoyhone
+     */
+    private static class EntryFilter
+    {
+        /**
+         * Maximum file size or -1.
+         */
+        private long lMaxSize = -1;
+        /**
+         * Minimum file size or -1.
+         */
+        private long lMinSize = -1;
+        /**
+         * Entries modified at or after this time are returned or -1.
+         */
+        private long lModifiedAfter = -1;
+        /**
+         * Entries modified before this time are returned or -1.
+         */
+        private long lModifiedBefore = -1;
+        /**
+         * Excluded names or <code>null</code>.
+         */
+        private Pattern pExclude;
+        /**
+         * Included names or <code>null</code>.
+         */
+        private Pattern pInclude;
+
+        /**
+         * Checks if the entry is returned. The name filters have already been checked.
+         *
+         * @param   eEntry  The entry.
+         *
+         * @return  <code>true</code> if the entry matches the size and time conditions.
+         */
+        boolean accept(Entry eEntry)
+        {
+            if ((lMinSize >= 0) || (lMaxSize >= 0))
+            {
+                if (!eEntry.isFile())
+                {
+                    return false;
+                }
+
+                long lSize = eEntry.getSize();
+
+                if (((lMinSize >= 0) && (lSize < lMinSize)) ||
+                        ((lMaxSize >= 0) && (lSize > lMaxSize)))
+                {
+                    return false;
+                }
+            }
+
+            if ((lModifiedAfter >= 0) || (lModifiedBefore >= 0))
+            {
+                long lModified = eEntry.getLastModified();
+
+                if (((lModifiedAfter >= 0) && (lModified < lModifiedAfter)) ||
+                        ((lModifiedBefore >= 0) && (lModified >= lModifiedBefore)))
+                {
+                    return false;
+                }
+            }
+
+            return true;
+        }
+
+        /**
+         * Checks if the name is excluded.
+         *
+         * @param   sName  File name.
+         *
+         * @return  <code>true</code> if the name matches the exclude filter.
+         */
+        boolean isExcluded(String sName)
+        {
+            return (pExclude != null) && pExclude.matcher(sName).matches();
+        }
+
+        /**
+         * Checks if the name matches the include filter.
+         *
+         * @param   sName  File name.
+         *
+         * @return  <code>true</code> if there is no include filter or the name matches it.
+         */
+        boolean isIncluded(String sName)
+        {
+            return (pInclude == null) || pInclude.matcher(sName).matches();
+        }
+    }
+
+    /**
+     * Lists one directory. The names are checked against the filters before any File objects
+     * are created.
+     *
+     * @author  mpoyhone
+     */
+    private class ListTask
+        implements Callable<Object>
+    {
+        /**
+         * If <code>true</code> the subdirectories are collected for the next level.
+         */
+        private boolean bDescend;
+        /**
+         * Filter for the entries.
+         */
+        private EntryFilter efFilter;
+        /**
+         * The directory.
+         */
+        private File fDir;
+        /**
+         * Matching entries or <code>null</code> if the directory could not be listed.
+         */
+        private List<Entry> lEntries;
+        /**
+         * Tasks for the subdirectories.
+         */
+        private List<ListTask> lSubDirs = new ArrayList<ListTask>();
+        /**
+         * Path of the directory relative to the listed directory, ending with a separator.
+         */
+        private String sPrefix;
+
+        /**
+         * Constructor for ListTask.
+         *
+         * @param  fDir      The directory.
+         * @param  sPrefix   Relative path prefix for the entries.
+         * @param  efFilter  Filter for the entries.
+         * @param  bDescend  If <code>true</code> the subdirectories are collected.
+         */
+        ListTask(File fDir, String sPrefix, EntryFilter efFilter, boolean bDescend)
+        {
+            this.fDir = fDir;
+            this.sPrefix = sPrefix;
+            this.efFilter = efFilter;
+            this.bDescend = bDescend;
+        }
+
+        /**
+         * @see  java.util.concurrent.Callable#call()
+         */
+        public Object call()
+        {
+            String[] saNames = fDir.list();
+
+            if (saNames == null)
+            {
+                return null;
+            }
+
+            List<Entry> lRes = new ArrayList<Entry>();
+
+            for (String sName : saNames)
+            {
+                if (efFilter.isExcluded(sName))
+                {
+                    continue;
+                }
+
+                // Names not matching the include filter are only needed for the
+                // subdirectories.
+                boolean bIncluded = efFilter.isIncluded(sName);
+
+                if (!bIncluded && !bDescend)
+                {
+                    continue;
+                }
+
+                File fFile = new File(fDir, sName);
+
+                if (!acConfig.isFileAllowed(fFile))
+                {
+                    continue;
+                }
+
+                String sPath = sPrefix + sName;
+
+                // The entry keeps the type, so it is not read again for the response.
+                Entry eEntry = new Entry(fFile, sPath);
+
+                if (bDescend && eEntry.isDirectory())
+                {
+                    lSubDirs.add(new ListTask(fFile, sPath + File.separatorChar, efFilter,
+                                              false));
+                }
+
+                if (bIncluded && efFilter.accept(eEntry))
+                {
+                    lRes.add(eEntry);
+                }
+            }
+
+            lEntries = lRes;
+
+            return null;
+        }
+    }
 }
@@ -30,7 +30,8 @@ import com.cordys.coe.ac.fileconnector.utils.XmlUtils;
 import java.io.File;
 
 /**
- * Implements MoveFile SOAP method.
+ * Implements MoveFile SOAP method. Several files can be moved in one request by using the
+ * <code>files</code> or <code>sourceDirectory</code> parameters (see BatchFileOperation).
  *
  * @author  mpoyhone
  */
@@ -91,17 +92,56 @@ public class MoveFileMethod
                     throws FileException
     {
         int requestNode = req.getRequestRootNode();
+        final boolean bOverwriteExisting = XmlUtils.getBooleanParameter(requestNode,
+                                                                        PARAM_OVERWRITE_EXISITING);
+
+        if (BatchFileOperation.isBatchRequest(requestNode))
+        {
+            new BatchFileOperation(acConfig, PARAM_OLDFILENAME, PARAM_NEWFILENAME)
+                {
+                    protected void execute(File fSrcFile, File fDestFile)
+                                    throws FileException
+                    {
+                        move(fSrcFile, fDestFile, bOverwriteExisting);
+                    }
+                }.process(req);
+
+            return EResult.FINISHED;
+        }
 
         // Get the needed parameters from the SOAP request
         String sOldFileName = XmlUtils.getStringParameter(requestNode, PARAM_OLDFILENAME, true);
         String sNewFileName = XmlUtils.getStringParameter(requestNode, PARAM_NEWFILENAME, true);
-        boolean bOverwriteExisting = XmlUtils.getBooleanParameter(requestNode,
-                                                                  PARAM_OVERWRITE_EXISITING);
 
         // Create File objects for the source and destination files
         File fSrcFile = new File(sOldFileName);
         File fDestFile = new File(sNewFileName);
 
+        move(fSrcFile, fDestFile, bOverwriteExisting);
+
+        return EResult.FINISHED;
+    }
+
+    /**
+     * @see  com.cordys.coe.ac.fileconnector.IFileConnectorMethod#getMethodName()
+     */
+    public String getMethodName()
+    {
+        return METHOD_NAME;
+    }
+
+    /**
+     * Checks the files and moves the source file to the destination file.
+     *
+     * @param   fSrcFile            Source file.
+     * @param   fDestFile           Destination file.
+     * @param   bOverwriteExisting  If <code>true</code> an existing destination file is replaced.
+     *
+     * @throws  FileException  Thrown if the files are not valid or the move failed.
+     */
+    private void move(File fSrcFile, File fDestFile, boolean bOverwriteExisting)
+               throws FileException
+    {
         // Do some sanity checking.
         if (!acConfig.isFileAllowed(fSrcFile))
         {
@@ -145,8 +185,8 @@ public class MoveFileMethod
         if (!fSrcFile.renameTo(fDestFile))
         {
             // Files might be on different file systems, so copy the source file contents to the
-            // destination file
-            GeneralUtils.copyFile(fSrcFile, fDestFile);
+            // destination file. The modification time is kept as with the rename.
+            GeneralUtils.copyFile(fSrcFile, fDestFile, true);
 
             // Delete the source file
             if (!fSrcFile.delete())
@@ -155,15 +195,5 @@ public class MoveFileMethod
                 throw new FileException(LogMessages.UNABLE_TO_DELETE_SRC_FILE);
             }
         }
-
-        return EResult.FINISHED;
-    }
-
-    /**
-     * @see  com.cordys.coe.ac.fileconnector.IFileConnectorMethod#getMethodName()
-     */
-    public String getMethodName()
-    {
-        return METHOD_NAME;
     }
 }
@@ -57,6 +57,11 @@ public class ReadFileMethod
      * The charset parameter for WriteFile and ReadFile.
      */
     private static final String PARAM_CHARSET = "charset";
+    /**
+     * The decompress parameter for ReadFile. If set, gzip compressed files are decompressed. By
+     * default only files that are not read in the encoded form are decompressed.
+     */
+    private static final String PARAM_DECOMPRESS = "decompress";
     /**
      * Contains the FileConnector configuration.
      */
@@ -100,6 +105,9 @@ public class ReadFileMethod
         String fileName = XmlUtils.getStringParameter(requestNode, PARAM_FILENAME, true);
         boolean encoded = XmlUtils.getBooleanParameter(requestNode, PARAM_ENCODED);
         String charset = XmlUtils.getStringParameter(requestNode, PARAM_CHARSET, false);
+        boolean decompress = "true".equals(XmlUtils.getStringParameter(requestNode,
+                                                                       PARAM_DECOMPRESS,
+                                                                       Boolean.toString(!encoded)));
 
         File file = new File(fileName);
 
@@ -116,7 +124,7 @@ public class ReadFileMethod
 
         try
         {
-            byte[] cont = GeneralUtils.readFile(file);
+            byte[] cont = GeneralUtils.readFile(file, decompress);
 
             // Create the response.
             if (encoded)
@@ -26,7 +26,10 @@ import com.cordys.coe.ac.fileconnector.exception.FileException;
 import com.cordys.coe.ac.fileconnector.utils.ExcelRead;
 import com.cordys.coe.ac.fileconnector.utils.FileCharSequence;
 import com.cordys.coe.ac.fileconnector.utils.GeneralUtils;
+import com.cordys.coe.ac.fileconnector.utils.GzipFileCharSequence;
 import com.cordys.coe.ac.fileconnector.utils.XmlUtils;
+import com.cordys.coe.ac.fileconnector.utils.excel.ExcelRowCache;
+import com.cordys.coe.ac.fileconnector.utils.excel.ExcelWorkbookInfoCache;
 import com.cordys.coe.ac.fileconnector.validator.RecordValidator;
 import com.cordys.coe.ac.fileconnector.validator.ValidatorConfig;
 import com.cordys.coe.ac.fileconnector.validator.RecordValidator.ErrorRecordDetails;
@@ -95,6 +98,10 @@ public class ReadFileRecordsMethod
      * Indicates whether to continue on error or not.
      */
     private static final String PARAM_CONTINUEONERROR = "continueonerror";
+    /**
+     * Maximum number of Excel files for which the parsed workbook metadata is cached.
+     */
+    private static final int EXCEL_WORKBOOK_CACHE_ENTRIES = 16;
     /**
      * Contains the FileConnector configuration.
      */
@@ -107,12 +114,27 @@ public class ReadFileRecordsMethod
      * Configuration reload flag.
      */
     private boolean reloadConfiguration;
+    /**
+     * Contains the parsed metadata of recently read Excel files.
+     */
+    private ExcelWorkbookInfoCache workbookInfoCache;
+    /**
+     * Contains the rows of recently read Excel sheets or <code>null</code> if disabled.
+     */
+    private ExcelRowCache rowCache;
 
     /**
      * @see  com.cordys.coe.ac.fileconnector.IFileConnectorMethod#cleanup()
      */
     public void cleanup()
             throws ConfigException {
+        if (workbookInfoCache != null) {
+            workbookInfoCache.clear();
+        }
+
+        if (rowCache != null) {
+            rowCache.clear();
+        }
     }
 
     /**
@@ -146,6 +168,11 @@ public class ReadFileRecordsMethod
     public boolean initialize(ApplicationConfiguration acConfig)
             throws ConfigException {
         this.acConfig = acConfig;
+        this.workbookInfoCache = new ExcelWorkbookInfoCache(EXCEL_WORKBOOK_CACHE_ENTRIES);
+
+        long lRowCacheSize = acConfig.getExcelRowCacheSize();
+
+        this.rowCache = (lRowCacheSize > 0) ? new ExcelRowCache(lRowCacheSize) : null;
 
         return true;
     }
@@ -154,6 +181,13 @@ public class ReadFileRecordsMethod
      * @see  com.cordys.coe.ac.fileconnector.IFileConnectorMethod#onReset()
      */
     public void onReset() {
+        if (workbookInfoCache != null) {
+            workbookInfoCache.clear();
+        }
+
+        if (rowCache != null) {
+            rowCache.clear();
+        }
     }
 
     /**
@@ -176,8 +210,17 @@ public class ReadFileRecordsMethod
             w.raFile = new RandomAccessFile(w.fInputFile, "r");
             w.fcFileChannel = w.raFile.getChannel();
 
-            w.fcsInputSeq = new FileCharSequence(w.fcFileChannel, w.raFile.length(), 0, 10240,
-                    w.cReadCharSet);
+            if (GeneralUtils.isGzipFile(w.fInputFile)) {
+                // Compressed files are decompressed while reading, so they can only be read
+                // forward. The uncompressed length is known when the end has been reached.
+                w.lDataLength = -1;
+                w.fcsInputSeq = new GzipFileCharSequence(w.fcFileChannel, w.lDataLength, 0, 10240,
+                        w.cReadCharSet);
+            } else {
+                w.lDataLength = w.raFile.length();
+                w.fcsInputSeq = new FileCharSequence(w.fcFileChannel, w.lDataLength, 0, 10240,
+                        w.cReadCharSet);
+            }
 
             bSuccess = true;
         } catch (Exception e) {
@@ -243,6 +286,7 @@ public class ReadFileRecordsMethod
         int iStartRecordNumber = 0;
         long lEndFileOffset = 0;
         long lFileSize = -1;
+        ExcelRead.Result erResult = null;
         FileWrapper w = new FileWrapper(fFile, cCharset);
 
         try {
@@ -261,11 +305,18 @@ public class ReadFileRecordsMethod
                 if (vcConfig.mConfigMap.get("excel").sSheetindex != null) {
                     iSheetNumber = Integer.parseInt(vcConfig.mConfigMap.get("excel").sSheetindex);
                 }
-                ExcelRead.validate(vcConfig, sFileName, dDoc, iResultNode, iSheetNumber,(int) lOffset, (int)iNumRecords, lErrorList);
-
-                if (lErrorList.isEmpty() && !bValidateOnly) {
+                // The columns are validated and the records read in one pass.
+                if (!bValidateOnly) {
                     iResultNode = dDoc.createElement("data");
-                    ExcelRead.readall(vcConfig, bUseTupleOld, sFileName, dDoc, iResultNode, iSheetNumber, (int) lOffset, (int)iNumRecords, -1, -1);
+                }
+
+                ExcelRead erReader = new ExcelRead(vcConfig, workbookInfoCache, rowCache);
+
+                erResult = erReader.read(sFileName, dDoc, iResultNode, bUseTupleOld, iSheetNumber, (int) lOffset, iNumRecords, lErrorList);
+
+                if (!lErrorList.isEmpty() && (iResultNode != 0)) {
+                    Node.delete(iResultNode);
+                    iResultNode = 0;
                 }
             } else { //For other file types
 
@@ -286,8 +337,6 @@ public class ReadFileRecordsMethod
                     iResNode = dDoc.createElement("data");
                 }
 
-                lFileSize = w.raFile.length();
-
                 boolean atEndOfFile = false;
 
                 // Read the required records.
@@ -387,6 +436,7 @@ public class ReadFileRecordsMethod
                 }
 
                 lEndFileOffset = lCurrentFileOffset;
+                lFileSize = w.fcsInputSeq.getFileLength();
 
                 iResultNode = iResNode;
             }
@@ -398,8 +448,8 @@ public class ReadFileRecordsMethod
 
         if (sFileType.equalsIgnoreCase("Excel")) { //Check for files of Type Excel
             req.addResponseElement("endoffset", "n/a");
-            req.addResponseElement("recordsread", ""+ExcelRead.getRecordsread());
-            req.addResponseElement("endoffile", ""+ExcelRead.getEndoffile());
+            req.addResponseElement("recordsread", (erResult != null) ? Integer.toString(erResult.getRecordsRead()) : "0");
+            req.addResponseElement("endoffile", (erResult != null) ? Boolean.toString(erResult.isEndOfFile()) : "false");
         } else {
             req.addResponseElement("endoffset", Long.toString(lEndFileOffset));
             req.addResponseElement("recordsread", Long.toString(iNumberOfReadRecords));
@@ -570,6 +620,11 @@ public class ReadFileRecordsMethod
          * Actual file to be read.
          */
         File fInputFile;
+        /**
+         * Length of the file data. For compressed files this is -1 as the uncompressed length is
+         * not known until the file has been read.
+         */
+        long lDataLength;
         /**
          * The input file object.
          */
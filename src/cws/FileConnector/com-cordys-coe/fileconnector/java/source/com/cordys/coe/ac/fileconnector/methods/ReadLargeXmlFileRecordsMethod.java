@@ -24,7 +24,9 @@ import com.cordys.coe.ac.fileconnector.ISoapRequestContext;
 import com.cordys.coe.ac.fileconnector.LogMessages;
 import com.cordys.coe.ac.fileconnector.exception.ConfigException;
 import com.cordys.coe.ac.fileconnector.exception.FileException;
+import com.cordys.coe.ac.fileconnector.methods.largexml.CheckpointIndex;
 import com.cordys.coe.ac.fileconnector.methods.largexml.LargeXmlFileReader;
+import com.cordys.coe.ac.fileconnector.methods.largexml.ParallelRecordCounter;
 import com.cordys.coe.ac.fileconnector.methods.largexml.SimpleXPath;
 import com.cordys.coe.ac.fileconnector.methods.largexml.XmlTraverseContext;
 import com.cordys.coe.ac.fileconnector.utils.XmlUtils;
@@ -32,6 +34,7 @@ import com.cordys.coe.ac.fileconnector.utils.XmlUtils;
 import com.eibus.util.logger.CordysLogger;
 
 import com.eibus.xml.nom.Document;
+import com.eibus.xml.nom.Find;
 import com.eibus.xml.nom.Node;
 
 import java.io.File;
@@ -61,7 +64,9 @@ public class ReadLargeXmlFileRecordsMethod
      */
     private static final String PARAM_FILENAME = "filename";
     /**
-     * XML select path request parameter for ReadLargeXMLFileRecords.
+     * XML select path request parameter for ReadLargeXMLFileRecords. This can be given multiple
+     * times, in which case the records for all paths are read in one pass and returned grouped by
+     * the path.
      */
     private static final String PARAM_SELECTPATH = "selectPath";
     /**
@@ -81,6 +86,22 @@ public class ReadLargeXmlFileRecordsMethod
      * the file, this parameter must be passed from the previous response.
      */
     private static final String PARAM_CURSORDATA = "cursorData";
+    /**
+     * Start record parameter for ReadLargeXMLFileRecords. If set and no cursor data is given, the
+     * reading is started from this record (starting from zero) using the nearest checkpoint from
+     * the checkpoint index file.
+     */
+    private static final String PARAM_STARTRECORD = "startrecord";
+    /**
+     * Checkpoint interval parameter for ReadLargeXMLFileRecords. If set and there is no valid
+     * checkpoint index for the file, the index is created with a checkpoint after every N records.
+     */
+    private static final String PARAM_CHECKPOINTINTERVAL = "checkpointinterval";
+    /**
+     * Parallelism parameter for ReadLargeXMLFileRecords. If greater than one and all records are
+     * only validated, the file is split into partitions which are counted with this many threads.
+     */
+    private static final String PARAM_PARALLELISM = "parallelism";
     /**
      * Contains the FileConnector configuration.
      */
@@ -128,10 +149,22 @@ public class ReadLargeXmlFileRecordsMethod
         // Get the needed parameters from the SOAP request
         String sFileName = XmlUtils.getStringParameter(requestNode, PARAM_FILENAME, true);
         String sFileSelectPath = XmlUtils.getStringParameter(requestNode, PARAM_SELECTPATH, true);
+        int[] iaSelectPathNodes = Find.match(requestNode, "<><" + PARAM_SELECTPATH + ">");
+        String[] saSelectPaths = new String[iaSelectPathNodes.length];
+        boolean bMultiPath = (saSelectPaths.length > 1);
+
+        for (int i = 0; i < saSelectPaths.length; i++)
+        {
+            saSelectPaths[i] = Node.getDataWithDefault(iaSelectPathNodes[i], "");
+        }
         int iNumRecords = (int) XmlUtils.getLongParameter(requestNode, PARAM_NUMRECORDS, true);
         boolean bValidateOnly = XmlUtils.getBooleanParameter(requestNode, PARAM_VALIDATEONLY);
         boolean bReturnAsText = XmlUtils.getBooleanParameter(requestNode, PARAM_RETURNASTEXT);
         String sCursorData = XmlUtils.getStringParameter(requestNode, PARAM_CURSORDATA, false);
+        long lStartRecord = XmlUtils.getLongParameter(requestNode, PARAM_STARTRECORD, 0L);
+        int iCheckpointInterval = (int) XmlUtils.getLongParameter(requestNode,
+                                                                  PARAM_CHECKPOINTINTERVAL, 0L);
+        int iParallelism = (int) XmlUtils.getLongParameter(requestNode, PARAM_PARALLELISM, 0L);
 
         if (LOG.isDebugEnabled())
         {
@@ -157,6 +190,27 @@ public class ReadLargeXmlFileRecordsMethod
             }
         }
 
+        // Parse the select path. Invalid predicates are reported here.
+        SimpleXPath xpSelectPath;
+
+        try
+        {
+            xpSelectPath = new SimpleXPath(saSelectPaths);
+        }
+        catch (IllegalArgumentException e)
+        {
+            throw new FileException(e,LogMessages.UNABLE_TO_CREATE_XPATH,e.getMessage());
+        }
+
+        // Position predicates are counted from the start of the file, so the read cannot be
+        // resumed from a saved context. Start records are skipped by reading from the beginning.
+        boolean bResumable = !xpSelectPath.hasPositionPredicates();
+
+        if (!bResumable && ((ctx != null) || (iCheckpointInterval > 0)))
+        {
+            throw new FileException(LogMessages.POSITION_PREDICATES_NOT_RESUMABLE);
+        }
+
         // Do some sanity checking.
         if (!acConfig.isFileAllowed(fFile))
         {
@@ -168,91 +222,208 @@ public class ReadLargeXmlFileRecordsMethod
             throw new FileException(LogMessages.FILE_NOT_EXIST);
         }
 
-        // Create the file reader object. For previously opened file, this opens
-        // the file where the previous read was finished.
-        LargeXmlFileReader reader;
+        // Find the nearest checkpoint for the start record. The rest of the records are skipped
+        // after opening the file. Checkpoint indexes are only used for a single select path.
+        long lSkipRecords = 0;
 
-        try
+        if ((ctx == null) && (lStartRecord > 0))
         {
-            reader = new LargeXmlFileReader(fFile, ctx, true);
+            CheckpointIndex ciIndex = (bMultiPath || !bResumable)
+                                      ? null
+                                      : getCheckpointIndex(fFile, sFileSelectPath,
+                                                           iCheckpointInterval);
+            int iCheckpoint = (ciIndex != null) ? ciIndex.findCheckpoint(lStartRecord) : -1;
+
+            if (iCheckpoint >= 0)
+            {
+                try
+                {
+                    ctx = ciIndex.getContext(iCheckpoint);
+                }
+                catch (Exception e)
+                {
+                    throw new FileException(e,LogMessages.UNABLE_TO_PARSE_CURSOR_DATA);
+                }
+
+                lSkipRecords = lStartRecord - ciIndex.getRecordNumber(iCheckpoint);
+            }
+            else
+            {
+                lSkipRecords = lStartRecord;
+            }
         }
-        catch (Exception e)
+        else if ((ctx == null) && (iCheckpointInterval > 0) && !bMultiPath)
         {
-            throw new FileException(e,LogMessages.UNABLE_TO_OPEN_FILE,fFile);
+            // Only build the index.
+            getCheckpointIndex(fFile, sFileSelectPath, iCheckpointInterval);
         }
 
-        reader.setCurrentXPath(new SimpleXPath(sFileSelectPath));
-
-        // Process the file based on the request parameters.
-        int iResultNode = 0;
         List<FileException> lErrorList = new LinkedList<FileException>();
         Document dDoc = req.getNomDocument();
         int iRecordsRead = 0;
+        boolean bCounted = false;
 
-        try
+        // When only counting all the records, try to split the file and count in parallel.
+        if (bValidateOnly && (iParallelism > 1) && (ctx == null) && (lSkipRecords == 0) &&
+                (iNumRecords < 0) && !bMultiPath)
         {
-            if (!bValidateOnly)
+            ParallelRecordCounter prcCounter = new ParallelRecordCounter(fFile, sFileSelectPath,
+                                                                         iParallelism);
+
+            try
+            {
+                if (prcCounter.count())
+                {
+                    iRecordsRead = (int) prcCounter.getRecordCount();
+                    ctx = prcCounter.getEndContext();
+                    bCounted = true;
+                }
+            }
+            catch (Exception e)
             {
-                iResultNode = req.addResponseElement("data");
+                // The file is read sequentially, which reports the error.
+                if (LOG.isDebugEnabled())
+                {
+                    LOG.debug("Parallel record count failed for file " + fFile, e);
+                }
             }
+        }
 
-            if (iNumRecords < 0)
+        if (!bCounted)
+        {
+            // Create the file reader object. For previously opened file, this opens
+            // the file where the previous read was finished.
+            LargeXmlFileReader reader;
+
+            try
             {
-                iNumRecords = Integer.MAX_VALUE;
+                reader = new LargeXmlFileReader(fFile, ctx, true);
             }
+            catch (Exception e)
+            {
+                throw new FileException(e,LogMessages.UNABLE_TO_OPEN_FILE,fFile);
+            }
+
+            reader.setCurrentXPath(xpSelectPath);
+
+            // Process the file based on the request parameters.
+            int iResultNode = 0;
 
-            if (!reader.isAtEnd())
+            try
             {
-                // Read the requested requested records.
-                for (int i = 0; i < iNumRecords; i++)
+                if (!bValidateOnly)
                 {
-                    int res = reader.findNext(dDoc, !bValidateOnly);
+                    iResultNode = req.addResponseElement("data");
+                }
 
-                    if (res == 0)
+                if (iNumRecords < 0)
+                {
+                    iNumRecords = Integer.MAX_VALUE;
+                }
+
+                // Skip the records between the checkpoint and the start record.
+                for (long l = 0; (l < lSkipRecords) && !reader.isAtEnd(); l++)
+                {
+                    if (reader.findNext(dDoc, false) == 0)
                     {
                         break;
                     }
+                }
+
+                // If we are returning the XML as text, the records are written directly as
+                // text without creating NOM nodes.
+                StringBuilder sbText = ((iResultNode != 0) && bReturnAsText)
+                                       ? new StringBuilder(4096) : null;
+
+                // With multiple select paths the records are put under a group element for
+                // each path.
+                int[] iaGroupNodes = null;
+                StringBuilder[] sbaGroupText = null;
+
+                if (bMultiPath && (iResultNode != 0))
+                {
+                    iaGroupNodes = new int[saSelectPaths.length];
 
-                    if (!bValidateOnly)
+                    for (int i = 0; i < saSelectPaths.length; i++)
                     {
-                        Node.appendToChildren(res, iResultNode);
+                        iaGroupNodes[i] = Node.createElement("records", iResultNode);
+                        Node.setAttribute(iaGroupNodes[i], "path", saSelectPaths[i]);
                     }
 
-                    iRecordsRead++;
-                }
-            }
+                    if (sbText != null)
+                    {
+                        sbaGroupText = new StringBuilder[saSelectPaths.length];
 
-            // If we are returning the XML as text replace the node contents
-            // with text.
-            if ((iResultNode != 0) && bReturnAsText)
-            {
-                String sContents = Node.writeToString(iResultNode, false);
-                int iStartPos;
-                int iEndPos;
+                        for (int i = 0; i < sbaGroupText.length; i++)
+                        {
+                            sbaGroupText[i] = new StringBuilder(1024);
+                        }
+                    }
+                }
 
-                // Remove <data> and </data> tags.
-                iStartPos = sContents.indexOf("<data>");
-                iEndPos = sContents.lastIndexOf("</data>");
+                if (!reader.isAtEnd())
+                {
+                    // Read the requested requested records.
+                    for (int i = 0; i < iNumRecords; i++)
+                    {
+                        if (sbText != null)
+                        {
+                            if (!reader.findNextAsText(sbText))
+                            {
+                                break;
+                            }
+
+                            if (sbaGroupText != null)
+                            {
+                                sbaGroupText[xpSelectPath.getMatchedPathIndex()].append(sbText);
+                                sbText.setLength(0);
+                            }
+                        }
+                        else
+                        {
+                            int res = reader.findNext(dDoc, !bValidateOnly);
+
+                            if (res == 0)
+                            {
+                                break;
+                            }
+
+                            if (!bValidateOnly)
+                            {
+                                int iParentNode = (iaGroupNodes != null)
+                                                  ? iaGroupNodes[xpSelectPath.getMatchedPathIndex()]
+                                                  : iResultNode;
+
+                                Node.appendToChildren(res, iParentNode);
+                            }
+                        }
+
+                        iRecordsRead++;
+                    }
+                }
 
-                if ((iStartPos >= 0) && (iEndPos > iStartPos))
+                if (sbaGroupText != null)
+                {
+                    for (int i = 0; i < sbaGroupText.length; i++)
+                    {
+                        Node.setDataElement(iaGroupNodes[i], "", sbaGroupText[i].toString());
+                    }
+                }
+                else if (sbText != null)
                 {
-                    sContents = sContents.substring(iStartPos + 6, iEndPos);
+                    Node.setDataElement(iResultNode, "", sbText.toString());
                 }
 
-                // Replace the contents with the string version.
-                Node.delete(Node.getFirstChild(iResultNode), Node.getLastChild(iResultNode));
-                Node.setDataElement(iResultNode, "", sContents);
+                ctx = reader.getCurrentContext();
+            }
+            catch (Exception e)
+            {
+                lErrorList.add(new FileException(e,LogMessages.UNABLE_TO_PERFORM_XMLQUERY,fFile));
+            }
+            finally
+            {
+                reader.close();
             }
-
-            ctx = reader.getCurrentContext();
-        }
-        catch (Exception e)
-        {
-            lErrorList.add(new FileException(e,LogMessages.UNABLE_TO_PERFORM_XMLQUERY,fFile));
-        }
-        finally
-        {
-            reader.close();
         }
 
         String sResponseCursorData;
@@ -311,4 +482,70 @@ public class ReadLargeXmlFileRecordsMethod
     {
         return METHOD_NAME;
     }
+
+    /**
+     * Returns the checkpoint index for the file. If the index file does not exist or it is out of
+     * date, a new index is created when the checkpoint interval is set.
+     *
+     * @param   fFile        XML file.
+     * @param   sSelectPath  Select path for the records.
+     * @param   iInterval    Checkpoint interval or zero if the index is not to be created.
+     *
+     * @return  Checkpoint index or <code>null</code> if no index is available.
+     *
+     * @throws  FileException  Thrown if the index could not be created.
+     */
+    private CheckpointIndex getCheckpointIndex(File fFile, String sSelectPath, int iInterval)
+                                        throws FileException
+    {
+        File fIndexFile = CheckpointIndex.getIndexFile(fFile);
+
+        if (!acConfig.isFileAllowed(fIndexFile))
+        {
+            if (iInterval > 0)
+            {
+                throw new FileException(LogMessages.FILE_ACCESS_NOT_ALLOWED);
+            }
+
+            return null;
+        }
+
+        if (fIndexFile.exists())
+        {
+            try
+            {
+                CheckpointIndex ciIndex = CheckpointIndex.load(fIndexFile);
+
+                if (ciIndex.isValidFor(fFile, sSelectPath))
+                {
+                    return ciIndex;
+                }
+            }
+            catch (Exception e)
+            {
+                if (LOG.isDebugEnabled())
+                {
+                    LOG.debug("Unable to load the checkpoint index " + fIndexFile, e);
+                }
+            }
+        }
+
+        if (iInterval <= 0)
+        {
+            return null;
+        }
+
+        try
+        {
+            CheckpointIndex ciIndex = CheckpointIndex.build(fFile, sSelectPath, iInterval);
+
+            ciIndex.save(fIndexFile);
+
+            return ciIndex;
+        }
+        catch (Exception e)
+        {
+            throw new FileException(e,LogMessages.UNABLE_TO_CREATE_CHECKPOINT_INDEX,fIndexFile);
+        }
+    }
 }
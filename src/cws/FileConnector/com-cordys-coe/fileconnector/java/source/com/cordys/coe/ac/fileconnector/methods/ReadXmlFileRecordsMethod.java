@@ -24,7 +24,10 @@ import com.cordys.coe.ac.fileconnector.ISoapRequestContext;
 import com.cordys.coe.ac.fileconnector.LogMessages;
 import com.cordys.coe.ac.fileconnector.exception.ConfigException;
 import com.cordys.coe.ac.fileconnector.exception.FileException;
+import com.cordys.coe.ac.fileconnector.methods.largexml.LargeXmlFileReader;
+import com.cordys.coe.ac.fileconnector.methods.largexml.SimpleXPath;
 import com.cordys.coe.ac.fileconnector.utils.XPathWrapper;
+import com.cordys.coe.ac.fileconnector.utils.XmlDocumentCache;
 import com.cordys.coe.ac.fileconnector.utils.XmlUtils;
 import com.cordys.coe.util.FileUtils;
 
@@ -38,6 +41,7 @@ import java.io.InputStream;
 import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.regex.Pattern;
 
 /**
  * Implements ReadXMLFileRecords SOAP method.
@@ -75,10 +79,27 @@ public class ReadXmlFileRecordsMethod
      * Validation only request parameter for ReadXmlFileRecords.
      */
     private static final String PARAM_VALIDATEONLY = "validateonly";
+    /**
+     * Streaming request parameter for ReadXmlFileRecords. If <code>true</code> (default), simple
+     * select paths are evaluated while parsing the file and the parsing is stopped when all the
+     * requested records have been read.
+     */
+    private static final String PARAM_STREAMING = "streaming";
+    /**
+     * Matches select paths that can be evaluated with SimpleXPath, i.e. absolute paths consisting
+     * only of unprefixed element names.
+     */
+    private static final Pattern STREAMING_PATH_PATTERN =
+        Pattern.compile("(/[A-Za-z_][A-Za-z0-9_.\\-]*)+");
     /**
      * Contains the FileConnector configuration.
      */
     private ApplicationConfiguration acConfig;
+    /**
+     * Contains the parsed XML files for paging through the same file or <code>null</code> if
+     * caching is disabled.
+     */
+    private XmlDocumentCache documentCache;
 
     /**
      * @see  com.cordys.coe.ac.fileconnector.IFileConnectorMethod#cleanup()
@@ -86,6 +107,10 @@ public class ReadXmlFileRecordsMethod
     public void cleanup()
                  throws ConfigException
     {
+        if (documentCache != null)
+        {
+            documentCache.clear();
+        }
     }
 
     /**
@@ -96,6 +121,10 @@ public class ReadXmlFileRecordsMethod
     {
         this.acConfig = acConfig;
 
+        long lCacheSize = acConfig.getXmlDocumentCacheSize();
+
+        documentCache = (lCacheSize > 0) ? new XmlDocumentCache(lCacheSize) : null;
+
         return true;
     }
 
@@ -104,6 +133,10 @@ public class ReadXmlFileRecordsMethod
      */
     public void onReset()
     {
+        if (documentCache != null)
+        {
+            documentCache.clear();
+        }
     }
 
     /**
@@ -121,6 +154,8 @@ public class ReadXmlFileRecordsMethod
         int iSelectOffset = (int) XmlUtils.getLongParameter(requestNode, PARAM_OFFSET, true);
         boolean bValidateOnly = XmlUtils.getBooleanParameter(requestNode, PARAM_VALIDATEONLY);
         boolean bReturnAsText = XmlUtils.getBooleanParameter(requestNode, PARAM_RETURNASTEXT);
+        boolean bStreaming = "true".equals(XmlUtils.getStringParameter(requestNode, PARAM_STREAMING,
+                                                                       "true"));
 
         // Create File objects for the source fileacCo
         File fFile = new File(sFileName);
@@ -142,38 +177,146 @@ public class ReadXmlFileRecordsMethod
             sFileSelectPath = "/" + sFileSelectPath;
         }
 
-        int iResultNode = 0;
         List<FileException> lErrorList = new LinkedList<FileException>();
+        Document dDoc = req.getNomDocument();
+        int iRecordsRead;
+
+        if (bStreaming && STREAMING_PATH_PATTERN.matcher(sFileSelectPath).matches())
+        {
+            iRecordsRead = readRecordsStreaming(req, fFile, sFileSelectPath, iSelectOffset,
+                                                iNumRecords, bValidateOnly, bReturnAsText,
+                                                lErrorList);
+        }
+        else
+        {
+            iRecordsRead = readRecordsFromDocument(req, fFile, sFileSelectPath, iSelectOffset,
+                                                   iNumRecords, bValidateOnly, bReturnAsText,
+                                                   lErrorList);
+        }
+
+        req.addResponseElement("endoffset", Integer.toString(iSelectOffset + iRecordsRead));
+        req.addResponseElement("recordsread", Integer.toString(iRecordsRead));
+
+        // Add the errors to the reply
+        if (lErrorList.size() > 0)
+        {
+            int iErrorsNode = req.addResponseElement("errors");
+
+            // Iterate over the exceptions and create an error line element for each line
+            for (Iterator<FileException> iter = lErrorList.iterator(); iter.hasNext();)
+            {
+                Throwable eException = iter.next();
+                StringBuffer sbLine = new StringBuffer(80);
+
+                while (eException != null)
+                {
+                    if (sbLine.length() > 0)
+                    {
+                        sbLine.append(" * ");
+                    }
+
+                    sbLine.append(eException.getMessage());
+
+                    eException = eException.getCause();
+                }
+
+                dDoc.createTextElement("item", sbLine.toString(), iErrorsNode);
+            }
+        }
+
+        // Add error count to all replies
+        req.addResponseElement("errorcount", Integer.toString(lErrorList.size()));
+
+        return EResult.FINISHED;
+    }
+
+    /**
+     * @see  com.cordys.coe.ac.fileconnector.IFileConnectorMethod#getMethodName()
+     */
+    public String getMethodName()
+    {
+        return METHOD_NAME;
+    }
+
+    /**
+     * Reads the records by parsing the whole file into a NOM tree and evaluating the select path
+     * over it. The parsed tree and the XPath results are kept in the document cache, so the
+     * following pages of the same file are copied from the cached tree.
+     *
+     * @param   req            Current SOAP request.
+     * @param   fFile          File to be read.
+     * @param   sSelectPath    Select path.
+     * @param   iSelectOffset  Index of the first record to be returned.
+     * @param   iNumRecords    Number of records to be returned or -1 for all.
+     * @param   bValidateOnly  If <code>true</code> records are not returned.
+     * @param   bReturnAsText  If <code>true</code> records are returned as XML text.
+     * @param   lErrorList     Errors are added to this list.
+     *
+     * @return  Number of records read.
+     */
+    private int readRecordsFromDocument(ISoapRequestContext req, File fFile, String sSelectPath,
+                                        int iSelectOffset, int iNumRecords,
+                                        boolean bValidateOnly, boolean bReturnAsText,
+                                        List<FileException> lErrorList)
+    {
+        int iResultNode = 0;
         int iFileContentsNode = 0;
         InputStream isInput = null;
         Document dDoc = req.getNomDocument();
         int iRecordsRead = 0;
+        XmlDocumentCache.Entry ceCached = null;
+
+        if (documentCache != null)
+        {
+            ceCached = documentCache.acquire(fFile);
+        }
 
         try
         {
-            try
+            if (ceCached == null)
             {
-                // Read and parse file contents.
-                isInput = new FileInputStream(fFile);
+                // Get these before reading, so that a concurrent modification invalidates the
+                // cached document.
+                long lLastModified = fFile.lastModified();
+                long lFileSize = fFile.length();
 
-                String sFileContents = FileUtils.readTextStreamContents(isInput);
+                try
+                {
+                    // Read and parse file contents.
+                    isInput = new FileInputStream(fFile);
 
-                iFileContentsNode = dDoc.parseString(sFileContents);
-            }
-            catch (Exception e)
-            {
-                lErrorList.add(new FileException(e,LogMessages.UNABLE_TO_READ_INPUT_FILE,fFile ));
-            }
-            finally
-            {
-                FileUtils.closeStream(isInput);
+                    String sFileContents = FileUtils.readTextStreamContents(isInput);
+
+                    iFileContentsNode = dDoc.parseString(sFileContents);
+                }
+                catch (Exception e)
+                {
+                    lErrorList.add(new FileException(e,LogMessages.UNABLE_TO_READ_INPUT_FILE,fFile ));
+                }
+                finally
+                {
+                    FileUtils.closeStream(isInput);
+                }
+
+                if ((documentCache != null) && (iFileContentsNode != 0))
+                {
+                    ceCached = documentCache.put(fFile, lLastModified, lFileSize,
+                                                 iFileContentsNode);
+
+                    if (ceCached != null)
+                    {
+                        // The cache owns the tree now.
+                        iFileContentsNode = 0;
+                    }
+                }
             }
 
             try
             {
                 // Find the start node
-                XPathWrapper xqQuery = acConfig.getXPathFactory().createWrapper(sFileSelectPath);
-                int[] iaNodes = xqQuery.findAllNodes(iFileContentsNode);
+                XPathWrapper xqQuery = acConfig.getXPathFactory().createWrapper(sSelectPath);
+                int[] iaNodes = (ceCached != null) ? ceCached.findAllNodes(xqQuery)
+                                                   : xqQuery.findAllNodes(iFileContentsNode);
 
                 if ((iaNodes == null) || (iaNodes.length == 0))
                 {
@@ -197,11 +340,21 @@ public class ReadXmlFileRecordsMethod
                         if (!bValidateOnly)
                         {
                             int iSelectNode = iaNodes[i];
-                            boolean isRoot = Node.getParent(iSelectNode) == 0;
+
+                            if (ceCached != null)
+                            {
+                                // Copy the record from the cached tree.
+                                iSelectNode = Node.appendToChildren(Node.duplicate(iSelectNode),
+                                                                    iResultNode);
+                            }
+                            else
+                            {
+                                boolean isRoot = Node.getParent(iSelectNode) == 0;
                                 
-                            iSelectNode = Node.appendToChildren(iSelectNode, iResultNode);
-                            if (isRoot) {
-                                iFileContentsNode = 0;
+                                iSelectNode = Node.appendToChildren(iSelectNode, iResultNode);
+                                if (isRoot) {
+                                    iFileContentsNode = 0;
+                                }
                             }
 
                             String nsUri = Node.getNamespaceURI(iSelectNode);
@@ -220,25 +373,7 @@ public class ReadXmlFileRecordsMethod
                     // with text.
                     if ((iResultNode != 0) && bReturnAsText)
                     {
-                        String sContents = Node.writeToString(iResultNode, false);
-                        int iStartPos;
-                        int iEndPos;
-
-                        // Remove <data> and </data> tags.
-                        iStartPos = sContents.indexOf("<data>");
-                        iEndPos = sContents.lastIndexOf("</data>");
-
-                        if ((iStartPos >= 0) && (iEndPos > iStartPos))
-                        {
-                            sContents = sContents.substring(iStartPos + 6, iEndPos);
-                        }
-
-                        // Delete node's children
-                        Node.delete(Node.getFirstChildElement(iResultNode),
-                                    Node.getLastChildElement(iResultNode));
-
-                        // Set node's data to the XML text.
-                        Node.setDataElement(iResultNode, "", sContents);
+                        convertToText(iResultNode);
                     }
                 }
             }
@@ -260,49 +395,162 @@ public class ReadXmlFileRecordsMethod
                 Node.delete(iFileContentsNode);
                 iFileContentsNode = 0;
             }
+
+            if (ceCached != null)
+            {
+                documentCache.release(ceCached);
+            }
         }
 
-        req.addResponseElement("endoffset", Integer.toString(iSelectOffset + iRecordsRead));
-        req.addResponseElement("recordsread", Integer.toString(iRecordsRead));
+        return iRecordsRead;
+    }
 
-        // Add the errors to the reply
-        if (lErrorList.size() > 0)
+    /**
+     * Reads the records with a StAX parser by matching the select path while the file is being
+     * parsed. Records before the offset are skipped without creating the XML and the parsing is
+     * stopped after the last requested record.
+     *
+     * @param   req            Current SOAP request.
+     * @param   fFile          File to be read.
+     * @param   sSelectPath    Select path. This must be supported by SimpleXPath.
+     * @param   iSelectOffset  Index of the first record to be returned.
+     * @param   iNumRecords    Number of records to be returned or -1 for all.
+     * @param   bValidateOnly  If <code>true</code> records are not returned.
+     * @param   bReturnAsText  If <code>true</code> records are returned as XML text.
+     * @param   lErrorList     Errors are added to this list.
+     *
+     * @return  Number of records read.
+     */
+    private int readRecordsStreaming(ISoapRequestContext req, File fFile, String sSelectPath,
+                                     int iSelectOffset, int iNumRecords, boolean bValidateOnly,
+                                     boolean bReturnAsText, List<FileException> lErrorList)
+    {
+        Document dDoc = req.getNomDocument();
+        LargeXmlFileReader reader;
+
+        try
         {
-            int iErrorsNode = req.addResponseElement("errors");
+            reader = new LargeXmlFileReader(fFile, false);
+        }
+        catch (Exception e)
+        {
+            lErrorList.add(new FileException(e,LogMessages.UNABLE_TO_READ_INPUT_FILE,fFile ));
+            return 0;
+        }
 
-            // Iterate over the exceptions and create an error line element for each line
-            for (Iterator<FileException> iter = lErrorList.iterator(); iter.hasNext();)
+        SimpleXPath xpath = new SimpleXPath(sSelectPath);
+
+        // Match the namespaces as the DOM path does. Simple XPaths match by the local name,
+        // otherwise the unprefixed names only match elements without a namespace.
+        xpath.setNoNamespaceOnly(!acConfig.isUseSimpleXPath());
+
+        int iResultNode = 0;
+        int iRecordsRead = 0;
+
+        try
+        {
+            if (!bValidateOnly)
             {
-                Throwable eException = iter.next();
-                StringBuffer sbLine = new StringBuffer(80);
+                iResultNode = req.addResponseElement("data");
+            }
 
-                while (eException != null)
+            // Skip the records before the offset.
+            for (int i = 0; i < iSelectOffset; i++)
+            {
+                if (reader.findNext(dDoc, xpath, false) == 0)
                 {
-                    if (sbLine.length() > 0)
+                    break;
+                }
+            }
+
+            while ((iNumRecords < 0) || (iRecordsRead < iNumRecords))
+            {
+                int iSelectNode = reader.findNext(dDoc, xpath, !bValidateOnly);
+
+                if (iSelectNode == 0)
+                {
+                    break;
+                }
+
+                if (!bValidateOnly)
+                {
+                    Node.appendToChildren(iSelectNode, iResultNode);
+
+                    String nsUri = Node.getNamespaceURI(iSelectNode);
+
+                    if ((nsUri == null) || (nsUri.length() == 0))
                     {
-                        sbLine.append(" * ");
+                        // Set the node's namespace to the method namespace.
+                        Node.removeAttribute(iSelectNode, "xmlns");
                     }
+                }
 
-                    sbLine.append(eException.getMessage());
+                iRecordsRead++;
+            }
 
-                    eException = eException.getCause();
-                }
+            // Check that the path matches at least one element.
+            if ((reader.getMatchCount() == 0) && !reader.isAtEnd())
+            {
+                reader.findNext(dDoc, xpath, false);
+            }
 
-                dDoc.createTextElement("item", sbLine.toString(), iErrorsNode);
+            if (reader.getMatchCount() == 0)
+            {
+                lErrorList.add(new FileException(LogMessages.XMLQUERY_FOUND_NO_ELEMENTS));
+
+                if (iResultNode != 0)
+                {
+                    Node.delete(iResultNode);
+                    iResultNode = 0;
+                }
+            }
+            else if ((iResultNode != 0) && bReturnAsText)
+            {
+                convertToText(iResultNode);
             }
         }
+        catch (Exception e)
+        {
+            lErrorList.add(new FileException(e,LogMessages.UNABLE_TO_PERFORM_XMLQUERY,fFile));
 
-        // Add error count to all replies
-        req.addResponseElement("errorcount", Integer.toString(lErrorList.size()));
+            if (iResultNode != 0)
+            {
+                Node.delete(iResultNode);
+                iResultNode = 0;
+            }
+        }
+        finally
+        {
+            reader.close();
+        }
 
-        return EResult.FINISHED;
+        return iRecordsRead;
     }
 
     /**
-     * @see  com.cordys.coe.ac.fileconnector.IFileConnectorMethod#getMethodName()
+     * Replaces the record elements under the result node with their XML text.
+     *
+     * @param  iResultNode  Result node.
      */
-    public String getMethodName()
+    private static void convertToText(int iResultNode)
     {
-        return METHOD_NAME;
+        String sContents = Node.writeToString(iResultNode, false);
+        int iStartPos;
+        int iEndPos;
+
+        // Remove <data> and </data> tags.
+        iStartPos = sContents.indexOf("<data>");
+        iEndPos = sContents.lastIndexOf("</data>");
+
+        if ((iStartPos >= 0) && (iEndPos > iStartPos))
+        {
+            sContents = sContents.substring(iStartPos + 6, iEndPos);
+        }
+
+        // Delete node's children
+        Node.delete(Node.getFirstChildElement(iResultNode), Node.getLastChildElement(iResultNode));
+
+        // Set node's data to the XML text.
+        Node.setDataElement(iResultNode, "", sContents);
     }
 }
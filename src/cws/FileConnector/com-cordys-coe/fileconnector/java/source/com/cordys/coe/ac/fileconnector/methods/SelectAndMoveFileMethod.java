@@ -30,9 +30,23 @@ import com.eibus.xml.nom.Node;
 
 import java.io.File;
 
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+
 /**
  * Implements SelectAndMoveFile SOAP method.
  *
+ * <p>Parameter <code>count</code> moves up to the given number of files in one request in the
+ * selection order. Each moved file is returned in its own tuple. If <code>useindex</code> is set,
+ * the files of the source directory are kept in an index between the requests (see
+ * DirectoryIndex), so draining a large directory does not read the attributes of all files on
+ * every request.</p>
+ *
  * @author  mpoyhone
  */
 public class SelectAndMoveFileMethod
@@ -54,10 +68,37 @@ public class SelectAndMoveFileMethod
      * File type request parameter for SelectAndMoveFile.
      */
     private static final String PARAM_TYPE = "type";
+    /**
+     * Maximum number of files moved by SelectAndMoveFile method.
+     */
+    private static final String PARAM_COUNT = "count";
+    /**
+     * If set, the source directory index is used for SelectAndMoveFile method.
+     */
+    private static final String PARAM_USEINDEX = "useindex";
+    /**
+     * Maximum number of directory indexes kept in memory.
+     */
+    private static final int MAX_DIRECTORY_INDEXES = 32;
     /**
      * Contains the FileConnector configuration.
      */
     private ApplicationConfiguration acConfig;
+    /**
+     * Directory indexes in the LRU order. Key is the absolute directory path.
+     */
+    private Map<String, DirectoryIndex> mIndexes = new LinkedHashMap<String, DirectoryIndex>(16,
+                                                                                            0.75f,
+                                                                                            true)
+    {
+        private static final long serialVersionUID = 1L;
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, DirectoryIndex> eEldest)
+        {
+            return size() > MAX_DIRECTORY_INDEXES;
+        }
+    };
 
     /**
      * @see  com.cordys.coe.ac.fileconnector.IFileConnectorMethod#cleanup()
@@ -65,6 +106,10 @@ public class SelectAndMoveFileMethod
     public void cleanup()
                  throws ConfigException
     {
+        synchronized (mIndexes)
+        {
+            mIndexes.clear();
+        }
     }
 
     /**
@@ -83,6 +128,11 @@ public class SelectAndMoveFileMethod
      */
     public void onReset()
     {
+        // The configuration might have changed, so the allowed files must be checked again.
+        synchronized (mIndexes)
+        {
+            mIndexes.clear();
+        }
     }
 
     /**
@@ -97,6 +147,8 @@ public class SelectAndMoveFileMethod
         String sSrcDirName = XmlUtils.getStringParameter(requestNode, PARAM_SRCDIRECTORY, true);
         String sDestDirName = XmlUtils.getStringParameter(requestNode, PARAM_DESTDIRECTORY, true);
         String sFileType = XmlUtils.getStringParameter(requestNode, PARAM_TYPE, true);
+        long lCount = XmlUtils.getLongParameter(requestNode, PARAM_COUNT, 1L);
+        boolean bUseIndex = XmlUtils.getBooleanParameter(requestNode, PARAM_USEINDEX);
 
         // Create File objects for the source and destination files
         File fSrcDir = new File(sSrcDirName);
@@ -139,27 +191,56 @@ public class SelectAndMoveFileMethod
             throw new FileException(LogMessages.INVALID_FILE_TYPE_PARAM);
         }
 
-        File fFile = fsSelector.select(fSrcDir);
-
-        if (fFile == null)
+        if (lCount < 1)
         {
-            // No file was found.
-            return EResult.FINISHED;
+            throw new FileException(LogMessages.ILLEGAL_VALUE_FOR_PARAM, lCount, PARAM_COUNT);
         }
 
-        // Move the file to the destination directory.
-        File fDestFile = new File(fDestDir, fFile.getName());
+        int iCount = (int) Math.min(lCount, Integer.MAX_VALUE);
+        int iMoved = 0;
 
-        if (!fFile.renameTo(fDestFile))
+        if (bUseIndex)
         {
-            throw new FileException(LogMessages.UNABLE_TO_MOVE_FILE,fFile,fDestDir);
-        }
+            DirectoryIndex diIndex = getIndex(fSrcDir);
 
-        // Create the result elements.
-        int iTupleNode = req.addResponseElement("tuple");
+            // The index is locked until the files have been moved, so concurrent requests do not
+            // select the same files.
+            synchronized (diIndex)
+            {
+                diIndex.refresh();
 
-        Node.createTextElement("filename", fDestFile.getName(), iTupleNode);
-        Node.createTextElement("filepath", fDestFile.getAbsolutePath(), iTupleNode);
+                for (int i = 0; i < iCount; i++)
+                {
+                    File fFile = diIndex.select(fsSelector.iType == FileSelector.TYPE_NEWEST);
+
+                    if (fFile == null)
+                    {
+                        // No more files were found.
+                        break;
+                    }
+
+                    if (!moveFile(req, fFile, fDestDir, iMoved))
+                    {
+                        break;
+                    }
+
+                    diIndex.remove(fFile);
+                    iMoved++;
+                }
+            }
+        }
+        else
+        {
+            for (File fFile : fsSelector.select(fSrcDir, iCount))
+            {
+                if (!moveFile(req, fFile, fDestDir, iMoved))
+                {
+                    break;
+                }
+
+                iMoved++;
+            }
+        }
 
         return EResult.FINISHED;
     }
@@ -172,6 +253,75 @@ public class SelectAndMoveFileMethod
         return METHOD_NAME;
     }
 
+    /**
+     * Returns the index for the directory. A new index is created if needed.
+     *
+     * @param   fDir  The directory.
+     *
+     * @return  Directory index.
+     */
+    private DirectoryIndex getIndex(File fDir)
+    {
+        String sKey = fDir.getAbsolutePath();
+
+        synchronized (mIndexes)
+        {
+            DirectoryIndex diIndex = mIndexes.get(sKey);
+
+            if (diIndex == null)
+            {
+                diIndex = new DirectoryIndex(acConfig, fDir);
+                mIndexes.put(sKey, diIndex);
+            }
+
+            return diIndex;
+        }
+    }
+
+    /**
+     * Moves the file to the destination directory and adds it to the response. If the move fails
+     * after other files have already been moved, the error is added to the response so that the
+     * caller gets the moved files.
+     *
+     * @param   req       Current SOAP request.
+     * @param   fFile     File to be moved.
+     * @param   fDestDir  Destination directory.
+     * @param   iMoved    Number of files already moved in this request.
+     *
+     * @return  <code>true</code> if the file was moved.
+     *
+     * @throws  FileException  Thrown if the file could not be moved and no files were moved
+     *                         before it.
+     */
+    private boolean moveFile(ISoapRequestContext req, File fFile, File fDestDir, int iMoved)
+                      throws FileException
+    {
+        // Move the file to the destination directory.
+        File fDestFile = new File(fDestDir, fFile.getName());
+
+        if (!fFile.renameTo(fDestFile))
+        {
+            FileException fe = new FileException(LogMessages.UNABLE_TO_MOVE_FILE,fFile,fDestDir);
+
+            if (iMoved == 0)
+            {
+                throw fe;
+            }
+
+            req.addResponseElement("error", fe.getMessage());
+
+            return false;
+        }
+
+        // Create the result elements.
+        int iTupleNode = req.addResponseElement("tuple");
+
+        Node.createTextElement("filename", fDestFile.getName(), iTupleNode);
+        Node.createTextElement("filepath", fDestFile.getAbsolutePath(), iTupleNode);
+
+        return true;
+    }
+
     /**
      * Selects files from a directory based on the given criteria.
      *
@@ -201,9 +351,39 @@ public class SelectAndMoveFileMethod
          */
         public File select(File fSelectDir)
         {
-            File fCurrent = null;
-            long lCurrentTimestamp = 0;
+            List<File> lFiles = select(fSelectDir, 1);
+
+            return lFiles.isEmpty() ? null : lFiles.get(0);
+        }
+
+        /**
+         * Returns files based on the selection criteria from the directory. The directory is read
+         * once and only the selected files are kept in memory.
+         *
+         * @param   fSelectDir  Selection directory
+         * @param   iCount      Maximum number of files to be returned.
+         *
+         * @return  Selected files in the selection order.
+         */
+        public List<File> select(File fSelectDir, int iCount)
+        {
             File[] faFiles = fSelectDir.listFiles();
+            boolean bNewest = (iType == TYPE_NEWEST);
+
+            if (faFiles == null)
+            {
+                return Collections.emptyList();
+            }
+
+            // The head of the queue is the entry which is dropped first, i.e. the newest one
+            // when the oldest files are selected.
+            Comparator<DirectoryIndex.FileEntry> cOrder = bNewest
+                                                          ? null
+                                                          : Collections.<DirectoryIndex.FileEntry>reverseOrder();
+            PriorityQueue<DirectoryIndex.FileEntry> pqSelected = new PriorityQueue<DirectoryIndex.FileEntry>(Math.min(iCount,
+                                                                                                                        faFiles.length) +
+                                                                                                               1,
+                                                                                                               cOrder);
 
             for (int i = 0; i < faFiles.length; i++)
             {
@@ -219,33 +399,33 @@ public class SelectAndMoveFileMethod
                     continue;
                 }
 
-                long lTimestamp = fFile.lastModified();
+                pqSelected.add(new DirectoryIndex.FileEntry(fFile, fFile.lastModified()));
 
-                switch (iType)
+                if (pqSelected.size() > iCount)
                 {
-                    case TYPE_NEWEST:
-
-                        if ((fCurrent != null) && (lCurrentTimestamp >= lTimestamp))
-                        {
-                            continue;
-                        }
-                        fCurrent = fFile;
-                        lCurrentTimestamp = lTimestamp;
-                        break;
+                    pqSelected.poll();
+                }
+            }
 
-                    case TYPE_OLDEST:
+            List<DirectoryIndex.FileEntry> lEntries = new ArrayList<DirectoryIndex.FileEntry>(pqSelected);
 
-                        if ((fCurrent != null) && (lCurrentTimestamp <= lTimestamp))
-                        {
-                            continue;
-                        }
-                        fCurrent = fFile;
-                        lCurrentTimestamp = lTimestamp;
-                        break;
-                }
+            if (bNewest)
+            {
+                Collections.sort(lEntries, Collections.<DirectoryIndex.FileEntry>reverseOrder());
+            }
+            else
+            {
+                Collections.sort(lEntries);
+            }
+
+            List<File> lRes = new ArrayList<File>(lEntries.size());
+
+            for (DirectoryIndex.FileEntry feEntry : lEntries)
+            {
+                lRes.add(feEntry.fFile);
             }
 
-            return fCurrent;
+            return lRes;
         }
 
         /**
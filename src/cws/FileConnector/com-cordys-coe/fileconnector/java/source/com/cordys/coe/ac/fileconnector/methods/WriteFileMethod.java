@@ -24,20 +24,29 @@ import com.cordys.coe.ac.fileconnector.ISoapRequestContext;
 import com.cordys.coe.ac.fileconnector.LogMessages;
 import com.cordys.coe.ac.fileconnector.exception.ConfigException;
 import com.cordys.coe.ac.fileconnector.exception.FileException;
+import com.cordys.coe.ac.fileconnector.utils.AtomicFileOutput;
+import com.cordys.coe.ac.fileconnector.utils.Base64StreamDecoder;
 import com.cordys.coe.ac.fileconnector.utils.XmlUtils;
 
 import com.eibus.xml.nom.Find;
 import com.eibus.xml.nom.Node;
 
 import java.io.File;
-import java.io.FileOutputStream;
 import java.io.IOException;
-
-import sun.misc.BASE64Decoder;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
 
 /**
  * Implements WriteFile SOAP method.
  *
+ * <p>Large files can be uploaded in chunks by setting the <code>offset</code> parameter. Offset
+ * is the number of bytes already written, i.e. zero for the first chunk. The file is truncated to
+ * the offset before the chunk is written, so a failed chunk can be sent again. Parameter
+ * <code>final</code> must be set to false for all but the last chunk. In atomic mode the chunks
+ * are collected in a part file which is renamed to the destination file after the last chunk. The
+ * response contains the file size after the chunk.</p>
+ *
  * @author  mpoyhone
  */
 public class WriteFileMethod
@@ -64,10 +73,33 @@ public class WriteFileMethod
      * The append boolean parameter for WriteFileRecords.
      */
     private static final String PARAM_APPEND = "append";
+    /**
+     * The atomic boolean parameter for WriteFile and WriteFileRecords. If set, the file is written
+     * to a temporary file which is renamed to the destination file when it is complete.
+     */
+    private static final String PARAM_ATOMIC = "atomic";
+    /**
+     * The sync boolean parameter for WriteFile and WriteFileRecords. If set, the file contents are
+     * forced to the disk before the method returns.
+     */
+    private static final String PARAM_SYNC = "sync";
+    /**
+     * The gzip boolean parameter for WriteFile and WriteFileRecords. If set, the data is gzip
+     * compressed while it is written.
+     */
+    private static final String PARAM_GZIP = "gzip";
     /**
      * The data parameter for WriteFile and ReadFile.
      */
     private static final String PARAM_DATA = "data";
+    /**
+     * The offset parameter for WriteFile. If set, the data is written as a chunk at this position.
+     */
+    private static final String PARAM_OFFSET = "offset";
+    /**
+     * The final boolean parameter for WriteFile. If false, more chunks will follow.
+     */
+    private static final String PARAM_FINAL = "final";
     /**
      * Contains the FileConnector configuration.
      */
@@ -112,6 +144,35 @@ public class WriteFileMethod
         boolean encoded = XmlUtils.getBooleanParameter(requestNode, PARAM_ENCODED);
         String charset = XmlUtils.getStringParameter(requestNode, PARAM_CHARSET, false);
         boolean append = XmlUtils.getBooleanParameter(requestNode, PARAM_APPEND);
+        boolean atomic = XmlUtils.getBooleanParameter(requestNode, PARAM_ATOMIC);
+        boolean sync = XmlUtils.getBooleanParameter(requestNode, PARAM_SYNC);
+        boolean gzip = XmlUtils.getBooleanParameter(requestNode, PARAM_GZIP);
+        String offsetStr = XmlUtils.getStringParameter(requestNode, PARAM_OFFSET, false);
+        boolean chunked = (offsetStr != null) && (offsetStr.length() > 0);
+        long offset = XmlUtils.getLongParameter(requestNode, PARAM_OFFSET, 0L);
+        boolean last = "true".equals(XmlUtils.getStringParameter(requestNode, PARAM_FINAL,
+                                                                 "true"));
+
+        if (chunked)
+        {
+            if (offset < 0)
+            {
+                throw new FileException(LogMessages.ILLEGAL_VALUE_FOR_PARAM, offsetStr,
+                                        PARAM_OFFSET);
+            }
+
+            // Offsets are positions in the file, so the data cannot be compressed or appended.
+            if (gzip)
+            {
+                throw new FileException(LogMessages.ILLEGAL_VALUE_FOR_PARAM, "true", PARAM_GZIP);
+            }
+
+            if (append)
+            {
+                throw new FileException(LogMessages.ILLEGAL_VALUE_FOR_PARAM, "true",
+                                        PARAM_APPEND);
+            }
+        }
 
         // Get data from the SOAP request
         int dataNode = Find.firstMatch(requestNode, "?<" + PARAM_DATA + ">");
@@ -135,7 +196,13 @@ public class WriteFileMethod
 
         if ((data == null) || (data.length() == 0))
         {
-            throw new FileException(LogMessages.PARAM_EMPTY, PARAM_DATA);
+            // The last chunk can be empty.
+            if (!chunked || !last)
+            {
+                throw new FileException(LogMessages.PARAM_EMPTY, PARAM_DATA);
+            }
+
+            data = "";
         }
 
         // Create File objects for the destination file
@@ -146,16 +213,38 @@ public class WriteFileMethod
             throw new FileException(LogMessages.FILE_ACCESS_NOT_ALLOWED);
         }
 
+        if (chunked && (offset > 0))
+        {
+            File partFile = atomic ? AtomicFileOutput.getPartFile(file) : file;
+            long size = partFile.exists() ? partFile.length() : 0;
+
+            if (offset > size)
+            {
+                throw new FileException(LogMessages.UPLOAD_OFFSET_NOT_VALID, offset, size, file);
+            }
+        }
+
         try
         {
-            FileOutputStream fo = new FileOutputStream(file, append);
+            AtomicFileOutput out;
+
+            if (chunked)
+            {
+                out = AtomicFileOutput.openPart(file, offset, atomic, last, sync);
+            }
+            else
+            {
+                out = AtomicFileOutput.open(file, append, atomic, sync, gzip);
+            }
 
             try
             {
+                OutputStream fo = out.getOutputStream();
+
+                // The data is decoded or encoded in blocks straight to the file.
                 if (encoded)
                 {
-                    BASE64Decoder decoder = new BASE64Decoder();
-                    fo.write(decoder.decodeBuffer(data));
+                    Base64StreamDecoder.decode(data, fo);
                 }
                 else
                 {
@@ -164,12 +253,24 @@ public class WriteFileMethod
                         charset = acConfig.getStandardWriterCharacterSet();
                     }
 
-                    fo.write(data.getBytes(charset));
+                    Writer writer = new OutputStreamWriter(fo, charset);
+
+                    writer.write(data);
+                    writer.flush();
                 }
+
+                if (chunked)
+                {
+                    long size = out.getFilePosition();
+
+                    req.addResponseElement("size", Long.toString(size));
+                }
+
+                out.commit();
             }
             finally
             {
-                fo.close();
+                out.abort();
             }
         }
         catch (IOException e)
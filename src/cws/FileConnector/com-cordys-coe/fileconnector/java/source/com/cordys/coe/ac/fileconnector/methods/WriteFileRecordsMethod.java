@@ -23,8 +23,12 @@ import com.cordys.coe.ac.fileconnector.ISoapRequestContext;
 import com.cordys.coe.ac.fileconnector.LogMessages;
 import com.cordys.coe.ac.fileconnector.exception.ConfigException;
 import com.cordys.coe.ac.fileconnector.exception.FileException;
+import com.cordys.coe.ac.fileconnector.utils.AtomicFileOutput;
 import com.cordys.coe.ac.fileconnector.utils.GeneralUtils;
 import com.cordys.coe.ac.fileconnector.utils.XmlUtils;
+import com.cordys.coe.ac.fileconnector.utils.excel.XlsxStreamWriter;
+import com.cordys.coe.ac.fileconnector.writer.ColumnarRecordWriter;
+import com.cordys.coe.ac.fileconnector.writer.ExcelRowWriter;
 import com.cordys.coe.ac.fileconnector.writer.RecordWriter;
 import com.cordys.coe.ac.fileconnector.writer.WriterConfig;
 import com.cordys.coe.util.FileUtils;
@@ -37,7 +41,6 @@ import com.eibus.xml.nom.Node;
 
 import java.io.BufferedWriter;
 import java.io.File;
-import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.OutputStreamWriter;
 import java.io.StringWriter;
@@ -74,6 +77,37 @@ public class WriteFileRecordsMethod
      * The append boolean parameter for WriteFileRecords.
      */
     private static final String PARAM_APPEND = "append";
+    /**
+     * The atomic boolean parameter for WriteFileRecords. If set, the records are written to a
+     * temporary file which is renamed to the destination file when all records are written.
+     */
+    private static final String PARAM_ATOMIC = "atomic";
+    /**
+     * The sync boolean parameter for WriteFileRecords. If set, the file contents are forced to
+     * the disk before the method returns.
+     */
+    private static final String PARAM_SYNC = "sync";
+    /**
+     * The gzip boolean parameter for WriteFileRecords. If set, the records are gzip compressed
+     * while they are written.
+     */
+    private static final String PARAM_GZIP = "gzip";
+    /**
+     * The columnar rows parameter for WriteFileRecords. The first line contains the field names.
+     */
+    private static final String PARAM_ROWS = "rows";
+    /**
+     * Field separator attribute for the rows parameter.
+     */
+    private static final String ATTRIB_SEPARATOR = "separator";
+    /**
+     * Comma separated field widths attribute for the fixed length rows.
+     */
+    private static final String ATTRIB_WIDTHS = "widths";
+    /**
+     * Default field separator for the rows parameter.
+     */
+    private static final String DEFAULT_SEPARATOR = ";";
     /**
      * Contains the FileConnector configuration.
      */
@@ -128,6 +162,9 @@ public class WriteFileRecordsMethod
         String sFileName = XmlUtils.getStringParameter(requestNode, PARAM_FILENAME, true);
         String sFileType = XmlUtils.getStringParameter(requestNode, PARAM_FILETYPE, true);
         boolean bAppend = XmlUtils.getBooleanParameter(requestNode, PARAM_APPEND);
+        boolean bAtomic = XmlUtils.getBooleanParameter(requestNode, PARAM_ATOMIC);
+        boolean bSync = XmlUtils.getBooleanParameter(requestNode, PARAM_SYNC);
+        boolean bGzip = XmlUtils.getBooleanParameter(requestNode, PARAM_GZIP);
 
         // Create File objects for the destination file
         File fFile = new File(sFileName);
@@ -137,8 +174,9 @@ public class WriteFileRecordsMethod
             throw new FileException(LogMessages.FILE_ACCESS_NOT_ALLOWED);
         }
 
-        // Get the input XML nodes.
+        // Get the input XML nodes or the columnar rows.
         int[] iaRecords = Find.match(requestNode, "<><records><>");
+        int iRowsNode = Find.firstMatch(requestNode, "<><" + PARAM_ROWS + ">");
 
         // Find out the character set to be used.
         String sCharsetName = acConfig.getWriterCharacterSet();
@@ -146,6 +184,15 @@ public class WriteFileRecordsMethod
 
         // Fetch the writer configuration object.
         WriterConfig wcConfig = getConfiguration(req);
+        WriterConfig.FileType ftFileType = ((wcConfig != null) && (wcConfig.mConfigMap != null))
+                                           ? wcConfig.mConfigMap.get(sFileType) : null;
+        boolean bExcel = (ftFileType != null) && ftFileType.isExcel();
+
+        if (bExcel && bAppend)
+        {
+            // An Excel file cannot be appended to.
+            throw new FileException(LogMessages.ILLEGAL_VALUE_FOR_PARAM, "true", PARAM_APPEND);
+        }
 
         // Create the method object
         int iResultNode = 0;
@@ -155,15 +202,41 @@ public class WriteFileRecordsMethod
         // Call the method
         try
         {
-            FileOutputStream os;
+            AtomicFileOutput os;
             RecordWriter rwRecordWriter = new RecordWriter(wcConfig);
             Writer wWriter = null;
+            XlsxStreamWriter xswExcel = null;
+            ExcelRowWriter erwExcelRow = null;
+            String[] saRowLines = null;
+            String sSeparator = null;
+            int[] iaWidths = null;
+
+            if (iRowsNode != 0)
+            {
+                String sRows = Node.getData(iRowsNode);
+
+                saRowLines = (sRows != null) ? sRows.split("\r?\n") : new String[0];
+                sSeparator = Node.getAttribute(iRowsNode, ATTRIB_SEPARATOR, DEFAULT_SEPARATOR);
+                iaWidths = parseWidths(Node.getAttribute(iRowsNode, ATTRIB_WIDTHS));
+
+                // The rows cannot be split with an empty separator.
+                if ((iaWidths == null) && (sSeparator.length() == 0))
+                {
+                    throw new FileException(LogMessages.ILLEGAL_VALUE_FOR_PARAM, sSeparator,
+                                            ATTRIB_SEPARATOR);
+                }
+            }
 
             // Open the file to be written
             try
             {
-                os = new FileOutputStream(fFile, bAppend);
-                wWriter = new BufferedWriter(new OutputStreamWriter(os, cCharset));
+                os = AtomicFileOutput.open(fFile, bAppend, bAtomic, bSync, bGzip);
+
+                if (!bExcel)
+                {
+                    wWriter = new BufferedWriter(new OutputStreamWriter(os.getOutputStream(),
+                                                                        cCharset));
+                }
             }
             catch (IOException e)
             {
@@ -173,11 +246,26 @@ public class WriteFileRecordsMethod
             // Write the nodes
             try
             {
+                if (bExcel)
+                {
+                    // The rows are streamed to the sheet, so only the current row is in memory.
+                    xswExcel = new XlsxStreamWriter(os.getOutputStream(), ftFileType.sSheetName);
+                    erwExcelRow = new ExcelRowWriter(xswExcel);
+                }
+
                 for (int i = 0; i < iaRecords.length; i++)
                 {
                     int iNode = iaRecords[i];
                     StringWriter swStringWriter;
 
+                    if (erwExcelRow != null)
+                    {
+                        erwExcelRow.clear();
+                        rwRecordWriter.writeRecord(sFileType, iNode, erwExcelRow);
+                        erwExcelRow.writeRow();
+                        continue;
+                    }
+
                     // First write the nodes to a string so we won't
                     // get incomplete records in case of an exception.
                     swStringWriter = new StringWriter(4096);
@@ -189,8 +277,24 @@ public class WriteFileRecordsMethod
                     wWriter.write(swStringWriter.getBuffer().toString());
                 }
 
-                wWriter.flush();
-                lEndFileOffset = os.getChannel().position();
+                if (saRowLines != null)
+                {
+                    writeRows(sFileType, saRowLines, sSeparator, iaWidths, wcConfig,
+                              (erwExcelRow != null) ? erwExcelRow : wWriter);
+                }
+
+                if (xswExcel != null)
+                {
+                    xswExcel.finish();
+                }
+                else
+                {
+                    wWriter.flush();
+                }
+
+                os.finish();
+                lEndFileOffset = os.getFilePosition();
+                os.commit();
             }
             catch (Exception e)
             {
@@ -198,7 +302,13 @@ public class WriteFileRecordsMethod
             }
             finally
             {
-                FileUtils.closeWriter(wWriter);
+                // In the atomic mode nothing is written to the destination file on errors.
+                if (!bAtomic)
+                {
+                    FileUtils.closeWriter(wWriter);
+                }
+
+                os.abort();
             }
         }
         catch (Exception e)
@@ -268,6 +378,110 @@ public class WriteFileRecordsMethod
         configuration = cfg;
     }
 
+    /**
+     * Parses the comma separated field widths.
+     *
+     * @param   sWidths  Field widths or <code>null</code>.
+     *
+     * @return  Field widths or <code>null</code> if they were not set.
+     *
+     * @throws  FileException  Thrown if a width is not a positive number.
+     */
+    private int[] parseWidths(String sWidths)
+                       throws FileException
+    {
+        if ((sWidths == null) || (sWidths.trim().length() == 0))
+        {
+            return null;
+        }
+
+        String[] saWidths = sWidths.split(",");
+        int[] iaRes = new int[saWidths.length];
+
+        for (int i = 0; i < saWidths.length; i++)
+        {
+            try
+            {
+                iaRes[i] = Integer.parseInt(saWidths[i].trim());
+            }
+            catch (NumberFormatException e)
+            {
+                iaRes[i] = -1;
+            }
+
+            if (iaRes[i] <= 0)
+            {
+                throw new FileException(LogMessages.ILLEGAL_VALUE_FOR_PARAM, sWidths, ATTRIB_WIDTHS);
+            }
+        }
+
+        return iaRes;
+    }
+
+    /**
+     * Writes the columnar rows. The first non-empty line contains the field names separated by
+     * the separator and the rest are the data rows. Each row is mapped to the output rules by the
+     * field names.
+     *
+     * @param   sFileType   File type in the configuration.
+     * @param   saLines     Input lines.
+     * @param   sSeparator  Field separator.
+     * @param   iaWidths    Field widths for fixed length rows or <code>null</code>.
+     * @param   wcConfig    Writer configuration.
+     * @param   wWriter     Output writer. For an Excel row writer each row is written as a
+     *                      sheet row.
+     *
+     * @throws  Exception  Thrown if the writing failed.
+     */
+    private void writeRows(String sFileType, String[] saLines, String sSeparator, int[] iaWidths,
+                           WriterConfig wcConfig, Writer wWriter)
+                    throws Exception
+    {
+        ColumnarRecordWriter crwWriter = null;
+        StringWriter swStringWriter = new StringWriter(4096);
+
+        for (int i = 0; i < saLines.length; i++)
+        {
+            String sLine = saLines[i];
+
+            if (sLine.length() == 0)
+            {
+                continue;
+            }
+
+            if (crwWriter == null)
+            {
+                String[] saFieldNames = ColumnarRecordWriter.splitRow(sLine.trim(), sSeparator,
+                                                                      null);
+
+                crwWriter = new ColumnarRecordWriter(wcConfig, saFieldNames);
+                continue;
+            }
+
+            if (wWriter instanceof ExcelRowWriter)
+            {
+                ExcelRowWriter erwExcelRow = (ExcelRowWriter) wWriter;
+
+                erwExcelRow.clear();
+                crwWriter.writeRecord(sFileType,
+                                      ColumnarRecordWriter.splitRow(sLine, sSeparator, iaWidths),
+                                      erwExcelRow);
+                erwExcelRow.writeRow();
+                continue;
+            }
+
+            // First write the row to a string so we won't
+            // get incomplete records in case of an exception.
+            swStringWriter.getBuffer().setLength(0);
+
+            crwWriter.writeRecord(sFileType,
+                                  ColumnarRecordWriter.splitRow(sLine, sSeparator, iaWidths),
+                                  swStringWriter);
+
+            wWriter.write(swStringWriter.getBuffer().toString());
+        }
+    }
+
     /**
      * Returns method configuration object.
      *
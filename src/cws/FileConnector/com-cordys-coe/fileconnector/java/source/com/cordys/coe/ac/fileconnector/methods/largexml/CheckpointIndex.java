@@ -0,0 +1,341 @@
+/**
+ * Copyright 2005 Cordys R&D B.V. 
+ * 
+ * This file is part of the Cordys File Connector. 
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+ package com.cordys.coe.ac.fileconnector.methods.largexml;
+
+import com.cordys.coe.ac.fileconnector.utils.AtomicFileOutput;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import javax.xml.stream.XMLStreamException;
+
+/**
+ * Checkpoint index for a large XML file. The index contains the serialized traverse context after
+ * every N matched records, so that reading can be started from any record number without
+ * scanning the file from the beginning. The index is stored in a sidecar file next to the XML
+ * file and it is valid only for the same select path, file size and modification time.
+ *
+ * @author  mpoyhone
+ */
+public class CheckpointIndex
+{
+    /**
+     * Suffix added to the XML file name for the index file.
+     */
+    public static final String FILE_SUFFIX = ".ckpt";
+    /**
+     * Index file format version.
+     */
+    private static final String VERSION = "1";
+    /**
+     * Serialized traverse contexts for each checkpoint.
+     */
+    private String[] contexts;
+    /**
+     * XML file size when the index was built.
+     */
+    private long fileSize;
+    /**
+     * Checkpoint interval in records.
+     */
+    private int interval;
+    /**
+     * XML file modification time when the index was built.
+     */
+    private long lastModified;
+    /**
+     * Total number of matched records in the file.
+     */
+    private long recordCount;
+    /**
+     * Number of the record following each checkpoint in ascending order. Numbering starts from
+     * zero.
+     */
+    private long[] recordNumbers;
+    /**
+     * Select path used for matching the records.
+     */
+    private String selectPath;
+
+    /**
+     * Constructor for CheckpointIndex.
+     */
+    private CheckpointIndex()
+    {
+    }
+
+    /**
+     * Builds the index by scanning the whole XML file.
+     *
+     * @param   xmlFile     XML file.
+     * @param   selectPath  Select path for the records.
+     * @param   interval    Number of records between checkpoints.
+     *
+     * @return  Created index.
+     *
+     * @throws  IOException         Thrown if the file could not be read.
+     * @throws  XMLStreamException  Thrown if the file could not be parsed.
+     */
+    public static CheckpointIndex build(File xmlFile, String selectPath, int interval)
+                                 throws IOException, XMLStreamException
+    {
+        if (interval <= 0)
+        {
+            throw new IllegalArgumentException("Invalid checkpoint interval: " + interval);
+        }
+
+        CheckpointIndex res = new CheckpointIndex();
+
+        res.selectPath = selectPath;
+        res.interval = interval;
+        res.fileSize = xmlFile.length();
+        res.lastModified = xmlFile.lastModified();
+
+        List<Long> numbers = new ArrayList<Long>();
+        List<String> ctxList = new ArrayList<String>();
+        LargeXmlFileReader reader = new LargeXmlFileReader(xmlFile, true);
+        long count = 0;
+
+        try
+        {
+            SimpleXPath xpath = new SimpleXPath(selectPath);
+
+            while (reader.findNext(null, xpath, false) != 0)
+            {
+                count++;
+
+                if ((count % interval) == 0)
+                {
+                    numbers.add(count);
+                    ctxList.add(XmlTraverseContext.serializeToBase64String(reader.getCurrentContext()));
+                }
+            }
+        }
+        finally
+        {
+            reader.close();
+        }
+
+        res.recordCount = count;
+        res.recordNumbers = new long[numbers.size()];
+
+        for (int i = 0; i < res.recordNumbers.length; i++)
+        {
+            res.recordNumbers[i] = numbers.get(i);
+        }
+
+        res.contexts = ctxList.toArray(new String[ctxList.size()]);
+
+        return res;
+    }
+
+    /**
+     * Returns the index file for the XML file.
+     *
+     * @param   xmlFile  XML file.
+     *
+     * @return  Index file.
+     */
+    public static File getIndexFile(File xmlFile)
+    {
+        return new File(xmlFile.getPath() + FILE_SUFFIX);
+    }
+
+    /**
+     * Loads the index from the file.
+     *
+     * @param   indexFile  Index file.
+     *
+     * @return  Loaded index.
+     *
+     * @throws  IOException  Thrown if the file could not be read or it is not a valid index file.
+     */
+    public static CheckpointIndex load(File indexFile)
+                                throws IOException
+    {
+        DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(
+                                                                             indexFile)));
+
+        try
+        {
+            if (!VERSION.equals(in.readUTF()))
+            {
+                throw new IOException("Unsupported checkpoint index version: " + indexFile);
+            }
+
+            CheckpointIndex res = new CheckpointIndex();
+
+            res.selectPath = in.readUTF();
+            res.interval = in.readInt();
+            res.fileSize = in.readLong();
+            res.lastModified = in.readLong();
+            res.recordCount = in.readLong();
+
+            int count = in.readInt();
+
+            res.recordNumbers = new long[count];
+            res.contexts = new String[count];
+
+            for (int i = 0; i < count; i++)
+            {
+                byte[] ctxBytes = new byte[in.readInt()];
+
+                res.recordNumbers[i] = in.readLong();
+                in.readFully(ctxBytes);
+                res.contexts[i] = new String(ctxBytes, "UTF-8");
+            }
+
+            return res;
+        }
+        finally
+        {
+            in.close();
+        }
+    }
+
+    /**
+     * Returns the position of the last checkpoint at or before the given record.
+     *
+     * @param   startRecord  Record number (starting from zero).
+     *
+     * @return  Checkpoint position or -1 if the record is before the first checkpoint.
+     */
+    public int findCheckpoint(long startRecord)
+    {
+        int pos = Arrays.binarySearch(recordNumbers, startRecord);
+
+        if (pos >= 0)
+        {
+            return pos;
+        }
+
+        // Insertion point minus one.
+        return -pos - 2;
+    }
+
+    /**
+     * Returns the traverse context of the checkpoint.
+     *
+     * @param   pos  Checkpoint position.
+     *
+     * @return  Traverse context which opens the file after the checkpoint record.
+     *
+     * @throws  IOException  Thrown if the context could not be parsed.
+     */
+    public XmlTraverseContext getContext(int pos)
+                                  throws IOException
+    {
+        return XmlTraverseContext.serializeFromBase64String(contexts[pos]);
+    }
+
+    /**
+     * Returns the checkpoint interval.
+     *
+     * @return  Number of records between checkpoints.
+     */
+    public int getInterval()
+    {
+        return interval;
+    }
+
+    /**
+     * Returns the total number of records found when the index was built.
+     *
+     * @return  Number of records.
+     */
+    public long getRecordCount()
+    {
+        return recordCount;
+    }
+
+    /**
+     * Returns the number of the record which is read next when starting from the checkpoint.
+     *
+     * @param   pos  Checkpoint position.
+     *
+     * @return  Record number (starting from zero).
+     */
+    public long getRecordNumber(int pos)
+    {
+        return recordNumbers[pos];
+    }
+
+    /**
+     * Checks if this index can be used for the file and select path.
+     *
+     * @param   xmlFile     XML file.
+     * @param   path        Select path.
+     *
+     * @return  <code>true</code> if the file has not been modified after the index was built.
+     */
+    public boolean isValidFor(File xmlFile, String path)
+    {
+        return selectPath.equals(path) && (fileSize == xmlFile.length()) &&
+               (lastModified == xmlFile.lastModified());
+    }
+
+    /**
+     * Writes the index to the file. The file is replaced atomically.
+     *
+     * @param   indexFile  Index file.
+     *
+     * @throws  IOException  Thrown if the file could not be written.
+     */
+    public void save(File indexFile)
+              throws IOException
+    {
+        AtomicFileOutput output = AtomicFileOutput.open(indexFile, false, true, false);
+
+        try
+        {
+            DataOutputStream out = new DataOutputStream(output.getOutputStream());
+
+            out.writeUTF(VERSION);
+            out.writeUTF(selectPath);
+            out.writeInt(interval);
+            out.writeLong(fileSize);
+            out.writeLong(lastModified);
+            out.writeLong(recordCount);
+            out.writeInt(recordNumbers.length);
+
+            for (int i = 0; i < recordNumbers.length; i++)
+            {
+                byte[] ctxBytes = contexts[i].getBytes("UTF-8");
+
+                out.writeInt(ctxBytes.length);
+                out.writeLong(recordNumbers[i]);
+                out.write(ctxBytes);
+            }
+
+            out.flush();
+            output.commit();
+        }
+        finally
+        {
+            output.abort();
+        }
+    }
+}
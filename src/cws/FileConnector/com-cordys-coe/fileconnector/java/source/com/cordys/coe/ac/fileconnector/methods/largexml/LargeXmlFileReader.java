@@ -29,6 +29,7 @@ import com.eibus.xml.nom.Document;
 import java.io.BufferedInputStream;
 import java.io.ByteArrayInputStream;
 import java.io.File;
+import java.io.FilterInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
@@ -41,6 +42,9 @@ import java.nio.channels.Channels;
 
 import java.nio.charset.Charset;
 
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
 import javax.xml.stream.FactoryConfigurationError;
 import javax.xml.stream.XMLStreamConstants;
 import javax.xml.stream.XMLStreamException;
@@ -62,6 +66,20 @@ public class LargeXmlFileReader
      * Logger for log messages from this class.
      */
     private static final CordysLogger LOG = CordysLogger.getCordysLogger(LargeXmlFileReader.class);
+    /**
+     * Maximum number of bytes read from the beginning of the file for detecting the encoding.
+     */
+    private static final int ENCODING_SNIFF_SIZE = 1024;
+    /**
+     * Matches the encoding attribute in the XML declaration.
+     */
+    private static final Pattern ENCODING_PATTERN =
+        Pattern.compile("encoding\\s*=\\s*[\"']([A-Za-z][A-Za-z0-9._\\-]*)[\"']");
+    /**
+     * Shared XML input factory. The factory is configured once and after that it is only used
+     * for creating the readers, which is thread safe.
+     */
+    private static XMLInputFactory2 inputFactory;
     /**
      * Gathers information about the parent XML elements during XML tree traversing, so that the
      * file can be opened later at the last match position.
@@ -144,7 +162,7 @@ public class LargeXmlFileReader
 
         if (ctx != null)
         {
-            open(ctx);
+            open(ctx, -1);
         }
         else
         {
@@ -152,6 +170,29 @@ public class LargeXmlFileReader
         }
     }
 
+    /**
+     * Constructor for LargeXmlFileReader. This reads only the part of the file between the end
+     * offset of the context and the given end offset. The parent elements are closed after the end
+     * offset, so the end offset must be at the end of an element which is directly under the
+     * context parent levels.
+     *
+     * @param   f             File to be read.
+     * @param   ctx           Traverse context for opening the file in the middle.
+     * @param   endOffset     Byte offset of the last character to be read.
+     * @param   useMultiByte  If <code>true</code> multi-byte character set encoding is supported.
+     *
+     * @throws  XMLStreamException
+     * @throws  IOException
+     */
+    public LargeXmlFileReader(File f, XmlTraverseContext ctx, long endOffset, boolean useMultiByte)
+                       throws XMLStreamException, IOException
+    {
+        this.filePath = f;
+        this.supportMultiByteCharEncoding = useMultiByte;
+
+        open(ctx, endOffset);
+    }
+
     /**
      * Closes the XML reader by closing the file and the XML stream reader.
      */
@@ -224,6 +265,51 @@ public class LargeXmlFileReader
      */
     public int findNext(Document doc, SimpleXPath xpath, boolean returnData)
                  throws IOException, XMLStreamException
+    {
+        return findNext(doc, xpath, returnData, null);
+    }
+
+    /**
+     * Finds the next matching XML record and appends it as XML text to the buffer. No NOM nodes are
+     * created. The XPath expression must be set.
+     *
+     * @param   textOut  Receives the XML text of the matched record.
+     *
+     * @return  <code>true</code> if a record was found.
+     *
+     * @throws  IOException
+     * @throws  XMLStreamException
+     */
+    public boolean findNextAsText(StringBuilder textOut)
+                           throws IOException, XMLStreamException
+    {
+        if (currentXPath == null)
+        {
+            throw new XMLStreamException("Current XPath is not set.");
+        }
+
+        return findNext(null, currentXPath, true, textOut) != 0;
+    }
+
+    /**
+     * Finds the next matching XML record and returns it as a NOM node or as XML text.
+     *
+     * @param   doc         NOM document for creating the result nodes.
+     * @param   xpath       XPath to be used to match the nodes.
+     * @param   returnData  If <code>true</code> the XML is returned, otherwise just 1 is returned
+     *                      for a successfull match.
+     * @param   textOut     If not <code>null</code> and returnData is <code>true</code>, the
+     *                      matched XML is appended to this as text and 1 is returned.
+     *
+     * @return  If returnData is <code>true</code>, the matched XML root node or 1 if returnData is
+     *          <code>false</code> or the XML was written as text. For no match zero is returned.
+     *
+     * @throws  IOException
+     * @throws  XMLStreamException
+     */
+    private int findNext(Document doc, SimpleXPath xpath, boolean returnData,
+                         StringBuilder textOut)
+                  throws IOException, XMLStreamException
     {
         if (currentContext.isAtEnd())
         {
@@ -263,16 +349,34 @@ public class LargeXmlFileReader
 
                         case PARTIAL:
                         {
-                            // Element matched, so move to the next one in the XPath.
+                            // Element matched or a descendant step is active, so move to the
+                            // children. Attributes are stored for the predicates to match when
+                            // the reading is continued from the context.
                             xpath.moveToNext();
-                            currentContext.pushLevelFromReader(xmlReader);
+                            currentContext.pushLevelFromReader(xmlReader,
+                                                               xpath.hasAttributePredicates());
                         }
                         break;
 
                         case COMLETE:
                             matchCount++;
 
-                            if (returnData)
+                            if (returnData && (textOut != null))
+                            {
+                                // Write the sub-tree as text.
+                                XMLStreamTextWriter textWriter = new XMLStreamTextWriter(xmlReader,
+                                                                                         textOut,
+                                                                                         currentContext);
+
+                                textWriter.writeElement();
+
+                                XmlTraverseContext.Level level = currentContext.pushLevelFromReader(xmlReader);
+
+                                level.setEndOffset(getEndOffset());
+
+                                return 1;
+                            }
+                            else if (returnData)
                             {
                                 if (currentContext == null)
                                 {
@@ -295,29 +399,32 @@ public class LargeXmlFileReader
                             }
                             else
                             {
-                                // Skip the match sub-tree
+                                // Skip the match sub-tree. The level is still added, so that
+                                // the next call pops the right level from the context.
                                 xmlReader.skipElement();
+
+                                XmlTraverseContext.Level level = currentContext.pushLevelFromReader(xmlReader);
+
+                                level.setEndOffset(getEndOffset());
+
                                 return 1;
                             }
                     }
                     break;
 
                 case XMLStreamConstants.END_ELEMENT:
-                    if (!xpath.isAtEnd())
+                    if (currentContext == null)
                     {
-                        if (currentContext == null)
-                        {
-                            throw new IllegalStateException("Current context is not set.");
-                        }
-
-                        // This sub-tree didn't match completely, so move up the matcher.
-                        if (!xpath.isAtBeginnning())
-                        {
-                            xpath.moveToPrevious();
-                        }
+                        throw new IllegalStateException("Current context is not set.");
+                    }
 
-                        currentContext.popLevel();
+                    // This sub-tree didn't match completely, so move up the matcher.
+                    if (!xpath.isAtBeginnning())
+                    {
+                        xpath.moveToPrevious();
                     }
+
+                    currentContext.popLevel();
                     break;
 
                 case XMLStreamConstants.END_DOCUMENT:
@@ -412,11 +519,7 @@ public class LargeXmlFileReader
                                                    throws FactoryConfigurationError,
                                                           XMLStreamException
     {
-        XMLInputFactory2 xif = (XMLInputFactory2) XMLInputFactory2.newInstance();
-
-        xif.configureForLowMemUsage();
-
-        return (XMLStreamReader2) xif.createXMLStreamReader(reader);
+        return (XMLStreamReader2) getInputFactory().createXMLStreamReader(reader);
     }
 
     /**
@@ -433,11 +536,160 @@ public class LargeXmlFileReader
                                                    throws FactoryConfigurationError,
                                                           XMLStreamException
     {
-        XMLInputFactory2 xif = (XMLInputFactory2) XMLInputFactory2.newInstance();
+        return (XMLStreamReader2) getInputFactory().createXMLStreamReader(is);
+    }
+
+    /**
+     * Returns the shared XML input factory. The factory is created on the first call.
+     *
+     * @return  XML input factory.
+     *
+     * @throws  FactoryConfigurationError
+     */
+    private static synchronized XMLInputFactory2 getInputFactory()
+                                                          throws FactoryConfigurationError
+    {
+        if (inputFactory == null)
+        {
+            XMLInputFactory2 xif = (XMLInputFactory2) XMLInputFactory2.newInstance();
+
+            xif.configureForLowMemUsage();
+            inputFactory = xif;
+        }
+
+        return inputFactory;
+    }
+
+    /**
+     * Detects the character encoding from the first bytes of the file. This follows the XML
+     * specification: the byte order mark or the byte pattern of '&lt;?' determines the Unicode
+     * encodings and for ASCII compatible files the encoding is read from the XML declaration.
+     *
+     * @param   buf  Bytes from the beginning of the file.
+     * @param   len  Number of bytes in the buffer.
+     *
+     * @return  Encoding name or <code>null</code> if the encoding could not be detected.
+     */
+    private static String sniffEncoding(byte[] buf, int len)
+    {
+        int b0 = (len > 0) ? (buf[0] & 0xFF) : -1;
+        int b1 = (len > 1) ? (buf[1] & 0xFF) : -1;
+        int b2 = (len > 2) ? (buf[2] & 0xFF) : -1;
+        int b3 = (len > 3) ? (buf[3] & 0xFF) : -1;
+
+        // Byte order marks.
+        if ((b0 == 0x00) && (b1 == 0x00) && (b2 == 0xFE) && (b3 == 0xFF))
+        {
+            return "UTF-32BE";
+        }
+
+        if ((b0 == 0xFF) && (b1 == 0xFE) && (b2 == 0x00) && (b3 == 0x00))
+        {
+            return "UTF-32LE";
+        }
+
+        if ((b0 == 0xEF) && (b1 == 0xBB) && (b2 == 0xBF))
+        {
+            return "UTF-8";
+        }
+
+        if ((b0 == 0xFE) && (b1 == 0xFF))
+        {
+            return "UTF-16BE";
+        }
+
+        if ((b0 == 0xFF) && (b1 == 0xFE))
+        {
+            return "UTF-16LE";
+        }
+
+        // Unicode encodings without a byte order mark.
+        if ((b0 == 0x00) && (b1 == 0x00) && (b2 == 0x00) && (b3 == 0x3C))
+        {
+            return "UTF-32BE";
+        }
+
+        if ((b0 == 0x3C) && (b1 == 0x00) && (b2 == 0x00) && (b3 == 0x00))
+        {
+            return "UTF-32LE";
+        }
+
+        if ((b0 == 0x00) && (b1 == 0x3C) && (b2 == 0x00) && (b3 == 0x3F))
+        {
+            return "UTF-16BE";
+        }
+
+        if ((b0 == 0x3C) && (b1 == 0x00) && (b2 == 0x3F) && (b3 == 0x00))
+        {
+            return "UTF-16LE";
+        }
+
+        // ASCII compatible encodings.
+        String head;
 
-        xif.configureForLowMemUsage();
+        try
+        {
+            head = new String(buf, 0, len, "ISO-8859-1");
+        }
+        catch (IOException e)
+        {
+            return null;
+        }
+
+        if (head.startsWith("<?xml"))
+        {
+            int declEnd = head.indexOf("?>");
+
+            if (declEnd < 0)
+            {
+                return null;
+            }
+
+            Matcher m = ENCODING_PATTERN.matcher(head.substring(0, declEnd));
+
+            if (!m.find())
+            {
+                return "UTF-8";
+            }
 
-        return (XMLStreamReader2) xif.createXMLStreamReader(is);
+            String res = m.group(1);
+
+            if (res.equalsIgnoreCase("UTF-8") || res.equalsIgnoreCase("UTF8"))
+            {
+                return "UTF-8";
+            }
+
+            if (res.equalsIgnoreCase("ISO-8859-1"))
+            {
+                return "ISO-8859-1";
+            }
+
+            if (res.toUpperCase().startsWith("UTF-16") || res.toUpperCase().startsWith("UTF-32"))
+            {
+                // Does not match the bytes, so let the parser handle this.
+                return null;
+            }
+
+            return res;
+        }
+
+        for (int i = 0; i < head.length(); i++)
+        {
+            char ch = head.charAt(i);
+
+            if (ch == '<')
+            {
+                // No XML declaration.
+                return "UTF-8";
+            }
+
+            if ((ch != ' ') && (ch != '\t') && (ch != '\r') && (ch != '\n'))
+            {
+                break;
+            }
+        }
+
+        return null;
     }
 
     /**
@@ -458,8 +710,18 @@ public class LargeXmlFileReader
         // Open the file
         file = new RandomAccessFile(filePath, "r");
 
-        // Read the character encoding.
-        String charEncoding = readEncoding();
+        // Read the character encoding from the first bytes of the file. If that is not possible,
+        // the file is opened with a separate parser.
+        byte[] sniffBuffer = new byte[ENCODING_SNIFF_SIZE];
+        int sniffLength = file.read(sniffBuffer);
+        String charEncoding = sniffEncoding(sniffBuffer, Math.max(sniffLength, 0));
+
+        if (charEncoding == null)
+        {
+            charEncoding = readEncoding();
+        }
+
+        file.seek(0);
         Charset charSet = Charset.forName(charEncoding);
 
         // Open an input stream from the file and attach it to our input reader.
@@ -484,12 +746,14 @@ public class LargeXmlFileReader
      * time). This method can be called for the same file after the closeFile() method and the file
      * is opened at the right position.
      *
-     * @param   ctx  Current context.
+     * @param   ctx        Current context.
+     * @param   endOffset  If not negative, the reading ends at this byte offset and the parent
+     *                     elements from the context are closed after it.
      *
      * @throws  XMLStreamException  Thrown if the XML stream reader creation failed.
      * @throws  IOException         Thrown if the file was not found or the reading failed.
      */
-    private void open(XmlTraverseContext ctx)
+    private void open(XmlTraverseContext ctx, long endOffset)
                throws XMLStreamException, IOException
     {
         // Close if not yet open
@@ -512,6 +776,19 @@ public class LargeXmlFileReader
 
         // Open an input stream from the file and attach it to our input stream.
         InputStream fileInput = Channels.newInputStream(file.getChannel());
+        String footerStr = null;
+
+        if (endOffset >= 0)
+        {
+            if (endOffset < filePos)
+            {
+                throw new IOException("End offset " + endOffset + " is before the start offset " +
+                                      filePos);
+            }
+
+            fileInput = new RangeInputStream(fileInput, endOffset - filePos + 1);
+            footerStr = ctx.getFooterXml();
+        }
 
         // Add the previous XML structure from the context to the parser input.
         Reader headerReader;
@@ -541,7 +818,19 @@ public class LargeXmlFileReader
 
             // Create a final reader which combines the header and the data from the
             // file.
-            Reader combinedReader = new SequenceReader(headerReader, inputReader);
+            Reader combinedReader;
+
+            if (footerStr != null)
+            {
+                Reader footerReader = new StringReader(footerStr);
+
+                combinedReader = new SequenceReader(new Reader[]
+                                                    { headerReader, inputReader, footerReader });
+            }
+            else
+            {
+                combinedReader = new SequenceReader(headerReader, inputReader);
+            }
 
             // Create the XML stream reader for parsing the XML.
             xmlReader = createXmlStreamReader(combinedReader);
@@ -554,12 +843,20 @@ public class LargeXmlFileReader
             InputStream headerInput = new ByteArrayInputStream(headerBytes);
             InputStream combinedInput = new SequenceInputStream(headerInput, fileInput);
 
+            if (footerStr != null)
+            {
+                byte[] footerBytes = footerStr.getBytes(ctx.getCharSetName());
+
+                combinedInput = new SequenceInputStream(combinedInput,
+                                                        new ByteArrayInputStream(footerBytes));
+            }
+
             xmlReader = createXmlStreamReader(combinedInput);
         }
     }
 
     /**
-     * Reads the character encoding used for the file.
+     * Reads the character encoding used for the file with the XML parser.
      *
      * @return  Character encoding.
      *
@@ -657,4 +954,109 @@ public class LargeXmlFileReader
 
         return byteOffset;
     }
+
+    /**
+     * Input stream which returns at most the given number of bytes from the underlying stream.
+     *
+     * @author  mpoyhone
+     */
+    private static class RangeInputStream extends FilterInputStream
+    {
+        /**
+         * Number of bytes left to be read.
+         */
+        private long remaining;
+
+        /**
+         * Constructor for RangeInputStream.
+         *
+         * @param  in      Underlying input stream.
+         * @param  length  Maximum number of bytes to be read.
+         */
+        RangeInputStream(InputStream in, long length)
+        {
+            super(in);
+            this.remaining = length;
+        }
+
+        /**
+         * @see  java.io.FilterInputStream#available()
+         */
+        @Override
+        public int available()
+                      throws IOException
+        {
+            return (int) Math.min(super.available(), remaining);
+        }
+
+        /**
+         * @see  java.io.FilterInputStream#markSupported()
+         */
+        @Override
+        public boolean markSupported()
+        {
+            return false;
+        }
+
+        /**
+         * @see  java.io.FilterInputStream#read()
+         */
+        @Override
+        public int read()
+                 throws IOException
+        {
+            if (remaining <= 0)
+            {
+                return -1;
+            }
+
+            int res = super.read();
+
+            if (res >= 0)
+            {
+                remaining--;
+            }
+
+            return res;
+        }
+
+        /**
+         * @see  java.io.FilterInputStream#read(byte[], int, int)
+         */
+        @Override
+        public int read(byte[] b, int off, int len)
+                 throws IOException
+        {
+            if (remaining <= 0)
+            {
+                return -1;
+            }
+
+            int res = super.read(b, off, (int) Math.min(len, remaining));
+
+            if (res > 0)
+            {
+                remaining -= res;
+            }
+
+            return res;
+        }
+
+        /**
+         * @see  java.io.FilterInputStream#skip(long)
+         */
+        @Override
+        public long skip(long n)
+                  throws IOException
+        {
+            long res = super.skip(Math.min(n, remaining));
+
+            if (res > 0)
+            {
+                remaining -= res;
+            }
+
+            return res;
+        }
+    }
 }
@@ -0,0 +1,466 @@
+/**
+ * Copyright 2005 Cordys R&D B.V. 
+ * 
+ * This file is part of the Cordys File Connector. 
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+ package com.cordys.coe.ac.fileconnector.methods.largexml;
+
+import com.cordys.coe.ac.fileconnector.methods.largexml.XmlTraverseContext.Level;
+
+import com.eibus.util.logger.CordysLogger;
+
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.RandomAccessFile;
+
+import java.nio.channels.Channels;
+
+import java.nio.charset.Charset;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import javax.xml.stream.XMLStreamException;
+
+/**
+ * Counts the records of a large XML file with multiple threads. This works for records which are
+ * directly under the root element, e.g. <code>/Orders/Order</code>. The file is split into
+ * partitions at the end tags of the record element. Each partition is parsed by a separate
+ * LargeXmlFileReader which gets the root element from the traverse context header and closes it
+ * after the partition end.
+ *
+ * <p>A split point is found by searching the raw bytes, so it can also be inside a comment, a CDATA
+ * section or a nested element with the same name. In that case the partitions are not well-formed
+ * and parsing fails. If any partition fails, count() returns <code>false</code> and the caller must
+ * read the file sequentially, which also reports the actual error.</p>
+ *
+ * @author  mpoyhone
+ */
+public class ParallelRecordCounter
+{
+    /**
+     * Logger for log messages from this class.
+     */
+    private static final CordysLogger LOG = CordysLogger.getCordysLogger(ParallelRecordCounter.class);
+    /**
+     * Minimum partition size in bytes. Smaller files are not split.
+     */
+    private static final long MIN_PARTITION_SIZE = 4L * 1024 * 1024;
+    /**
+     * Buffer size for searching the split points.
+     */
+    private static final int SEARCH_BUFFER_SIZE = 65536;
+    /**
+     * Traverse context at the end of the file after a successful count.
+     */
+    private XmlTraverseContext endContext;
+    /**
+     * XML file.
+     */
+    private File file;
+    /**
+     * Number of threads to be used.
+     */
+    private int threadCount;
+    /**
+     * Number of records found.
+     */
+    private long recordCount;
+    /**
+     * Select path for the records.
+     */
+    private String selectPath;
+
+    /**
+     * Constructor for ParallelRecordCounter.
+     *
+     * @param  file         XML file.
+     * @param  selectPath   Select path for the records.
+     * @param  threadCount  Maximum number of threads to be used.
+     */
+    public ParallelRecordCounter(File file, String selectPath, int threadCount)
+    {
+        this.file = file;
+        this.selectPath = selectPath;
+        this.threadCount = threadCount;
+    }
+
+    /**
+     * Counts the records.
+     *
+     * @return  <code>true</code> if the records were counted. <code>false</code> if the file
+     *          cannot be split or parsing of a partition failed. In that case the file must be read
+     *          sequentially.
+     *
+     * @throws  IOException         Thrown if the file could not be read.
+     * @throws  XMLStreamException  Thrown if the first record could not be parsed.
+     */
+    public boolean count()
+                  throws IOException, XMLStreamException
+    {
+        // Position predicates cannot be evaluated when a partition starts in the middle of
+        // the file.
+        if (new SimpleXPath(selectPath).hasPositionPredicates())
+        {
+            return false;
+        }
+
+        // Find the first record. This gives the root element and the encoding.
+        XmlTraverseContext firstCtx;
+        LargeXmlFileReader reader = new LargeXmlFileReader(file, true);
+
+        try
+        {
+            if (reader.findNext(null, new SimpleXPath(selectPath), false) == 0)
+            {
+                // No records in the file.
+                recordCount = 0;
+                endContext = reader.getCurrentContext();
+
+                return true;
+            }
+
+            firstCtx = reader.getCurrentContext();
+        }
+        finally
+        {
+            reader.close();
+        }
+
+        Level recordLevel = firstCtx.getCurrentLevel();
+
+        if ((recordLevel.getParent() == null) || (recordLevel.getParent().getParent() != null))
+        {
+            // Records are not directly under the root element.
+            return false;
+        }
+
+        byte[] endTag = getEndTagBytes(recordLevel, firstCtx.getCharSetName());
+
+        if (endTag == null)
+        {
+            return false;
+        }
+
+        long firstEndOffset = firstCtx.getCurrentEndOffset();
+        long[] splitOffsets = findSplitOffsets(firstEndOffset, endTag);
+
+        if (splitOffsets.length < 2)
+        {
+            return false;
+        }
+
+        // Parse each partition in a separate thread.
+        List<Callable<Integer>> tasks = new ArrayList<Callable<Integer>>(splitOffsets.length);
+
+        for (int i = 0; i < splitOffsets.length; i++)
+        {
+            long start = splitOffsets[i];
+            long end = (i < (splitOffsets.length - 1)) ? splitOffsets[i + 1] : -1;
+
+            tasks.add(new PartitionTask(firstCtx.createCopy(start), end));
+        }
+
+        ExecutorService executor = Executors.newFixedThreadPool(Math.min(threadCount,
+                                                                         tasks.size()));
+        long count = 1;
+
+        try
+        {
+            for (Future<Integer> f : executor.invokeAll(tasks))
+            {
+                count += f.get();
+            }
+        }
+        catch (ExecutionException e)
+        {
+            if (LOG.isDebugEnabled())
+            {
+                LOG.debug("Parsing of a partition failed for file " + file, e.getCause());
+            }
+
+            return false;
+        }
+        catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+
+            throw new InterruptedIOException("Interrupted while counting the records.");
+        }
+        finally
+        {
+            executor.shutdownNow();
+        }
+
+        recordCount = count;
+        endContext = new XmlTraverseContext();
+        endContext.setCharSetName(firstCtx.getCharSetName());
+        endContext.setAtEnd(true);
+
+        return true;
+    }
+
+    /**
+     * Returns the traverse context at the end of the file.
+     *
+     * @return  Traverse context after a successful count.
+     */
+    public XmlTraverseContext getEndContext()
+    {
+        return endContext;
+    }
+
+    /**
+     * Returns the number of records found.
+     *
+     * @return  Number of records.
+     */
+    public long getRecordCount()
+    {
+        return recordCount;
+    }
+
+    /**
+     * Returns the end tag of the record element as bytes. The tag is searched from the raw bytes,
+     * so this works only when the encoding is ASCII compatible for the tag.
+     *
+     * @param   recordLevel  Level of the record element.
+     * @param   charSetName  File character set.
+     *
+     * @return  End tag bytes without the closing '&gt;' or <code>null</code> if the tag cannot be
+     *          searched from the bytes.
+     *
+     * @throws  IOException  Thrown if the character set is not supported.
+     */
+    private static byte[] getEndTagBytes(Level recordLevel, String charSetName)
+                                  throws IOException
+    {
+        StringBuilder sb = new StringBuilder(64);
+
+        sb.append("</");
+
+        if (recordLevel.getElementPrefix() != null)
+        {
+            sb.append(recordLevel.getElementPrefix());
+            sb.append(':');
+        }
+
+        sb.append(recordLevel.getElementName());
+
+        String tag = sb.toString();
+        byte[] res = tag.getBytes(Charset.forName(charSetName).name());
+
+        if (!Arrays.equals(res, tag.getBytes("US-ASCII")))
+        {
+            return null;
+        }
+
+        return res;
+    }
+
+    /**
+     * Finds the next record end tag starting from the given offset.
+     *
+     * @param   raf     File to be searched.
+     * @param   offset  Start offset.
+     * @param   endTag  End tag bytes without the closing '&gt;'.
+     *
+     * @return  Offset of the closing '&gt;' or -1 if no end tag was found.
+     *
+     * @throws  IOException  Thrown if the reading failed.
+     */
+    private static long findEndTag(RandomAccessFile raf, long offset, byte[] endTag)
+                            throws IOException
+    {
+        raf.seek(offset);
+
+        // The stream is not closed as that would close the file.
+        InputStream in = new BufferedInputStream(Channels.newInputStream(raf.getChannel()),
+                                                 SEARCH_BUFFER_SIZE);
+        long pos = offset;
+        int matched = 0;
+        int b;
+
+        while ((b = in.read()) >= 0)
+        {
+            if (matched < endTag.length)
+            {
+                if (b == endTag[matched])
+                {
+                    matched++;
+                }
+                else
+                {
+                    // The tag contains '<' only as the first character.
+                    matched = (b == endTag[0]) ? 1 : 0;
+                }
+            }
+            else if (b == '>')
+            {
+                return pos;
+            }
+            else if ((b != ' ') && (b != '\t') && (b != '\r') && (b != '\n'))
+            {
+                // This was a longer element name.
+                matched = (b == endTag[0]) ? 1 : 0;
+            }
+
+            pos++;
+        }
+
+        return -1;
+    }
+
+    /**
+     * Finds the partition start offsets. Each offset points to the closing '&gt;' of a record end
+     * tag and the first one is the end of the first record.
+     *
+     * @param   firstEndOffset  End offset of the first record.
+     * @param   endTag          End tag bytes without the closing '&gt;'.
+     *
+     * @return  Partition start offsets.
+     *
+     * @throws  IOException  Thrown if the reading failed.
+     */
+    private long[] findSplitOffsets(long firstEndOffset, byte[] endTag)
+                             throws IOException
+    {
+        long remaining = file.length() - firstEndOffset - 1;
+        long partitionCount = Math.min(threadCount, remaining / MIN_PARTITION_SIZE);
+
+        if (partitionCount < 2)
+        {
+            return new long[] { firstEndOffset };
+        }
+
+        long partitionSize = remaining / partitionCount;
+        List<Long> offsets = new ArrayList<Long>();
+        RandomAccessFile raf = new RandomAccessFile(file, "r");
+
+        try
+        {
+            long prev = firstEndOffset;
+
+            offsets.add(prev);
+
+            for (int i = 1; i < partitionCount; i++)
+            {
+                long searchPos = Math.max(firstEndOffset + (i * partitionSize), prev + 1);
+                long offset = findEndTag(raf, searchPos, endTag);
+
+                if (offset < 0)
+                {
+                    break;
+                }
+
+                offsets.add(offset);
+                prev = offset;
+            }
+        }
+        finally
+        {
+            try
+            {
+                raf.close();
+            }
+            catch (Exception ignored)
+            {
+            }
+        }
+
+        long[] res = new long[offsets.size()];
+
+        for (int i = 0; i < res.length; i++)
+        {
+            res[i] = offsets.get(i);
+        }
+
+        return res;
+    }
+
+    /**
+     * Counts the records in one partition.
+     *
+     * @author  mpoyhone
+     */
+    private class PartitionTask
+        implements Callable<Integer>
+    {
+        /**
+         * Traverse context at the partition start.
+         */
+        private XmlTraverseContext ctx;
+        /**
+         * Byte offset of the partition end or -1 for the end of file.
+         */
+        private long endOffset;
+
+        /**
+         * Constructor for PartitionTask.
+         *
+         * @param  ctx        Traverse context at the partition start.
+         * @param  endOffset  Byte offset of the partition end or -1 for the end of file.
+         */
+        PartitionTask(XmlTraverseContext ctx, long endOffset)
+        {
+            this.ctx = ctx;
+            this.endOffset = endOffset;
+        }
+
+        /**
+         * @see  java.util.concurrent.Callable#call()
+         */
+        public Integer call()
+                     throws Exception
+        {
+            LargeXmlFileReader reader;
+
+            // Multi-byte support is not needed as the offsets are not used.
+            if (endOffset >= 0)
+            {
+                reader = new LargeXmlFileReader(file, ctx, endOffset, false);
+            }
+            else
+            {
+                reader = new LargeXmlFileReader(file, ctx, false);
+            }
+
+            try
+            {
+                SimpleXPath xpath = new SimpleXPath(selectPath);
+
+                // The document is not used when no data is returned.
+                while (reader.findNext(null, xpath, false) != 0)
+                {
+                }
+
+                return reader.getMatchCount();
+            }
+            finally
+            {
+                reader.close();
+            }
+        }
+    }
+}
@@ -21,112 +21,282 @@
 import java.util.ArrayList;
 import java.util.List;
 
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
 import javax.xml.namespace.QName;
 
 import javax.xml.stream.XMLStreamReader;
 
 /**
- * TODO Describe the class.
+ * Simple XPath matcher for XML stream reader events. Elements are matched by the local name,
+ * unless setNoNamespaceOnly() is used.
+ * Supported syntax:
+ *
+ * <ul>
+ *   <li>Child steps, e.g. <code>/Orders/Order</code>.</li>
+ *   <li>Descendant steps, e.g. <code>/Orders//Order</code> or <code>//Order</code>.</li>
+ *   <li>Attribute equality predicates, e.g. <code>Order[@status='NEW']</code>.</li>
+ *   <li>Position predicates, e.g. <code>Order[2]</code>. Positions are counted among the
+ *     siblings from the point where the reading was started, so the reading must start from
+ *     the beginning of the file. See hasPositionPredicates().</li>
+ * </ul>
+ *
+ * <p>The matcher keeps the set of active steps for each open element, so no events need to be
+ * buffered. Elements inside a matched element are not matched.</p>
+ *
+ * <p>Several expressions can be given, in which case an element matches if it matches any of
+ * them and getMatchedPathIndex() tells which one. This allows extracting different records from
+ * the file in one pass.</p>
  *
  * @author  mpoyhone
  */
 public class SimpleXPath
 {
     /**
-     * Points to the current unmatched part.
+     * Maximum number of steps in all expressions. The active steps are kept in a bit mask.
+     */
+    private static final int MAX_STEPS = 64;
+    /**
+     * Matches an attribute equality predicate.
+     */
+    private static final Pattern ATTRIBUTE_PREDICATE_PATTERN =
+        Pattern.compile("@([^\\s=\\]]+)\\s*=\\s*(?:'([^']*)'|\"([^\"]*)\")");
+    /**
+     * Matches a position predicate.
+     */
+    private static final Pattern POSITION_PREDICATE_PATTERN = Pattern.compile("[0-9]+");
+    /**
+     * Current open element depth. Zero means the document level.
+     */
+    private int depth;
+    /**
+     * Position predicate counters for each open element. <code>null</code> if there are no
+     * position predicates.
+     */
+    private int[][][] frameCounters = new int[16][][];
+    /**
+     * Active steps for each open element as a bit mask.
      */
-    private int partPtr;
+    private long[] frameSteps = new long[16];
     /**
-     * DOCUMENTME.
+     * <code>true</code> if any step has attribute predicates.
+     */
+    private boolean hasAttributePredicates;
+    /**
+     * <code>true</code> if any step has position predicates.
+     */
+    private boolean hasPositionPredicates;
+    /**
+     * Index of the expression matched last.
+     */
+    private int matchedPathIndex = -1;
+    /**
+     * XPath steps.
      */
     private Part[] parts;
+    /**
+     * Active steps for the children of the element matched last.
+     */
+    private long pendingSteps;
+    /**
+     * Number of expressions.
+     */
+    private int pathCount;
+    /**
+     * First steps of all expressions as a bit mask.
+     */
+    private long startSteps;
 
     /**
      * Creates a new SimpleXPath object.
      *
-     * @param  str  DOCUMENTME
+     * @param   str  XPath expression.
+     *
+     * @throws  IllegalArgumentException  Thrown if the expression is not valid.
      */
     public SimpleXPath(String str)
     {
-        parts = parseXPath(str);
-        partPtr = 0;
+        this(new String[] { str });
+    }
+
+    /**
+     * Creates a new SimpleXPath object which matches any of the given expressions.
+     *
+     * @param   paths  XPath expressions.
+     *
+     * @throws  IllegalArgumentException  Thrown if an expression is not valid.
+     */
+    public SimpleXPath(String[] paths)
+    {
+        List<Part> allParts = new ArrayList<Part>();
+
+        for (int i = 0; i < paths.length; i++)
+        {
+            Part[] pathParts = parseXPath(paths[i]);
+
+            if ((allParts.size() + pathParts.length) > MAX_STEPS)
+            {
+                throw new IllegalArgumentException("Too many steps in XPath: " + paths[i]);
+            }
+
+            startSteps |= 1L << allParts.size();
+
+            for (Part p : pathParts)
+            {
+                p.pathIndex = i;
+                allParts.add(p);
+            }
+
+            pathParts[pathParts.length - 1].last = true;
+        }
+
+        if (allParts.isEmpty())
+        {
+            throw new IllegalArgumentException("No XPath expressions given.");
+        }
+
+        parts = (Part[]) allParts.toArray(new Part[allParts.size()]);
+        pathCount = paths.length;
+
+        for (Part p : parts)
+        {
+            hasAttributePredicates |= p.hasAttributePredicates();
+            hasPositionPredicates |= (p.positionPredicateCount > 0);
+        }
+
+        reset();
     }
 
     /**
-     * DOCUMENTME.
+     * Matches the current start element of the reader.
      *
-     * @param   r  DOCUMENTME
+     * @param   r  XML stream reader positioned at a START_ELEMENT.
      *
-     * @return  DOCUMENTME
+     * @return  COMLETE if the element matches the whole XPath, PARTIAL if children of the element
+     *          can match and NO_MATCH if the element can be skipped.
      */
     public EMatchState match(XMLStreamReader r)
     {
-        if (partPtr >= parts.length)
+        long active = frameSteps[depth];
+        int[][] counters = frameCounters[depth];
+        long next = 0;
+        int complete = -1;
+
+        for (int i = 0; i < parts.length; i++)
         {
-            throw new IllegalStateException("XPath matcher is past end.");
+            if ((active & (1L << i)) == 0)
+            {
+                continue;
+            }
+
+            Part part = parts[i];
+
+            if (part.match(r, (counters != null) ? counters[i] : null))
+            {
+                if (part.last)
+                {
+                    // The first matching expression is reported.
+                    if (complete < 0)
+                    {
+                        complete = part.pathIndex;
+                    }
+                }
+                else
+                {
+                    next |= 1L << (i + 1);
+                }
+            }
+
+            if (part.descendant)
+            {
+                // Descendant step stays active for the children.
+                next |= 1L << i;
+            }
         }
 
-        if (!parts[partPtr].match(r))
+        pendingSteps = next;
+
+        if (complete >= 0)
         {
-            return EMatchState.NO_MATCH;
+            matchedPathIndex = complete;
+
+            return EMatchState.COMLETE;
         }
 
-        return (partPtr == (parts.length - 1)) ? EMatchState.COMLETE : EMatchState.PARTIAL;
+        return (next != 0) ? EMatchState.PARTIAL : EMatchState.NO_MATCH;
     }
 
     /**
-     * DOCUMENTME.
+     * Moves the matcher to the children of the element which was partially matched last.
      */
     public void moveToNext()
     {
-        if (partPtr >= parts.length)
+        if (pendingSteps == 0)
+        {
+            throw new IllegalStateException("No partially matched element.");
+        }
+
+        depth++;
+
+        if (depth >= frameSteps.length)
         {
-            throw new IllegalStateException("XPath matcher is past end.");
+            long[] newSteps = new long[frameSteps.length * 2];
+            int[][][] newCounters = new int[frameSteps.length * 2][][];
+
+            System.arraycopy(frameSteps, 0, newSteps, 0, frameSteps.length);
+            System.arraycopy(frameCounters, 0, newCounters, 0, frameCounters.length);
+            frameSteps = newSteps;
+            frameCounters = newCounters;
         }
 
-        partPtr++;
+        frameSteps[depth] = pendingSteps;
+        frameCounters[depth] = createCounters();
+        pendingSteps = 0;
     }
 
     /**
-     * DOCUMENTME.
+     * Moves the matcher back to the parent element when the element ends.
      */
     public void moveToPrevious()
     {
-        if (partPtr <= 0)
+        if (depth <= 0)
         {
             throw new IllegalStateException("XPath matcher is at beginning.");
         }
 
-        partPtr--;
+        frameSteps[depth] = 0;
+        frameCounters[depth] = null;
+        depth--;
     }
 
     /**
-     * DOCUMENTME.
+     * Resets the matcher to the document level.
      */
     public void reset()
     {
-        partPtr = 0;
+        depth = 0;
+        frameSteps[0] = startSteps;
+        frameCounters[0] = createCounters();
+        pendingSteps = 0;
+        matchedPathIndex = -1;
     }
 
     /**
-     * DOCUMENTME.
+     * Returns the index of the expression which the element matched last. This is always zero if
+     * the object was created with a single expression.
      *
-     * @return  DOCUMENTME
+     * @return  Expression index or -1 if nothing has been matched.
      */
-    public Part getCurrentPart()
+    public int getMatchedPathIndex()
     {
-        if (partPtr >= parts.length)
-        {
-            throw new IllegalStateException("XPath matcher is past end.");
-        }
-
-        return parts[partPtr];
+        return matchedPathIndex;
     }
 
     /**
-     * DOCUMENTME.
+     * Returns the local names of the steps of all expressions.
      *
-     * @return  DOCUMENTME
+     * @return  Step names.
      */
     public String[] getPartsAsString()
     {
@@ -141,50 +311,207 @@ public class SimpleXPath
     }
 
     /**
-     * DOCUMENTME.
+     * Returns the number of expressions.
+     *
+     * @return  Number of expressions.
+     */
+    public int getPathCount()
+    {
+        return pathCount;
+    }
+
+    /**
+     * Returns <code>true</code> if any step has attribute predicates. The attributes of the parent
+     * elements must then be kept in the traverse context.
+     *
+     * @return  <code>true</code> if any step has attribute predicates.
+     */
+    public boolean hasAttributePredicates()
+    {
+        return hasAttributePredicates;
+    }
+
+    /**
+     * Returns <code>true</code> if any step has position predicates.
      *
-     * @return  DOCUMENTME
+     * @return  <code>true</code> if any step has position predicates.
      */
-    public boolean isAtEnd()
+    public boolean hasPositionPredicates()
     {
-        return partPtr >= parts.length;
+        return hasPositionPredicates;
     }
 
     /**
-     * DOCUMENTME.
+     * Returns <code>true</code> if the matcher is at the document level.
      *
-     * @return  DOCUMENTME
+     * @return  <code>true</code> if no elements are open.
      */
     public boolean isAtBeginnning()
     {
-        return partPtr == 0;
+        return depth == 0;
+    }
+
+    /**
+     * Sets the steps to match only elements without a namespace, as the unprefixed names do in a
+     * namespace aware XPath.
+     *
+     * @param  noNamespaceOnly  If <code>true</code> elements with a namespace do not match.
+     */
+    public void setNoNamespaceOnly(boolean noNamespaceOnly)
+    {
+        for (Part p : parts)
+        {
+            p.noNamespaceOnly = noNamespaceOnly;
+        }
     }
 
     /**
-     * DOCUMENTME.
+     * Finds the closing bracket of a predicate. Brackets inside quoted strings are ignored.
      *
-     * @param   path  DOCUMENTME
+     * @param   path   XPath expression.
+     * @param   start  Position after the opening bracket.
      *
-     * @return  DOCUMENTME
+     * @return  Position of the closing bracket.
+     *
+     * @throws  IllegalArgumentException  Thrown if the predicate is not closed.
+     */
+    private static int findPredicateEnd(String path, int start)
+    {
+        char quote = 0;
+
+        for (int i = start; i < path.length(); i++)
+        {
+            char ch = path.charAt(i);
+
+            if (quote != 0)
+            {
+                if (ch == quote)
+                {
+                    quote = 0;
+                }
+            }
+            else if ((ch == '\'') || (ch == '"'))
+            {
+                quote = ch;
+            }
+            else if (ch == ']')
+            {
+                return i;
+            }
+        }
+
+        throw new IllegalArgumentException("Predicate is not closed in XPath: " + path);
+    }
+
+    /**
+     * Parses the XPath expression into steps.
+     *
+     * @param   path  XPath expression.
+     *
+     * @return  Parsed steps.
+     *
+     * @throws  IllegalArgumentException  Thrown if the expression is not valid.
      */
     private static Part[] parseXPath(String path)
     {
-        String[] pathParts = path.split("/");
-        List<Part> res = new ArrayList<Part>(pathParts.length);
+        List<Part> res = new ArrayList<Part>();
+        int len = path.length();
+        int pos = 0;
+        boolean descendant = false;
 
-        for (String p : pathParts)
+        while (pos < len)
         {
-            if (p.trim().length() > 0)
+            char ch = path.charAt(pos);
+
+            if (ch == '/')
+            {
+                if (((pos + 1) < len) && (path.charAt(pos + 1) == '/'))
+                {
+                    descendant = true;
+                    pos += 2;
+                }
+                else
+                {
+                    pos++;
+                }
+
+                continue;
+            }
+
+            int start = pos;
+
+            while ((pos < len) && (path.charAt(pos) != '/') && (path.charAt(pos) != '[') &&
+                       (path.charAt(pos) != ']'))
+            {
+                pos++;
+            }
+
+            String name = path.substring(start, pos).trim();
+
+            if (name.length() == 0)
+            {
+                throw new IllegalArgumentException("Missing element name in XPath: " + path);
+            }
+
+            Part part = Part.parsePart(name);
+
+            part.descendant = descendant;
+            descendant = false;
+
+            while ((pos < len) && (path.charAt(pos) == '['))
+            {
+                int end = findPredicateEnd(path, pos + 1);
+
+                part.addPredicate(path.substring(pos + 1, end).trim(), path);
+                pos = end + 1;
+
+                while ((pos < len) && Character.isWhitespace(path.charAt(pos)))
+                {
+                    pos++;
+                }
+            }
+
+            if ((pos < len) && (path.charAt(pos) != '/'))
             {
-                res.add(Part.parsePart(p));
+                throw new IllegalArgumentException("Invalid character at position " + pos +
+                                                   " in XPath: " + path);
             }
+
+            res.add(part);
+        }
+
+        if (descendant || res.isEmpty())
+        {
+            throw new IllegalArgumentException("Missing element name in XPath: " + path);
         }
 
         return (Part[]) res.toArray(new Part[res.size()]);
     }
 
     /**
-     * DOCUMENTME.
+     * Creates the position predicate counters for a new element.
+     *
+     * @return  Counters for each step or <code>null</code> if there are no position predicates.
+     */
+    private int[][] createCounters()
+    {
+        if (!hasPositionPredicates)
+        {
+            return null;
+        }
+
+        int[][] res = new int[parts.length][];
+
+        for (int i = 0; i < parts.length; i++)
+        {
+            res[i] = new int[parts[i].positionPredicateCount];
+        }
+
+        return res;
+    }
+
+    /**
+     * Result of matching an element.
      *
      * @author  $author$
      */
@@ -196,21 +523,45 @@ public class SimpleXPath
     }
 
     /**
-     * DOCUMENTME.
+     * One step of the XPath.
      *
      * @author  $author$
      */
     public static class Part
     {
         /**
-         * DOCUMENTME.
+         * If <code>true</code>, this step can match at any depth under the previous step.
+         */
+        private boolean descendant;
+        /**
+         * Element name.
          */
         private QName elemName;
+        /**
+         * <code>true</code> if this is the last step of the expression.
+         */
+        private boolean last;
+        /**
+         * If <code>true</code>, only elements without a namespace match.
+         */
+        private boolean noNamespaceOnly;
+        /**
+         * Index of the expression this step belongs to.
+         */
+        private int pathIndex;
+        /**
+         * Number of position predicates.
+         */
+        private int positionPredicateCount;
+        /**
+         * Predicates in the order they are evaluated.
+         */
+        private List<Predicate> predicates;
 
         /**
-         * DOCUMENTME.
+         * Returns the element name.
          *
-         * @return  DOCUMENTME
+         * @return  Element local name.
          */
         public String getName()
         {
@@ -218,11 +569,11 @@ public class SimpleXPath
         }
 
         /**
-         * DOCUMENTME.
+         * Creates a step for the element name.
          *
-         * @param   str  DOCUMENTME
+         * @param   str  Element name.
          *
-         * @return  DOCUMENTME
+         * @return  New step.
          */
         private static Part parsePart(String str)
         {
@@ -234,21 +585,155 @@ public class SimpleXPath
         }
 
         /**
-         * DOCUMENTME.
+         * Parses and adds a predicate.
          *
-         * @param   r  DOCUMENTME
+         * @param   str   Predicate without the brackets.
+         * @param   path  XPath expression for error messages.
          *
-         * @return  DOCUMENTME
+         * @throws  IllegalArgumentException  Thrown if the predicate is not supported.
          */
-        private boolean match(XMLStreamReader r)
+        private void addPredicate(String str, String path)
         {
-            QName qn = r.getName();
+            Predicate pred = new Predicate();
+            Matcher m;
 
-            if (elemName.getLocalPart().equals(qn.getLocalPart()))
+            if (POSITION_PREDICATE_PATTERN.matcher(str).matches())
+            {
+                pred.position = Integer.parseInt(str);
+
+                if (pred.position < 1)
+                {
+                    throw new IllegalArgumentException("Invalid position " + str + " in XPath: " +
+                                                       path);
+                }
+
+                positionPredicateCount++;
+            }
+            else if ((m = ATTRIBUTE_PREDICATE_PATTERN.matcher(str)).matches())
+            {
+                String attrName = m.group(1);
+                int colon = attrName.indexOf(':');
+
+                // Attributes are matched by the local name.
+                pred.attributeName = (colon >= 0) ? attrName.substring(colon + 1) : attrName;
+                pred.attributeValue = (m.group(2) != null) ? m.group(2) : m.group(3);
+            }
+            else
+            {
+                throw new IllegalArgumentException("Unsupported predicate [" + str +
+                                                   "] in XPath: " + path);
+            }
+
+            if (predicates == null)
+            {
+                predicates = new ArrayList<Predicate>(2);
+            }
+
+            predicates.add(pred);
+        }
+
+        /**
+         * Returns <code>true</code> if this step has attribute predicates.
+         *
+         * @return  <code>true</code> if this step has attribute predicates.
+         */
+        private boolean hasAttributePredicates()
+        {
+            return (predicates != null) && (predicates.size() > positionPredicateCount);
+        }
+
+        /**
+         * Matches the current start element of the reader. Position counters are updated for
+         * the elements which pass the name test and the preceding predicates.
+         *
+         * @param   r         XML stream reader.
+         * @param   counters  Position counters of this step for the parent element.
+         *
+         * @return  <code>true</code> if the element matches.
+         */
+        private boolean match(XMLStreamReader r, int[] counters)
+        {
+            if (!elemName.getLocalPart().equals(r.getLocalName()))
+            {
+                return false;
+            }
+
+            if (noNamespaceOnly)
+            {
+                String namespace = r.getNamespaceURI();
+
+                if ((namespace != null) && (namespace.length() > 0))
+                {
+                    return false;
+                }
+            }
+
+            if (predicates == null)
             {
                 return true;
             }
 
+            int counterIndex = 0;
+
+            for (Predicate pred : predicates)
+            {
+                if (pred.position > 0)
+                {
+                    if (++counters[counterIndex++] != pred.position)
+                    {
+                        return false;
+                    }
+                }
+                else if (!pred.matchAttribute(r))
+                {
+                    return false;
+                }
+            }
+
+            return true;
+        }
+    }
+
+    /**
+     * Step predicate.
+     *
+     * @author  mpoyhone
+     */
+    private static class Predicate
+    {
+        /**
+         * Attribute local name for an attribute equality predicate.
+         */
+        private String attributeName;
+        /**
+         * Attribute value for an attribute equality predicate.
+         */
+        private String attributeValue;
+        /**
+         * Position starting from one for a position predicate, otherwise zero.
+         */
+        private int position;
+
+        /**
+         * Checks the attribute equality predicate.
+         *
+         * @param   r  XML stream reader.
+         *
+         * @return  <code>true</code> if the element has the attribute with the value.
+         */
+        private boolean matchAttribute(XMLStreamReader r)
+        {
+            int count = r.getAttributeCount();
+
+            for (int i = 0; i < count; i++)
+            {
+                if (attributeName.equals(r.getAttributeLocalName(i)) &&
+                        attributeValue.equals(r.getAttributeValue(i)))
+                {
+                    return true;
+                }
+            }
+
             return false;
         }
     }
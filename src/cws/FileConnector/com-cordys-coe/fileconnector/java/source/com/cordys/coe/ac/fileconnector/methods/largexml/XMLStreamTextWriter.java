@@ -0,0 +1,343 @@
+/**
+ * Copyright 2005 Cordys R&D B.V. 
+ * 
+ * This file is part of the Cordys File Connector. 
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+ package com.cordys.coe.ac.fileconnector.methods.largexml;
+
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Set;
+
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+/**
+ * A class to write an XML element from an XMLStreamReader as XML text. The output is the same XML
+ * which would be created by XMLStreamNomWriter, but no NOM nodes are created.
+ *
+ * @author  mpoyhone
+ */
+public class XMLStreamTextWriter
+{
+    /**
+     * Receives the XML text.
+     */
+    private StringBuilder out;
+    /**
+     * Parent context.
+     */
+    private XmlTraverseContext parentContext;
+    /**
+     * Actual stream reader.
+     */
+    private XMLStreamReader xmlReader;
+
+    /**
+     * Constructor for XMLStreamTextWriter.
+     *
+     * @param  reader         Used from reading the XML. This must be positioned a START_ELEMEMT.
+     * @param  out            Receives the XML text.
+     * @param  parentContext  Optional context for top level namespaces.
+     */
+    public XMLStreamTextWriter(XMLStreamReader reader, StringBuilder out,
+                               XmlTraverseContext parentContext)
+    {
+        this.xmlReader = reader;
+        this.out = out;
+        this.parentContext = parentContext;
+    }
+
+    /**
+     * Writes the current element and its contents from the XML stream. After this method the
+     * reader is positioned at the END_ELEMENT of the element.
+     *
+     * @throws  XMLStreamException  Thrown if the parsing failed.
+     */
+    public void writeElement()
+                      throws XMLStreamException
+    {
+        boolean first = true;
+        boolean startTagOpen = false;
+        int currentLevel = 0;
+        NamespaceContext currentNamespace = new NamespaceContext();
+
+        while (true)
+        {
+            int event;
+
+            if (!first)
+            {
+                event = xmlReader.next();
+            }
+            else
+            {
+                event = XMLStreamConstants.START_ELEMENT;
+                first = false;
+            }
+
+            switch (event)
+            {
+                case XMLStreamConstants.START_ELEMENT:
+                {
+                    if (startTagOpen)
+                    {
+                        out.append('>');
+                    }
+
+                    // Create a new namespace context.
+                    currentNamespace = new NamespaceContext(currentNamespace);
+
+                    writeStartTag(currentNamespace, currentLevel == 0);
+                    startTagOpen = true;
+                    currentLevel++;
+                }
+                break;
+
+                case XMLStreamConstants.END_ELEMENT:
+                {
+                    if (currentLevel <= 0)
+                    {
+                        throw new IllegalStateException("Unexpected end element.");
+                    }
+
+                    if (startTagOpen)
+                    {
+                        out.append("/>");
+                        startTagOpen = false;
+                    }
+                    else
+                    {
+                        out.append("</");
+                        appendName(xmlReader.getPrefix(), xmlReader.getLocalName());
+                        out.append('>');
+                    }
+
+                    if (--currentLevel <= 0)
+                    {
+                        return;
+                    }
+
+                    currentNamespace = currentNamespace.getParent();
+                }
+                break;
+
+                case XMLStreamConstants.CHARACTERS:
+                {
+                    if (currentLevel <= 0)
+                    {
+                        throw new IllegalStateException("Unexpected TEXT section.");
+                    }
+
+                    if (!xmlReader.isWhiteSpace())
+                    {
+                        if (startTagOpen)
+                        {
+                            out.append('>');
+                            startTagOpen = false;
+                        }
+
+                        appendEscaped(xmlReader.getTextCharacters(), xmlReader.getTextStart(),
+                                      xmlReader.getTextLength(), false);
+                    }
+                }
+                break;
+
+                case XMLStreamConstants.CDATA:
+                {
+                    if (currentLevel <= 0)
+                    {
+                        throw new IllegalStateException("Unexpected CDATA section.");
+                    }
+
+                    if (startTagOpen)
+                    {
+                        out.append('>');
+                        startTagOpen = false;
+                    }
+
+                    out.append("<![CDATA[");
+                    out.append(xmlReader.getTextCharacters(), xmlReader.getTextStart(),
+                               xmlReader.getTextLength());
+                    out.append("]]>");
+                }
+                break;
+
+                case XMLStreamConstants.END_DOCUMENT:
+                    throw new IllegalStateException("Unexpected end of document encountered.");
+            }
+        }
+    }
+
+    /**
+     * Appends the element or attribute name.
+     *
+     * @param  prefix     Prefix (can be <code>null</code>).
+     * @param  localName  Local name.
+     */
+    private void appendName(String prefix, String localName)
+    {
+        if ((prefix != null) && (prefix.length() > 0))
+        {
+            out.append(prefix);
+            out.append(':');
+        }
+
+        out.append(localName);
+    }
+
+    /**
+     * Appends the characters with XML escaping.
+     *
+     * @param  chars      Character array.
+     * @param  start      Start index.
+     * @param  length     Number of characters.
+     * @param  attribute  If <code>true</code>, quotation marks are also escaped.
+     */
+    private void appendEscaped(char[] chars, int start, int length, boolean attribute)
+    {
+        int end = start + length;
+        int copyStart = start;
+
+        for (int i = start; i < end; i++)
+        {
+            String repl;
+
+            switch (chars[i])
+            {
+                case '&':
+                    repl = "&amp;";
+                    break;
+
+                case '<':
+                    repl = "&lt;";
+                    break;
+
+                case '>':
+                    repl = "&gt;";
+                    break;
+
+                case '"':
+                    repl = attribute ? "&quot;" : null;
+                    break;
+
+                default:
+                    repl = null;
+                    break;
+            }
+
+            if (repl != null)
+            {
+                out.append(chars, copyStart, i - copyStart);
+                out.append(repl);
+                copyStart = i + 1;
+            }
+        }
+
+        out.append(chars, copyStart, end - copyStart);
+    }
+
+    /**
+     * Appends a namespace declaration if the prefix has not been declared for this element yet.
+     *
+     * @param  prefix    Prefix (can be <code>null</code>).
+     * @param  uri       Namespace URI.
+     * @param  ctx       Declaration is also added to this context.
+     * @param  declared  Contains prefixes declared for this element.
+     */
+    private void declareNamespace(String prefix, String uri, NamespaceContext ctx,
+                                  Set<String> declared)
+    {
+        String key = (prefix != null) ? prefix : NamespaceContext.DEFAULT_PREFIX;
+
+        if (!declared.add(key))
+        {
+            return;
+        }
+
+        if (key.length() > 0)
+        {
+            out.append(" xmlns:");
+            out.append(key);
+        }
+        else
+        {
+            out.append(" xmlns");
+        }
+
+        out.append("=\"");
+        appendEscaped(uri.toCharArray(), 0, uri.length(), true);
+        out.append('"');
+        ctx.addNamespace(prefix, uri);
+    }
+
+    /**
+     * Writes the start tag without the closing '&gt;'.
+     *
+     * @param  ctx       Namespace context.
+     * @param  topLevel  If <code>true</code> the namespaces from the parent context are declared.
+     */
+    private void writeStartTag(NamespaceContext ctx, boolean topLevel)
+    {
+        String prefix = xmlReader.getPrefix();
+        String uri = xmlReader.getNamespaceURI();
+        Set<String> declared = new HashSet<String>();
+
+        out.append('<');
+        appendName(prefix, xmlReader.getLocalName());
+
+        if (topLevel && (parentContext != null))
+        {
+            Collection<String[]> nsDeclarations = parentContext.getDeclaredNamespaces();
+
+            for (String[] nsDecl : nsDeclarations)
+            {
+                declareNamespace(nsDecl[0], nsDecl[1], ctx, declared);
+            }
+        }
+
+        if ((uri != null) && (uri.length() > 0))
+        {
+            if (!ctx.isDefined(prefix, uri))
+            {
+                declareNamespace(prefix, uri, ctx, declared);
+            }
+        }
+
+        int attrCount = xmlReader.getAttributeCount();
+
+        for (int i = 0; i < attrCount; i++)
+        {
+            String attrPrefix = xmlReader.getAttributePrefix(i);
+            String attrUri = xmlReader.getAttributeNamespace(i);
+            String attrValue = xmlReader.getAttributeValue(i);
+
+            if ((attrUri != null) && (attrUri.length() > 0))
+            {
+                if (!ctx.isDefined(attrPrefix, attrUri))
+                {
+                    declareNamespace(attrPrefix, attrUri, ctx, declared);
+                }
+            }
+
+            out.append(' ');
+            appendName(attrPrefix, xmlReader.getAttributeLocalName(i));
+            out.append("=\"");
+            appendEscaped(attrValue.toCharArray(), 0, attrValue.length(), true);
+            out.append('"');
+        }
+    }
+}
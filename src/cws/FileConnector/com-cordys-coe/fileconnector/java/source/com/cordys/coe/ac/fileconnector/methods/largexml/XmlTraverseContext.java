@@ -27,6 +27,7 @@ import java.io.DataOutputStream;
 import java.io.IOException;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.List;
 
@@ -49,6 +50,32 @@ public class XmlTraverseContext
      * Regexp pattern for matching characters to be encoded in an XML attribute.
      */
     private static final Pattern ATTRIB_ENCODE_PATTERN = Pattern.compile("[\"<>&]");
+    /**
+     * Version of the compact serialization format. The original format starts with a zero byte.
+     */
+    private static final int FORMAT_VERSION = 2;
+    /**
+     * Flag bit for the at end state in the compact format.
+     */
+    private static final int FLAG_AT_END = 0x01;
+    /**
+     * Flag bit for the compact format telling that the levels contain attributes.
+     */
+    private static final int FLAG_HAS_ATTRIBUTES = 0x02;
+    /**
+     * Strings which are in the string table of the compact format from the beginning.
+     */
+    private static final String[] PREDEFINED_STRINGS =
+    { "UTF-8", "ISO-8859-1", "UTF-16LE", "UTF-16BE", "" };
+    /**
+     * String reference value for a <code>null</code> string in the compact format.
+     */
+    private static final int STRING_NULL = 0;
+    /**
+     * String reference value for a new string in the compact format. The string value follows.
+     * Larger values refer to the string table.
+     */
+    private static final int STRING_NEW = 1;
     /**
      * Indicates if the file end has been reached.
      */
@@ -71,13 +98,14 @@ public class XmlTraverseContext
     private Level rootLevel;
 
     /**
-     * DOCUMENTME.
+     * Parses the context from a base64 encoded string. Both the compact format and the original
+     * format (version 1) are supported.
      *
-     * @param   str  DOCUMENTME
+     * @param   str  Serialized string.
      *
-     * @return  DOCUMENTME
+     * @return  Parsed context.
      *
-     * @throws  IOException  DOCUMENTME
+     * @throws  IOException  Thrown if the string is not a valid context.
      */
     public static XmlTraverseContext serializeFromBase64String(String str)
                                                         throws IOException
@@ -85,55 +113,22 @@ public class XmlTraverseContext
         byte[] strBytes = str.getBytes("UTF-8");
         byte[] ctxBytes = Native.decodeBinBase64(strBytes, strBytes.length);
         DataInputStream dataIn = new DataInputStream(new ByteArrayInputStream(ctxBytes));
-        XmlTraverseContext ctx = new XmlTraverseContext();
 
-        dataIn.readUTF(); // Version.
-        ctx.charSetName = readString(dataIn);
-        ctx.currentEndOffset = dataIn.readLong();
-        ctx.atEnd = dataIn.readBoolean();
+        dataIn.mark(1);
 
-        if (!ctx.atEnd)
+        if (dataIn.readUnsignedByte() == FORMAT_VERSION)
         {
-            Level prev = null;
-
-            while (dataIn.readByte() != 0)
-            {
-                Level l = ctx.new Level();
-                int nsCount;
-
-                l.elementName = readString(dataIn);
-                l.elementPrefix = readString(dataIn);
-
-                nsCount = dataIn.readInt();
-                l.namespaceDeclarations = new ArrayList<String[]>(nsCount);
-
-                for (int i = 0; i < nsCount; i++)
-                {
-                    String prefix = readString(dataIn);
-                    String uri = readString(dataIn);
-
-                    l.namespaceDeclarations.add(new String[] { prefix, uri });
-                }
-
-                if (prev != null)
-                {
-                    prev.parent = l;
-                }
-                else
-                {
-                    ctx.currentLevel = l;
-                }
-
-                ctx.rootLevel = l;
-                prev = l;
-            }
+            return readCompact(dataIn);
         }
 
-        return ctx;
+        // Version 1 starts with the version string.
+        dataIn.reset();
+
+        return readVersion1(dataIn);
     }
 
     /**
-     * Serializes the context to a base64 encoded string.
+     * Serializes the context to a base64 encoded string. The compact format is used.
      *
      * @param   ctx  Context to be serialized.
      *
@@ -144,45 +139,71 @@ public class XmlTraverseContext
     public static String serializeToBase64String(XmlTraverseContext ctx)
                                           throws IOException
     {
-        ByteArrayOutputStream ctxOut = new ByteArrayOutputStream(2048);
+        ByteArrayOutputStream ctxOut = new ByteArrayOutputStream(256);
         DataOutputStream dataOut = new DataOutputStream(ctxOut);
+        List<String> stringTable = createStringTable();
 
-        dataOut.writeUTF("1"); // Version.
-        writeString(ctx.charSetName, dataOut);
-        dataOut.writeLong(ctx.currentEndOffset);
+        boolean hasAttributes = false;
 
-        dataOut.writeBoolean(ctx.atEnd);
+        for (Level l = ctx.currentLevel; l != null; l = l.parent)
+        {
+            hasAttributes |= (l.attributes != null);
+        }
+
+        dataOut.writeByte(FORMAT_VERSION);
+        dataOut.writeByte((ctx.atEnd ? FLAG_AT_END : 0) |
+                          (hasAttributes ? FLAG_HAS_ATTRIBUTES : 0));
+        writeInternedString(ctx.charSetName, stringTable, dataOut);
+        // The offset is -1 when the position is still in the header.
+        writeVarLong(ctx.currentEndOffset + 1, dataOut);
 
         if (!ctx.atEnd)
         {
-            Level l = ctx.currentLevel;
+            int levelCount = 0;
 
-            while (l != null)
+            for (Level l = ctx.currentLevel; l != null; l = l.parent)
             {
-                // 1 means that we have one more level.
-                dataOut.writeByte(1);
+                levelCount++;
+            }
 
-                writeString(l.elementName, dataOut);
-                writeString(l.elementPrefix, dataOut);
+            writeVarLong(levelCount, dataOut);
+
+            for (Level l = ctx.currentLevel; l != null; l = l.parent)
+            {
+                writeInternedString(l.elementName, stringTable, dataOut);
+                writeInternedString(l.elementPrefix, stringTable, dataOut);
 
                 int nsCount = (l.namespaceDeclarations != null) ? l.namespaceDeclarations.size()
                                                                 : 0;
 
-                dataOut.writeInt(nsCount);
+                writeVarLong(nsCount, dataOut);
 
                 if (l.namespaceDeclarations != null)
                 {
                     for (String[] decls : l.namespaceDeclarations)
                     {
-                        writeString(decls[0], dataOut);
-                        writeString(decls[1], dataOut);
+                        writeInternedString(decls[0], stringTable, dataOut);
+                        writeInternedString(decls[1], stringTable, dataOut);
                     }
                 }
 
-                l = l.parent;
+                if (hasAttributes)
+                {
+                    int attrCount = (l.attributes != null) ? l.attributes.size() : 0;
+
+                    writeVarLong(attrCount, dataOut);
+
+                    if (l.attributes != null)
+                    {
+                        for (String[] attr : l.attributes)
+                        {
+                            writeInternedString(attr[0], stringTable, dataOut);
+                            writeInternedString(attr[1], stringTable, dataOut);
+                            writeInternedString(attr[2], stringTable, dataOut);
+                        }
+                    }
+                }
             }
-            // 0 is the end of level.
-            dataOut.writeByte(0);
         }
 
         dataOut.close();
@@ -192,6 +213,57 @@ public class XmlTraverseContext
         return new String(Native.encodeBinBase64(ctxBytes, ctxBytes.length), "UTF-8");
     }
 
+    /**
+     * Creates a copy of this context with a different end offset. The levels are copied, so the
+     * new context can be used independently from this one, e.g. in a different thread.
+     *
+     * @param   endOffset  End offset for the new context.
+     *
+     * @return  New context.
+     */
+    public XmlTraverseContext createCopy(long endOffset)
+    {
+        XmlTraverseContext ctx = new XmlTraverseContext();
+        Level prev = null;
+
+        ctx.charSetName = charSetName;
+        ctx.currentEndOffset = endOffset;
+        ctx.atEnd = atEnd;
+
+        for (Level l = currentLevel; l != null; l = l.parent)
+        {
+            Level copy = ctx.new Level();
+
+            copy.elementName = l.elementName;
+            copy.elementPrefix = l.elementPrefix;
+            copy.endOffset = l.endOffset;
+
+            if (l.namespaceDeclarations != null)
+            {
+                copy.namespaceDeclarations = new ArrayList<String[]>(l.namespaceDeclarations);
+            }
+
+            if (l.attributes != null)
+            {
+                copy.attributes = new ArrayList<String[]>(l.attributes);
+            }
+
+            if (prev != null)
+            {
+                prev.parent = copy;
+            }
+            else
+            {
+                ctx.currentLevel = copy;
+            }
+
+            ctx.rootLevel = copy;
+            prev = copy;
+        }
+
+        return ctx;
+    }
+
     /**
      * Moves to the parent level and returns the previous current.
      *
@@ -223,6 +295,21 @@ public class XmlTraverseContext
      * @return  new level.
      */
     public Level pushLevelFromReader(XMLStreamReader reader)
+    {
+        return pushLevelFromReader(reader, false);
+    }
+
+    /**
+     * Pushes a new level from the reader.
+     *
+     * @param   reader            XML stream reader.
+     * @param   storeAttributes   If <code>true</code>, the element attributes are stored in the
+     *                            level and written to the header. This is needed when the XPath
+     *                            has attribute predicates.
+     *
+     * @return  new level.
+     */
+    public Level pushLevelFromReader(XMLStreamReader reader, boolean storeAttributes)
     {
         Level level = new Level();
 
@@ -248,6 +335,23 @@ public class XmlTraverseContext
             }
         }
 
+        int attrCount = storeAttributes ? reader.getAttributeCount() : 0;
+
+        if (attrCount > 0)
+        {
+            level.attributes = new ArrayList<String[]>(attrCount);
+
+            for (int i = 0; i < attrCount; i++)
+            {
+                level.attributes.add(new String[]
+                                     {
+                                         reader.getAttributePrefix(i),
+                                         reader.getAttributeLocalName(i),
+                                         reader.getAttributeValue(i)
+                                     });
+            }
+        }
+
         currentLevel = level;
 
         if (rootLevel == null)
@@ -314,6 +418,34 @@ public class XmlTraverseContext
         return resList;
     }
 
+    /**
+     * Returns the end tags which close the elements in the header returned by getHeaderXml().
+     *
+     * @return  End tags for all the parent levels.
+     */
+    public String getFooterXml()
+    {
+        StringBuilder res = new StringBuilder(256);
+        Level current = currentLevel.parent;
+
+        while (current != null)
+        {
+            res.append("</");
+
+            if (current.elementPrefix != null)
+            {
+                res.append(current.elementPrefix);
+                res.append(':');
+            }
+            res.append(current.elementName);
+            res.append('>');
+
+            current = current.parent;
+        }
+
+        return res.toString();
+    }
+
     /**
      * Returns the header as XML string.
      *
@@ -372,6 +504,25 @@ public class XmlTraverseContext
                 }
             }
 
+            if (level.attributes != null)
+            {
+                for (String[] attr : level.attributes)
+                {
+                    res.append(' ');
+
+                    if ((attr[0] != null) && (attr[0].length() > 0))
+                    {
+                        res.append(attr[0]);
+                        res.append(':');
+                    }
+
+                    res.append(attr[1]);
+                    res.append("=\"");
+                    res.append(encodeAttribute(attr[2]));
+                    res.append("\"");
+                }
+            }
+
             res.append('>');
         }
 
@@ -482,6 +633,233 @@ public class XmlTraverseContext
         }
     }
 
+    /**
+     * Creates the initial string table for the compact format.
+     *
+     * @return  String table containing the predefined strings.
+     */
+    private static List<String> createStringTable()
+    {
+        return new ArrayList<String>(Arrays.asList(PREDEFINED_STRINGS));
+    }
+
+    /**
+     * Reads the context in the compact format. The version byte has already been read.
+     *
+     * @param   in  Input stream.
+     *
+     * @return  Parsed context.
+     *
+     * @throws  IOException  Thrown if the reading failed.
+     */
+    private static XmlTraverseContext readCompact(DataInputStream in)
+                                           throws IOException
+    {
+        XmlTraverseContext ctx = new XmlTraverseContext();
+        List<String> stringTable = createStringTable();
+        int flags = in.readUnsignedByte();
+
+        ctx.atEnd = (flags & FLAG_AT_END) != 0;
+
+        boolean hasAttributes = (flags & FLAG_HAS_ATTRIBUTES) != 0;
+        ctx.charSetName = readInternedString(in, stringTable);
+        ctx.currentEndOffset = readVarLong(in) - 1;
+
+        if (!ctx.atEnd)
+        {
+            int levelCount = (int) readVarLong(in);
+            Level prev = null;
+
+            for (int i = 0; i < levelCount; i++)
+            {
+                Level l = ctx.new Level();
+
+                l.elementName = readInternedString(in, stringTable);
+                l.elementPrefix = readInternedString(in, stringTable);
+
+                int nsCount = (int) readVarLong(in);
+
+                if (nsCount > 0)
+                {
+                    l.namespaceDeclarations = new ArrayList<String[]>(nsCount);
+
+                    for (int j = 0; j < nsCount; j++)
+                    {
+                        String prefix = readInternedString(in, stringTable);
+                        String uri = readInternedString(in, stringTable);
+
+                        l.namespaceDeclarations.add(new String[] { prefix, uri });
+                    }
+                }
+
+                int attrCount = hasAttributes ? (int) readVarLong(in) : 0;
+
+                if (attrCount > 0)
+                {
+                    l.attributes = new ArrayList<String[]>(attrCount);
+
+                    for (int j = 0; j < attrCount; j++)
+                    {
+                        String prefix = readInternedString(in, stringTable);
+                        String localName = readInternedString(in, stringTable);
+                        String value = readInternedString(in, stringTable);
+
+                        l.attributes.add(new String[] { prefix, localName, value });
+                    }
+                }
+
+                if (prev != null)
+                {
+                    prev.parent = l;
+                }
+                else
+                {
+                    ctx.currentLevel = l;
+                }
+
+                ctx.rootLevel = l;
+                prev = l;
+            }
+        }
+
+        return ctx;
+    }
+
+    /**
+     * Reads a string in the compact format. New strings are added to the string table.
+     *
+     * @param   in           Input stream.
+     * @param   stringTable  String table.
+     *
+     * @return  Read string.
+     *
+     * @throws  IOException  Thrown if the reading failed.
+     */
+    private static String readInternedString(DataInputStream in, List<String> stringTable)
+                                      throws IOException
+    {
+        int ref = (int) readVarLong(in);
+
+        switch (ref)
+        {
+            case STRING_NULL:
+                return null;
+
+            case STRING_NEW:
+            {
+                byte[] bytes = new byte[(int) readVarLong(in)];
+
+                in.readFully(bytes);
+
+                String res = new String(bytes, "UTF-8");
+
+                stringTable.add(res);
+
+                return res;
+            }
+
+            default:
+            {
+                int index = ref - STRING_NEW - 1;
+
+                if (index >= stringTable.size())
+                {
+                    throw new IOException("Invalid string reference: " + ref);
+                }
+
+                return stringTable.get(index);
+            }
+        }
+    }
+
+    /**
+     * Reads a variable length unsigned number.
+     *
+     * @param   in  Input stream.
+     *
+     * @return  Read number.
+     *
+     * @throws  IOException  Thrown if the reading failed.
+     */
+    private static long readVarLong(DataInputStream in)
+                             throws IOException
+    {
+        long res = 0;
+
+        for (int shift = 0; shift < 64; shift += 7)
+        {
+            int b = in.readUnsignedByte();
+
+            res |= (long) (b & 0x7F) << shift;
+
+            if ((b & 0x80) == 0)
+            {
+                return res;
+            }
+        }
+
+        throw new IOException("Invalid variable length number.");
+    }
+
+    /**
+     * Reads the context in the original format.
+     *
+     * @param   dataIn  Input stream.
+     *
+     * @return  Parsed context.
+     *
+     * @throws  IOException  Thrown if the reading failed.
+     */
+    private static XmlTraverseContext readVersion1(DataInputStream dataIn)
+                                            throws IOException
+    {
+        XmlTraverseContext ctx = new XmlTraverseContext();
+
+        dataIn.readUTF(); // Version.
+        ctx.charSetName = readString(dataIn);
+        ctx.currentEndOffset = dataIn.readLong();
+        ctx.atEnd = dataIn.readBoolean();
+
+        if (!ctx.atEnd)
+        {
+            Level prev = null;
+
+            while (dataIn.readByte() != 0)
+            {
+                Level l = ctx.new Level();
+                int nsCount;
+
+                l.elementName = readString(dataIn);
+                l.elementPrefix = readString(dataIn);
+
+                nsCount = dataIn.readInt();
+                l.namespaceDeclarations = new ArrayList<String[]>(nsCount);
+
+                for (int i = 0; i < nsCount; i++)
+                {
+                    String prefix = readString(dataIn);
+                    String uri = readString(dataIn);
+
+                    l.namespaceDeclarations.add(new String[] { prefix, uri });
+                }
+
+                if (prev != null)
+                {
+                    prev.parent = l;
+                }
+                else
+                {
+                    ctx.currentLevel = l;
+                }
+
+                ctx.rootLevel = l;
+                prev = l;
+            }
+        }
+
+        return ctx;
+    }
+
     /**
      * Reads a string from the input stream. This handles <code>null</code> strings correctly.
      *
@@ -507,25 +885,65 @@ public class XmlTraverseContext
     }
 
     /**
-     * Writes a string to the stream. This handles <code>null</code> strings correctly.
+     * Writes a string in the compact format. A string which is already in the string table is
+     * written as a reference and new strings are added to the table.
      *
-     * @param   str  String to be written.
-     * @param   out  Output stream.
+     * @param   str          String to be written.
+     * @param   stringTable  String table.
+     * @param   out          Output stream.
      *
-     * @throws  IOException  Thron if the writing failed.
+     * @throws  IOException  Thrown if the writing failed.
      */
-    private static void writeString(String str, DataOutputStream out)
-                             throws IOException
+    private static void writeInternedString(String str, List<String> stringTable,
+                                            DataOutputStream out)
+                                     throws IOException
     {
-        if (str != null)
+        if (str == null)
         {
-            out.writeByte(1);
-            out.writeUTF(str);
+            writeVarLong(STRING_NULL, out);
+            return;
         }
-        else
+
+        int index = stringTable.indexOf(str);
+
+        if (index >= 0)
+        {
+            writeVarLong(index + STRING_NEW + 1, out);
+            return;
+        }
+
+        byte[] bytes = str.getBytes("UTF-8");
+
+        writeVarLong(STRING_NEW, out);
+        writeVarLong(bytes.length, out);
+        out.write(bytes);
+        stringTable.add(str);
+    }
+
+    /**
+     * Writes a variable length unsigned number. Seven bits are written per byte and the high bit
+     * indicates that more bytes follow.
+     *
+     * @param   value  Value to be written.
+     * @param   out    Output stream.
+     *
+     * @throws  IOException  Thrown if the writing failed.
+     */
+    private static void writeVarLong(long value, DataOutputStream out)
+                              throws IOException
+    {
+        if (value < 0)
+        {
+            throw new IllegalArgumentException("Negative value: " + value);
+        }
+
+        while (value >= 0x80)
         {
-            out.writeByte(0);
+            out.writeByte((int) (value & 0x7F) | 0x80);
+            value >>>= 7;
         }
+
+        out.writeByte((int) value);
     }
 
     /**
@@ -535,6 +953,11 @@ public class XmlTraverseContext
      */
     public class Level
     {
+        /**
+         * Contains the attributes of this element as prefix, local name and value. These are
+         * stored only when needed by the XPath predicates.
+         */
+        private List<String[]> attributes;
         /**
          * Contains the current XML element name (local).
          */
@@ -556,6 +979,16 @@ public class XmlTraverseContext
          */
         private Level parent;
 
+        /**
+         * Returns the attributes.
+         *
+         * @return  Returns the attributes.
+         */
+        public List<String[]> getAttributes()
+        {
+            return attributes;
+        }
+
         /**
          * Returns the elementName.
          *
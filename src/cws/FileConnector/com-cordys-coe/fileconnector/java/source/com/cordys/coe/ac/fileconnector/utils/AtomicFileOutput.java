@@ -0,0 +1,560 @@
+/**
+ * Copyright 2005 Cordys R&D B.V. 
+ * 
+ * This file is part of the Cordys File Connector. 
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+ package com.cordys.coe.ac.fileconnector.utils;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+
+import java.lang.reflect.Array;
+
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Output file which is written through a file channel. In atomic mode the data is written to a
+ * temporary file in the same folder and the temporary file is renamed to the destination file
+ * when the output is committed, so readers never see a partially written file. In append mode the
+ * current contents are copied to the temporary file first. The output can also be gzip compressed,
+ * in which case appending adds a new gzip member to the end of the file.
+ *
+ * <p>The rename is atomic only on platforms which allow renaming over an existing file. Elsewhere
+ * the destination file is deleted before the rename, so it is briefly missing. With the sync
+ * option the folder is also forced to the disk after the rename when the runtime supports it
+ * (Java 7 or later).</p>
+ *
+ * <p>Large files can be written in parts with <code>openPart</code>. Each part is written at the
+ * given position. In atomic mode the parts are collected in a part file which is renamed to the
+ * destination file when the last part is committed. The part file is kept if writing a part
+ * fails, so the part can be written again.</p>
+ *
+ * <p>Usage:</p>
+ *
+ * <pre>
+   AtomicFileOutput out = AtomicFileOutput.open(file, append, atomic, sync);
+
+   try
+   {
+       out.getOutputStream().write(data);
+       out.commit();
+   }
+   finally
+   {
+       out.abort();
+   }
+ * </pre>
+ *
+ * @author  mpoyhone
+ */
+public class AtomicFileOutput
+{
+    /**
+     * Size of the output buffer.
+     */
+    private static final int OUTPUT_BUFFER_SIZE = 65536;
+    /**
+     * Buffered stream for the file channel.
+     */
+    private OutputStream bufferedStream;
+    /**
+     * File channel for the file being written.
+     */
+    private FileChannel channel;
+    /**
+     * Destination file.
+     */
+    private File destFile;
+    /**
+     * If <code>true</code> the temporary file is deleted when the output is aborted.
+     */
+    private boolean deleteOnAbort = true;
+    /**
+     * Stream or random access file for the file being written.
+     */
+    private Closeable fileStream;
+    /**
+     * If <code>true</code> the output has been committed or aborted.
+     */
+    private boolean finished;
+    /**
+     * Gzip stream writing to the buffered stream or <code>null</code> if the output is not
+     * compressed.
+     */
+    private GzipStream gzipStream;
+    /**
+     * Output stream returned to the caller.
+     */
+    private OutputStream outputStream;
+    /**
+     * If <code>true</code> the file contents are forced to the disk before the file is closed.
+     */
+    private boolean sync;
+    /**
+     * Temporary file which is renamed to the destination file or <code>null</code> if the
+     * destination file is written directly.
+     */
+    private File tempFile;
+
+    /**
+     * Constructor for AtomicFileOutput.
+     *
+     * @param  destFile  Destination file.
+     * @param  tempFile  Temporary file or <code>null</code>.
+     * @param  sync      If <code>true</code> the file contents are forced to the disk.
+     */
+    private AtomicFileOutput(File destFile, File tempFile, boolean sync)
+    {
+        this.destFile = destFile;
+        this.tempFile = tempFile;
+        this.sync = sync;
+    }
+
+    /**
+     * Opens the output file.
+     *
+     * @param   destFile  Destination file.
+     * @param   append    If <code>true</code> the data is appended to the destination file.
+     * @param   atomic    If <code>true</code> the data is written to a temporary file which is
+     *                    renamed to the destination file on commit.
+     * @param   sync      If <code>true</code> the file contents are forced to the disk on commit.
+     *
+     * @return  Opened output file.
+     *
+     * @throws  IOException  Thrown if the file could not be opened.
+     */
+    public static AtomicFileOutput open(File destFile, boolean append, boolean atomic,
+                                        boolean sync)
+                                 throws IOException
+    {
+        return open(destFile, append, atomic, sync, false);
+    }
+
+    /**
+     * Opens the output file.
+     *
+     * @param   destFile  Destination file.
+     * @param   append    If <code>true</code> the data is appended to the destination file.
+     * @param   atomic    If <code>true</code> the data is written to a temporary file which is
+     *                    renamed to the destination file on commit.
+     * @param   sync      If <code>true</code> the file contents are forced to the disk on commit.
+     * @param   compress  If <code>true</code> the data is gzip compressed.
+     *
+     * @return  Opened output file.
+     *
+     * @throws  IOException  Thrown if the file could not be opened.
+     */
+    public static AtomicFileOutput open(File destFile, boolean append, boolean atomic,
+                                        boolean sync, boolean compress)
+                                 throws IOException
+    {
+        AtomicFileOutput res;
+
+        if (atomic)
+        {
+            File parent = destFile.getAbsoluteFile().getParentFile();
+            File temp = File.createTempFile("." + destFile.getName() + ".", ".tmp", parent);
+
+            res = new AtomicFileOutput(destFile, temp, sync);
+
+            try
+            {
+                FileOutputStream stream = new FileOutputStream(temp);
+
+                res.fileStream = stream;
+                res.channel = stream.getChannel();
+
+                if (append && destFile.exists())
+                {
+                    res.copyExistingContents();
+                }
+            }
+            catch (IOException e)
+            {
+                res.abort();
+                throw e;
+            }
+        }
+        else
+        {
+            FileOutputStream stream = new FileOutputStream(destFile, append);
+
+            res = new AtomicFileOutput(destFile, null, sync);
+            res.fileStream = stream;
+            res.channel = stream.getChannel();
+        }
+
+        res.bufferedStream = new BufferedOutputStream(Channels.newOutputStream(res.channel),
+                                                      OUTPUT_BUFFER_SIZE);
+
+        if (compress)
+        {
+            try
+            {
+                res.gzipStream = new GzipStream(res.bufferedStream, OUTPUT_BUFFER_SIZE);
+            }
+            catch (IOException e)
+            {
+                res.abort();
+                throw e;
+            }
+
+            res.outputStream = res.gzipStream;
+        }
+        else
+        {
+            res.outputStream = res.bufferedStream;
+        }
+
+        return res;
+    }
+
+    /**
+     * Opens the output file for writing a part of the data. The file is truncated to the given
+     * position and the data is written from there on, so a part can be written again if the
+     * previous attempt failed.
+     *
+     * @param   destFile  Destination file.
+     * @param   position  Position of this part in the file.
+     * @param   atomic    If <code>true</code> the parts are written to the part file which is
+     *                    renamed to the destination file when the last part is committed.
+     * @param   last      If <code>true</code> this is the last part.
+     * @param   sync      If <code>true</code> the file contents are forced to the disk on commit.
+     *
+     * @return  Opened output file.
+     *
+     * @throws  IOException  Thrown if the file could not be opened.
+     */
+    public static AtomicFileOutput openPart(File destFile, long position, boolean atomic,
+                                            boolean last, boolean sync)
+                                     throws IOException
+    {
+        File partFile = atomic ? getPartFile(destFile) : null;
+        AtomicFileOutput res = new AtomicFileOutput(destFile, last ? partFile : null, sync);
+        RandomAccessFile file = new RandomAccessFile(atomic ? partFile : destFile, "rw");
+
+        res.deleteOnAbort = false;
+        res.fileStream = file;
+        res.channel = file.getChannel();
+
+        try
+        {
+            res.channel.truncate(position);
+            res.channel.position(position);
+        }
+        catch (IOException e)
+        {
+            res.abort();
+            throw e;
+        }
+
+        res.bufferedStream = new BufferedOutputStream(Channels.newOutputStream(res.channel),
+                                                      OUTPUT_BUFFER_SIZE);
+        res.outputStream = res.bufferedStream;
+
+        return res;
+    }
+
+    /**
+     * Returns the file which collects the parts of the destination file in atomic mode.
+     *
+     * @param   destFile  Destination file.
+     *
+     * @return  Part file in the same folder.
+     */
+    public static File getPartFile(File destFile)
+    {
+        File parent = destFile.getAbsoluteFile().getParentFile();
+
+        return new File(parent, "." + destFile.getName() + ".part");
+    }
+
+    /**
+     * Closes the file and deletes the temporary file if the output has not been committed. This
+     * can be safely called after <code>commit</code>.
+     */
+    public void abort()
+    {
+        if (finished)
+        {
+            return;
+        }
+
+        finished = true;
+
+        if (gzipStream != null)
+        {
+            gzipStream.release();
+        }
+
+        try
+        {
+            fileStream.close();
+        }
+        catch (Exception ignored)
+        {
+            // Nothing to be done.
+        }
+
+        if (deleteOnAbort && (tempFile != null) && tempFile.exists())
+        {
+            tempFile.delete();
+        }
+    }
+
+    /**
+     * Flushes the data, optionally forces it to the disk, closes the file and renames the
+     * temporary file to the destination file.
+     *
+     * @throws  IOException  Thrown if the operation failed. The temporary file is deleted in that
+     *                       case, unless the destination file was already deleted by the rename.
+     */
+    public void commit()
+                throws IOException
+    {
+        if (finished)
+        {
+            throw new IOException("Output file is already closed: " + destFile);
+        }
+
+        boolean success = false;
+
+        try
+        {
+            finish();
+
+            if (sync)
+            {
+                channel.force(true);
+            }
+
+            fileStream.close();
+
+            if (tempFile != null)
+            {
+                renameTempFile();
+
+                if (sync)
+                {
+                    syncDirectory(destFile.getAbsoluteFile().getParentFile());
+                }
+            }
+
+            success = true;
+        }
+        finally
+        {
+            if (!success)
+            {
+                abort();
+            }
+            else if (gzipStream != null)
+            {
+                gzipStream.release();
+            }
+
+            finished = true;
+        }
+    }
+
+    /**
+     * Writes the remaining compressed data and flushes the buffers. No more data can be written
+     * after this if the output is compressed. This is called automatically by <code>
+     * commit</code>.
+     *
+     * @throws  IOException  Thrown if the data could not be written.
+     */
+    public void finish()
+                throws IOException
+    {
+        if (gzipStream != null)
+        {
+            gzipStream.finish();
+        }
+
+        bufferedStream.flush();
+    }
+
+    /**
+     * Returns the current position in the output file. Any buffered data is flushed first. For
+     * compressed output <code>finish</code> must be called first to get the final file size.
+     *
+     * @return  Current file position.
+     *
+     * @throws  IOException  Thrown if the position could not be read.
+     */
+    public long getFilePosition()
+                         throws IOException
+    {
+        bufferedStream.flush();
+
+        return channel.position();
+    }
+
+    /**
+     * Returns the output stream. This stream must not be closed by the caller.
+     *
+     * @return  Output stream.
+     */
+    public OutputStream getOutputStream()
+    {
+        return outputStream;
+    }
+
+    /**
+     * Copies the current destination file contents to the temporary file.
+     *
+     * @throws  IOException  Thrown if the copying failed.
+     */
+    private void copyExistingContents()
+                               throws IOException
+    {
+        FileInputStream in = new FileInputStream(destFile);
+
+        try
+        {
+            FileChannel inChannel = in.getChannel();
+            long size = inChannel.size();
+            long pos = 0;
+
+            while (pos < size)
+            {
+                pos += inChannel.transferTo(pos, size - pos, channel);
+            }
+
+            channel.position(pos);
+        }
+        finally
+        {
+            in.close();
+        }
+    }
+
+    /**
+     * Forces the folder entries to the disk, so that a rename is not lost on a crash. Java 6
+     * cannot open folders, so the Java 7 API is called through reflection when it is available.
+     * Errors are ignored as not all platforms allow this.
+     *
+     * @param  dir  Folder to be forced.
+     */
+    private static void syncDirectory(File dir)
+    {
+        if (dir == null)
+        {
+            return;
+        }
+
+        try
+        {
+            Class<?> pathClass = Class.forName("java.nio.file.Path");
+            Class<?> optionClass = Class.forName("java.nio.file.OpenOption");
+            Object options = Array.newInstance(optionClass, 1);
+
+            Array.set(options, 0,
+                      Class.forName("java.nio.file.StandardOpenOption").getField("READ").get(null));
+
+            Object path = File.class.getMethod("toPath").invoke(dir);
+            FileChannel dirChannel = (FileChannel) FileChannel.class.getMethod("open", pathClass,
+                                                                               options.getClass())
+                                                                    .invoke(null, path, options);
+
+            try
+            {
+                dirChannel.force(true);
+            }
+            finally
+            {
+                dirChannel.close();
+            }
+        }
+        catch (Exception ignored)
+        {
+            // Not supported by the runtime or the platform.
+        }
+    }
+
+    /**
+     * Renames the temporary file to the destination file. If the platform does not allow renaming
+     * over an existing file, the destination file is deleted first. This fallback is not atomic:
+     * the destination file does not exist between the delete and the rename. If the rename fails
+     * after the delete, the temporary file is kept so the data is not lost.
+     *
+     * @throws  IOException  Thrown if the file could not be renamed.
+     */
+    private void renameTempFile()
+                         throws IOException
+    {
+        if (tempFile.renameTo(destFile))
+        {
+            return;
+        }
+
+        if (destFile.exists() && destFile.delete())
+        {
+            if (tempFile.renameTo(destFile))
+            {
+                return;
+            }
+
+            deleteOnAbort = false;
+
+            throw new IOException("Destination file " + destFile +
+                                  " was deleted but the temporary file " + tempFile +
+                                  " could not be renamed to it. The data is in the temporary file.");
+        }
+
+        throw new IOException("Unable to rename temporary file " + tempFile + " to " + destFile);
+    }
+
+    /**
+     * Gzip output stream which allows the native compressor resources to be released without
+     * closing the underlying stream.
+     *
+     * @author  mpoyhone
+     */
+    private static class GzipStream extends GZIPOutputStream
+    {
+        /**
+         * Constructor for GzipStream.
+         *
+         * @param   out   Output stream.
+         * @param   size  Output buffer size.
+         *
+         * @throws  IOException  Thrown if the header could not be written.
+         */
+        GzipStream(OutputStream out, int size)
+            throws IOException
+        {
+            super(out, size);
+        }
+
+        /**
+         * Releases the compressor.
+         */
+        void release()
+        {
+            def.end();
+        }
+    }
+}
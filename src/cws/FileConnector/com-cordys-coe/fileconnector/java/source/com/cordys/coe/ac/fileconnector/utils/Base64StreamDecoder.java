@@ -0,0 +1,180 @@
+/**
+ * Copyright 2005 Cordys R&D B.V. 
+ * 
+ * This file is part of the Cordys File Connector. 
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+ package com.cordys.coe.ac.fileconnector.utils;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+import java.util.Arrays;
+
+/**
+ * Decodes base64 data to an output stream in blocks, so the decoded data is never kept in memory
+ * as a whole. Line breaks and other white space are ignored and the padding characters are
+ * optional. Padding ends the current group, so concatenated padded blocks (e.g.
+ * <code>QQ==QQ==</code>) are decoded as one stream.
+ *
+ * @author  mpoyhone
+ */
+public class Base64StreamDecoder
+{
+    /**
+     * Size of the decoded data buffer.
+     */
+    private static final int BUFFER_SIZE = 49152;
+    /**
+     * Marks characters which are not allowed in the table.
+     */
+    private static final byte INVALID = -1;
+    /**
+     * Marks white space characters in the table.
+     */
+    private static final byte WHITESPACE = -2;
+    /**
+     * Character values by the character code.
+     */
+    private static final byte[] DECODE_TABLE = new byte[128];
+
+    static
+    {
+        String alphabet = "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789+/";
+
+        Arrays.fill(DECODE_TABLE, INVALID);
+
+        for (int i = 0; i < alphabet.length(); i++)
+        {
+            DECODE_TABLE[alphabet.charAt(i)] = (byte) i;
+        }
+
+        DECODE_TABLE[' '] = WHITESPACE;
+        DECODE_TABLE['\t'] = WHITESPACE;
+        DECODE_TABLE['\r'] = WHITESPACE;
+        DECODE_TABLE['\n'] = WHITESPACE;
+    }
+
+    /**
+     * Decodes the base64 data and writes it to the output stream.
+     *
+     * @param   data  Base64 encoded data.
+     * @param   out   Output stream for the decoded data.
+     *
+     * @return  Number of bytes written.
+     *
+     * @throws  IOException  Thrown if the data is not valid base64 or it could not be written.
+     */
+    public static long decode(CharSequence data, OutputStream out)
+                       throws IOException
+    {
+        byte[] buffer = new byte[BUFFER_SIZE];
+        int bufferPos = 0;
+        long total = 0;
+        int bits = 0;
+        int count = 0;
+        int len = data.length();
+
+        for (int i = 0; i < len; i++)
+        {
+            char ch = data.charAt(i);
+
+            if (bufferPos > (buffer.length - 3))
+            {
+                out.write(buffer, 0, bufferPos);
+                total += bufferPos;
+                bufferPos = 0;
+            }
+
+            if (ch == '=')
+            {
+                // Padding completes the current group. Further padding is ignored.
+                bufferPos = writePartialGroup(buffer, bufferPos, bits, count);
+                bits = 0;
+                count = 0;
+                continue;
+            }
+
+            int value = (ch < DECODE_TABLE.length) ? DECODE_TABLE[ch] : INVALID;
+
+            if (value == WHITESPACE)
+            {
+                continue;
+            }
+
+            if (value == INVALID)
+            {
+                throw new IOException("Invalid base64 character at position " + i);
+            }
+
+            bits = (bits << 6) | value;
+
+            if (++count == 4)
+            {
+                buffer[bufferPos++] = (byte) (bits >> 16);
+                buffer[bufferPos++] = (byte) (bits >> 8);
+                buffer[bufferPos++] = (byte) bits;
+                bits = 0;
+                count = 0;
+            }
+        }
+
+        // Handle the last incomplete group.
+        bufferPos = writePartialGroup(buffer, bufferPos, bits, count);
+
+        if (bufferPos > 0)
+        {
+            out.write(buffer, 0, bufferPos);
+            total += bufferPos;
+        }
+
+        return total;
+    }
+
+    /**
+     * Writes the bytes of an incomplete group to the buffer.
+     *
+     * @param   buffer     Output buffer. This must have room for two bytes.
+     * @param   bufferPos  Current buffer position.
+     * @param   bits       Bits of the group.
+     * @param   count      Number of characters in the group.
+     *
+     * @return  New buffer position.
+     *
+     * @throws  IOException  Thrown if the group has only one character.
+     */
+    private static int writePartialGroup(byte[] buffer, int bufferPos, int bits, int count)
+                                  throws IOException
+    {
+        switch (count)
+        {
+            case 0:
+                break;
+
+            case 2:
+                buffer[bufferPos++] = (byte) (bits >> 4);
+                break;
+
+            case 3:
+                buffer[bufferPos++] = (byte) (bits >> 10);
+                buffer[bufferPos++] = (byte) (bits >> 2);
+                break;
+
+            default:
+                throw new IOException("Base64 data is truncated.");
+        }
+
+        return bufferPos;
+    }
+}
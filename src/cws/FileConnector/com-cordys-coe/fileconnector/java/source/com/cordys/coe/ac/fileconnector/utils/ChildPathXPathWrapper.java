@@ -0,0 +1,337 @@
+/**
+ * Copyright 2005 Cordys R&D B.V. 
+ * 
+ * This file is part of the Cordys File Connector. 
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+ package com.cordys.coe.ac.fileconnector.utils;
+
+import com.eibus.xml.nom.Node;
+import com.eibus.xml.xpath.XPath;
+import com.eibus.xml.xpath.XPathMetaInfo;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Pattern;
+
+/**
+ * XPath wrapper for simple relative child paths like <code>field</code>, <code>a/b</code> or
+ * <code>./a/b/@attr</code>. These are evaluated by walking the NOM child elements directly instead
+ * of going through the XPath engine. The compiled NOM XPath is kept for the operations that this
+ * class does not handle itself (e.g. boolean evaluation).
+ *
+ * @author  mpoyhone
+ */
+class ChildPathXPathWrapper extends XPathWrapper
+{
+    /**
+     * Pattern for a single element or attribute name. Names cannot contain dots as they are not
+     * handled by the simple XPath translation either.
+     */
+    private static final String NAME = "[A-Za-z_][A-Za-z0-9_\\-]*";
+    /**
+     * Matches XPaths that can be handled by this class.
+     */
+    private static final Pattern CHILD_PATH_PATTERN = Pattern.compile("(\\./)?" + NAME + "(/" +
+                                                                      NAME + ")*(/@" + NAME +
+                                                                      ")?|\\.(/@" + NAME +
+                                                                      ")?|@" + NAME);
+    /**
+     * Name of the attribute to be read from the last element or <code>null</code> if the path
+     * selects elements.
+     */
+    private String attributeName;
+    /**
+     * If <code>true</code>, the elements are matched only by the local name. Otherwise the
+     * element name must match exactly, i.e. the element must not have a prefix.
+     */
+    private boolean matchLocalNameOnly;
+    /**
+     * Element local names for each step. Empty array means the context node itself.
+     */
+    private String[] steps;
+
+    /**
+     * Constructor for ChildPathXPathWrapper.
+     *
+     * @param  xpathStr            Original XPath expression.
+     * @param  xpath               Compiled XPath object used as a fallback.
+     * @param  info                XPath namespace bindings.
+     * @param  steps               Element names for each step.
+     * @param  attributeName       Attribute name or <code>null</code>.
+     * @param  matchLocalNameOnly  If <code>true</code> prefixes are ignored.
+     */
+    private ChildPathXPathWrapper(String xpathStr, XPath xpath, XPathMetaInfo info, String[] steps,
+                                  String attributeName, boolean matchLocalNameOnly)
+    {
+        super(xpathStr, xpath, info);
+
+        this.steps = steps;
+        this.attributeName = attributeName;
+        this.matchLocalNameOnly = matchLocalNameOnly;
+    }
+
+    /**
+     * Creates a child path wrapper if the XPath is a simple child path.
+     *
+     * @param   xpathStr            XPath expression.
+     * @param   xpath               Compiled XPath object.
+     * @param   info                XPath namespace bindings.
+     * @param   matchLocalNameOnly  If <code>true</code> the simple XPath form is being used, so
+     *                              element prefixes are ignored.
+     *
+     * @return  New wrapper or <code>null</code> if the XPath cannot be handled by this class.
+     */
+    static ChildPathXPathWrapper create(String xpathStr, XPath xpath, XPathMetaInfo info,
+                                        boolean matchLocalNameOnly)
+    {
+        if ((xpathStr == null) || !CHILD_PATH_PATTERN.matcher(xpathStr).matches())
+        {
+            return null;
+        }
+
+        String attrib = null;
+        List<String> names = new ArrayList<String>();
+        String[] parts = xpathStr.split("/");
+
+        for (int i = 0; i < parts.length; i++)
+        {
+            String part = parts[i];
+
+            if (".".equals(part))
+            {
+                continue;
+            }
+
+            if (part.startsWith("@"))
+            {
+                attrib = part.substring(1);
+                continue;
+            }
+
+            names.add(part);
+        }
+
+        if ((attrib != null) && matchLocalNameOnly)
+        {
+            // Simple XPaths do not support attributes, so leave the original behavior.
+            return null;
+        }
+
+        return new ChildPathXPathWrapper(xpathStr, xpath, info,
+                                         names.toArray(new String[names.size()]), attrib,
+                                         matchLocalNameOnly);
+    }
+
+    /**
+     * @see  com.cordys.coe.ac.fileconnector.utils.XPathWrapper#findAllNodes(int)
+     */
+    @Override
+    public int[] findAllNodes(int node)
+    {
+        if ((node == 0) || (steps == null) || (attributeName != null))
+        {
+            return super.findAllNodes(node);
+        }
+
+        if (steps.length == 0)
+        {
+            return new int[] { node };
+        }
+
+        List<Integer> resList = new ArrayList<Integer>();
+
+        collectMatches(node, 0, resList);
+
+        int[] res = new int[resList.size()];
+
+        for (int i = 0; i < res.length; i++)
+        {
+            res[i] = resList.get(i);
+        }
+
+        return res;
+    }
+
+    /**
+     * @see  com.cordys.coe.ac.fileconnector.utils.XPathWrapper#findNode(int)
+     */
+    @Override
+    public int findNode(int node)
+    {
+        if ((node == 0) || (steps == null) || (attributeName != null))
+        {
+            return super.findNode(node);
+        }
+
+        return findFirstMatch(node, 0);
+    }
+
+    /**
+     * @see  com.cordys.coe.ac.fileconnector.utils.XPathWrapper#findValue(int, java.lang.String)
+     */
+    @Override
+    public String findValue(int node, String defaultValue)
+    {
+        if ((node == 0) || (steps == null))
+        {
+            return super.findValue(node, defaultValue);
+        }
+
+        String value = findFirstValue(node, 0);
+
+        return (value != null) ? value : defaultValue;
+    }
+
+    /**
+     * Sets the XPath element. This disables the child path handling.
+     *
+     * @param  xpath  The new XPath.
+     */
+    @Override
+    public void setXPath(String xpath)
+    {
+        super.setXPath(xpath);
+
+        steps = null;
+        attributeName = null;
+    }
+
+    /**
+     * Adds all elements matching the steps from the given level onwards in document order.
+     *
+     * @param  node     Current context node.
+     * @param  level    Current step index.
+     * @param  resList  Receives the matching elements.
+     */
+    private void collectMatches(int node, int level, List<Integer> resList)
+    {
+        String name = steps[level];
+        boolean last = (level == (steps.length - 1));
+
+        for (int child = Node.getFirstElement(node); child != 0;
+                 child = Node.getNextElement(child))
+        {
+            if (!isMatch(child, name))
+            {
+                continue;
+            }
+
+            if (last)
+            {
+                resList.add(child);
+            }
+            else
+            {
+                collectMatches(child, level + 1, resList);
+            }
+        }
+    }
+
+    /**
+     * Returns the first element matching the steps from the given level onwards.
+     *
+     * @param   node   Current context node.
+     * @param   level  Current step index.
+     *
+     * @return  Matching element or zero if none was found.
+     */
+    private int findFirstMatch(int node, int level)
+    {
+        if (level == steps.length)
+        {
+            return node;
+        }
+
+        String name = steps[level];
+
+        for (int child = Node.getFirstElement(node); child != 0;
+                 child = Node.getNextElement(child))
+        {
+            if (!isMatch(child, name))
+            {
+                continue;
+            }
+
+            int res = findFirstMatch(child, level + 1);
+
+            if (res != 0)
+            {
+                return res;
+            }
+        }
+
+        return 0;
+    }
+
+    /**
+     * Returns the first value of the nodes matching the steps from the given level onwards. This
+     * follows the XPathHelper semantics, i.e. matched elements without data are skipped.
+     *
+     * @param   node   Current context node.
+     * @param   level  Current step index.
+     *
+     * @return  Value or <code>null</code> if no value was found.
+     */
+    private String findFirstValue(int node, int level)
+    {
+        if (level == steps.length)
+        {
+            if (attributeName != null)
+            {
+                return Node.getAttribute(node, attributeName);
+            }
+
+            return Node.getDataWithDefault(node, null);
+        }
+
+        String name = steps[level];
+
+        for (int child = Node.getFirstElement(node); child != 0;
+                 child = Node.getNextElement(child))
+        {
+            if (!isMatch(child, name))
+            {
+                continue;
+            }
+
+            String res = findFirstValue(child, level + 1);
+
+            if (res != null)
+            {
+                return res;
+            }
+        }
+
+        return null;
+    }
+
+    /**
+     * Checks if the element matches the step name.
+     *
+     * @param   elem  Element node.
+     * @param   name  Step name.
+     *
+     * @return  <code>true</code> if the element matches.
+     */
+    private boolean isMatch(int elem, String name)
+    {
+        if (matchLocalNameOnly)
+        {
+            return name.equals(Node.getLocalName(elem));
+        }
+
+        return name.equals(Node.getName(elem));
+    }
+}
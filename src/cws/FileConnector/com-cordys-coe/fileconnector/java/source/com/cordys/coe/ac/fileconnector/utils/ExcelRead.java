@@ -19,28 +19,23 @@ package com.cordys.coe.ac.fileconnector.utils;
 
 import com.cordys.coe.ac.fileconnector.LogMessages;
 import com.cordys.coe.ac.fileconnector.exception.FileException;
+import com.cordys.coe.ac.fileconnector.utils.excel.ExcelEventReader;
+import com.cordys.coe.ac.fileconnector.utils.excel.ExcelRowCache;
+import com.cordys.coe.ac.fileconnector.utils.excel.ExcelWorkbookInfoCache;
+import com.cordys.coe.ac.fileconnector.utils.excel.IExcelRowHandler;
 import com.cordys.coe.ac.fileconnector.validator.RecordValidator.FieldType;
+import com.cordys.coe.ac.fileconnector.validator.RecordValidator.RecordType;
 import com.cordys.coe.ac.fileconnector.validator.ValidatorConfig;
 import com.eibus.xml.nom.Document;
 import java.io.File;
-import java.io.FileInputStream;
-import java.io.FileNotFoundException;
-import java.io.IOException;
-import java.text.SimpleDateFormat;
+import java.util.ArrayList;
 import java.util.List;
-import java.util.ListIterator;
-import java.util.logging.Level;
-import java.util.logging.Logger;
-
-import org.apache.poi.hssf.usermodel.HSSFDateUtil;
-import org.apache.poi.hssf.usermodel.HSSFWorkbook;
-import org.apache.poi.ss.usermodel.Cell;
-import org.apache.poi.ss.usermodel.Row;
-import org.apache.poi.ss.usermodel.Sheet;
-import org.apache.poi.ss.usermodel.Workbook;
-import org.apache.poi.xssf.usermodel.XSSFWorkbook;
 
 /**
+ * Reads records from Excel files. The file is read in one pass with an event based reader, so
+ * the workbook is not loaded into memory. Each request uses its own instance, so the reads do not
+ * share any state apart from the caches. When a row cache is given, the whole sheet is read on
+ * the first request and the following pages are served from the cache.
  *
  * @author srkrishnan
  */
@@ -48,382 +43,438 @@ public class ExcelRead
 {
 
     /**
-     * Number of columns in the excel sheet.
+     * Cache for the workbook metadata. Can be null.
      */
-    private static short maxcol;
+    private ExcelWorkbookInfoCache cache;
     /**
-     * Numbers of rows read from excel sheet.
+     * Cache for the sheet rows. Can be null.
      */
-    protected static int recordsread = 0;
+    private ExcelRowCache rowCache;
     /**
-     * Flag to check all rows are read from excel sheet or not.
+     * The validator configuration object.
      */
-    protected static Boolean endoffile = false;
+    private ValidatorConfig vcConfig;
 
     /**
-     * Get the value of endoffile
+     * Constructor for ExcelRead.
      *
-     * @return the value of endoffile
-     */
-    public static Boolean getEndoffile()
-    {
-        return endoffile;
-    }
-
-    /**
-     * Set the value of endoffile
-     *
-     * @param endoffile new value of endoffile
-     */
-    public static void setEndoffile(Boolean endoffile)
-    {
-        ExcelRead.endoffile = endoffile;
-    }
-
-    /**
-     * Get the value of recordsread
-     *
-     * @return the value of recordsread
-     */
-    public static int getRecordsread()
-    {
-        return recordsread;
-    }
-
-    /**
-     * Set the value of recordsread
-     *
-     * @param recordsread new value of recordsread
+     * @param vcConfig The validator configuration object.
+     * @param cache Cache for the workbook metadata or null if the metadata is not cached.
+     * @param rowCache Cache for the sheet rows or null if the rows are not cached.
      */
-    public static void setRecordsread(int recordsread)
+    public ExcelRead(ValidatorConfig vcConfig, ExcelWorkbookInfoCache cache, ExcelRowCache rowCache)
     {
-        ExcelRead.recordsread = recordsread;
+        this.vcConfig = vcConfig;
+        this.cache = cache;
+        this.rowCache = rowCache;
     }
 
     /**
-     * Validates the reader-config.xml with the Excel file
+     * Validates the reader-config.xml column indexes with the Excel file and reads the records.
+     * The column indexes are checked against the sheet dimensions before any rows are read.
      *
-     * @param vcConfig The validator configuration object.
      * @param filename Name of the Excel file.
-     * @param dDoc Document conatins the request.
-     * @param iResultNode The record XML structure root node, or zero, if only validation is needed.
-     * @param sheetno Sheet index of the Excel file.
+     * @param doc Document conatins the request.
+     * @param iResponsenode The record XML structure root node, or zero, if only validation is needed.
+     * @param bUseTupleOld If true, the records are put under tuple/old.
+     * @param sheetno Sheet index of the Excel file or -1 for all sheets.
      * @param startrow row index from which data to be read.
-     * @param endrow   row index upto which data to be read.
+     * @param numrows number of rows to be read or -1 for all rows.
      * @param lErrorList LinkedList contains all the errors.
+     * @return Result of the read. If an error occurred, no records are reported as read.
      */
-    public static void validate(ValidatorConfig vcConfig, String filename, Document dDoc, int iResultNode, int sheetno, int startrow, int endrow, List<FileException> lErrorList)
+    public Result read(String filename, Document doc, int iResponsenode, boolean bUseTupleOld, int sheetno, int startrow, int numrows, List<FileException> lErrorList)
     {
         try
         {
-
-            setRecordsread(0);
-            setEndoffile(false);
-
-            Workbook book = null;
-            Sheet sheet = null;
-            Row row;
-            FileInputStream fileinp = null;
-            //String sRecordName = vcConfig.mConfigMap.get("excel").lRecordList.get(0).sRecordName;
-            int sheetindex;
-            int noofsheets;
             if (filename == null)
             {
                 throw new FileException(LogMessages.PLEASE_PROVIDE_FILE_NAME);
             }
+
             File file = new File(filename);
-            fileinp = new FileInputStream(filename);
-            if (file.exists())
+
+            if (!file.exists())
+            {
+                throw new FileException(LogMessages.FILE_NOT_FOUND);
+            }
+
+            RecordType rtRecord = vcConfig.mConfigMap.get("excel").lRecordList.get(0);
+            List<FieldType> lFields = rtRecord.lFieldList;
+            int[] iaColumns = new int[lFields.size()];
+
+            for (int i = 0; i < iaColumns.length; i++)
             {
-                if (file.getName().substring(file.getName().lastIndexOf(".") + 1).equalsIgnoreCase("xls"))
+                String sColumnIndex = lFields.get(i).sColumnIndex;
+
+                try
                 {
-                    try
-                    {
-                        book = (Workbook) new HSSFWorkbook(fileinp);
-                    } catch (IOException ex)
-                    {
-                        Logger.getLogger(ExcelRead.class.getName()).log(Level.SEVERE, null, ex);
-                    }
-                } else if (file.getName().substring(file.getName().lastIndexOf(".") + 1).equalsIgnoreCase("xlsx"))
+                    iaColumns[i] = Short.parseShort(sColumnIndex);
+                } catch (NumberFormatException ex)
                 {
-                    try
-                    {
-                        book = new XSSFWorkbook(fileinp);
-                    } catch (IOException ex)
-                    {
-                        Logger.getLogger(ExcelRead.class.getName()).log(Level.SEVERE, null, ex);
-                    }
-                } else
+                    throw new FileException(ex,LogMessages.COLUMN_INDEX_NOT_VALID,sColumnIndex);
+                }
+
+                if (iaColumns[i] < 0)
                 {
-                    //ERROR
-                    fileinp.close();
-                    throw new FileException(LogMessages.INPUT_FILE_NOT_SUPPORTED);
+                    throw new FileException(LogMessages.COLUMN_INDEX_NOT_FOUND,sColumnIndex,-1);
                 }
-            } else
+            }
+
+            RecordWriter handler = new RecordWriter(rtRecord, iaColumns, bUseTupleOld, doc, iResponsenode);
+            ExcelRowCache.Entry entry = null;
+
+            if ((rowCache != null) && (sheetno >= 0))
             {
-                //ERROR
-                fileinp.close();
-                throw new FileException(LogMessages.FILE_NOT_FOUND);
+                entry = rowCache.get(file, sheetno, iaColumns);
             }
-            if (sheetno != -1)
+
+            if (entry != null)
             {
-                sheetindex = sheetno;
-                noofsheets = sheetindex + 1;
-            } else
+                return readFromCache(entry, handler, sheetno, startrow, numrows);
+            }
+
+            ExcelEventReader reader = ExcelEventReader.create(file);
+            long lLastModified = file.lastModified();
+            long lSize = file.length();
+            SheetCollector collector = null;
+
+            reader.setColumns(iaColumns);
+            reader.setSheetIndex(sheetno);
+
+            if ((rowCache != null) && (sheetno >= 0))
             {
-                sheetindex = 0;
-                noofsheets = book.getNumberOfSheets();
+                // Read the whole sheet, so that the next pages can be served from the cache.
+                collector = new SheetCollector(reader, handler, startrow, numrows, rowCache.getMaxSize());
+                reader.setRowRange(0, -1);
             }
-            //check whether the sheetindex exists or not
-            for (; sheetindex < noofsheets; sheetindex++)
+            else
             {
-                if (sheetindex >= book.getNumberOfSheets())
-                {
-                    //no sheet
-                    throw new FileException(LogMessages.NO_SHEET_FOUND,sheetindex);
-                }
-                sheet = book.getSheetAt(sheetindex);
-                if (sheet == null)
-                {
-                    throw new FileException(LogMessages.NO_SHEET_FOUND, sheetindex);
-                }
+                reader.setRowRange(startrow, numrows);
             }
 
-            //validate columns
-
-            //get last column index
-            for (int i = sheet.getFirstRowNum(); i <= sheet.getLastRowNum(); i++)
+            if (cache != null)
             {
-                row = sheet.getRow(i);
-                if (maxcol < row.getLastCellNum())
-                {
-                    maxcol = row.getLastCellNum();
-                }
+                reader.setWorkbookInfo(cache.get(file));
             }
-            //check column index in reader-config
-            ListIterator fieldslist = vcConfig.mConfigMap.get("excel").lRecordList.get(0).lFieldList.listIterator();
-            while (fieldslist.hasNext())
+
+            boolean bEnd;
+
+            try
             {
-                FieldType excelfields = (FieldType) fieldslist.next();
-                try
+                if (collector != null)
                 {
-                    if (Short.parseShort(excelfields.sColumnIndex) < 0 || Short.parseShort(excelfields.sColumnIndex) >= maxcol)
+                    bEnd = reader.read(collector) && !collector.bRowAfterRange;
+
+                    if (collector.lRows != null)
                     {
-                        throw new FileException(LogMessages.COLUMN_INDEX_NOT_FOUND,excelfields.sColumnIndex,(maxcol - 1));
+                        rowCache.put(file, lLastModified, lSize, sheetno, iaColumns, collector.iColumnCount, collector.lRows, collector.lMemorySize);
                     }
-                } catch (NumberFormatException ex)
-                {
-                    throw new FileException(ex,LogMessages.COLUMN_INDEX_NOT_VALID,excelfields.sColumnIndex);
                 }
-            }
-
-            if (endrow == -1)
-            {
-                endrow = sheet.getLastRowNum();
-                if (startrow == -1)
+                else
                 {
-                    startrow = 0;
+                    bEnd = reader.read(handler);
                 }
-            } else
+            } finally
             {
-                endrow = startrow + endrow - 1;
-                if (endrow > sheet.getLastRowNum())
+                // The metadata is valid even if the rows could not be read.
+                if ((cache != null) && (reader.getWorkbookInfo() != null))
                 {
-                    endrow = sheet.getLastRowNum();
+                    cache.put(file, reader.getWorkbookInfo());
                 }
             }
 
-            setRecordsread(endrow - startrow + 1);
-
-        } catch (IOException ex)
-        {
-            lErrorList.add(new FileException(ex,LogMessages.IOEXCEPTION_WHILE_READING_FILE,filename));
+            return new Result(handler.iRecords, bEnd);
         } catch (FileException ex)
         {
             lErrorList.add(ex);
         }
 
+        return new Result(0, false);
     }
 
     /**
-     * Read records from Excel file
+     * Returns the requested rows from the cached sheet rows.
      *
-     * @param vcConfig The validator configuration object.
-     * @param bUseTupleOld
-     * @param filename Name of the Excel file.
-     * @param doc Document conatins the request.
-     * @param iResponsenode The record XML structure root node, or zero, if only validation is needed.
+     * @param entry Cached rows.
+     * @param handler Handler for the returned rows.
      * @param sheetno Sheet index of the Excel file.
      * @param startrow row index from which data to be read.
-     * @param endrow   row index upto which data to be read.
-     * @param startcolumn column index from which data to be read.
-     * @param endcolumn column index upto which data to be read.
+     * @param numrows number of rows to be read or -1 for all rows.
+     * @return Result of the read.
+     * @throws FileException Thrown if the column indexes are not valid.
      */
-    public static void readall(ValidatorConfig vcConfig, Boolean bUseTupleOld, String filename, Document doc, int iResponsenode, int sheetno, int startrow, int endrow, int startcolumn, int endcolumn) throws FileException
+    private static Result readFromCache(ExcelRowCache.Entry entry, RecordWriter handler, int sheetno, int startrow, int numrows) throws FileException
     {
+        int iStart = Math.max(startrow, 0);
+        int iEnd = (numrows >= 0) ? Math.min(iStart + numrows, entry.getRowCount()) : entry.getRowCount();
 
-        Workbook book = null;
-        Sheet sheet;
-        Cell cell;
-        Row row;
-        FileInputStream fileinp = null;
-        String sRecordName = vcConfig.mConfigMap.get("excel").lRecordList.get(0).sRecordName;
-        try
+        handler.startSheet(sheetno, entry.getColumnCount());
+
+        for (int i = iStart; i < iEnd; i++)
         {
-            int iRow, iCol, sheetindex, noofsheets;
-            File file = new File(filename);
-            fileinp = new FileInputStream(filename);
-            if (file.exists())
+            handler.handleRow(sheetno, i, entry.getRow(i));
+        }
+
+        return new Result(handler.iRecords, iEnd >= entry.getRowCount());
+    }
+
+    /**
+     * Collects all rows of a sheet for the row cache and passes the requested rows to the record
+     * writer. If the rows do not fit in the cache, the collecting is given up and the reading is
+     * stopped after the requested rows.
+     */
+    private static class SheetCollector implements IExcelRowHandler
+    {
+        /**
+         * If true, a row after the requested rows has been seen.
+         */
+        private boolean bRowAfterRange;
+        /**
+         * Number of columns in the sheet or -1 if not known.
+         */
+        private int iColumnCount = -1;
+        /**
+         * Last requested row (inclusive) or -1 for all rows.
+         */
+        private int iEndRow;
+        /**
+         * First requested row.
+         */
+        private int iStartRow;
+        /**
+         * Estimated memory size of the collected rows.
+         */
+        private long lMemorySize;
+        /**
+         * Maximum memory size of the collected rows.
+         */
+        private long lMaxMemorySize;
+        /**
+         * Collected rows or null if they did not fit in the cache.
+         */
+        private List<String[]> lRows = new ArrayList<String[]>();
+        /**
+         * Reader which is stopped when the rows do not fit in the cache.
+         */
+        private ExcelEventReader reader;
+        /**
+         * Handler for the requested rows.
+         */
+        private RecordWriter target;
+
+        /**
+         * Constructor for SheetCollector.
+         *
+         * @param reader The Excel reader.
+         * @param target Handler for the requested rows.
+         * @param startrow First requested row.
+         * @param numrows Number of requested rows or -1 for all rows.
+         * @param lMaxMemorySize Maximum memory size of the collected rows.
+         */
+        SheetCollector(ExcelEventReader reader, RecordWriter target, int startrow, int numrows, long lMaxMemorySize)
+        {
+            this.reader = reader;
+            this.target = target;
+            this.iStartRow = Math.max(startrow, 0);
+            this.iEndRow = (numrows >= 0) ? (iStartRow + numrows - 1) : -1;
+            this.lMaxMemorySize = lMaxMemorySize;
+        }
+
+        /**
+         * @see com.cordys.coe.ac.fileconnector.utils.excel.IExcelRowHandler#startSheet(int, int)
+         */
+        public void startSheet(int sheetIndex, int columnCount) throws FileException
+        {
+            iColumnCount = columnCount;
+            target.startSheet(sheetIndex, columnCount);
+        }
+
+        /**
+         * @see com.cordys.coe.ac.fileconnector.utils.excel.IExcelRowHandler#handleRow(int, int, java.lang.String[])
+         */
+        public void handleRow(int sheetIndex, int rowIndex, String[] values) throws FileException
+        {
+            if (lRows != null)
             {
-                if (file.getName().substring(file.getName().lastIndexOf(".") + 1).equalsIgnoreCase("xls"))
-                {
-                    book = (Workbook) new HSSFWorkbook(fileinp);
-                } else if (file.getName().substring(file.getName().lastIndexOf(".") + 1).equalsIgnoreCase("xlsx"))
-                {
-                    book = new XSSFWorkbook(fileinp);
-                } else
+                // The reader reuses the value arrays.
+                lRows.add(values.clone());
+                lMemorySize += ExcelRowCache.estimateSize(values);
+
+                if (lMemorySize > lMaxMemorySize)
                 {
-                    //ERROR
-                    fileinp.close();
+                    lRows = null;
                 }
-            } else
-            {
-                //ERROR
-                fileinp.close();
             }
 
-            if (sheetno != -1)
+            if ((iEndRow >= 0) && (rowIndex > iEndRow))
             {
-                sheetindex = sheetno;
-                noofsheets = sheetindex + 1;
-            } else
-            {
-                sheetindex = 0;
-                noofsheets = book.getNumberOfSheets();
-            }
-            for (; sheetindex < noofsheets; sheetindex++)
-            {
-                sheet = book.getSheetAt(sheetindex);
+                bRowAfterRange = true;
 
-                if (endrow == -1)
+                if (lRows == null)
                 {
-                    endrow = sheet.getLastRowNum();
-                    if (startrow == -1)
-                    {
-                        startrow = 0;
-                    }
-                } else
-                {
-                    endrow = startrow + endrow - 1;
-                    if (endrow > sheet.getLastRowNum())
-                    {
-                        endrow = sheet.getLastRowNum();
-                    }
-                }
-
-                if (endcolumn == -1)
-                {
-                    endcolumn = 30;
-                    if (startcolumn == -1)
-                    {
-                        startcolumn = 0;
-                    }
+                    reader.stop();
                 }
-                for (int i = startrow; i <= endrow; i++)
-                {
 
-                    row = sheet.getRow(i);
+                return;
+            }
 
-                    if (row == null)
-                    {
-                        int iTup = doc.createElement("tuple", iResponsenode);
-
-                        if (bUseTupleOld)
-                        {
-                            iTup = doc.createElement("old", iTup);
-                        }
-                        iRow = doc.createElement(sRecordName, iTup);
-                        //Node.setAttribute(iRow, "id", "" + i);
-                        ListIterator fieldslist = vcConfig.mConfigMap.get("excel").lRecordList.get(0).lFieldList.listIterator();
-                        while (fieldslist.hasNext())
-                        {
-                            FieldType excelfields = (FieldType) fieldslist.next();
-                            String sColumnName = excelfields.sFieldName;
-
-                            iCol = doc.createTextElement(sColumnName, "", iRow);
-                        }
-                        continue;
-                    }
-                    int iTup = doc.createElement("tuple", iResponsenode);
-                    if (bUseTupleOld)
-                    {
-                        iTup = doc.createElement("old", iTup);
-                    }
-                    iRow = doc.createElement(sRecordName, iTup);
-                    ListIterator fieldslist = vcConfig.mConfigMap.get("excel").lRecordList.get(0).lFieldList.listIterator();
-                    while (fieldslist.hasNext())
-                    {
-                        FieldType excelfields = (FieldType) fieldslist.next();
-                        int iColumnIndex = Integer.parseInt(excelfields.sColumnIndex);
-                        cell = row.getCell(iColumnIndex);
-                        String sColumnName = excelfields.sFieldName;
-                        if (cell == null)
-                        {
-                            iCol = doc.createTextElement(sColumnName, "", iRow);
-                            continue;
-                        }
-                        switch (cell.getCellType())
-                        {
-                            case Cell.CELL_TYPE_BLANK:
-                                iCol = doc.createTextElement(sColumnName, "", iRow);
-                                break;
-                            case Cell.CELL_TYPE_BOOLEAN:
-                                iCol = doc.createTextElement(sColumnName, "" + cell.getBooleanCellValue(), iRow);
-
-                                break;
-                            case Cell.CELL_TYPE_ERROR:
-                                iCol = doc.createTextElement(sColumnName, "", iRow);
-                                break;
-                            case Cell.CELL_TYPE_FORMULA:
-                                iCol = doc.createTextElement(sColumnName, "" + cell.getCellFormula(), iRow);
-
-                                break;
-                            case Cell.CELL_TYPE_NUMERIC:
-                                if (HSSFDateUtil.isCellDateFormatted(cell))
-                                {
-                                    SimpleDateFormat simpledateformat = new SimpleDateFormat("yyyy-MM-dd 'T' HH:mm:ss.S");
-                                    iCol = doc.createTextElement(sColumnName, "" + simpledateformat.format(cell.getDateCellValue()), iRow);
-
-                                } else
-                                {
-                                    iCol = doc.createTextElement(sColumnName, "" + cell.getNumericCellValue(), iRow);
-                                }
-                                break;
-                            case Cell.CELL_TYPE_STRING:
-                                iCol = doc.createTextElement(sColumnName, "" + cell.getStringCellValue(), iRow);
-                                break;
-                            default:
-                                System.out.println("default");
-                        }
-                    }
-                }
+            if (rowIndex >= iStartRow)
+            {
+                target.handleRow(sheetIndex, rowIndex, values);
             }
         }
-        catch (FileNotFoundException e)
+    }
+
+    /**
+     * Result of a single Excel read.
+     */
+    public static class Result
+    {
+        /**
+         * Flag to check all rows are read from excel sheet or not.
+         */
+        private boolean endoffile;
+        /**
+         * Numbers of rows read from excel sheet.
+         */
+        private int recordsread;
+
+        /**
+         * Constructor for Result.
+         *
+         * @param recordsread Numbers of rows read.
+         * @param endoffile If true, all rows were read.
+         */
+        Result(int recordsread, boolean endoffile)
+        {
+            this.recordsread = recordsread;
+            this.endoffile = endoffile;
+        }
+
+        /**
+         * Get the value of recordsread
+         *
+         * @return the value of recordsread
+         */
+        public int getRecordsRead()
         {
-        	throw new FileException(e,LogMessages.FILE_NOT_FOUND);
+            return recordsread;
         }
-        catch (IOException e)
+
+        /**
+         * Get the value of endoffile
+         *
+         * @return the value of endoffile
+         */
+        public boolean isEndOfFile()
         {
-        	throw new FileException(e,LogMessages.IOEXCEPTION_WHILE_READING_FILE,filename);
-        } finally
+            return endoffile;
+        }
+    }
+
+    /**
+     * Creates the record XML for each row.
+     */
+    private static class RecordWriter implements IExcelRowHandler
+    {
+        /**
+         * If true, the records are put under tuple/old.
+         */
+        private boolean bUseTupleOld;
+        /**
+         * Column indexes of the fields.
+         */
+        private int[] iaColumns;
+        /**
+         * Number of records read.
+         */
+        private int iRecords;
+        /**
+         * Parent node for the records or zero if only validating.
+         */
+        private int iResponsenode;
+        /**
+         * Document for creating the nodes.
+         */
+        private Document doc;
+        /**
+         * Field names in the column order.
+         */
+        private String[] saFieldNames;
+        /**
+         * Record element name.
+         */
+        private String sRecordName;
+
+        /**
+         * Constructor for RecordWriter.
+         *
+         * @param rtRecord Record configuration.
+         * @param iaColumns Column indexes of the fields.
+         * @param bUseTupleOld If true, the records are put under tuple/old.
+         * @param doc Document for creating the nodes.
+         * @param iResponsenode Parent node for the records or zero if only validating.
+         */
+        RecordWriter(RecordType rtRecord, int[] iaColumns, boolean bUseTupleOld, Document doc, int iResponsenode)
         {
-            try
+            this.iaColumns = iaColumns;
+            this.bUseTupleOld = bUseTupleOld;
+            this.doc = doc;
+            this.iResponsenode = iResponsenode;
+            this.sRecordName = rtRecord.sRecordName;
+            this.saFieldNames = new String[rtRecord.lFieldList.size()];
+
+            for (int i = 0; i < saFieldNames.length; i++)
             {
-                fileinp.close();
-            } catch (IOException ex)
+                saFieldNames[i] = rtRecord.lFieldList.get(i).sFieldName;
+            }
+        }
+
+        /**
+         * @see com.cordys.coe.ac.fileconnector.utils.excel.IExcelRowHandler#startSheet(int, int)
+         */
+        public void startSheet(int sheetIndex, int columnCount) throws FileException
+        {
+            if (columnCount < 0)
+            {
+                return;
+            }
+
+            //check column index in reader-config
+            for (int iColumn : iaColumns)
+            {
+                if (iColumn >= columnCount)
+                {
+                    throw new FileException(LogMessages.COLUMN_INDEX_NOT_FOUND,iColumn,(columnCount - 1));
+                }
+            }
+        }
+
+        /**
+         * @see com.cordys.coe.ac.fileconnector.utils.excel.IExcelRowHandler#handleRow(int, int, java.lang.String[])
+         */
+        public void handleRow(int sheetIndex, int rowIndex, String[] values) throws FileException
+        {
+            iRecords++;
+
+            if (iResponsenode == 0)
+            {
+                return;
+            }
+
+            int iTup = doc.createElement("tuple", iResponsenode);
+
+            if (bUseTupleOld)
+            {
+                iTup = doc.createElement("old", iTup);
+            }
+
+            int iRow = doc.createElement(sRecordName, iTup);
+
+            for (int i = 0; i < saFieldNames.length; i++)
             {
-                Logger.getLogger(ExcelRead.class.getName()).log(Level.SEVERE, null, ex);
+                doc.createTextElement(saFieldNames[i], values[i], iRow);
             }
         }
     }
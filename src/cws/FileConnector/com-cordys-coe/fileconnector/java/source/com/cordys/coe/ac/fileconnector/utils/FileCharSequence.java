@@ -61,7 +61,7 @@ public class FileCharSequence
      */
     private int iLength;
     /**
-     * The file length.
+     * The file length or -1 if it is not known yet.
      */
     private long lFileLength;
     /**
@@ -201,8 +201,10 @@ public class FileCharSequence
     public void reset(long lNewFileOffset)
                throws IOException
     {
-        // Calculate the new length.
-        long lLength = lFileLength - lNewFileOffset;
+        // Calculate the new length. If the file length is not known, the subclass limits the
+        // sequence to the data it has read.
+        long lLength = (lFileLength >= 0) ? (lFileLength - lNewFileOffset)
+                                          : (Integer.MAX_VALUE - 1);
 
         // Do some sanity checks.
         if (lLength >= Integer.MAX_VALUE)
@@ -215,15 +217,18 @@ public class FileCharSequence
         {
             long lOld = lFileOffset;
             boolean bCopySuccessful = false;
+            boolean bForwardOnly = isForwardOnly();
 
             // The new offset must be higher than the old one as otherwise
-            // we won't have the new data in the buffer.
-            if ((lNewFileOffset > lOld) && (lNewFileOffset < (lOld + sbBuffer.length())))
+            // we won't have the new data in the buffer. Forward-only input
+            // cannot be read again, so the buffer is kept also for the same offset.
+            if (((lNewFileOffset > lOld) || (bForwardOnly && (lNewFileOffset == lOld))) &&
+                    (lNewFileOffset < (lOld + sbBuffer.length())))
             {
                 int iStart = (int) (lNewFileOffset - lOld);
 
                 // Check that we have something to copy and don't copy too small amount
-                if (iStart < (sbBuffer.length() - 128))
+                if ((iStart < (sbBuffer.length() - 128)) || bForwardOnly)
                 {
                     StringBuffer sbNewBuffer = new StringBuffer(iBufferResizeIncrement);
 
@@ -288,6 +293,16 @@ public class FileCharSequence
         return (sbBuffer != null) ? sbBuffer.toString() : "";
     }
 
+    /**
+     * Returns the file length.
+     *
+     * @return  The file length or -1 if it is not known yet.
+     */
+    public long getFileLength()
+    {
+        return lFileLength;
+    }
+
     /**
      * Returns the absolute file offset from the sequence index.
      *
@@ -315,7 +330,74 @@ public class FileCharSequence
             throw new IOException("Uninitialized.");
         }
 
-        return lFileOffset >= lFileLength;
+        return (lFileLength >= 0) && (lFileOffset >= lFileLength);
+    }
+
+    /**
+     * Reads data into the buffer until it contains the given number of characters or the end of
+     * the file is reached.
+     *
+     * @param   iSize  Number of characters needed.
+     *
+     * @return  Number of characters in the buffer.
+     *
+     * @throws  IOException  Thrown on file access error.
+     */
+    protected int fillBuffer(int iSize)
+                      throws IOException
+    {
+        if ((sbBuffer == null) || (sbBuffer.length() < iSize))
+        {
+            resizeBuffer(iSize - 1);
+        }
+
+        return (sbBuffer != null) ? sbBuffer.length() : 0;
+    }
+
+    /**
+     * Returns <code>true</code> if the data can only be read once in the file order. In that case
+     * the sequence cannot be reset to an offset before the data that has already been read.
+     *
+     * @return  <code>true</code> for forward-only input.
+     */
+    protected boolean isForwardOnly()
+    {
+        return false;
+    }
+
+    /**
+     * Limits the sequence to the data in the buffer. This is used when the file length is not
+     * known in advance.
+     *
+     * @param  bAtEnd  If <code>true</code> the buffer contains the rest of the file and the file
+     *                 length is set.
+     */
+    protected void limitToBuffer(boolean bAtEnd)
+    {
+        int iBuffered = (sbBuffer != null) ? sbBuffer.length() : 0;
+
+        iLength = iBuffered;
+
+        if (bAtEnd)
+        {
+            lFileLength = lFileOffset + iBuffered;
+        }
+    }
+
+    /**
+     * Reads bytes from the given file position into the buffer.
+     *
+     * @param   bbBuffer   Buffer to be filled.
+     * @param   lPosition  File position.
+     *
+     * @return  Number of bytes read or -1 at the end of file.
+     *
+     * @throws  IOException  Thrown on file access error.
+     */
+    protected int readBlock(ByteBuffer bbBuffer, long lPosition)
+                     throws IOException
+    {
+        return fcFileChannel.read(bbBuffer, lPosition);
     }
 
     /**
@@ -356,15 +438,16 @@ public class FileCharSequence
         int iBytesRead;
 
         // Read the new block.
-        iBytesRead = fcFileChannel.read(bbBuffer, lFileOffset + iReadStart);
-        bbBuffer.limit(iBytesRead);
-        bbBuffer.position(0);
+        iBytesRead = readBlock(bbBuffer, lFileOffset + iReadStart);
 
         if (iBytesRead <= 0)
         {
             return;
         }
 
+        bbBuffer.limit(iBytesRead);
+        bbBuffer.position(0);
+
         CharBuffer cbDecodedBuffer = cdDecoder.decode(bbBuffer);
 
         sbBuffer.append(cbDecodedBuffer.array());
@@ -24,19 +24,20 @@ import com.cordys.coe.ac.fileconnector.exception.FileException;
 
 import com.eibus.util.logger.CordysLogger;
 
-import java.io.BufferedInputStream;
-import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.OutputStream;
+import java.io.RandomAccessFile;
 
+import java.nio.channels.FileChannel;
 import java.nio.charset.Charset;
 import java.nio.charset.spi.CharsetProvider;
 
 import java.util.regex.Pattern;
+import java.util.zip.GZIPInputStream;
 
 /**
  * Contains general utility methods.
@@ -49,6 +50,22 @@ public class GeneralUtils
      * Logger for log messages from this class.
      */
     private static final CordysLogger LOG = CordysLogger.getCordysLogger(GeneralUtils.class);
+    /**
+     * Input buffer size used for reading compressed files.
+     */
+    public static final int GZIP_BUFFER_SIZE = 65536;
+    /**
+     * Maximum initial buffer size for decompressed file contents.
+     */
+    private static final long MAX_GZIP_SIZE_HINT = 64L * 1024L * 1024L;
+    /**
+     * Maximum expected compression ratio used to check the size in the gzip trailer.
+     */
+    private static final long MAX_GZIP_RATIO = 8;
+    /**
+     * Maximum number of bytes transferred with one channel transfer call when copying files.
+     */
+    private static final long MAX_TRANSFER_SIZE = 64L * 1024L * 1024L;
 
     /**
      * Copies the file contents from one file to another. The destination file is overwritten.
@@ -61,9 +78,30 @@ public class GeneralUtils
     public static void copyFile(File fSrcFile, File fDestFile)
                          throws FileException
     {
-        InputStream in = null;
-        OutputStream out = null;
-        final int iCopyBufferSize = 32768;
+        copyFile(fSrcFile, fDestFile, false);
+    }
+
+    /**
+     * Copies the file contents from one file to another. The destination file is overwritten. The
+     * data is transferred between the file channels, so the operating system can copy it without
+     * passing it through the Java heap.
+     *
+     * @param   fSrcFile            Source file
+     * @param   fDestFile           Destination file
+     * @param   bPreserveTimestamp  If <code>true</code>, the destination file gets the
+     *                              modification time of the source file.
+     *
+     * @return  Number of bytes copied.
+     *
+     * @throws  FileException  Thrown if the operation was not successful
+     */
+    public static long copyFile(File fSrcFile, File fDestFile, boolean bPreserveTimestamp)
+                         throws FileException
+    {
+        FileInputStream in = null;
+        FileOutputStream out = null;
+        long lStartTime = System.currentTimeMillis();
+        long lCopied = 0;
         boolean bSuccess = false;
 
         try
@@ -71,7 +109,7 @@ public class GeneralUtils
             // Open the source file
             try
             {
-                in = new BufferedInputStream(new FileInputStream(fSrcFile));
+                in = new FileInputStream(fSrcFile);
             }
             catch (IOException e)
             {
@@ -81,23 +119,34 @@ public class GeneralUtils
             // Create the destination file
             try
             {
-                out = new BufferedOutputStream(new FileOutputStream(fDestFile));
+                out = new FileOutputStream(fDestFile);
             }
             catch (IOException e)
             {
                 throw new FileException(e,LogMessages.UNABLE_TO_CREATE_DEST_FILE);
             }
 
-            // Create the buffer that is used while copying the data
-            byte[] baBuffer = new byte[iCopyBufferSize];
-            int iReadCount;
-
             try
             {
-                // Copy the file contents
-                while ((iReadCount = in.read(baBuffer)) > 0)
+                FileChannel fcIn = in.getChannel();
+                FileChannel fcOut = out.getChannel();
+                long lSize = fcIn.size();
+
+                // Copy the file contents. A transfer can copy less than requested, so this is
+                // repeated until the whole file is copied.
+                while (lCopied < lSize)
                 {
-                    out.write(baBuffer, 0, iReadCount);
+                    long lCount = fcIn.transferTo(lCopied,
+                                                  Math.min(lSize - lCopied, MAX_TRANSFER_SIZE),
+                                                  fcOut);
+
+                    if (lCount <= 0)
+                    {
+                        // The source file has been truncated.
+                        break;
+                    }
+
+                    lCopied += lCount;
                 }
             }
             catch (IOException e)
@@ -141,6 +190,23 @@ public class GeneralUtils
                 fDestFile.delete();
             }
         }
+
+        // The modification time can be set only after the file is closed.
+        if (bPreserveTimestamp)
+        {
+            fDestFile.setLastModified(fSrcFile.lastModified());
+        }
+
+        if (LOG.isDebugEnabled())
+        {
+            long lTime = System.currentTimeMillis() - lStartTime;
+
+            LOG.debug("Copied " + lCopied + " bytes from " + fSrcFile + " to " + fDestFile +
+                      " in " + lTime + " ms (" + ((lCopied * 1000L) / Math.max(lTime, 1L)) +
+                      " bytes/s).");
+        }
+
+        return lCopied;
     }
 
     /**
@@ -340,6 +406,148 @@ public class GeneralUtils
         return cont;
     }
 
+    /**
+     * Returns file's contents in a byte array. If <code>decompress</code> is set and the file is
+     * gzip compressed, the uncompressed contents are returned.
+     *
+     * @param   file        File to be read.
+     * @param   decompress  If <code>true</code> gzip files are decompressed.
+     *
+     * @return  Contents as a byte array.
+     *
+     * @throws  IOException  Thrown if the reading failed.
+     */
+    public static byte[] readFile(File file, boolean decompress)
+                           throws IOException
+    {
+        if (!decompress || !isGzipFile(file))
+        {
+            return readFile(file);
+        }
+
+        InputStream in = openInputStream(file, true);
+
+        try
+        {
+            // The trailer size is only used as the initial buffer size, as it is not
+            // correct for multi-member files and cannot be trusted. The buffer grows if needed.
+            long size = Math.min(getGzipTrailerSize(file),
+                                 Math.min(file.length() * MAX_GZIP_RATIO, MAX_GZIP_SIZE_HINT));
+            ByteArrayOutputStream out = new ByteArrayOutputStream((int) size);
+            byte[] buffer = new byte[GZIP_BUFFER_SIZE];
+            int read;
+
+            while ((read = in.read(buffer)) > 0)
+            {
+                out.write(buffer, 0, read);
+            }
+
+            return out.toByteArray();
+        }
+        finally
+        {
+            in.close();
+        }
+    }
+
+    /**
+     * Opens an input stream for the file. If <code>decompress</code> is set and the file is gzip
+     * compressed, the returned stream decompresses the data.
+     *
+     * @param   file        File to be read.
+     * @param   decompress  If <code>true</code> gzip files are decompressed.
+     *
+     * @return  Opened input stream.
+     *
+     * @throws  IOException  Thrown if the file could not be opened.
+     */
+    public static InputStream openInputStream(File file, boolean decompress)
+                                       throws IOException
+    {
+        boolean gzip = decompress && isGzipFile(file);
+        InputStream in = new FileInputStream(file);
+
+        if (!gzip)
+        {
+            return in;
+        }
+
+        try
+        {
+            return new GZIPInputStream(in, GZIP_BUFFER_SIZE);
+        }
+        catch (IOException e)
+        {
+            in.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Checks if the file starts with the gzip magic bytes.
+     *
+     * @param   file  File to be checked.
+     *
+     * @return  <code>true</code> if the file is gzip compressed.
+     *
+     * @throws  IOException  Thrown if the file could not be read.
+     */
+    public static boolean isGzipFile(File file)
+                              throws IOException
+    {
+        InputStream in = new FileInputStream(file);
+
+        try
+        {
+            return (in.read() == 0x1f) && (in.read() == 0x8b);
+        }
+        finally
+        {
+            in.close();
+        }
+    }
+
+    /**
+     * Returns the uncompressed size from the gzip trailer. This is correct only for files that
+     * contain one gzip member and are smaller than 4GB, so it can only be used as a size hint.
+     *
+     * @param   file  Gzip file.
+     *
+     * @return  Uncompressed size from the trailer.
+     *
+     * @throws  IOException  Thrown if the file could not be read.
+     */
+    private static long getGzipTrailerSize(File file)
+                                    throws IOException
+    {
+        RandomAccessFile raf = new RandomAccessFile(file, "r");
+
+        try
+        {
+            long len = raf.length();
+
+            if (len < 18)
+            {
+                throw new IOException("File is not a valid gzip file: " + file);
+            }
+
+            raf.seek(len - 4);
+
+            long size = 0;
+
+            for (int i = 0; i < 4; i++)
+            {
+                size |= ((long) raf.read()) << (8 * i);
+            }
+
+            return size;
+        }
+        finally
+        {
+            raf.close();
+        }
+    }
+
     /**
      * Returns an absolute file for the given path. If the path is a relative path, the parent
      * folder is used as the root folder for this path..
@@ -0,0 +1,161 @@
+/**
+ * Copyright 2005 Cordys R&D B.V. 
+ * 
+ * This file is part of the Cordys File Connector. 
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+ package com.cordys.coe.ac.fileconnector.utils;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+
+import java.util.zip.GZIPInputStream;
+
+/**
+ * File character sequence for gzip compressed files. The file is decompressed while it is being
+ * read, so the sequence can only be moved forward. All offsets are offsets in the uncompressed
+ * data.
+ *
+ * <p>The uncompressed length can be given as -1, in which case it is found out when the end of
+ * the compressed data is reached. Until then the sequence contains the data read ahead from the
+ * start position, so a record cannot be longer than READ_AHEAD_SIZE.</p>
+ *
+ * @author  mpoyhone
+ */
+public class GzipFileCharSequence extends FileCharSequence
+{
+    /**
+     * Number of characters read ahead when the uncompressed length is not known.
+     */
+    public static final int READ_AHEAD_SIZE = 1024 * 1024;
+    /**
+     * Set when the decompressing stream has returned all data.
+     */
+    private boolean bEndOfStream;
+    /**
+     * Decompressing input stream.
+     */
+    private InputStream isInput;
+    /**
+     * Current position in the uncompressed data.
+     */
+    private long lStreamPosition;
+
+    /**
+     * Creates a new GzipFileCharSequence object.
+     *
+     * @param   fcFileChannel           Channel of the compressed file.
+     * @param   lDataLength             Uncompressed data length or -1 if it is not known.
+     * @param   lFileOffset             The offset in the uncompressed data that indicates the
+     *                                  sequence start position.
+     * @param   iBufferResizeIncrement  Buffer is increased by this amount every time a it needs to
+     *                                  be resized.
+     * @param   cCharsetName            Character set to be used. This must be a single byte
+     *                                  character set.
+     *
+     * @throws  IOException  Thrown if file access failed.
+     */
+    public GzipFileCharSequence(FileChannel fcFileChannel, long lDataLength, long lFileOffset,
+                                int iBufferResizeIncrement, Charset cCharsetName)
+                         throws IOException
+    {
+        super(fcFileChannel, lDataLength, lFileOffset, iBufferResizeIncrement, cCharsetName);
+
+        isInput = new GZIPInputStream(Channels.newInputStream(fcFileChannel),
+                                      GeneralUtils.GZIP_BUFFER_SIZE);
+
+        reset(lFileOffset);
+    }
+
+    /**
+     * @see  com.cordys.coe.ac.fileconnector.utils.FileCharSequence#reset(long)
+     */
+    @Override
+    public void reset(long lNewFileOffset)
+               throws IOException
+    {
+        super.reset(lNewFileOffset);
+
+        // The superclass constructor calls this before the stream is created.
+        if ((isInput != null) && (getFileLength() < 0))
+        {
+            fillBuffer(READ_AHEAD_SIZE);
+            limitToBuffer(bEndOfStream);
+        }
+    }
+
+    /**
+     * @see  com.cordys.coe.ac.fileconnector.utils.FileCharSequence#isForwardOnly()
+     */
+    @Override
+    protected boolean isForwardOnly()
+    {
+        return true;
+    }
+
+    /**
+     * @see  com.cordys.coe.ac.fileconnector.utils.FileCharSequence#readBlock(java.nio.ByteBuffer, long)
+     */
+    @Override
+    protected int readBlock(ByteBuffer bbBuffer, long lPosition)
+                     throws IOException
+    {
+        if (lPosition < lStreamPosition)
+        {
+            throw new IOException("Cannot move backwards in a compressed file (position " +
+                                  lPosition + ", current position " + lStreamPosition + ").");
+        }
+
+        // Skip the data before the requested position.
+        while (lStreamPosition < lPosition)
+        {
+            long lSkipped = isInput.skip(lPosition - lStreamPosition);
+
+            if (lSkipped <= 0)
+            {
+                bEndOfStream = true;
+                return -1;
+            }
+
+            lStreamPosition += lSkipped;
+        }
+
+        byte[] baArray = bbBuffer.array();
+        int iTotal = 0;
+
+        while (bbBuffer.hasRemaining())
+        {
+            int iRead = isInput.read(baArray, bbBuffer.arrayOffset() + bbBuffer.position(),
+                                     bbBuffer.remaining());
+
+            if (iRead < 0)
+            {
+                bEndOfStream = true;
+                break;
+            }
+
+            bbBuffer.position(bbBuffer.position() + iRead);
+            iTotal += iRead;
+        }
+
+        lStreamPosition += iTotal;
+
+        return (iTotal > 0) ? iTotal : -1;
+    }
+}
@@ -96,7 +96,7 @@ public class XPathWrapperFactory
     {
         XPath xp = createXPath(xpath, true);
 
-        return new XPathWrapper(xpath, xp, xpathMetainfo);
+        return createWrapper(xpath, xp, true);
     }
 
     /**
@@ -115,7 +115,7 @@ public class XPathWrapperFactory
     {
         XPath xp = createXPath(xpath, allowSimpleXPaths);
 
-        return new XPathWrapper(xpath, xp, xpathMetainfo);
+        return createWrapper(xpath, xp, allowSimpleXPaths);
     }
 
     /**
@@ -142,7 +142,7 @@ public class XPathWrapperFactory
 
         XPath xp = createXPath(xpath, true);
 
-        return new XPathWrapper(xpath, xp, xpathMetainfo);
+        return createWrapper(xpath, xp, true);
     }
 
     /**
@@ -156,6 +156,29 @@ public class XPathWrapperFactory
         this.useSimpleXPaths = useSimpleXPath;
     }
 
+    /**
+     * Creates the wrapper object for the compiled XPath. Simple child paths (e.g. "a/b") are
+     * handled by walking the child elements directly, other XPaths are evaluated by NOM.
+     *
+     * @param   xpath              XPath expression.
+     * @param   xp                 Compiled XPath.
+     * @param   allowSimpleXPaths  If <code>false</code>, the simple XPath form is not used.
+     *
+     * @return  XPath wrapper.
+     */
+    private XPathWrapper createWrapper(String xpath, XPath xp, boolean allowSimpleXPaths)
+    {
+        XPathWrapper res = ChildPathXPathWrapper.create(xpath, xp, xpathMetainfo,
+                                                        useSimpleXPaths && allowSimpleXPaths);
+
+        if (res == null)
+        {
+            res = new XPathWrapper(xpath, xp, xpathMetainfo);
+        }
+
+        return res;
+    }
+
     /**
      * Creates a new XPath object based on the configuration.
      *
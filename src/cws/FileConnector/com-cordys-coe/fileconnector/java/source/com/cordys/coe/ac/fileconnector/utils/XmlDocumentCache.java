@@ -0,0 +1,342 @@
+/**
+ * Copyright 2005 Cordys R&D B.V. 
+ * 
+ * This file is part of the Cordys File Connector. 
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+ package com.cordys.coe.ac.fileconnector.utils;
+
+import com.eibus.xml.nom.Node;
+
+import java.io.File;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Bounded LRU cache for parsed XML files. The entries are keyed by the file path and are valid as
+ * long as the file modification time and size stay the same. The memory budget is counted in an
+ * estimate of the NOM tree size, which is the file size multiplied by TREE_SIZE_FACTOR. The
+ * number of cached XPath results per document is limited as well. The NOM tree of an evicted document is deleted when the last
+ * user has released the entry.
+ *
+ * <p>Usage:</p>
+ *
+ * <pre>
+   XmlDocumentCache.Entry entry = cache.acquire(file);
+
+   try
+   {
+       ...
+   }
+   finally
+   {
+       cache.release(entry);
+   }
+ * </pre>
+ *
+ * @author  mpoyhone
+ */
+public class XmlDocumentCache
+{
+    /**
+     * Maximum number of XPath results kept for one document.
+     */
+    private static final int MAX_XPATH_RESULTS = 16;
+    /**
+     * Estimated ratio of the parsed NOM tree size to the XML file size.
+     */
+    private static final long TREE_SIZE_FACTOR = 4;
+    /**
+     * Cached entries in the LRU order. Key is the absolute file path.
+     */
+    private LinkedHashMap<String, Entry> entries = new LinkedHashMap<String, Entry>(16, 0.75f,
+                                                                                    true);
+    /**
+     * Maximum total estimated size of the cached documents in bytes.
+     */
+    private long maxSize;
+    /**
+     * Current total estimated size of the cached documents in bytes.
+     */
+    private long totalSize;
+
+    /**
+     * Constructor for XmlDocumentCache.
+     *
+     * @param  maxSize  Maximum total estimated size of the cached documents in bytes.
+     */
+    public XmlDocumentCache(long maxSize)
+    {
+        this.maxSize = maxSize;
+    }
+
+    /**
+     * Returns the cached entry for the file. The returned entry must be released with <code>
+     * release</code>.
+     *
+     * @param   file  XML file.
+     *
+     * @return  Cached entry or <code>null</code> if the file is not in the cache or it has been
+     *          modified.
+     */
+    public synchronized Entry acquire(File file)
+    {
+        String key = file.getAbsolutePath();
+        Entry entry = entries.get(key);
+
+        if (entry == null)
+        {
+            return null;
+        }
+
+        if ((entry.lastModified != file.lastModified()) || (entry.size != file.length()))
+        {
+            // File has been modified.
+            remove(key);
+            return null;
+        }
+
+        entry.refCount++;
+
+        return entry;
+    }
+
+    /**
+     * Removes all entries from the cache. Documents which are still in use are deleted when they
+     * are released.
+     */
+    public synchronized void clear()
+    {
+        for (Iterator<Entry> iter = entries.values().iterator(); iter.hasNext();)
+        {
+            Entry entry = iter.next();
+
+            iter.remove();
+            evict(entry);
+        }
+    }
+
+    /**
+     * Adds a parsed document to the cache. Least recently used entries are removed to fit the new
+     * document in the memory budget. If the document does not fit, it is not added and the caller
+     * remains the owner of the NOM tree. Otherwise the returned entry is already acquired.
+     *
+     * @param   file          XML file.
+     * @param   lastModified  File modification time when the file was read.
+     * @param   size          File size when the file was read.
+     * @param   rootNode      Parsed NOM tree.
+     *
+     * @return  Cache entry or <code>null</code> if the document was not cached.
+     */
+    public synchronized Entry put(File file, long lastModified, long size, int rootNode)
+    {
+        long memorySize = size * TREE_SIZE_FACTOR;
+
+        if (memorySize > maxSize)
+        {
+            return null;
+        }
+
+        String key = file.getAbsolutePath();
+
+        remove(key);
+
+        for (Iterator<Entry> iter = entries.values().iterator();
+                 iter.hasNext() && ((totalSize + memorySize) > maxSize);)
+        {
+            Entry old = iter.next();
+
+            iter.remove();
+            evict(old);
+        }
+
+        if ((totalSize + memorySize) > maxSize)
+        {
+            return null;
+        }
+
+        Entry entry = new Entry(rootNode, lastModified, size, memorySize);
+
+        entry.refCount = 1;
+        entries.put(key, entry);
+        totalSize += memorySize;
+
+        return entry;
+    }
+
+    /**
+     * Releases an entry returned by <code>acquire</code> or <code>put</code>.
+     *
+     * @param  entry  Entry to be released. Can be <code>null</code>.
+     */
+    public synchronized void release(Entry entry)
+    {
+        if (entry == null)
+        {
+            return;
+        }
+
+        entry.refCount--;
+
+        if (entry.evicted && (entry.refCount <= 0))
+        {
+            entry.delete();
+        }
+    }
+
+    /**
+     * Marks the entry as evicted and deletes the NOM tree if it is not in use.
+     *
+     * @param  entry  Removed entry.
+     */
+    private void evict(Entry entry)
+    {
+        entry.evicted = true;
+        totalSize -= entry.memorySize;
+
+        if (entry.refCount <= 0)
+        {
+            entry.delete();
+        }
+    }
+
+    /**
+     * Removes the entry with the given key.
+     *
+     * @param  key  Entry key.
+     */
+    private void remove(String key)
+    {
+        Entry entry = entries.remove(key);
+
+        if (entry != null)
+        {
+            evict(entry);
+        }
+    }
+
+    /**
+     * Cached document.
+     *
+     * @author  mpoyhone
+     */
+    public static class Entry
+    {
+        /**
+         * If <code>true</code> the entry has been removed from the cache.
+         */
+        private boolean evicted;
+        /**
+         * File modification time.
+         */
+        private long lastModified;
+        /**
+         * XPath results keyed by the XPath expression in the LRU order.
+         */
+        private Map<String, int[]> matches = new LinkedHashMap<String, int[]>(16, 0.75f, true)
+        {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, int[]> eldest)
+            {
+                return size() > MAX_XPATH_RESULTS;
+            }
+        };
+        /**
+         * Estimated size of the parsed document in bytes.
+         */
+        private long memorySize;
+        /**
+         * Number of users of this entry.
+         */
+        private int refCount;
+        /**
+         * Root node of the parsed document.
+         */
+        private int rootNode;
+        /**
+         * File size.
+         */
+        private long size;
+
+        /**
+         * Constructor for Entry.
+         *
+         * @param  rootNode      Root node of the parsed document.
+         * @param  lastModified  File modification time.
+         * @param  size          File size.
+         * @param  memorySize    Estimated size of the parsed document.
+         */
+        private Entry(int rootNode, long lastModified, long size, long memorySize)
+        {
+            this.rootNode = rootNode;
+            this.lastModified = lastModified;
+            this.size = size;
+            this.memorySize = memorySize;
+        }
+
+        /**
+         * Returns the nodes matching the XPath. The result is cached for the XPath expression. The
+         * returned nodes must not be modified.
+         *
+         * @param   xpath  XPath to be evaluated.
+         *
+         * @return  Matching nodes.
+         */
+        public synchronized int[] findAllNodes(XPathWrapper xpath)
+        {
+            int[] res = matches.get(xpath.getXPath());
+
+            if (res == null)
+            {
+                res = xpath.findAllNodes(rootNode);
+
+                if (res == null)
+                {
+                    res = new int[0];
+                }
+
+                matches.put(xpath.getXPath(), res);
+            }
+
+            return res;
+        }
+
+        /**
+         * Returns the root node of the parsed document. The document must not be modified.
+         *
+         * @return  Root node.
+         */
+        public int getRootNode()
+        {
+            return rootNode;
+        }
+
+        /**
+         * Deletes the NOM tree.
+         */
+        private synchronized void delete()
+        {
+            if (rootNode != 0)
+            {
+                Node.delete(rootNode);
+                rootNode = 0;
+                matches.clear();
+            }
+        }
+    }
+}
@@ -0,0 +1,453 @@
+/**
+ * Copyright 2005 Cordys R&D B.V. 
+ * 
+ * This file is part of the Cordys File Connector. 
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+ package com.cordys.coe.ac.fileconnector.utils.excel;
+
+import com.cordys.coe.ac.fileconnector.LogMessages;
+import com.cordys.coe.ac.fileconnector.exception.FileException;
+
+import java.io.File;
+
+import java.text.SimpleDateFormat;
+
+import java.util.Arrays;
+
+import org.apache.poi.ss.usermodel.DateUtil;
+
+/**
+ * Base class for the event based Excel readers. The readers go through the sheet data once
+ * without loading the whole workbook and pass the values of the requested columns to an
+ * IExcelRowHandler. Reading stops as soon as the requested rows have been read.
+ *
+ * @author  mpoyhone
+ */
+public abstract class ExcelEventReader
+{
+    /**
+     * Format used for date cells.
+     */
+    private static final String DATE_FORMAT = "yyyy-MM-dd 'T' HH:mm:ss.S";
+    /**
+     * Index of the sheet currently being read.
+     */
+    private int currentSheet = -1;
+    /**
+     * Date format for date cells. Created when needed.
+     */
+    private SimpleDateFormat dateFormat;
+    /**
+     * If <code>true</code>, the workbook uses the 1904 date system.
+     */
+    protected boolean date1904;
+    /**
+     * Empty values for the missing rows.
+     */
+    private String[] emptyValues;
+    /**
+     * If <code>true</code>, all sheets have been read to the end.
+     */
+    private boolean endOfData = true;
+    /**
+     * Last row to be read (inclusive) or -1 for all rows.
+     */
+    private int endRow = -1;
+    /**
+     * The Excel file.
+     */
+    protected File file;
+    /**
+     * File modification time when the reading was started.
+     */
+    protected long fileLastModified;
+    /**
+     * File size when the reading was started.
+     */
+    protected long fileSize;
+    /**
+     * Row handler.
+     */
+    private IExcelRowHandler handler;
+    /**
+     * Next row index to be passed to the handler in the current sheet.
+     */
+    private int nextRow;
+    /**
+     * Number of requested columns.
+     */
+    private int slotCount;
+    /**
+     * Sheet to be read or -1 for all sheets.
+     */
+    private int sheetIndex = -1;
+    /**
+     * Maps a column index to the position in the value array. -1 means the column is not read.
+     */
+    private int[] slots = new int[0];
+    /**
+     * First row to be read.
+     */
+    private int startRow;
+    /**
+     * If <code>true</code>, the row handler has requested the reading to be stopped.
+     */
+    private volatile boolean stopped;
+    /**
+     * Workbook metadata from the previous read or from this read.
+     */
+    private ExcelWorkbookInfo workbookInfo;
+
+    /**
+     * Constructor for ExcelEventReader.
+     *
+     * @param  file  Excel file.
+     */
+    protected ExcelEventReader(File file)
+    {
+        this.file = file;
+    }
+
+    /**
+     * Creates a reader based on the file extension (xls or xlsx).
+     *
+     * @param   file  Excel file.
+     *
+     * @return  Reader for the file.
+     *
+     * @throws  FileException  Thrown if the file type is not supported.
+     */
+    public static ExcelEventReader create(File file)
+                                   throws FileException
+    {
+        String name = file.getName();
+        String ext = name.substring(name.lastIndexOf('.') + 1);
+
+        if (ext.equalsIgnoreCase("xls"))
+        {
+            return new XlsEventReader(file);
+        }
+        else if (ext.equalsIgnoreCase("xlsx"))
+        {
+            return new XlsxEventReader(file);
+        }
+
+        throw new FileException(LogMessages.INPUT_FILE_NOT_SUPPORTED);
+    }
+
+    /**
+     * Reads the requested rows and passes them to the handler.
+     *
+     * @param   rowHandler  Row handler.
+     *
+     * @return  <code>true</code> if all rows of the sheets were read, <code>false</code> if there
+     *          are more rows after the requested range.
+     *
+     * @throws  FileException  Thrown if the reading failed.
+     */
+    public boolean read(IExcelRowHandler rowHandler)
+                 throws FileException
+    {
+        handler = rowHandler;
+        endOfData = true;
+        currentSheet = -1;
+        stopped = false;
+        fileLastModified = file.lastModified();
+        fileSize = file.length();
+
+        if ((workbookInfo != null) && !workbookInfo.isValidFor(file))
+        {
+            workbookInfo = null;
+        }
+
+        if ((workbookInfo != null) && (workbookInfo.getSheetCount() >= 0) &&
+                (sheetIndex >= workbookInfo.getSheetCount()))
+        {
+            throw new FileException(LogMessages.NO_SHEET_FOUND,sheetIndex);
+        }
+
+        try
+        {
+            int sheetCount = readSheets();
+
+            if ((sheetIndex >= 0) && (sheetIndex >= sheetCount))
+            {
+                throw new FileException(LogMessages.NO_SHEET_FOUND,sheetIndex);
+            }
+        }
+        catch (FileException e)
+        {
+            throw e;
+        }
+        catch (Exception e)
+        {
+            throw new FileException(e,LogMessages.IOEXCEPTION_WHILE_READING_FILE,file);
+        }
+        finally
+        {
+            handler = null;
+        }
+
+        return endOfData;
+    }
+
+    /**
+     * Returns the workbook metadata. After reading this contains the metadata which can be passed
+     * to the next reader of the same file.
+     *
+     * @return  Workbook metadata or <code>null</code> if not available.
+     */
+    public ExcelWorkbookInfo getWorkbookInfo()
+    {
+        return workbookInfo;
+    }
+
+    /**
+     * Sets the columns to be read. The values are passed to the handler in this order.
+     *
+     * @param  columns  Column indexes starting from zero.
+     */
+    public void setColumns(int[] columns)
+    {
+        int max = -1;
+
+        for (int c : columns)
+        {
+            max = Math.max(max, c);
+        }
+
+        slots = new int[max + 1];
+        Arrays.fill(slots, -1);
+
+        for (int i = 0; i < columns.length; i++)
+        {
+            if (columns[i] >= 0)
+            {
+                slots[columns[i]] = i;
+            }
+        }
+
+        slotCount = columns.length;
+        emptyValues = new String[slotCount];
+        Arrays.fill(emptyValues, "");
+    }
+
+    /**
+     * Sets the rows to be read from each sheet.
+     *
+     * @param  start    First row index starting from zero.
+     * @param  numRows  Number of rows or -1 for all rows.
+     */
+    public void setRowRange(int start, int numRows)
+    {
+        startRow = Math.max(start, 0);
+        endRow = (numRows >= 0) ? (startRow + numRows - 1) : -1;
+    }
+
+    /**
+     * Sets the sheet to be read.
+     *
+     * @param  index  Sheet index starting from zero or -1 for all sheets.
+     */
+    public void setSheetIndex(int index)
+    {
+        sheetIndex = index;
+    }
+
+    /**
+     * Sets the workbook metadata from a previous read of the same file. This is ignored if the
+     * file has been modified.
+     *
+     * @param  info  Workbook metadata.
+     */
+    public void setWorkbookInfo(ExcelWorkbookInfo info)
+    {
+        workbookInfo = info;
+    }
+
+    /**
+     * Stops the reading before the next row. This can be called by the row handler. The reading
+     * is then reported to not have reached the end of data.
+     */
+    public void stop()
+    {
+        stopped = true;
+    }
+
+    /**
+     * Reads the sheets. The implementation must call startSheet(), handleRow() and endSheet() for
+     * the included sheets.
+     *
+     * @return  Number of sheets in the workbook, or the number of sheets seen before reading was
+     *          stopped.
+     *
+     * @throws  Exception  Thrown if the reading failed.
+     */
+    protected abstract int readSheets()
+                               throws Exception;
+
+    /**
+     * Ends the current sheet.
+     */
+    protected void endSheet()
+    {
+        currentSheet = -1;
+    }
+
+    /**
+     * Formats a numeric cell value. Date formatted values are returned as dates.
+     *
+     * @param   value          Numeric value.
+     * @param   formatIndex    Number format index of the cell.
+     * @param   formatString   Number format string of the cell.
+     *
+     * @return  Formatted value.
+     */
+    protected String formatNumber(double value, int formatIndex, String formatString)
+    {
+        if ((formatString != null) && DateUtil.isValidExcelDate(value) &&
+                DateUtil.isADateFormat(formatIndex, formatString))
+        {
+            if (dateFormat == null)
+            {
+                dateFormat = new SimpleDateFormat(DATE_FORMAT);
+            }
+
+            return dateFormat.format(DateUtil.getJavaDate(value, date1904));
+        }
+
+        return Double.toString(value);
+    }
+
+    /**
+     * Passes a row to the handler. Rows before the start row are ignored and missing rows between
+     * the rows are passed with empty values.
+     *
+     * @param   rowIndex  Row index starting from zero.
+     * @param   values    Row values.
+     *
+     * @return  <code>false</code> if the row was after the requested range and the rest of the
+     *          sheet can be skipped.
+     *
+     * @throws  FileException  Thrown by the handler.
+     */
+    protected boolean handleRow(int rowIndex, String[] values)
+                         throws FileException
+    {
+        if (stopped)
+        {
+            endOfData = false;
+            return false;
+        }
+
+        if (rowIndex < startRow)
+        {
+            return true;
+        }
+
+        if ((endRow >= 0) && (rowIndex > endRow))
+        {
+            endOfData = false;
+            return false;
+        }
+
+        while (nextRow < rowIndex)
+        {
+            handler.handleRow(currentSheet, nextRow++, emptyValues);
+        }
+
+        handler.handleRow(currentSheet, rowIndex, values);
+        nextRow = rowIndex + 1;
+
+        // Reading continues until the next row, so that the end of data is known.
+        return true;
+    }
+
+    /**
+     * Creates a new value array for a row. All values are initialized to empty strings.
+     *
+     * @return  Value array.
+     */
+    protected String[] newRowValues()
+    {
+        String[] res = new String[slotCount];
+
+        Arrays.fill(res, "");
+
+        return res;
+    }
+
+    /**
+     * Clears the value array for the next row.
+     *
+     * @param  values  Value array.
+     */
+    protected void clearRowValues(String[] values)
+    {
+        Arrays.fill(values, "");
+    }
+
+    /**
+     * Starts reading a sheet.
+     *
+     * @param   index        Sheet index.
+     * @param   columnCount  Number of columns or -1 if not known.
+     *
+     * @throws  FileException  Thrown by the handler.
+     */
+    protected void startSheet(int index, int columnCount)
+                       throws FileException
+    {
+        currentSheet = index;
+        nextRow = startRow;
+        handler.startSheet(index, columnCount);
+    }
+
+    /**
+     * Returns the position of the column in the value array.
+     *
+     * @param   column  Column index.
+     *
+     * @return  Position or -1 if the column is not read.
+     */
+    protected int getSlot(int column)
+    {
+        return ((column >= 0) && (column < slots.length)) ? slots[column] : -1;
+    }
+
+    /**
+     * Returns <code>true</code> if the sheet is to be read.
+     *
+     * @param   index  Sheet index.
+     *
+     * @return  <code>true</code> if the sheet is to be read.
+     */
+    protected boolean isSheetIncluded(int index)
+    {
+        return (sheetIndex < 0) || (index == sheetIndex);
+    }
+
+    /**
+     * Returns <code>true</code> if no more sheets need to be read after the given sheet.
+     *
+     * @param   index  Sheet index.
+     *
+     * @return  <code>true</code> if the reading can be stopped.
+     */
+    protected boolean isLastSheet(int index)
+    {
+        return (sheetIndex >= 0) && (index >= sheetIndex);
+    }
+}
@@ -0,0 +1,342 @@
+/**
+ * Copyright 2005 Cordys R&D B.V. 
+ * 
+ * This file is part of the Cordys File Connector. 
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+ package com.cordys.coe.ac.fileconnector.utils.excel;
+
+import com.eibus.util.logger.CordysLogger;
+
+import java.io.File;
+
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+
+/**
+ * Bounded LRU cache for the rows of Excel sheets. This is used when the same sheet is read in
+ * pages, so that only the first page request parses the sheet. The entries are keyed by the file
+ * path, sheet index and the read columns and are valid as long as the file modification time and
+ * size stay the same. The memory budget is counted with an estimate of the size of the cached
+ * values.
+ *
+ * @author  mpoyhone
+ */
+public class ExcelRowCache
+{
+    /**
+     * Logger for log messages from this class.
+     */
+    private static final CordysLogger LOG = CordysLogger.getCordysLogger(ExcelRowCache.class);
+    /**
+     * Cached entries in the LRU order.
+     */
+    private LinkedHashMap<String, Entry> entries = new LinkedHashMap<String, Entry>(16, 0.75f,
+                                                                                    true);
+    /**
+     * Number of entries removed to make room for new entries.
+     */
+    private long evictions;
+    /**
+     * Number of cache hits.
+     */
+    private long hits;
+    /**
+     * Maximum total size of the cached rows in bytes.
+     */
+    private long maxSize;
+    /**
+     * Number of cache misses.
+     */
+    private long misses;
+    /**
+     * Current total size of the cached rows in bytes.
+     */
+    private long totalSize;
+
+    /**
+     * Constructor for ExcelRowCache.
+     *
+     * @param  maxSize  Maximum total size of the cached rows in bytes.
+     */
+    public ExcelRowCache(long maxSize)
+    {
+        this.maxSize = maxSize;
+    }
+
+    /**
+     * Returns the estimated memory size of a row.
+     *
+     * @param   values  Row values.
+     *
+     * @return  Size in bytes.
+     */
+    public static long estimateSize(String[] values)
+    {
+        long size = 16 + (4 * values.length);
+
+        for (int i = 0; i < values.length; i++)
+        {
+            if (values[i] != null)
+            {
+                size += 40 + (2 * values[i].length());
+            }
+        }
+
+        return size;
+    }
+
+    /**
+     * Removes all entries from the cache.
+     */
+    public synchronized void clear()
+    {
+        entries.clear();
+        totalSize = 0;
+    }
+
+    /**
+     * Returns the cached rows for the sheet.
+     *
+     * @param   file     Excel file.
+     * @param   sheet    Sheet index.
+     * @param   columns  Read column indexes.
+     *
+     * @return  Cached entry or <code>null</code> if the sheet is not in the cache or the file has
+     *          been modified.
+     */
+    public synchronized Entry get(File file, int sheet, int[] columns)
+    {
+        String key = createKey(file, sheet, columns);
+        Entry entry = entries.get(key);
+
+        if ((entry != null) &&
+                ((entry.lastModified != file.lastModified()) || (entry.size != file.length())))
+        {
+            // File has been modified.
+            entries.remove(key);
+            totalSize -= entry.memorySize;
+            entry = null;
+        }
+
+        if (entry != null)
+        {
+            hits++;
+        }
+        else
+        {
+            misses++;
+        }
+
+        if (LOG.isDebugEnabled())
+        {
+            LOG.debug("Excel row cache " + ((entry != null) ? "hit" : "miss") + " for " + key +
+                      ". Hits: " + hits + ", misses: " + misses + ", evictions: " + evictions +
+                      ", size: " + totalSize + "/" + maxSize);
+        }
+
+        return entry;
+    }
+
+    /**
+     * Returns the number of entries removed to make room for new entries.
+     *
+     * @return  Eviction count.
+     */
+    public synchronized long getEvictions()
+    {
+        return evictions;
+    }
+
+    /**
+     * Returns the number of cache hits.
+     *
+     * @return  Hit count.
+     */
+    public synchronized long getHits()
+    {
+        return hits;
+    }
+
+    /**
+     * Returns the maximum total size of the cached rows.
+     *
+     * @return  Maximum size in bytes.
+     */
+    public long getMaxSize()
+    {
+        return maxSize;
+    }
+
+    /**
+     * Returns the number of cache misses.
+     *
+     * @return  Miss count.
+     */
+    public synchronized long getMisses()
+    {
+        return misses;
+    }
+
+    /**
+     * Adds the rows of a sheet to the cache. Least recently used entries are removed to fit the
+     * new entry in the memory budget. If the rows do not fit, they are not added.
+     *
+     * @param   file          Excel file.
+     * @param   lastModified  File modification time when the file was read.
+     * @param   size          File size when the file was read.
+     * @param   sheet         Sheet index.
+     * @param   columns       Read column indexes.
+     * @param   columnCount   Number of columns in the sheet or -1 if not known.
+     * @param   rows          All rows of the sheet starting from the first row.
+     * @param   memorySize    Estimated memory size of the rows in bytes.
+     *
+     * @return  <code>true</code> if the rows were added.
+     */
+    public synchronized boolean put(File file, long lastModified, long size, int sheet,
+                                    int[] columns, int columnCount, List<String[]> rows,
+                                    long memorySize)
+    {
+        if (memorySize > maxSize)
+        {
+            return false;
+        }
+
+        String key = createKey(file, sheet, columns);
+        Entry old = entries.remove(key);
+
+        if (old != null)
+        {
+            totalSize -= old.memorySize;
+        }
+
+        for (Iterator<Entry> iter = entries.values().iterator();
+                 iter.hasNext() && ((totalSize + memorySize) > maxSize);)
+        {
+            Entry entry = iter.next();
+
+            iter.remove();
+            totalSize -= entry.memorySize;
+            evictions++;
+        }
+
+        entries.put(key, new Entry(lastModified, size, columnCount,
+                                   rows.toArray(new String[rows.size()][]), memorySize));
+        totalSize += memorySize;
+
+        if (LOG.isDebugEnabled())
+        {
+            LOG.debug("Added " + rows.size() + " rows to the Excel row cache for " + key +
+                      ". Evictions: " + evictions + ", size: " + totalSize + "/" + maxSize);
+        }
+
+        return true;
+    }
+
+    /**
+     * Creates the cache key.
+     *
+     * @param   file     Excel file.
+     * @param   sheet    Sheet index.
+     * @param   columns  Read column indexes.
+     *
+     * @return  Cache key.
+     */
+    private static String createKey(File file, int sheet, int[] columns)
+    {
+        return file.getAbsolutePath() + "#" + sheet + Arrays.toString(columns);
+    }
+
+    /**
+     * Cached rows of a sheet. The contents must not be modified.
+     *
+     * @author  mpoyhone
+     */
+    public static class Entry
+    {
+        /**
+         * Number of columns in the sheet or -1 if not known.
+         */
+        private int columnCount;
+        /**
+         * File modification time.
+         */
+        private long lastModified;
+        /**
+         * Estimated memory size of the rows.
+         */
+        private long memorySize;
+        /**
+         * Row values by the row index.
+         */
+        private String[][] rows;
+        /**
+         * File size.
+         */
+        private long size;
+
+        /**
+         * Constructor for Entry.
+         *
+         * @param  lastModified  File modification time.
+         * @param  size          File size.
+         * @param  columnCount   Number of columns in the sheet or -1 if not known.
+         * @param  rows          Row values by the row index.
+         * @param  memorySize    Estimated memory size of the rows.
+         */
+        private Entry(long lastModified, long size, int columnCount, String[][] rows,
+                      long memorySize)
+        {
+            this.lastModified = lastModified;
+            this.size = size;
+            this.columnCount = columnCount;
+            this.rows = rows;
+            this.memorySize = memorySize;
+        }
+
+        /**
+         * Returns the number of columns in the sheet.
+         *
+         * @return  Column count or -1 if not known.
+         */
+        public int getColumnCount()
+        {
+            return columnCount;
+        }
+
+        /**
+         * Returns the number of rows in the sheet.
+         *
+         * @return  Row count.
+         */
+        public int getRowCount()
+        {
+            return rows.length;
+        }
+
+        /**
+         * Returns the values of a row.
+         *
+         * @param   index  Row index.
+         *
+         * @return  Row values.
+         */
+        public String[] getRow(int index)
+        {
+            return rows[index];
+        }
+    }
+}
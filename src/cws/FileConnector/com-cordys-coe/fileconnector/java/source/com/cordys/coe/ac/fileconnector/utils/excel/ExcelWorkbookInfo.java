@@ -0,0 +1,148 @@
+/**
+ * Copyright 2005 Cordys R&D B.V. 
+ * 
+ * This file is part of the Cordys File Connector. 
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+ package com.cordys.coe.ac.fileconnector.utils.excel;
+
+import java.io.File;
+
+import org.apache.poi.xssf.eventusermodel.ReadOnlySharedStringsTable;
+
+/**
+ * Parsed workbook metadata which is needed for reading any sheet of the file. This is created by
+ * the reader and can be reused for the next reads of the same file while the file modification
+ * time and size stay the same. The object is not modified after creation, so it can be shared
+ * between threads.
+ *
+ * @author  mpoyhone
+ */
+public class ExcelWorkbookInfo
+{
+    /**
+     * If <code>true</code>, the workbook uses the 1904 date system.
+     */
+    private final boolean date1904;
+    /**
+     * File modification time when the file was read.
+     */
+    private final long lastModified;
+    /**
+     * Shared strings for XLSX files, otherwise <code>null</code>.
+     */
+    private final ReadOnlySharedStringsTable sharedStrings;
+    /**
+     * Number of sheets or -1 if not known.
+     */
+    private final int sheetCount;
+    /**
+     * File size when the file was read.
+     */
+    private final long size;
+    /**
+     * Number format indexes by the style index for XLSX files.
+     */
+    private final int[] styleFormatIndexes;
+    /**
+     * Number format strings by the style index for XLSX files.
+     */
+    private final String[] styleFormatStrings;
+
+    /**
+     * Constructor for ExcelWorkbookInfo.
+     *
+     * @param  lastModified        File modification time when the file was read.
+     * @param  size                File size when the file was read.
+     * @param  sheetCount          Number of sheets or -1 if not known.
+     * @param  date1904            If <code>true</code>, the workbook uses the 1904 date system.
+     * @param  sharedStrings       Shared strings for XLSX files.
+     * @param  styleFormatIndexes  Number format indexes by the style index for XLSX files.
+     * @param  styleFormatStrings  Number format strings by the style index for XLSX files.
+     */
+    public ExcelWorkbookInfo(long lastModified, long size, int sheetCount, boolean date1904,
+                             ReadOnlySharedStringsTable sharedStrings, int[] styleFormatIndexes,
+                             String[] styleFormatStrings)
+    {
+        this.lastModified = lastModified;
+        this.size = size;
+        this.sheetCount = sheetCount;
+        this.date1904 = date1904;
+        this.sharedStrings = sharedStrings;
+        this.styleFormatIndexes = styleFormatIndexes;
+        this.styleFormatStrings = styleFormatStrings;
+    }
+
+    /**
+     * Returns the shared strings.
+     *
+     * @return  Shared strings or <code>null</code> for XLS files.
+     */
+    public ReadOnlySharedStringsTable getSharedStrings()
+    {
+        return sharedStrings;
+    }
+
+    /**
+     * Returns the number of sheets.
+     *
+     * @return  Number of sheets or -1 if not known.
+     */
+    public int getSheetCount()
+    {
+        return sheetCount;
+    }
+
+    /**
+     * Returns the number format indexes by the style index.
+     *
+     * @return  Format indexes or <code>null</code> for XLS files.
+     */
+    public int[] getStyleFormatIndexes()
+    {
+        return styleFormatIndexes;
+    }
+
+    /**
+     * Returns the number format strings by the style index.
+     *
+     * @return  Format strings or <code>null</code> for XLS files.
+     */
+    public String[] getStyleFormatStrings()
+    {
+        return styleFormatStrings;
+    }
+
+    /**
+     * Returns <code>true</code> if the workbook uses the 1904 date system.
+     *
+     * @return  <code>true</code> for the 1904 date system.
+     */
+    public boolean isDate1904()
+    {
+        return date1904;
+    }
+
+    /**
+     * Checks if this information is still valid for the file.
+     *
+     * @param   file  Excel file.
+     *
+     * @return  <code>true</code> if the file has not been modified.
+     */
+    public boolean isValidFor(File file)
+    {
+        return (lastModified == file.lastModified()) && (size == file.length());
+    }
+}
@@ -0,0 +1,99 @@
+/**
+ * Copyright 2005 Cordys R&D B.V. 
+ * 
+ * This file is part of the Cordys File Connector. 
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+ package com.cordys.coe.ac.fileconnector.utils.excel;
+
+import java.io.File;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Bounded LRU cache for the workbook metadata. The entries are keyed by the file path and are
+ * valid as long as the file modification time and size stay the same. The cached objects are
+ * immutable, so they can be used by several threads at the same time.
+ *
+ * @author  mpoyhone
+ */
+public class ExcelWorkbookInfoCache
+{
+    /**
+     * Cached entries in the LRU order. Key is the absolute file path.
+     */
+    private LinkedHashMap<String, ExcelWorkbookInfo> entries;
+
+    /**
+     * Constructor for ExcelWorkbookInfoCache.
+     *
+     * @param  maxEntries  Maximum number of cached files.
+     */
+    public ExcelWorkbookInfoCache(final int maxEntries)
+    {
+        entries = new LinkedHashMap<String, ExcelWorkbookInfo>(16, 0.75f, true)
+        {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, ExcelWorkbookInfo> eldest)
+            {
+                return size() > maxEntries;
+            }
+        };
+    }
+
+    /**
+     * Removes all entries from the cache.
+     */
+    public synchronized void clear()
+    {
+        entries.clear();
+    }
+
+    /**
+     * Returns the cached information for the file.
+     *
+     * @param   file  Excel file.
+     *
+     * @return  Cached information or <code>null</code> if the file is not in the cache or it has
+     *          been modified.
+     */
+    public synchronized ExcelWorkbookInfo get(File file)
+    {
+        String key = file.getAbsolutePath();
+        ExcelWorkbookInfo info = entries.get(key);
+
+        if ((info != null) && !info.isValidFor(file))
+        {
+            // File has been modified.
+            entries.remove(key);
+            return null;
+        }
+
+        return info;
+    }
+
+    /**
+     * Adds the information to the cache.
+     *
+     * @param  file  Excel file.
+     * @param  info  Workbook information.
+     */
+    public synchronized void put(File file, ExcelWorkbookInfo info)
+    {
+        entries.put(file.getAbsolutePath(), info);
+    }
+}
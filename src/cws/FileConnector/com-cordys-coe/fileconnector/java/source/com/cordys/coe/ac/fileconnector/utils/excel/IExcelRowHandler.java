@@ -0,0 +1,53 @@
+/**
+ * Copyright 2005 Cordys R&D B.V. 
+ * 
+ * This file is part of the Cordys File Connector. 
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+ package com.cordys.coe.ac.fileconnector.utils.excel;
+
+import com.cordys.coe.ac.fileconnector.exception.FileException;
+
+/**
+ * Callback interface for the rows read by ExcelEventReader.
+ *
+ * @author  mpoyhone
+ */
+public interface IExcelRowHandler
+{
+    /**
+     * Called when a sheet is started, before any rows of the sheet.
+     *
+     * @param   sheetIndex   Sheet index starting from zero.
+     * @param   columnCount  Number of columns from the sheet dimensions or -1 if the sheet has no
+     *                       dimension information.
+     *
+     * @throws  FileException  Thrown if the sheet cannot be handled. This stops the reading.
+     */
+    void startSheet(int sheetIndex, int columnCount)
+             throws FileException;
+
+    /**
+     * Called for each row in the requested row range. Missing rows are passed with empty values.
+     *
+     * @param   sheetIndex  Sheet index starting from zero.
+     * @param   rowIndex    Row index starting from zero.
+     * @param   values      Cell values for the requested columns. The array is reused for the next
+     *                      row.
+     *
+     * @throws  FileException  Thrown if the row cannot be handled. This stops the reading.
+     */
+    void handleRow(int sheetIndex, int rowIndex, String[] values)
+            throws FileException;
+}
@@ -0,0 +1,382 @@
+/**
+ * Copyright 2005 Cordys R&D B.V. 
+ * 
+ * This file is part of the Cordys File Connector. 
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+ package com.cordys.coe.ac.fileconnector.utils.excel;
+
+import com.cordys.coe.ac.fileconnector.exception.FileException;
+import com.cordys.coe.util.FileUtils;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.InputStream;
+
+import org.apache.poi.hssf.eventusermodel.AbortableHSSFListener;
+import org.apache.poi.hssf.eventusermodel.EventWorkbookBuilder.SheetRecordCollectingListener;
+import org.apache.poi.hssf.eventusermodel.FormatTrackingHSSFListener;
+import org.apache.poi.hssf.eventusermodel.HSSFEventFactory;
+import org.apache.poi.hssf.eventusermodel.HSSFRequest;
+import org.apache.poi.hssf.eventusermodel.HSSFUserException;
+import org.apache.poi.hssf.model.HSSFFormulaParser;
+import org.apache.poi.hssf.record.BOFRecord;
+import org.apache.poi.hssf.record.BoolErrRecord;
+import org.apache.poi.hssf.record.CellValueRecordInterface;
+import org.apache.poi.hssf.record.DateWindow1904Record;
+import org.apache.poi.hssf.record.DimensionsRecord;
+import org.apache.poi.hssf.record.EOFRecord;
+import org.apache.poi.hssf.record.FormulaRecord;
+import org.apache.poi.hssf.record.LabelRecord;
+import org.apache.poi.hssf.record.LabelSSTRecord;
+import org.apache.poi.hssf.record.NumberRecord;
+import org.apache.poi.hssf.record.Record;
+import org.apache.poi.hssf.usermodel.HSSFWorkbook;
+import org.apache.poi.poifs.filesystem.POIFSFileSystem;
+
+/**
+ * Event based reader for XLS files. The workbook records are processed as they are read from the
+ * file and processing is aborted when the requested rows have been read.
+ *
+ * @author  mpoyhone
+ */
+public class XlsEventReader extends ExcelEventReader
+{
+    /**
+     * Constructor for XlsEventReader.
+     *
+     * @param  file  XLS file.
+     */
+    public XlsEventReader(File file)
+    {
+        super(file);
+    }
+
+    /**
+     * @see  com.cordys.coe.ac.fileconnector.utils.excel.ExcelEventReader#readSheets()
+     */
+    @Override
+    protected int readSheets()
+                      throws Exception
+    {
+        InputStream in = new FileInputStream(file);
+
+        try
+        {
+            POIFSFileSystem fs = new POIFSFileSystem(in);
+            RecordListener listener = new RecordListener();
+            HSSFRequest request = new HSSFRequest();
+
+            request.addListenerForAllRecords(listener);
+            new HSSFEventFactory().abortableProcessWorkbookEvents(request, fs);
+
+            if (listener.error != null)
+            {
+                throw listener.error;
+            }
+
+            ExcelWorkbookInfo info = getWorkbookInfo();
+
+            if ((info == null) || (!listener.aborted && (info.getSheetCount() < 0)))
+            {
+                // The sheet count is known only if all sheets were seen.
+                int sheetCount = listener.aborted ? -1 : (listener.sheetIndex + 1);
+
+                setWorkbookInfo(new ExcelWorkbookInfo(fileLastModified, fileSize, sheetCount,
+                                                      date1904, null, null, null));
+            }
+
+            return listener.sheetIndex + 1;
+        }
+        finally
+        {
+            FileUtils.closeStream(in);
+        }
+    }
+
+    /**
+     * Listener for the workbook records. The format tracking and sheet record collecting listeners
+     * are called directly, so that the abort status is not lost.
+     *
+     * @author  mpoyhone
+     */
+    private class RecordListener extends AbortableHSSFListener
+    {
+        /**
+         * If <code>true</code>, the processing was aborted before the end of the workbook.
+         */
+        private boolean aborted;
+        /**
+         * Contains the error thrown by the row handler.
+         */
+        private FileException error;
+        /**
+         * Tracks the cell formats.
+         */
+        private FormatTrackingHSSFListener formats = new FormatTrackingHSSFListener(null);
+        /**
+         * If <code>true</code>, the current sheet is being read.
+         */
+        private boolean inSheet;
+        /**
+         * Row index of the values being collected or -1.
+         */
+        private int rowIndex = -1;
+        /**
+         * If <code>true</code>, the rest of the current sheet is skipped.
+         */
+        private boolean sheetDone;
+        /**
+         * Current sheet index.
+         */
+        private int sheetIndex = -1;
+        /**
+         * If <code>true</code>, startSheet() has been called for the current sheet.
+         */
+        private boolean sheetStarted;
+        /**
+         * Collects the workbook records needed for formula parsing.
+         */
+        private SheetRecordCollectingListener sheetRecords = new SheetRecordCollectingListener(null);
+        /**
+         * Stub workbook for formula parsing. Created when needed.
+         */
+        private HSSFWorkbook stubWorkbook;
+        /**
+         * Values of the current row.
+         */
+        private String[] values = newRowValues();
+
+        /**
+         * @see  org.apache.poi.hssf.eventusermodel.AbortableHSSFListener#abortableProcessRecord(org.apache.poi.hssf.record.Record)
+         */
+        @Override
+        public short abortableProcessRecord(Record record)
+                                     throws HSSFUserException
+        {
+            formats.processRecordInternally(record);
+            sheetRecords.processRecordInternally(record);
+
+            try
+            {
+                if (handleRecord(record))
+                {
+                    return 0;
+                }
+            }
+            catch (FileException e)
+            {
+                error = e;
+            }
+
+            aborted = true;
+
+            return 1;
+        }
+
+        /**
+         * Flushes the current row to the handler.
+         *
+         * @return  <code>false</code> if the reading can be stopped.
+         *
+         * @throws  FileException  Thrown by the handler.
+         */
+        private boolean flushRow()
+                          throws FileException
+        {
+            if (rowIndex < 0)
+            {
+                return true;
+            }
+
+            boolean res = handleRow(rowIndex, values);
+
+            rowIndex = -1;
+            clearRowValues(values);
+
+            if (!res)
+            {
+                sheetDone = true;
+
+                return !isLastSheet(sheetIndex);
+            }
+
+            return true;
+        }
+
+        /**
+         * Returns the cell value as a string.
+         *
+         * @param   record  Cell record.
+         *
+         * @return  Cell value or <code>null</code> if the record is not a cell value.
+         */
+        private String getCellValue(Record record)
+        {
+            switch (record.getSid())
+            {
+                case NumberRecord.sid:
+                {
+                    NumberRecord number = (NumberRecord) record;
+
+                    return formatNumber(number.getValue(), formats.getFormatIndex(number),
+                                        formats.getFormatString(number));
+                }
+
+                case LabelSSTRecord.sid:
+                {
+                    LabelSSTRecord label = (LabelSSTRecord) record;
+
+                    return sheetRecords.getSSTRecord().getString(label.getSSTIndex()).getString();
+                }
+
+                case LabelRecord.sid:
+                    return ((LabelRecord) record).getValue();
+
+                case BoolErrRecord.sid:
+                {
+                    BoolErrRecord boolErr = (BoolErrRecord) record;
+
+                    return boolErr.isBoolean() ? Boolean.toString(boolErr.getBooleanValue()) : "";
+                }
+
+                case FormulaRecord.sid:
+                {
+                    FormulaRecord formula = (FormulaRecord) record;
+
+                    try
+                    {
+                        if (stubWorkbook == null)
+                        {
+                            stubWorkbook = sheetRecords.getStubHSSFWorkbook();
+                        }
+
+                        return HSSFFormulaParser.toFormulaString(stubWorkbook,
+                                                                 formula.getParsedExpression());
+                    }
+                    catch (RuntimeException e)
+                    {
+                        // Shared formulas cannot be parsed from the record, so return the
+                        // cached value.
+                        return formatNumber(formula.getValue(), formats.getFormatIndex(formula),
+                                            formats.getFormatString(formula));
+                    }
+                }
+            }
+
+            return null;
+        }
+
+        /**
+         * Processes one record.
+         *
+         * @param   record  Record.
+         *
+         * @return  <code>false</code> if the reading can be stopped.
+         *
+         * @throws  FileException  Thrown by the handler.
+         */
+        private boolean handleRecord(Record record)
+                              throws FileException
+        {
+            switch (record.getSid())
+            {
+                case DateWindow1904Record.sid:
+                    date1904 = ((DateWindow1904Record) record).getWindowing() == 1;
+                    return true;
+
+                case BOFRecord.sid:
+                    if (((BOFRecord) record).getType() == BOFRecord.TYPE_WORKSHEET)
+                    {
+                        sheetIndex++;
+                        inSheet = isSheetIncluded(sheetIndex);
+                        sheetDone = false;
+                        sheetStarted = false;
+                    }
+                    return true;
+
+                case EOFRecord.sid:
+                    if (!inSheet)
+                    {
+                        return true;
+                    }
+
+                    if (!sheetDone)
+                    {
+                        if (!sheetStarted)
+                        {
+                            startSheet(sheetIndex, -1);
+                        }
+
+                        flushRow();
+                    }
+
+                    inSheet = false;
+                    endSheet();
+
+                    return !isLastSheet(sheetIndex);
+
+                case DimensionsRecord.sid:
+                    if (inSheet && !sheetStarted)
+                    {
+                        startSheet(sheetIndex, ((DimensionsRecord) record).getLastCol());
+                        sheetStarted = true;
+                    }
+                    return true;
+            }
+
+            if (!inSheet || sheetDone || !(record instanceof CellValueRecordInterface))
+            {
+                return true;
+            }
+
+            if (!sheetStarted)
+            {
+                startSheet(sheetIndex, -1);
+                sheetStarted = true;
+            }
+
+            CellValueRecordInterface cell = (CellValueRecordInterface) record;
+
+            if (cell.getRow() != rowIndex)
+            {
+                if (!flushRow())
+                {
+                    return false;
+                }
+
+                if (sheetDone)
+                {
+                    return true;
+                }
+
+                rowIndex = cell.getRow();
+            }
+
+            int slot = getSlot(cell.getColumn());
+
+            if (slot >= 0)
+            {
+                String value = getCellValue(record);
+
+                if (value != null)
+                {
+                    values[slot] = value;
+                }
+            }
+
+            return true;
+        }
+    }
+}
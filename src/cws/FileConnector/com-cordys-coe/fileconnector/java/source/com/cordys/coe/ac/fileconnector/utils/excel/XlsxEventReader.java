@@ -0,0 +1,497 @@
+/**
+ * Copyright 2005 Cordys R&D B.V. 
+ * 
+ * This file is part of the Cordys File Connector. 
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+ package com.cordys.coe.ac.fileconnector.utils.excel;
+
+import com.cordys.coe.util.FileUtils;
+
+import java.io.File;
+import java.io.InputStream;
+
+import java.util.Iterator;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+import org.apache.poi.openxml4j.opc.OPCPackage;
+import org.apache.poi.openxml4j.opc.PackageAccess;
+import org.apache.poi.xssf.eventusermodel.ReadOnlySharedStringsTable;
+import org.apache.poi.xssf.eventusermodel.XSSFReader;
+import org.apache.poi.xssf.model.StylesTable;
+import org.apache.poi.xssf.usermodel.XSSFCellStyle;
+
+/**
+ * Event based reader for XLSX files. The sheet XML is parsed with a StAX reader and only the
+ * shared strings table and the styles are kept in memory.
+ *
+ * @author  mpoyhone
+ */
+public class XlsxEventReader extends ExcelEventReader
+{
+    /**
+     * Shared XML input factory.
+     */
+    private static XMLInputFactory inputFactory;
+    /**
+     * Shared strings of the workbook. Loaded when the first sheet is read.
+     */
+    private ReadOnlySharedStringsTable sharedStrings;
+    /**
+     * Number format indexes by the style index.
+     */
+    private int[] styleFormatIndexes;
+    /**
+     * Number format strings by the style index.
+     */
+    private String[] styleFormatStrings;
+
+    /**
+     * Constructor for XlsxEventReader.
+     *
+     * @param  file  XLSX file.
+     */
+    public XlsxEventReader(File file)
+    {
+        super(file);
+    }
+
+    /**
+     * Returns the shared XML input factory.
+     *
+     * @return  Input factory.
+     */
+    private static synchronized XMLInputFactory getInputFactory()
+    {
+        if (inputFactory == null)
+        {
+            inputFactory = XMLInputFactory.newInstance();
+            inputFactory.setProperty(XMLInputFactory.SUPPORT_DTD, Boolean.FALSE);
+        }
+
+        return inputFactory;
+    }
+
+    /**
+     * Parses a column index from a cell reference, e.g. AB12.
+     *
+     * @param   ref  Cell reference.
+     *
+     * @return  Column index starting from zero.
+     */
+    private static int parseColumn(String ref)
+    {
+        int res = 0;
+
+        for (int i = 0; i < ref.length(); i++)
+        {
+            char ch = ref.charAt(i);
+
+            if ((ch < 'A') || (ch > 'Z'))
+            {
+                break;
+            }
+
+            res = (res * 26) + (ch - 'A' + 1);
+        }
+
+        return res - 1;
+    }
+
+    /**
+     * @see  com.cordys.coe.ac.fileconnector.utils.excel.ExcelEventReader#readSheets()
+     */
+    @Override
+    protected int readSheets()
+                      throws Exception
+    {
+        OPCPackage pkg = OPCPackage.open(file.getPath(), PackageAccess.READ);
+
+        try
+        {
+            XSSFReader reader = new XSSFReader(pkg);
+            ExcelWorkbookInfo info = getWorkbookInfo();
+
+            if ((info == null) || (info.getSharedStrings() == null))
+            {
+                int sheetCount = readWorkbookProperties(reader.getWorkbookData());
+
+                loadStyles(reader.getStylesTable());
+                sharedStrings = new ReadOnlySharedStringsTable(pkg);
+
+                setWorkbookInfo(new ExcelWorkbookInfo(fileLastModified, fileSize, sheetCount,
+                                                      date1904, sharedStrings,
+                                                      styleFormatIndexes, styleFormatStrings));
+            }
+            else
+            {
+                // Use the metadata from a previous read.
+                date1904 = info.isDate1904();
+                sharedStrings = info.getSharedStrings();
+                styleFormatIndexes = info.getStyleFormatIndexes();
+                styleFormatStrings = info.getStyleFormatStrings();
+            }
+
+            Iterator<InputStream> iter = reader.getSheetsData();
+            int index = 0;
+
+            while (iter.hasNext())
+            {
+                InputStream in = iter.next();
+
+                try
+                {
+                    if (isSheetIncluded(index))
+                    {
+                        readSheet(index, in);
+                    }
+                }
+                finally
+                {
+                    FileUtils.closeStream(in);
+                }
+
+                index++;
+
+                if (isLastSheet(index - 1))
+                {
+                    break;
+                }
+            }
+
+            return index;
+        }
+        finally
+        {
+            // The package is opened read-only, so it must not be saved.
+            pkg.revert();
+        }
+    }
+
+    /**
+     * Returns the cell value as a string.
+     *
+     * @param   type     Cell type attribute.
+     * @param   style    Cell style index.
+     * @param   value    Cell value.
+     * @param   formula  Cell formula.
+     * @param   inline   Inline string value.
+     *
+     * @return  Cell value.
+     */
+    private String getCellValue(String type, int style, String value, String formula,
+                                String inline)
+    {
+        if ((formula != null) && (formula.length() > 0))
+        {
+            return formula;
+        }
+
+        if ("inlineStr".equals(type))
+        {
+            return (inline != null) ? inline : "";
+        }
+
+        if ((value == null) || (value.length() == 0))
+        {
+            return "";
+        }
+
+        if ("s".equals(type))
+        {
+            return sharedStrings.getEntryAt(Integer.parseInt(value.trim()));
+        }
+
+        if ("b".equals(type))
+        {
+            return Boolean.toString("1".equals(value.trim()));
+        }
+
+        if ("e".equals(type))
+        {
+            return "";
+        }
+
+        if ("str".equals(type))
+        {
+            return value;
+        }
+
+        double number;
+
+        try
+        {
+            number = Double.parseDouble(value);
+        }
+        catch (NumberFormatException e)
+        {
+            return value;
+        }
+
+        if ((style < 0) || (style >= styleFormatStrings.length))
+        {
+            // Invalid style index, so use the general format.
+            return formatNumber(number, 0, "General");
+        }
+
+        return formatNumber(number, styleFormatIndexes[style], styleFormatStrings[style]);
+    }
+
+    /**
+     * Loads the number formats of all cell styles.
+     *
+     * @param  styles  Styles of the workbook. Can be <code>null</code>.
+     */
+    private void loadStyles(StylesTable styles)
+    {
+        int count = (styles != null) ? styles.getNumCellStyles() : 0;
+
+        styleFormatIndexes = new int[count];
+        styleFormatStrings = new String[count];
+
+        for (int i = 0; i < count; i++)
+        {
+            int formatIndex = 0;
+            String formatString = null;
+
+            try
+            {
+                XSSFCellStyle cellStyle = styles.getStyleAt(i);
+
+                formatIndex = cellStyle.getDataFormat();
+                formatString = cellStyle.getDataFormatString();
+            }
+            catch (RuntimeException ignored)
+            {
+                // Invalid style, so use the general format.
+            }
+
+            styleFormatIndexes[i] = formatIndex;
+            styleFormatStrings[i] = (formatString != null) ? formatString : "General";
+        }
+    }
+
+    /**
+     * Reads one sheet.
+     *
+     * @param   index  Sheet index.
+     * @param   in     Sheet XML data.
+     *
+     * @throws  Exception  Thrown if the reading failed.
+     */
+    private void readSheet(int index, InputStream in)
+                    throws Exception
+    {
+        XMLStreamReader xr = getInputFactory().createXMLStreamReader(in);
+        boolean started = false;
+
+        try
+        {
+            String[] values = newRowValues();
+            int rowIndex = -1;
+            int column = -1;
+            String cellType = null;
+            int cellStyle = 0;
+            String cellValue = null;
+            String formula = null;
+            StringBuilder inline = null;
+
+            while (xr.hasNext())
+            {
+                int event = xr.next();
+
+                if (event == XMLStreamConstants.START_ELEMENT)
+                {
+                    String name = xr.getLocalName();
+
+                    if ("c".equals(name))
+                    {
+                        String ref = xr.getAttributeValue(null, "r");
+                        String style = xr.getAttributeValue(null, "s");
+
+                        column = (ref != null) ? parseColumn(ref) : (column + 1);
+                        cellType = xr.getAttributeValue(null, "t");
+                        cellStyle = (style != null) ? Integer.parseInt(style) : 0;
+                        cellValue = null;
+                        formula = null;
+                        inline = null;
+                    }
+                    else if ("v".equals(name))
+                    {
+                        cellValue = xr.getElementText();
+                    }
+                    else if ("f".equals(name))
+                    {
+                        formula = xr.getElementText();
+                    }
+                    else if ("is".equals(name))
+                    {
+                        inline = new StringBuilder();
+                    }
+                    else if ("t".equals(name) && (inline != null))
+                    {
+                        inline.append(xr.getElementText());
+                    }
+                    else if ("row".equals(name))
+                    {
+                        String ref = xr.getAttributeValue(null, "r");
+
+                        rowIndex = (ref != null) ? (Integer.parseInt(ref) - 1) : (rowIndex + 1);
+                        column = -1;
+                        clearRowValues(values);
+                    }
+                    else if ("dimension".equals(name))
+                    {
+                        String ref = xr.getAttributeValue(null, "ref");
+                        int columnCount = -1;
+
+                        // Some writers put only "A1" here, so a single cell is not trusted.
+                        if ((ref != null) && (ref.indexOf(':') > 0))
+                        {
+                            columnCount = parseColumn(ref.substring(ref.indexOf(':') + 1)) + 1;
+                        }
+
+                        startSheet(index, columnCount);
+                        started = true;
+                    }
+                    else if ("sheetData".equals(name) && !started)
+                    {
+                        startSheet(index, -1);
+                        started = true;
+                    }
+                    else if ("rPh".equals(name))
+                    {
+                        // Skip the phonetic text of inline strings.
+                        skipElement(xr);
+                    }
+                }
+                else if (event == XMLStreamConstants.END_ELEMENT)
+                {
+                    String name = xr.getLocalName();
+
+                    if ("c".equals(name))
+                    {
+                        int slot = getSlot(column);
+
+                        if (slot >= 0)
+                        {
+                            values[slot] = getCellValue(cellType, cellStyle, cellValue, formula,
+                                                        (inline != null) ? inline.toString()
+                                                                         : null);
+                        }
+                    }
+                    else if ("row".equals(name))
+                    {
+                        if (!handleRow(rowIndex, values))
+                        {
+                            break;
+                        }
+                    }
+                    else if ("sheetData".equals(name))
+                    {
+                        break;
+                    }
+                }
+            }
+
+            if (!started)
+            {
+                startSheet(index, -1);
+            }
+        }
+        finally
+        {
+            endSheet();
+            xr.close();
+        }
+    }
+
+    /**
+     * Reads the workbook properties (the date system) and counts the sheets.
+     *
+     * @param   in  Workbook XML data.
+     *
+     * @return  Number of sheets.
+     *
+     * @throws  XMLStreamException  Thrown if the parsing failed.
+     */
+    private int readWorkbookProperties(InputStream in)
+                                throws XMLStreamException
+    {
+        XMLStreamReader xr = getInputFactory().createXMLStreamReader(in);
+        int sheetCount = 0;
+
+        try
+        {
+            while (xr.hasNext())
+            {
+                if (xr.next() != XMLStreamConstants.START_ELEMENT)
+                {
+                    continue;
+                }
+
+                String name = xr.getLocalName();
+
+                if ("workbookPr".equals(name))
+                {
+                    String value = xr.getAttributeValue(null, "date1904");
+
+                    date1904 = "1".equals(value) || "true".equals(value);
+                }
+                else if ("sheet".equals(name))
+                {
+                    sheetCount++;
+                }
+            }
+        }
+        finally
+        {
+            xr.close();
+            FileUtils.closeStream(in);
+        }
+
+        return sheetCount;
+    }
+
+    /**
+     * Skips the current element.
+     *
+     * @param   xr  XML stream reader positioned at a start element.
+     *
+     * @throws  XMLStreamException  Thrown if the parsing failed.
+     */
+    private void skipElement(XMLStreamReader xr)
+                      throws XMLStreamException
+    {
+        int depth = 1;
+
+        while ((depth > 0) && xr.hasNext())
+        {
+            int event = xr.next();
+
+            if (event == XMLStreamConstants.START_ELEMENT)
+            {
+                depth++;
+            }
+            else if (event == XMLStreamConstants.END_ELEMENT)
+            {
+                depth--;
+            }
+        }
+    }
+}
@@ -0,0 +1,386 @@
+/**
+ * Copyright 2005 Cordys R&D B.V. 
+ * 
+ * This file is part of the Cordys File Connector. 
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+ package com.cordys.coe.ac.fileconnector.utils.excel;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * Writes an XLSX workbook with a single sheet as a stream. The package parts are written to the
+ * zip file in order and the rows are written directly to the sheet XML, so only the current row
+ * is kept in memory regardless of the number of rows. Strings are written as inline strings, so
+ * no shared string table is needed.
+ *
+ * <p>Usage:</p>
+ *
+ * <pre>
+   XlsxStreamWriter writer = new XlsxStreamWriter(out, "Sheet1");
+
+   writer.writeRow(new String[] { "100", "Test" }, new boolean[] { true, false });
+   writer.finish();
+ * </pre>
+ *
+ * @author  mpoyhone
+ */
+public class XlsxStreamWriter
+{
+    /**
+     * Maximum number of columns in a sheet.
+     */
+    public static final int MAX_COLUMNS = 16384;
+    /**
+     * Maximum number of rows in a sheet.
+     */
+    public static final int MAX_ROWS = 1048576;
+    /**
+     * XML declaration for all parts.
+     */
+    private static final String XML_DECL = "<?xml version=\"1.0\" encoding=\"UTF-8\" standalone=\"yes\"?>\n";
+    /**
+     * Content types of the package parts.
+     */
+    private static final String CONTENT_TYPES = XML_DECL +
+                                                "<Types xmlns=\"http://schemas.openxmlformats.org/package/2006/content-types\">" +
+                                                "<Default Extension=\"rels\" ContentType=\"application/vnd.openxmlformats-package.relationships+xml\"/>" +
+                                                "<Default Extension=\"xml\" ContentType=\"application/xml\"/>" +
+                                                "<Override PartName=\"/xl/workbook.xml\" ContentType=\"application/vnd.openxmlformats-officedocument.spreadsheetml.sheet.main+xml\"/>" +
+                                                "<Override PartName=\"/xl/styles.xml\" ContentType=\"application/vnd.openxmlformats-officedocument.spreadsheetml.styles+xml\"/>" +
+                                                "<Override PartName=\"/xl/worksheets/sheet1.xml\" ContentType=\"application/vnd.openxmlformats-officedocument.spreadsheetml.worksheet+xml\"/>" +
+                                                "</Types>";
+    /**
+     * Package relationships.
+     */
+    private static final String PACKAGE_RELS = XML_DECL +
+                                               "<Relationships xmlns=\"http://schemas.openxmlformats.org/package/2006/relationships\">" +
+                                               "<Relationship Id=\"rId1\" Type=\"http://schemas.openxmlformats.org/officeDocument/2006/relationships/officeDocument\" Target=\"xl/workbook.xml\"/>" +
+                                               "</Relationships>";
+    /**
+     * Workbook relationships.
+     */
+    private static final String WORKBOOK_RELS = XML_DECL +
+                                                "<Relationships xmlns=\"http://schemas.openxmlformats.org/package/2006/relationships\">" +
+                                                "<Relationship Id=\"rId1\" Type=\"http://schemas.openxmlformats.org/officeDocument/2006/relationships/worksheet\" Target=\"worksheets/sheet1.xml\"/>" +
+                                                "<Relationship Id=\"rId2\" Type=\"http://schemas.openxmlformats.org/officeDocument/2006/relationships/styles\" Target=\"styles.xml\"/>" +
+                                                "</Relationships>";
+    /**
+     * Minimal styles with the default cell format.
+     */
+    private static final String STYLES = XML_DECL +
+                                         "<styleSheet xmlns=\"http://schemas.openxmlformats.org/spreadsheetml/2006/main\">" +
+                                         "<fonts count=\"1\"><font><sz val=\"11\"/><name val=\"Calibri\"/></font></fonts>" +
+                                         "<fills count=\"2\"><fill><patternFill patternType=\"none\"/></fill><fill><patternFill patternType=\"gray125\"/></fill></fills>" +
+                                         "<borders count=\"1\"><border><left/><right/><top/><bottom/><diagonal/></border></borders>" +
+                                         "<cellStyleXfs count=\"1\"><xf numFmtId=\"0\" fontId=\"0\" fillId=\"0\" borderId=\"0\"/></cellStyleXfs>" +
+                                         "<cellXfs count=\"1\"><xf numFmtId=\"0\" fontId=\"0\" fillId=\"0\" borderId=\"0\" xfId=\"0\"/></cellXfs>" +
+                                         "<cellStyles count=\"1\"><cellStyle name=\"Normal\" xfId=\"0\" builtinId=\"0\"/></cellStyles>" +
+                                         "</styleSheet>";
+    /**
+     * Sheet XML start.
+     */
+    private static final String SHEET_START = XML_DECL +
+                                              "<worksheet xmlns=\"http://schemas.openxmlformats.org/spreadsheetml/2006/main\">" +
+                                              "<sheetData>";
+    /**
+     * Sheet XML end.
+     */
+    private static final String SHEET_END = "</sheetData></worksheet>";
+    /**
+     * Column letters of the previous row. Reused as most rows have the same columns.
+     */
+    private String[] columnNames = new String[0];
+    /**
+     * Number of rows written.
+     */
+    private int rowCount;
+    /**
+     * Writer for the sheet XML.
+     */
+    private Writer sheetWriter;
+    /**
+     * Output zip stream.
+     */
+    private ZipOutputStream zipOut;
+
+    /**
+     * Constructor for XlsxStreamWriter. This writes the workbook parts and starts the sheet.
+     *
+     * @param   out        Output stream. This is not closed by this class.
+     * @param   sheetName  Name of the sheet.
+     *
+     * @throws  IOException  Thrown if the writing failed.
+     */
+    public XlsxStreamWriter(OutputStream out, String sheetName)
+                     throws IOException
+    {
+        zipOut = new ZipOutputStream(out);
+
+        writePart("[Content_Types].xml", CONTENT_TYPES);
+        writePart("_rels/.rels", PACKAGE_RELS);
+        writePart("xl/workbook.xml",
+                  XML_DECL +
+                  "<workbook xmlns=\"http://schemas.openxmlformats.org/spreadsheetml/2006/main\" " +
+                  "xmlns:r=\"http://schemas.openxmlformats.org/officeDocument/2006/relationships\">" +
+                  "<sheets><sheet name=\"" + escape(sheetName) + "\" sheetId=\"1\" r:id=\"rId1\"/>" +
+                  "</sheets></workbook>");
+        writePart("xl/_rels/workbook.xml.rels", WORKBOOK_RELS);
+        writePart("xl/styles.xml", STYLES);
+
+        zipOut.putNextEntry(new ZipEntry("xl/worksheets/sheet1.xml"));
+        sheetWriter = new BufferedWriter(new OutputStreamWriter(zipOut, "UTF-8"), 8192);
+        sheetWriter.write(SHEET_START);
+    }
+
+    /**
+     * Returns the column letters for a column index, e.g. 0 is A and 26 is AA.
+     *
+     * @param   column  Column index starting from zero.
+     *
+     * @return  Column letters.
+     */
+    public static String getColumnName(int column)
+    {
+        StringBuilder sb = new StringBuilder(3);
+
+        for (int i = column + 1; i > 0; i = (i - 1) / 26)
+        {
+            sb.insert(0, (char) ('A' + ((i - 1) % 26)));
+        }
+
+        return sb.toString();
+    }
+
+    /**
+     * Ends the sheet and writes the end of the zip file. The underlying stream is not closed.
+     *
+     * @throws  IOException  Thrown if the writing failed.
+     */
+    public void finish()
+                throws IOException
+    {
+        sheetWriter.write(SHEET_END);
+        sheetWriter.flush();
+        zipOut.closeEntry();
+        zipOut.finish();
+    }
+
+    /**
+     * Returns the number of rows written.
+     *
+     * @return  Row count.
+     */
+    public int getRowCount()
+    {
+        return rowCount;
+    }
+
+    /**
+     * Writes a row to the sheet. Numeric values which cannot be parsed as a number are written as
+     * strings.
+     *
+     * @param   values   Cell values. <code>null</code> values are left empty.
+     * @param   numeric  If set, tells which cells are numbers. Can be <code>null</code>.
+     *
+     * @throws  IOException  Thrown if the writing failed or the sheet is full.
+     */
+    public void writeRow(String[] values, boolean[] numeric)
+                  throws IOException
+    {
+        if (rowCount >= MAX_ROWS)
+        {
+            throw new IOException("The maximum number of rows (" + MAX_ROWS +
+                                  ") in an Excel sheet exceeded.");
+        }
+
+        if (values.length > MAX_COLUMNS)
+        {
+            throw new IOException("The maximum number of columns (" + MAX_COLUMNS +
+                                  ") in an Excel sheet exceeded.");
+        }
+
+        if (values.length > columnNames.length)
+        {
+            String[] newNames = new String[values.length];
+
+            System.arraycopy(columnNames, 0, newNames, 0, columnNames.length);
+
+            for (int i = columnNames.length; i < newNames.length; i++)
+            {
+                newNames[i] = getColumnName(i);
+            }
+
+            columnNames = newNames;
+        }
+
+        String rowNum = Integer.toString(++rowCount);
+
+        sheetWriter.write("<row r=\"");
+        sheetWriter.write(rowNum);
+        sheetWriter.write("\">");
+
+        for (int i = 0; i < values.length; i++)
+        {
+            String value = values[i];
+
+            if (value == null)
+            {
+                continue;
+            }
+
+            sheetWriter.write("<c r=\"");
+            sheetWriter.write(columnNames[i]);
+            sheetWriter.write(rowNum);
+
+            String number = ((numeric != null) && (i < numeric.length) && numeric[i])
+                            ? toNumber(value) : null;
+
+            if (number != null)
+            {
+                sheetWriter.write("\"><v>");
+                sheetWriter.write(number);
+                sheetWriter.write("</v></c>");
+            }
+            else
+            {
+                boolean preserve = (value.length() > 0) &&
+                                   (Character.isWhitespace(value.charAt(0)) ||
+                                    Character.isWhitespace(value.charAt(value.length() - 1)));
+
+                sheetWriter.write(preserve ? "\" t=\"inlineStr\"><is><t xml:space=\"preserve\">"
+                                           : "\" t=\"inlineStr\"><is><t>");
+                sheetWriter.write(escape(value));
+                sheetWriter.write("</t></is></c>");
+            }
+        }
+
+        sheetWriter.write("</row>");
+    }
+
+    /**
+     * Escapes the XML special characters. Characters which are not allowed in XML are removed.
+     *
+     * @param   value  Value to be escaped.
+     *
+     * @return  Escaped value.
+     */
+    private static String escape(String value)
+    {
+        StringBuilder sb = null;
+
+        for (int i = 0; i < value.length(); i++)
+        {
+            char ch = value.charAt(i);
+            String replacement;
+
+            switch (ch)
+            {
+                case '&':
+                    replacement = "&amp;";
+                    break;
+
+                case '<':
+                    replacement = "&lt;";
+                    break;
+
+                case '>':
+                    replacement = "&gt;";
+                    break;
+
+                case '"':
+                    replacement = "&quot;";
+                    break;
+
+                case '\t':
+                case '\n':
+                case '\r':
+                    replacement = null;
+                    break;
+
+                default:
+                    replacement = ((ch < 0x20) || (ch == 0xFFFE) || (ch == 0xFFFF)) ? "" : null;
+                    break;
+            }
+
+            if (replacement != null)
+            {
+                if (sb == null)
+                {
+                    sb = new StringBuilder(value.length() + 16);
+                    sb.append(value, 0, i);
+                }
+
+                sb.append(replacement);
+            }
+            else if (sb != null)
+            {
+                sb.append(ch);
+            }
+        }
+
+        return (sb != null) ? sb.toString() : value;
+    }
+
+    /**
+     * Converts a value to the number format used in the sheet XML.
+     *
+     * @param   value  Value to be converted.
+     *
+     * @return  Number or <code>null</code> if the value is not a finite number.
+     */
+    private static String toNumber(String value)
+    {
+        double d;
+
+        try
+        {
+            d = Double.parseDouble(value.trim());
+        }
+        catch (NumberFormatException e)
+        {
+            return null;
+        }
+
+        if (Double.isNaN(d) || Double.isInfinite(d))
+        {
+            return null;
+        }
+
+        return Double.toString(d);
+    }
+
+    /**
+     * Writes a complete package part.
+     *
+     * @param   name     Part name.
+     * @param   content  Part XML.
+     *
+     * @throws  IOException  Thrown if the writing failed.
+     */
+    private void writePart(String name, String content)
+                    throws IOException
+    {
+        zipOut.putNextEntry(new ZipEntry(name));
+        zipOut.write(content.getBytes("UTF-8"));
+        zipOut.closeEntry();
+    }
+}
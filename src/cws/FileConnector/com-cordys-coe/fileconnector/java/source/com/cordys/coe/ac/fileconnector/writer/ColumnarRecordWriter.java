@@ -0,0 +1,304 @@
+/**
+ * Copyright 2005 Cordys R&D B.V. 
+ * 
+ * This file is part of the Cordys File Connector. 
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+ package com.cordys.coe.ac.fileconnector.writer;
+
+import com.cordys.coe.ac.fileconnector.exception.ConfigException;
+import com.cordys.coe.ac.fileconnector.utils.XPathWrapper;
+
+import java.io.IOException;
+import java.io.Writer;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+
+/**
+ * Record writer for the columnar WriteFileRecords input. Instead of reading the record values from
+ * XML, the values are taken from a row of text fields. The output and input rules are mapped to
+ * the row fields by the last step of their path (e.g. <code>./ID</code> and <code>Record/ID</code>
+ * both map to field <code>ID</code>). Select and foreach elements are transparent as the row has
+ * no structure.
+ *
+ * <p>A row is written like this:</p>
+ *
+ * <pre>
+   ColumnarRecordWriter writer = new ColumnarRecordWriter(config, new String[] { "ID", "Name" });
+
+   writer.writeRecord("csv-sample", new String[] { "100", "Test" }, output);
+ * </pre>
+ *
+ * @author  mpoyhone
+ */
+public class ColumnarRecordWriter extends RecordWriter
+{
+    /**
+     * Dummy node ID which is passed through the record writer methods. This is never used to
+     * access NOM.
+     */
+    private static final int ROW_NODE = -1;
+    /**
+     * Field column indexes mapped by the configured XPath objects.
+     */
+    private Map<XPathWrapper, Integer> mColumnMap = new HashMap<XPathWrapper, Integer>();
+    /**
+     * Field column indexes mapped by the field names.
+     */
+    private Map<String, Integer> mFieldMap = new HashMap<String, Integer>();
+    /**
+     * Contains the current row values.
+     */
+    private String[] saCurrentRow;
+
+    /**
+     * Creates a new ColumnarRecordWriter object.
+     *
+     * @param  wcConfig      The configuration to be used when writing records.
+     * @param  saFieldNames  Field names for the row columns.
+     */
+    public ColumnarRecordWriter(WriterConfig wcConfig, String[] saFieldNames)
+    {
+        super(wcConfig);
+
+        for (int i = 0; i < saFieldNames.length; i++)
+        {
+            mFieldMap.put(saFieldNames[i].trim(), i);
+        }
+    }
+
+    /**
+     * Splits a row of the columnar input into fields.
+     *
+     * @param   sLine       Row text.
+     * @param   sSeparator  Field separator. Used when field widths are not set.
+     * @param   iaWidths    Field widths for fixed length rows or <code>null</code>.
+     *
+     * @return  Field values.
+     */
+    public static String[] splitRow(String sLine, String sSeparator, int[] iaWidths)
+    {
+        if (iaWidths == null)
+        {
+            int iCount = 1;
+            int iPos = 0;
+
+            while ((iPos = sLine.indexOf(sSeparator, iPos)) != -1)
+            {
+                iCount++;
+                iPos += sSeparator.length();
+            }
+
+            String[] saRes = new String[iCount];
+            int iStart = 0;
+
+            for (int i = 0; i < (iCount - 1); i++)
+            {
+                int iEnd = sLine.indexOf(sSeparator, iStart);
+
+                saRes[i] = sLine.substring(iStart, iEnd);
+                iStart = iEnd + sSeparator.length();
+            }
+
+            saRes[iCount - 1] = sLine.substring(iStart);
+
+            return saRes;
+        }
+
+        String[] saRes = new String[iaWidths.length];
+        int iStart = 0;
+
+        for (int i = 0; i < iaWidths.length; i++)
+        {
+            if (iStart >= sLine.length())
+            {
+                saRes[i] = "";
+                continue;
+            }
+
+            int iEnd = Math.min(iStart + iaWidths[i], sLine.length());
+
+            saRes[i] = sLine.substring(iStart, iEnd).trim();
+            iStart = iEnd;
+        }
+
+        return saRes;
+    }
+
+    /**
+     * Writes one row to the output writer according to the configuration.
+     *
+     * @param   sFileType  File type in the configuration
+     * @param   saRow      Row field values in the same order as the field names.
+     * @param   wOutput    The output writer object
+     *
+     * @throws  IOException      Thrown if the writing failed.
+     * @throws  ConfigException  Thrown on an invalid configuration
+     */
+    public void writeRecord(String sFileType, String[] saRow, Writer wOutput)
+                     throws IOException, ConfigException
+    {
+        saCurrentRow = saRow;
+
+        try
+        {
+            writeRecord(sFileType, ROW_NODE, wOutput);
+        }
+        finally
+        {
+            saCurrentRow = null;
+        }
+    }
+
+    /**
+     * @see  com.cordys.coe.ac.fileconnector.writer.RecordWriter#findAllNodes(int, com.cordys.coe.ac.fileconnector.utils.XPathWrapper)
+     */
+    @Override
+    protected int[] findAllNodes(int iCurrentNode, XPathWrapper xqQuery)
+    {
+        return new int[] { iCurrentNode };
+    }
+
+    /**
+     * @see  com.cordys.coe.ac.fileconnector.writer.RecordWriter#findNode(int, com.cordys.coe.ac.fileconnector.utils.XPathWrapper)
+     */
+    @Override
+    protected int findNode(int iCurrentNode, XPathWrapper xqQuery)
+    {
+        return iCurrentNode;
+    }
+
+    /**
+     * @see  com.cordys.coe.ac.fileconnector.writer.RecordWriter#findValue(int, com.cordys.coe.ac.fileconnector.utils.XPathWrapper,
+     *       java.lang.String)
+     */
+    @Override
+    protected String findValue(int iCurrentNode, XPathWrapper xqQuery, String sDefaultValue)
+    {
+        String sValue = getFieldValue(xqQuery);
+
+        return (sValue != null) ? sValue : sDefaultValue;
+    }
+
+    /**
+     * Processes the if-element. Only 'exists' conditions are supported and they check that the
+     * field has a non-empty value.
+     *
+     * @param   iCurrentNode  The current top node.
+     * @param   iIf           The if element that should be handled at this level.
+     * @param   wOutput       Output from output-elements is written to this writer.
+     *
+     * @throws  IOException  Thrown if the writing failed or the condition is not supported.
+     */
+    @Override
+    protected void handleIf(int iCurrentNode, WriterConfig.If iIf, Writer wOutput)
+                     throws IOException
+    {
+        boolean bCondition = true;
+
+        for (Iterator<WriterConfig.Condition> iIter = iIf.lConditions.iterator(); iIter.hasNext();)
+        {
+            WriterConfig.Condition cCond = iIter.next();
+
+            if (!(cCond instanceof WriterConfig.ExistsCondition))
+            {
+                throw new IOException("Condition " + cCond +
+                                      " is not supported for columnar records.");
+            }
+
+            String sValue = getFieldValue(((WriterConfig.ExistsCondition) cCond).xqQuery);
+
+            if ((sValue == null) || (sValue.length() == 0))
+            {
+                bCondition = false;
+                break;
+            }
+        }
+
+        WriterConfig.IfBranch ibBranch = bCondition ? iIf.getThenBranch() : iIf.getElseBranch();
+
+        if ((ibBranch == null) || (ibBranch.sBranchSelect == null))
+        {
+            return;
+        }
+
+        handleSelect(iCurrentNode, ibBranch.sBranchSelect, wOutput, false);
+    }
+
+    /**
+     * @see  com.cordys.coe.ac.fileconnector.writer.RecordWriter#readInput(int, com.cordys.coe.ac.fileconnector.writer.WriterConfig.InputRule,
+     *       java.lang.StringBuffer)
+     */
+    @Override
+    protected void readInput(int iCurrentNode, WriterConfig.InputRule iInput,
+                             StringBuffer sbAppendBuffer)
+                      throws IOException
+    {
+        if ((iInput.xqQuery != null) && (iInput.iInputType != WriterConfig.InputRule.IT_TEXT))
+        {
+            throw new IOException("XML input '" + iInput.sQueryString +
+                                  "' is not supported for columnar records.");
+        }
+
+        super.readInput(iCurrentNode, iInput, sbAppendBuffer);
+    }
+
+    /**
+     * Returns the current row value for the field selected by the XPath.
+     *
+     * @param   xqQuery  Configured XPath.
+     *
+     * @return  Field value or <code>null</code> if the field is not in the input.
+     */
+    private String getFieldValue(XPathWrapper xqQuery)
+    {
+        if ((xqQuery == null) || (saCurrentRow == null))
+        {
+            return null;
+        }
+
+        Integer iColumn = mColumnMap.get(xqQuery);
+
+        if (iColumn == null)
+        {
+            String sPath = xqQuery.getXPath();
+            String sField = sPath.substring(sPath.lastIndexOf('/') + 1);
+
+            if (sField.startsWith("@"))
+            {
+                sField = sField.substring(1);
+            }
+
+            iColumn = mFieldMap.get(sField);
+
+            if (iColumn == null)
+            {
+                iColumn = -1;
+            }
+
+            mColumnMap.put(xqQuery, iColumn);
+        }
+
+        int iIndex = iColumn.intValue();
+
+        if ((iIndex < 0) || (iIndex >= saCurrentRow.length))
+        {
+            return null;
+        }
+
+        return saCurrentRow[iIndex];
+    }
+}
@@ -0,0 +1,128 @@
+/**
+ * Copyright 2005 Cordys R&D B.V. 
+ * 
+ * This file is part of the Cordys File Connector. 
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+ package com.cordys.coe.ac.fileconnector.writer;
+
+import com.cordys.coe.ac.fileconnector.utils.excel.XlsxStreamWriter;
+
+import java.io.IOException;
+import java.io.Writer;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Writer which collects the output of one record as the cells of an Excel row. The record writer
+ * adds a cell for each output element. Any other text written to this writer is added as a
+ * string cell. The row is written to the sheet with <code>writeRow</code>, so an incomplete record
+ * is never written in case of an exception.
+ *
+ * @author  mpoyhone
+ */
+public class ExcelRowWriter extends Writer
+{
+    /**
+     * Numeric flags of the cells in the current row.
+     */
+    private List<Boolean> lNumeric = new ArrayList<Boolean>();
+    /**
+     * Cell values of the current row.
+     */
+    private List<String> lValues = new ArrayList<String>();
+    /**
+     * Sheet writer which receives the rows.
+     */
+    private XlsxStreamWriter xswSheet;
+
+    /**
+     * Creates a new ExcelRowWriter object.
+     *
+     * @param  xswSheet  Sheet writer which receives the rows.
+     */
+    public ExcelRowWriter(XlsxStreamWriter xswSheet)
+    {
+        this.xswSheet = xswSheet;
+    }
+
+    /**
+     * Adds a cell to the current row.
+     *
+     * @param  sValue    Cell value.
+     * @param  bNumeric  If <code>true</code> the value is written as a number if possible.
+     */
+    public void addCell(String sValue, boolean bNumeric)
+    {
+        lValues.add(sValue);
+        lNumeric.add(bNumeric);
+    }
+
+    /**
+     * Removes the cells of the current row.
+     */
+    public void clear()
+    {
+        lValues.clear();
+        lNumeric.clear();
+    }
+
+    /**
+     * @see  java.io.Writer#close()
+     */
+    @Override
+    public void close()
+    {
+    }
+
+    /**
+     * @see  java.io.Writer#flush()
+     */
+    @Override
+    public void flush()
+    {
+    }
+
+    /**
+     * Adds the text as a string cell.
+     *
+     * @see  java.io.Writer#write(char[], int, int)
+     */
+    @Override
+    public void write(char[] cbuf, int off, int len)
+    {
+        addCell(new String(cbuf, off, len), false);
+    }
+
+    /**
+     * Writes the current row to the sheet and starts a new row.
+     *
+     * @throws  IOException  Thrown if the writing failed.
+     */
+    public void writeRow()
+                  throws IOException
+    {
+        String[] saValues = lValues.toArray(new String[lValues.size()]);
+        boolean[] baNumeric = new boolean[saValues.length];
+
+        for (int i = 0; i < baNumeric.length; i++)
+        {
+            baNumeric[i] = lNumeric.get(i);
+        }
+
+        clear();
+        xswSheet.writeRow(saValues, baNumeric);
+    }
+}
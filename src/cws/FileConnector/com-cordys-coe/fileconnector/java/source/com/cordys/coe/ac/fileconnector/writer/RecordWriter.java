@@ -20,6 +20,7 @@
 import com.cordys.coe.ac.fileconnector.LogMessages;
 import com.cordys.coe.ac.fileconnector.exception.ConfigException;
 import com.cordys.coe.ac.fileconnector.utils.DateTimeUtils;
+import com.cordys.coe.ac.fileconnector.utils.XPathWrapper;
 
 import com.eibus.xml.nom.Node;
 
@@ -111,6 +112,49 @@ public class RecordWriter
         }
     }
 
+    /**
+     * Returns all nodes selected by the configured XPath. Subclasses can override this to read
+     * the record data from another source.
+     *
+     * @param   iCurrentNode  The current XML node.
+     * @param   xqQuery       Configured XPath.
+     *
+     * @return  Selected nodes.
+     */
+    protected int[] findAllNodes(int iCurrentNode, XPathWrapper xqQuery)
+    {
+        return xqQuery.findAllNodes(iCurrentNode);
+    }
+
+    /**
+     * Returns the node selected by the configured XPath. Subclasses can override this to read the
+     * record data from another source.
+     *
+     * @param   iCurrentNode  The current XML node.
+     * @param   xqQuery       Configured XPath.
+     *
+     * @return  Selected node or zero if it was not found.
+     */
+    protected int findNode(int iCurrentNode, XPathWrapper xqQuery)
+    {
+        return xqQuery.findNode(iCurrentNode);
+    }
+
+    /**
+     * Returns the value selected by the configured XPath. Subclasses can override this to read
+     * the record data from another source.
+     *
+     * @param   iCurrentNode   The current XML node.
+     * @param   xqQuery        Configured XPath.
+     * @param   sDefaultValue  Value returned when no value was found.
+     *
+     * @return  Selected value or the default value.
+     */
+    protected String findValue(int iCurrentNode, XPathWrapper xqQuery, String sDefaultValue)
+    {
+        return xqQuery.findValue(iCurrentNode, sDefaultValue);
+    }
+
     /**
      * Formats a boolean output field according to the configuration.
      *
@@ -501,7 +545,7 @@ public class RecordWriter
 
         if ((flForLoop.xqQuery != null) && (iCurrentNode != 0))
         {
-            xaElements = flForLoop.xqQuery.findAllNodes(iCurrentNode);
+            xaElements = findAllNodes(iCurrentNode, flForLoop.xqQuery);
         }
 
         if (xaElements == null)
@@ -575,7 +619,7 @@ public class RecordWriter
         {
             if (iCurrentNode != 0)
             {
-                sNodeValue = orOutput.xqQuery.findValue(iCurrentNode, "");
+                sNodeValue = findValue(iCurrentNode, orOutput.xqQuery, "");
             }
         }
         else
@@ -642,8 +686,16 @@ public class RecordWriter
         // Handle the field width and alignment.
         sNodeValue = handleFieldWidth(orOutput, sNodeValue, true);
 
-        // Write the output.
-        wOutput.write(sNodeValue);
+        // Write the output. For Excel output each output element is a separate cell.
+        if (wOutput instanceof ExcelRowWriter)
+        {
+            ((ExcelRowWriter) wOutput).addCell(sNodeValue,
+                                               orOutput.iType == WriterConfig.OutputRule.ORT_FLOAT);
+        }
+        else
+        {
+            wOutput.write(sNodeValue);
+        }
     }
 
     /**
@@ -666,7 +718,7 @@ public class RecordWriter
         if (sSelect.xqQuery != null)
         {
             // Find the node that this select element is referring to.
-            iSelectNode = ((iCurrentNode != 0) ? sSelect.xqQuery.findNode(iCurrentNode) : 0);
+            iSelectNode = ((iCurrentNode != 0) ? findNode(iCurrentNode, sSelect.xqQuery) : 0);
         }
         else
         {
@@ -744,13 +796,13 @@ public class RecordWriter
             {
                 case WriterConfig.InputRule.IT_TEXT:
                     // Use XML node.
-                    sValue = iInput.xqQuery.findValue(iCurrentNode, "");
+                    sValue = findValue(iCurrentNode, iInput.xqQuery, "");
                     break;
 
                 case WriterConfig.InputRule.IT_XML:
                 case WriterConfig.InputRule.IT_XML_FORMATED:
                 {
-                    int iNode = iInput.xqQuery.findNode(iCurrentNode);
+                    int iNode = findNode(iCurrentNode, iInput.xqQuery);
 
                     if (iNode != 0)
                     {
@@ -73,6 +73,10 @@ import java.util.regex.Pattern;
    &lt;/configuration&gt;
  * </pre>
  *
+ * <p>A file type with the attribute <code>format="excel"</code> is
+ * written as an XLSX file. Each record is a row and each output element is a cell. The sheet name
+ * can be set with the <code>sheetname</code> attribute.</p>
+ *
  * @author  mpoyhone
  */
 public class WriterConfig
@@ -334,10 +338,35 @@ public class WriterConfig
      */
     public static class FileType
     {
+        /**
+         * Output format for Excel (XLSX) files. Each record is written as a row and each output
+         * element as a cell.
+         */
+        public static final String FORMAT_EXCEL = "excel";
+        /**
+         * Output format for text files.
+         */
+        public static final String FORMAT_TEXT = "text";
+        /**
+         * Characters that Excel does not allow in sheet names.
+         */
+        private static final String INVALID_SHEET_NAME_CHARS = "[]:*?/\\";
+        /**
+         * Maximum sheet name length allowed by Excel.
+         */
+        private static final int MAX_SHEET_NAME_LENGTH = 31;
+        /**
+         * The output format. Defaults to text.
+         */
+        public String sFormat;
         /**
          * The top level select element.
          */
         public Select sRootSelect = null;
+        /**
+         * Sheet name for the Excel output.
+         */
+        public String sSheetName;
         /**
          * The file type name.
          */
@@ -358,12 +387,25 @@ public class WriterConfig
             try
             {
                 sTypeName = XMLSerializer.readString(iFileTypeNode, "@name");
+                sFormat = XMLSerializer.readString(iFileTypeNode, "@format", FORMAT_TEXT);
+                sSheetName = XMLSerializer.readString(iFileTypeNode, "@sheetname", "Sheet1");
             }
             catch (XMLException e)
             {
                 throw new ConfigException(e,LogMessages.UNABLE_TO_READ_FILE_TYPE_ELEMENT);
             }
 
+            if (!FORMAT_TEXT.equalsIgnoreCase(sFormat) && !FORMAT_EXCEL.equalsIgnoreCase(sFormat))
+            {
+                throw new ConfigException(LogMessages.INVALID_FILE_TYPE_FORMAT, sFormat, sTypeName);
+            }
+
+            // Excel does not open workbooks with invalid sheet names.
+            if (isExcel() && !isValidSheetName(sSheetName))
+            {
+                throw new ConfigException(LogMessages.INVALID_SHEET_NAME, sSheetName);
+            }
+
             // If the root select does not exist, create it now.
             if (sRootSelect == null)
             {
@@ -376,6 +418,46 @@ public class WriterConfig
             sRootSelect.parseSelect(iFileTypeNode, xpathFactory);
         }
 
+        /**
+         * Returns <code>true</code> if the records are written as an Excel file.
+         *
+         * @return  <code>true</code> for the Excel output format.
+         */
+        public boolean isExcel()
+        {
+            return FORMAT_EXCEL.equalsIgnoreCase(sFormat);
+        }
+
+        /**
+         * Checks that the name can be used as an Excel sheet name.
+         *
+         * @param   sName  Sheet name.
+         *
+         * @return  <code>true</code> if the name is valid.
+         */
+        private static boolean isValidSheetName(String sName)
+        {
+            if ((sName.length() == 0) || (sName.length() > MAX_SHEET_NAME_LENGTH))
+            {
+                return false;
+            }
+
+            if ((sName.charAt(0) == '\'') || (sName.charAt(sName.length() - 1) == '\''))
+            {
+                return false;
+            }
+
+            for (int i = 0; i < sName.length(); i++)
+            {
+                if (INVALID_SHEET_NAME_CHARS.indexOf(sName.charAt(i)) >= 0)
+                {
+                    return false;
+                }
+            }
+
+            return true;
+        }
+
         /**
          * Converts this element as string.
          *
@@ -384,7 +466,7 @@ public class WriterConfig
         @Override
         public String toString()
         {
-            return "FileType [name=" + sTypeName + "] " + sRootSelect;
+            return "FileType [name=" + sTypeName + ", format=" + sFormat + "] " + sRootSelect;
         }
     }
 
@@ -710,6 +792,26 @@ public class WriterConfig
             }
         }
 
+        /**
+         * Returns the 'else' branch.
+         *
+         * @return  The 'else' branch or <code>null</code> if it is not set.
+         */
+        public IfBranch getElseBranch()
+        {
+            return ibElseRule;
+        }
+
+        /**
+         * Returns the 'then' branch.
+         *
+         * @return  The 'then' branch or <code>null</code> if it is not set.
+         */
+        public IfBranch getThenBranch()
+        {
+            return ibThenRule;
+        }
+
         /**
          * Parses the if element.
          *